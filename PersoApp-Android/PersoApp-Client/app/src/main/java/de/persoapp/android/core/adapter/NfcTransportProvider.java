@@ -62,12 +62,14 @@ import net.vrallev.android.base.util.Cat;
 import net.vrallev.android.base.util.IoUtils;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.smartcardio.CardException;
 
 import de.greenrobot.event.EventBus;
 import de.persoapp.core.card.CCID;
 import de.persoapp.core.card.ICardHandler;
+import de.persoapp.core.card.TransportBatch;
 import de.persoapp.core.card.TransportProvider;
 import de.persoapp.core.util.ArrayTool;
 import de.persoapp.core.util.Hex;
@@ -244,6 +246,21 @@ public class NfcTransportProvider implements TransportProvider, CCID {
         return null;
     }
 
+    @Override
+    public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+        return TransportBatch.transmitEach(this, apdus, acceptable);
+    }
+
+    @Override
+    public int getMaxResponseLength() {
+        final IsoDep iso = mIsoDep;
+        if (iso == null || !iso.isExtendedLengthApduSupported()) {
+            return 256;
+        }
+        // the transceive buffer holds the response data and the status word
+        return Math.max(256, Math.min(65536, iso.getMaxTransceiveLength() - 2));
+    }
+
     @Override
     public int lastSW() {
         return mLastSW;
@@ -0,0 +1,59 @@
+package de.persoapp.core.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.persoapp.core.card.CMac;
+
+/**
+ * Benchmarks {@link CMac} over the sizes of protected APDUs, from a bare
+ * header to an extended length command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CMacBenchmark {
+
+	@Param({ "16", "64", "256", "1024" })
+	public int		size;
+
+	private CMac	cmac;
+
+	private byte[]	data;
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[16], "AES"), new IvParameterSpec(new byte[16]));
+		this.cmac = new CMac(c, 8);
+		this.data = new byte[size];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+	}
+
+	@Benchmark
+	public byte[] mac() throws GeneralSecurityException {
+		cmac.update(data, 0, data.length);
+		return cmac.doFinal();
+	}
+}
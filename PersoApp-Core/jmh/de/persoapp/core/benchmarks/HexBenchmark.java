@@ -0,0 +1,75 @@
+package de.persoapp.core.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+
+/**
+ * Benchmarks the byte array helpers {@link Hex} and {@link ArrayTool}, which
+ * are used for every APDU and protocol message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+	@Param({ "16", "256", "4096" })
+	public int		size;
+
+	private byte[]	data;
+
+	private byte[]	copy;
+
+	private String	hex;
+
+	@Setup
+	public void setup() {
+		this.data = new byte[size];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		this.copy = data.clone();
+		this.hex = Hex.toString(data);
+	}
+
+	@Benchmark
+	public String toHex() {
+		return Hex.toString(data);
+	}
+
+	@Benchmark
+	public byte[] fromHex() {
+		return Hex.fromString(hex);
+	}
+
+	@Benchmark
+	public byte[] arrayconcat() {
+		return ArrayTool.arrayconcat(data, data);
+	}
+
+	@Benchmark
+	public byte[] subArray() {
+		return ArrayTool.subArray(data, 1, size - 1);
+	}
+
+	@Benchmark
+	public boolean arrayequal() {
+		return ArrayTool.arrayequal(data, copy);
+	}
+}
@@ -0,0 +1,224 @@
+package de.persoapp.core.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.persoapp.core.card.CMac;
+import de.persoapp.core.card.ISOSMTransport;
+import de.persoapp.core.card.SecureMessaging;
+import de.persoapp.core.card.TransportBatch;
+import de.persoapp.core.card.TransportProvider;
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Benchmarks secure messaging: {@link SecureMessaging#wrap(byte[], byte[])}
+ * and {@link SecureMessaging#unwrap(byte[], byte[])} on their own and the
+ * round trip through {@link ISOSMTransport#transmit(byte[])} against a
+ * loopback card. The loopback card answers with protected responses, which
+ * are prepared for the send sequence counters in advance, so only the
+ * terminal side is measured. The counters restart outside the measurement,
+ * once the responses are used up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ISOSMTransportBenchmark {
+
+	private static final byte[]	K_ENC		= Hex.fromString("68406B4162100563D9C901A6154D2901");
+
+	private static final byte[]	K_MAC		= Hex.fromString("73FF268784F72AF833FDC9464049AFC9");
+
+	private static final int	RESPONSES	= 4096;
+
+	@Param({ "16", "223" })
+	public int					size;
+
+	private SecureMessaging		sm;
+
+	private byte[]				ssc;
+
+	private byte[]				apdu;
+
+	private byte[]				data;
+
+	private byte[]				response;
+
+	/**
+	 * Plays the card: returns the prepared responses in order.
+	 */
+	private static final class Loopback implements TransportProvider {
+
+		private final byte[][]	responses;
+
+		private int				next;
+
+		Loopback(final byte[][] responses) {
+			this.responses = responses;
+		}
+
+		@Override
+		public Object getParent() {
+			return null;
+		}
+
+		@Override
+		public byte[] transmit(final byte[] apdu) {
+			return responses[next++];
+		}
+
+		@Override
+		public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+			return TransportBatch.transmitEach(this, apdus, acceptable);
+		}
+
+		@Override
+		public int lastSW() {
+			return 0x9000;
+		}
+
+		@Override
+		public int getMaxResponseLength() {
+			return 0x10000;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static byte[] ssc(final long value) {
+		final byte[] ssc = new byte[16];
+		ArrayTool.insertLongInByteArray(ssc, 8, value);
+		return ssc;
+	}
+
+	private static byte[] pad(final byte[] in) {
+		final byte[] out = new byte[(in.length / 16 + 1) * 16];
+		System.arraycopy(in, 0, out, 0, in.length);
+		out[in.length] = (byte) 0x80;
+		return out;
+	}
+
+	/**
+	 * Builds the protected response <tt>DO87 || DO99 || DO8E</tt>, as the card
+	 * sends it for the given send sequence counter.
+	 */
+	private static byte[] protect(final long counter, final byte[] plain) throws GeneralSecurityException {
+		final byte[] ssc = ssc(counter);
+
+		final Cipher ecb = Cipher.getInstance("AES/ECB/NoPadding");
+		ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_ENC, "AES"));
+		final Cipher cbc = Cipher.getInstance("AES/CBC/NoPadding");
+		cbc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_ENC, "AES"), new IvParameterSpec(ecb.doFinal(ssc)));
+
+		final byte[] dos = ArrayTool.arrayconcat(
+				TLV.build(0x87, ArrayTool.arrayconcat(new byte[] { 0x01 }, cbc.doFinal(pad(plain)))),
+				TLV.build(0x99, new byte[] { (byte) 0x90, 0x00 }));
+
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_MAC, "AES"), new IvParameterSpec(new byte[16]));
+		final CMac cmac = new CMac(c, 8);
+		final byte[] macInput = pad(ArrayTool.arrayconcat(ssc, dos));
+		cmac.update(macInput, 0, macInput.length);
+
+		return ArrayTool.arrayconcat(dos, TLV.build(0x8E, cmac.doFinal()));
+	}
+
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		this.data = new byte[size];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		// UPDATE BINARY as case 3 short APDU
+		this.apdu = ArrayTool.arrayconcat(Hex.fromString("00D60000"),
+				ArrayTool.arrayconcat(new byte[] { (byte) size }, data));
+
+		this.sm = new SecureMessaging(K_ENC, K_MAC);
+		this.ssc = ssc(1);
+		this.response = protect(1, data);
+	}
+
+	/**
+	 * The transport over the loopback card for {@link #transmit(Card)}. Kept
+	 * in its own state, so the per invocation check doesn't touch the other
+	 * benchmarks.
+	 */
+	@State(Scope.Thread)
+	public static class Card {
+
+		private ISOSMTransport	transport;
+
+		private Loopback		loopback;
+
+		@Setup
+		public void setup(final ISOSMTransportBenchmark benchmark) throws GeneralSecurityException {
+			// the responses use the even counters, the commands the odd ones
+			final byte[][] responses = new byte[RESPONSES][];
+			for (int i = 0; i < RESPONSES; i++) {
+				responses[i] = protect(2 * (i + 1), benchmark.data);
+			}
+			this.loopback = new Loopback(responses);
+			this.transport = new ISOSMTransport(loopback);
+		}
+
+		/**
+		 * Starts every iteration with fresh keys and counters.
+		 */
+		@Setup(Level.Iteration)
+		public void restart() {
+			transport.setupKeys(K_ENC, K_MAC);
+			loopback.next = 0;
+		}
+
+		/**
+		 * Restarts the counters outside the measurement, when the prepared
+		 * responses are used up.
+		 */
+		@Setup(Level.Invocation)
+		public void restartIfExhausted() {
+			if (loopback.next == RESPONSES) {
+				restart();
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[] wrap() throws GeneralSecurityException {
+		return sm.wrap(ssc, apdu);
+	}
+
+	@Benchmark
+	public byte[] unwrap() throws GeneralSecurityException {
+		return sm.unwrap(ssc, response);
+	}
+
+	@Benchmark
+	public byte[] transmit(final Card card) {
+		return card.transport.transmit(apdu);
+	}
+}
@@ -0,0 +1,80 @@
+package de.persoapp.core.benchmarks;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.PACE;
+
+/**
+ * Benchmarks the steps of {@link PACE} on every curve of {@link EC_Globals}
+ * with the fast and the reference arithmetic. The steps are repeatable on the
+ * same instance: <em>init</em> multiplies the generator, <em>step</em> maps
+ * the nonce again and <em>finish</em> computes the same shared secret.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PACEBenchmark {
+
+	@Param({ "8", "11", "12", "13", "14", "16", "17" })
+	public int			curve;
+
+	@Param({ "true", "false" })
+	public boolean		fast;
+
+	private PACE		base;
+
+	private PACE		mapped;
+
+	private byte[]		cardMapKey;
+
+	private byte[]		cardKey;
+
+	@Setup
+	public void setup() {
+		final ECParameterSpec spec = EC_Globals.getCurve(curve);
+		final BigInteger nonce = new BigInteger(1, "PersoApp PACE bm".getBytes());
+
+		final PACE card = new PACE(spec, nonce, fast);
+		this.base = new PACE(spec, nonce, fast);
+		this.mapped = new PACE(spec, nonce, fast);
+
+		this.cardMapKey = card.init();
+		this.base.init();
+		final byte[] mapKey = this.mapped.init();
+		this.mapped.step(this.cardMapKey);
+		this.cardKey = card.step(mapKey);
+	}
+
+	@Benchmark
+	public byte[] init() {
+		return base.init();
+	}
+
+	@Benchmark
+	public byte[] step() {
+		return mapped.step(cardMapKey);
+	}
+
+	@Benchmark
+	public byte[][] finish() {
+		return mapped.finish(cardKey);
+	}
+}
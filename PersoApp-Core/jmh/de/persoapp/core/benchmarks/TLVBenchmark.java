@@ -0,0 +1,100 @@
+package de.persoapp.core.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Benchmarks {@link TLV} with the nesting patterns of the eID service: the
+ * fields of a terminal certificate, the security infos of
+ * <em>EF.CardAccess</em> and the nested build of an authentication token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TLVBenchmark {
+
+	private static final String	ID_PACE_ECDH_GM_AES_128	= "04007F00070202040202";
+
+	private byte[]				cvcert;
+
+	private byte[]				cardAccess;
+
+	private byte[]				publicKey;
+
+	@Setup
+	public void setup() {
+		this.publicKey = new byte[65];
+		publicKey[0] = 0x04;
+
+		final byte[] chat = TLV.build(0x7F4C, ArrayTool.arrayconcat(
+				TLV.build(0x06, Hex.fromString("04007F000703010202")), TLV.build(0x53, Hex.fromString("000513FF87"))));
+		final byte[] body = concat(TLV.build(0x5F29, new byte[] { 0x00 }),
+				TLV.build(0x42, "DECVCAeID00102".getBytes()),
+				TLV.build(0x7F49, TLV.buildOID("04007F00070202020203", TLV.build(0x86, publicKey))),
+				TLV.build(0x5F20, "DEDVeIDDTR101414".getBytes()), chat,
+				TLV.build(0x5F25, Hex.fromString("010400010000")), TLV.build(0x5F24, Hex.fromString("010400010100")));
+		this.cvcert = TLV.build(0x7F21,
+				ArrayTool.arrayconcat(TLV.build(0x7F4E, body), TLV.build(0x5F37, new byte[64])));
+
+		this.cardAccess = TLV.build(0x31, concat(
+				TLV.build(0x30, ArrayTool.arrayconcat(TLV.build(0x06, Hex.fromString(ID_PACE_ECDH_GM_AES_128)),
+						TLV.build(0x02, new byte[] { 0x02 }))),
+				TLV.build(0x30, concat(TLV.build(0x06, Hex.fromString("04007F000702020202")),
+						TLV.build(0x02, new byte[] { 0x02 }), TLV.build(0x02, new byte[] { 0x0D }))),
+				TLV.build(0x30, ArrayTool.arrayconcat(TLV.build(0x06, Hex.fromString("04007F000702020602")),
+						TLV.build(0x16, "http://localhost/cardinfo".getBytes())))));
+	}
+
+	private static byte[] concat(final byte[]... parts) {
+		byte[] result = new byte[0];
+		for (final byte[] part : parts) {
+			result = ArrayTool.arrayconcat(result, part);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public byte[] getCAR() {
+		return TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E), (byte) 0x42);
+	}
+
+	@Benchmark
+	public byte[] getCHAT() {
+		final byte[] chat = TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E), (short) 0x7F4C);
+		return TLV.get(chat, (byte) 0x53);
+	}
+
+	@Benchmark
+	public int getMSecurityInfos() {
+		int n = 0;
+		for (final byte[] info : TLV.getM(TLV.get(cardAccess, (byte) 0x31), (byte) 0x30)) {
+			final List<byte[]> data = TLV.getM(info, (byte) 0x02);
+			n += TLV.get(info, (byte) 0x06).length + (data != null ? data.size() : 0);
+		}
+		return n;
+	}
+
+	@Benchmark
+	public byte[] buildAuthToken() {
+		return TLV.build(0x7C, TLV.build(0x85,
+				TLV.build(0x7F49, TLV.buildOID(ID_PACE_ECDH_GM_AES_128, TLV.build(0x86, publicKey)))));
+	}
+}
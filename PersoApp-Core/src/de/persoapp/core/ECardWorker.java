@@ -69,6 +69,7 @@ import java.util.concurrent.Exchanger;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import de.persoapp.core.card.CardHandlerPool;
 import de.persoapp.core.card.ICardHandler;
 import de.persoapp.core.client.EAC_Info;
 import de.persoapp.core.client.ECardSession;
@@ -159,9 +160,9 @@ public final class ECardWorker {
 	private static WSContainer						wsCtx;
 
 	/**
-	 * card-handler instance for eID-sessions
+	 * card-handlers for eID-sessions
 	 */
-	private static ICardHandler						eCardHandler;
+	private static CardHandlerPool					eCardHandlers;
 
 	/**
 	 * localized message bundle for user interaction
@@ -212,10 +213,31 @@ public final class ECardWorker {
 	 * 
 	 */
 	public static final void init(final IMainView mainView, final WSContainer wsCtx, final ICardHandler eCardHandler) {
+		init(mainView, wsCtx, eCardHandler, null);
+	}
+
+	/**
+	 * setup static application-wide values such as GUI instance, PAOS
+	 * web-service container and a pool of card handler instances, allowing
+	 * concurrent eID-sessions on different card terminals
+	 * 
+	 * @param mainView
+	 *            - GUI instance of application
+	 * @param wsCtx
+	 *            - web service container for ISO24727 services
+	 * @param eCardHandler
+	 *            - card handler instance to be passed in ECardSessions first
+	 * @param factory
+	 *            - creates further card handler instances for concurrent
+	 *            ECardSessions or <em>null</em>, if all ECardSessions share
+	 *            the given card handler
+	 */
+	public static final void init(final IMainView mainView, final WSContainer wsCtx,
+			final ICardHandler eCardHandler, final CardHandlerPool.Factory factory) {
 		if (ECardWorker.mainView == null) {
 			ECardWorker.mainView = mainView;
 			ECardWorker.wsCtx = wsCtx;
-			ECardWorker.eCardHandler = eCardHandler;
+			ECardWorker.eCardHandlers = eCardHandler == null ? null : new CardHandlerPool(eCardHandler, factory);
 		}
 	}
 
@@ -598,7 +620,7 @@ public final class ECardWorker {
 				textBundle.get("ECardWorker_connecting_from") + tcTokenURL.resolve("/")
 						+ textBundle.get("ECardWorker_connecting_to") + endpoint, IMainView.RELOAD);
 
-		session = new ECardSession(mainView, eCardHandler);
+		session = new ECardSession(mainView, eCardHandlers, this.slotHandle);
 		session.setAttribute(ECardWorker.class.getName(), this);
 		session.setAttribute(ECardSession.KEYS.SPServerCert.name(), sourceCerts);
 		session.setAttribute(ECardSession.KEYS.tcTokenURL.name(), tcTokenURL);
@@ -646,7 +668,8 @@ public final class ECardWorker {
 			this.callback(e);
 		} finally {
 			//			this.callback(ECardWorker.CALLBACK_RESULT.FINALLY);
-			eCardHandler.reset();
+			// release and reset the card handler bound to the slot handle
+			session.terminate();
 			mainView.closeDialogs();
 		}
 	}
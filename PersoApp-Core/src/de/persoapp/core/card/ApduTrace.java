@@ -0,0 +1,527 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A compact binary trace of <em>APDU</em> exchanges in a memory-mapped file.
+ * Every record holds the command, the response data, the status word and the
+ * timing of one exchange. The records of the card layer hold the
+ * <em>APDUs</em> as transmitted to the card, the records of the plain layer
+ * hold the unprotected <em>APDUs</em> of a secure messaging channel.
+ * </p>
+ * <p>
+ * The header tracks the end of the last complete record, so a trace is
+ * readable while it is written and after the process died.
+ * </p>
+ * 
+ * @see RecordingTransport
+ * @see ReplayTransport
+ */
+public final class ApduTrace {
+
+	/**
+	 * The system property naming the trace file, which is written by the
+	 * {@link CardHandler}.
+	 */
+	public static final String	PROPERTY		= "de.persoapp.core.card.trace";
+
+	/**
+	 * The layer of the <em>APDUs</em> as transmitted to the card.
+	 */
+	public static final int		LAYER_CARD		= 0;
+
+	/**
+	 * The layer of the unprotected <em>APDUs</em> of a secure messaging
+	 * channel.
+	 */
+	public static final int		LAYER_PLAIN		= 1;
+
+	/**
+	 * The magic number "APDT" of a trace file.
+	 */
+	private static final int	MAGIC			= 0x41504454;
+
+	/**
+	 * The version of the file format.
+	 */
+	private static final int	VERSION			= 1;
+
+	/**
+	 * The header: magic, version, maximum response length, start time and
+	 * the end of the last record.
+	 */
+	private static final int	HEADER_LENGTH	= 24;
+
+	/**
+	 * The position of the end of the last record in the header.
+	 */
+	private static final int	END_POSITION	= 20;
+
+	/**
+	 * The fixed part of a record: layer, status word, start and duration.
+	 */
+	private static final int	RECORD_LENGTH	= 1 + 4 + 8 + 8;
+
+	/**
+	 * The initial size of the mapped region.
+	 */
+	private static final int	INITIAL_SIZE	= 64 * 1024;
+
+	/**
+	 * The trace of the {@link #PROPERTY}, opened on first use.
+	 */
+	private static ApduTrace	defaultTrace;
+
+	/**
+	 * <p>
+	 * A recorded exchange.
+	 * </p>
+	 */
+	public static final class Entry {
+
+		/** The layer of the exchange. */
+		private final int		layer;
+
+		/** The command. */
+		private final byte[]	command;
+
+		/** The response data or <strong>null</strong>. */
+		private final byte[]	response;
+
+		/** The status word. */
+		private final int		sw;
+
+		/** The start in nanoseconds relative to the start of the trace. */
+		private final long		start;
+
+		/** The duration in nanoseconds. */
+		private final long		duration;
+
+		/**
+		 * Creates a recorded exchange.
+		 */
+		Entry(final int layer, final byte[] command, final byte[] response, final int sw, final long start,
+				final long duration) {
+			this.layer = layer;
+			this.command = command;
+			this.response = response;
+			this.sw = sw;
+			this.start = start;
+			this.duration = duration;
+		}
+
+		/**
+		 * Returns the layer of the exchange.
+		 * 
+		 * @return Returns {@link ApduTrace#LAYER_CARD} or
+		 *         {@link ApduTrace#LAYER_PLAIN}.
+		 */
+		public int getLayer() {
+			return layer;
+		}
+
+		/**
+		 * Returns the command.
+		 * 
+		 * @return Returns a copy of the command.
+		 */
+		public byte[] getCommand() {
+			return command.clone();
+		}
+
+		/**
+		 * Returns the response data without the status word.
+		 * 
+		 * @return Returns a copy of the response data or <strong>null</strong>,
+		 *         if the transmission failed.
+		 */
+		public byte[] getResponse() {
+			return response == null ? null : response.clone();
+		}
+
+		/**
+		 * Returns the status word.
+		 * 
+		 * @return Returns the status word.
+		 */
+		public int getSW() {
+			return sw;
+		}
+
+		/**
+		 * Returns the start of the exchange.
+		 * 
+		 * @return Returns the start in nanoseconds relative to the start of
+		 *         the trace.
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * Returns the duration of the exchange.
+		 * 
+		 * @return Returns the duration in nanoseconds.
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * Checks the command of the exchange.
+		 */
+		boolean matches(final byte[] apdu) {
+			return Arrays.equals(command, apdu);
+		}
+	}
+
+	/**
+	 * The file channel or <strong>null</strong>, if the trace was loaded.
+	 */
+	private final FileChannel	channel;
+
+	/**
+	 * The mapped region of the file.
+	 */
+	private MappedByteBuffer	buffer;
+
+	/**
+	 * The start of the trace in nanoseconds.
+	 */
+	private final long			origin;
+
+	/**
+	 * The start of the trace in milliseconds since the epoch.
+	 */
+	private final long			startTime;
+
+	/**
+	 * The maximum response length of the recorded transport.
+	 */
+	private int					maxResponseLength;
+
+	/**
+	 * The recorded exchanges of a loaded trace.
+	 */
+	private final List<Entry>	entries;
+
+	/**
+	 * Creates a new trace file. An existing file is overwritten.
+	 * 
+	 * @param file
+	 *            - The trace file.
+	 * 
+	 * @throws IOException
+	 *             If the file can't be written.
+	 */
+	public ApduTrace(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		this.channel = raf.getChannel();
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+		this.origin = System.nanoTime();
+		this.startTime = System.currentTimeMillis();
+		this.maxResponseLength = 256;
+		this.entries = null;
+
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(maxResponseLength).putLong(startTime).putInt(HEADER_LENGTH);
+	}
+
+	/**
+	 * Creates a loaded trace.
+	 */
+	private ApduTrace(final long startTime, final int maxResponseLength, final List<Entry> entries) {
+		this.channel = null;
+		this.origin = 0;
+		this.startTime = startTime;
+		this.maxResponseLength = maxResponseLength;
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Loads a trace file.
+	 * 
+	 * @param file
+	 *            - The trace file.
+	 * 
+	 * @return Returns the loaded trace.
+	 * 
+	 * @throws IOException
+	 *             If the file can't be read or isn't a trace.
+	 */
+	public static ApduTrace load(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (bb.remaining() < HEADER_LENGTH || bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+				throw new IOException("not an APDU trace: " + file);
+			}
+			final int maxResponseLength = bb.getInt();
+			final long startTime = bb.getLong();
+			final int end = bb.getInt();
+			if (end < HEADER_LENGTH || end > bb.limit()) {
+				throw new IOException("corrupt APDU trace: " + file);
+			}
+			bb.limit(end);
+
+			final List<Entry> entries = new ArrayList<Entry>();
+			while (bb.hasRemaining()) {
+				final int layer = bb.get();
+				final int sw = bb.getInt();
+				final long start = bb.getLong();
+				final long duration = bb.getLong();
+				final byte[] command = getBytes(bb);
+				final byte[] response = getBytes(bb);
+				entries.add(new Entry(layer, command, response, sw, start, duration));
+			}
+			return new ApduTrace(startTime, maxResponseLength, entries);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the trace named by the system property {@link #PROPERTY}.
+	 * 
+	 * @return Returns the trace or <strong>null</strong>, if the property
+	 *         isn't set or the file can't be written.
+	 */
+	public static synchronized ApduTrace getDefault() {
+		if (defaultTrace == null) {
+			final String name = System.getProperty(PROPERTY);
+			if (name != null && name.length() > 0) {
+				try {
+					defaultTrace = new ApduTrace(new File(name));
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return defaultTrace;
+	}
+
+	/**
+	 * Returns the start of the trace.
+	 * 
+	 * @return Returns the start in milliseconds since the epoch.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the maximum response length of the recorded transport.
+	 * 
+	 * @return Returns the maximum response length (Ne) of a single APDU.
+	 */
+	public synchronized int getMaxResponseLength() {
+		return maxResponseLength;
+	}
+
+	/**
+	 * Stores the maximum response length of the recorded transport.
+	 */
+	synchronized void setMaxResponseLength(final int maxResponseLength) {
+		checkWritable();
+		this.maxResponseLength = maxResponseLength;
+		buffer.putInt(8, maxResponseLength);
+	}
+
+	/**
+	 * Returns the current time of the trace.
+	 * 
+	 * @return Returns the time in nanoseconds relative to the start of the
+	 *         trace.
+	 */
+	public long now() {
+		return System.nanoTime() - origin;
+	}
+
+	/**
+	 * Returns the exchanges of the given layer of a loaded trace.
+	 * 
+	 * @param layer
+	 *            - {@link #LAYER_CARD} or {@link #LAYER_PLAIN}.
+	 * 
+	 * @return Returns the exchanges in the recorded order.
+	 */
+	public List<Entry> getEntries(final int layer) {
+		if (entries == null) {
+			throw new IllegalStateException("trace is being written");
+		}
+		final List<Entry> result = new ArrayList<Entry>();
+		for (final Entry entry : entries) {
+			if (entry.layer == layer) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Appends an exchange to the trace.
+	 * 
+	 * @param layer
+	 *            - {@link #LAYER_CARD} or {@link #LAYER_PLAIN}.
+	 * @param command
+	 *            - The command.
+	 * @param response
+	 *            - The response data or <strong>null</strong>, if the
+	 *            transmission failed.
+	 * @param sw
+	 *            - The status word.
+	 * @param start
+	 *            - The start of the exchange, see {@link #now()}.
+	 */
+	public void record(final int layer, final byte[] command, final byte[] response, final int sw, final long start) {
+		record(layer, command, response, sw, start, now() - start);
+	}
+
+	/**
+	 * Appends an exchange with the given duration to the trace.
+	 * 
+	 * @param layer
+	 *            - {@link #LAYER_CARD} or {@link #LAYER_PLAIN}.
+	 * @param command
+	 *            - The command.
+	 * @param response
+	 *            - The response data or <strong>null</strong>, if the
+	 *            transmission failed.
+	 * @param sw
+	 *            - The status word.
+	 * @param start
+	 *            - The start of the exchange, see {@link #now()}.
+	 * @param duration
+	 *            - The duration of the exchange in nanoseconds.
+	 */
+	public synchronized void record(final int layer, final byte[] command, final byte[] response, final int sw,
+			final long start, final long duration) {
+		checkWritable();
+		final int length = RECORD_LENGTH + 4 + command.length + 4 + (response == null ? 0 : response.length);
+		ensureCapacity(length);
+
+		buffer.put((byte) layer).putInt(sw).putLong(start).putLong(duration);
+		buffer.putInt(command.length).put(command);
+		if (response == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(response.length).put(response);
+		}
+
+		// the record becomes visible by moving the end
+		buffer.putInt(END_POSITION, buffer.position());
+	}
+
+	/**
+	 * Flushes the trace to the file and closes it.
+	 */
+	public synchronized void close() {
+		if (channel != null && channel.isOpen()) {
+			buffer.force();
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Throws an exception, if the trace can't be written.
+	 */
+	private void checkWritable() {
+		if (channel == null || !channel.isOpen()) {
+			throw new IllegalStateException("trace is not writable");
+		}
+	}
+
+	/**
+	 * Enlarges the mapped region, if the next record doesn't fit.
+	 */
+	private void ensureCapacity(final int length) {
+		if (buffer.remaining() >= length) {
+			return;
+		}
+		final int position = buffer.position();
+		int size = buffer.capacity();
+		while (size - position < length) {
+			size <<= 1;
+		}
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.position(position);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a byte array preceded by its length.
+	 */
+	private static byte[] getBytes(final ByteBuffer bb) {
+		final int length = bb.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] data = new byte[length];
+		bb.get(data);
+		return data;
+	}
+}
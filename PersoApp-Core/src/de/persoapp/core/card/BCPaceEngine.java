@@ -0,0 +1,193 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.EllipticCurve;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+
+/**
+ * <p>
+ * The <tt>BCPaceEngine</tt> runs the generic mapping on the elliptic curve
+ * arithmetic of BouncyCastle. Multiples of the generator use the
+ * {@link FixedPointCombMultiplier}, whose table is computed once per curve,
+ * the mapping <em>G' = s &middot; G + k &middot; Y</em> uses
+ * {@link ECAlgorithms#sumOfTwoMultiplies(ECPoint, BigInteger, ECPoint, BigInteger)}.
+ * Points received from the card are validated while decoding.
+ * </p>
+ * 
+ * @see PaceEngines
+ */
+public final class BCPaceEngine implements PaceEngine {
+
+	/**
+	 * The name of the engine.
+	 */
+	public static final String							NAME		= "bc";
+
+	/**
+	 * The generators of the curves in use, the keys are compared by identity.
+	 */
+	private static final Map<ECParameterSpec, ECPoint>	GENERATORS	= new WeakHashMap<ECParameterSpec, ECPoint>();
+
+	/**
+	 * The multiplier of the generators.
+	 */
+	private final ECMultiplier							comb		= new FixedPointCombMultiplier();
+
+	/**
+	 * The random number generator of the private keys.
+	 */
+	private final SecureRandom							random		= new SecureRandom();
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#prepare(java.security.spec.ECParameterSpec)
+	 */
+	@Override
+	public void prepare(final ECParameterSpec ecSpec) {
+		if (ecSpec != null) {
+			// builds the comb table
+			comb.multiply(generator(ecSpec), BigInteger.ONE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#open(java.security.spec.ECParameterSpec, java.math.BigInteger)
+	 */
+	@Override
+	public Session open(final ECParameterSpec ecSpec, final BigInteger nonce) {
+		final ECPoint G = generator(ecSpec);
+		final ECCurve curve = G.getCurve();
+		final BigInteger n = curve.getOrder();
+
+		return new Session() {
+			private BigInteger	ephemeralKey;
+
+			@Override
+			public byte[] init() {
+				this.ephemeralKey = createPrivateKey(n);
+				return comb.multiply(G, this.ephemeralKey).getEncoded(false);
+			}
+
+			@Override
+			public byte[] step(final byte[] mapData) {
+				final ECPoint Y = curve.decodePoint(mapData);
+				final ECPoint mapped = ECAlgorithms.sumOfTwoMultiplies(G, nonce.mod(n), Y, this.ephemeralKey)
+						.normalize();
+
+				this.ephemeralKey = createPrivateKey(n);
+				return mapped.multiply(this.ephemeralKey).getEncoded(false);
+			}
+
+			@Override
+			public byte[][] finish(final byte[] data) {
+				final ECPoint Y = curve.decodePoint(data);
+				final ECPoint S = Y.multiply(this.ephemeralKey).normalize();
+				return new byte[][] { Y.getAffineXCoord().getEncoded(), // IDPICC
+						S.getAffineXCoord().getEncoded() // shared secret
+				};
+			}
+		};
+	}
+
+	/**
+	 * Creates a private key in <em>[1, n - 1]</em>.
+	 */
+	private BigInteger createPrivateKey(final BigInteger n) {
+		// see PACE.setRandomSource(Random)
+		final Random source = PACE.getRandomSource();
+		BigInteger k;
+		do {
+			k = new BigInteger(n.bitLength(), source != null ? source : random);
+		} while (k.signum() == 0 || k.compareTo(n) >= 0);
+		return k;
+	}
+
+	/**
+	 * Returns the generator of the given curve in the representation of
+	 * BouncyCastle, which holds the comb table.
+	 */
+	private static ECPoint generator(final ECParameterSpec ecSpec) {
+		synchronized (GENERATORS) {
+			ECPoint G = GENERATORS.get(ecSpec);
+			if (G == null) {
+				final EllipticCurve curve = ecSpec.getCurve();
+				final ECCurve bcCurve = new ECCurve.Fp(((ECFieldFp) curve.getField()).getP(), curve.getA(),
+						curve.getB(), ecSpec.getOrder(), BigInteger.valueOf(ecSpec.getCofactor()));
+				G = bcCurve.createPoint(ecSpec.getGenerator().getAffineX(), ecSpec.getGenerator().getAffineY());
+				GENERATORS.put(ecSpec, G);
+			}
+			return G;
+		}
+	}
+}
@@ -123,6 +123,12 @@ public interface CCID {
 	 * PIN handling.
 	 */
 	public static final byte	FEATURE_IFD_PIN_PROPERTIES	= 0x0A;
+
+	/**
+	 * This feature can be used to retrieve the properties of the IFD as TLV
+	 * structure.
+	 */
+	public static final byte	FEATURE_GET_TLV_PROPERTIES	= 0x12;
 	
 	/**
 	 * This feature is used to command the PACE functionality within the reader.
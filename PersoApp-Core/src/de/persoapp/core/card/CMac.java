@@ -50,8 +50,7 @@ package de.persoapp.core.card;
 import java.security.GeneralSecurityException;
 
 import javax.crypto.Cipher;
-
-import de.persoapp.core.util.ArrayTool;
+import javax.crypto.Mac;
 
 /**
  * <p>
@@ -59,6 +58,12 @@ import de.persoapp.core.util.ArrayTool;
  * <em>cipher based message authentication code</em> using standard Java cipher
  * interfaces as a base. Inspired by BouncyCastles internal engine.
  * </p>
+ * <p>
+ * All full blocks of an update are passed to the cipher in one call, the CBC
+ * output is discarded into a scratch buffer owned by the instance. As an
+ * alternative, the computation can be delegated to the AES-CMAC {@link Mac}
+ * of a provider.
+ * </p>
  * 
  * @author Christian Kahlo
  * @author Rico Klimsa - added javadoc comments.
@@ -71,6 +76,12 @@ public class CMac {
 	 */
 	private static final byte	CONSTANT_128	= (byte) 0x87;
 
+	/**
+	 * The size of the scratch buffer for the discarded CBC output, in bytes.
+	 * Longer input is processed in several cipher calls.
+	 */
+	private static final int	SCRATCH_SIZE	= 1024;
+
 	/**
 	 * The temporary buffer.
 	 */
@@ -86,11 +97,23 @@ public class CMac {
 	 */
 	private final Cipher		cipher;
 
+	/**
+	 * The provider implementation of the CMAC, if the CMac is backed by a
+	 * {@link Mac}. The cipher isn't used in this case.
+	 */
+	private final Mac			mac;
+
 	/**
 	 * The size of the mac.
 	 */
 	private final int			macSize;
 
+	/**
+	 * Receives the CBC output of the cipher, which isn't needed except for the
+	 * last block, and the untruncated MAC.
+	 */
+	private final byte[]		scratch;
+
 	
 	/** The values for additionally randomness. */
 	private final byte[]		L, Lu, Lu2;
@@ -117,10 +140,12 @@ public class CMac {
 		}
 
 		this.cipher = cipher;
+		this.mac = null;
 		this.macSize = macSize;
 
 		buf = new byte[cipher.getBlockSize()];
 		bufOff = 0;
+		scratch = new byte[SCRATCH_SIZE];
 
 		//initializes the L, Lu, Lu2 numbers
 		final byte[] ZEROES = new byte[cipher.getBlockSize()];
@@ -131,6 +156,33 @@ public class CMac {
 		Lu2 = doubleLu(Lu);
 	}
 
+	/**
+	 * Creates a MAC, which is computed by the given provider implementation of
+	 * the AES-CMAC and truncated to the given size.
+	 * 
+	 * @param mac
+	 *            - The initialized AES-CMAC of a provider.
+	 * @param macSize
+	 *            - The size of the MAC in bytes. Must be <= 16.
+	 */
+	public CMac(final Mac mac, final int macSize) {
+		if (mac.getMacLength() != 16) {
+			throw new IllegalArgumentException("mac length != 16 bytes");
+		}
+
+		if (macSize > mac.getMacLength()) {
+			throw new IllegalArgumentException("macSize must be <= " + mac.getMacLength());
+		}
+
+		this.cipher = null;
+		this.mac = mac;
+		this.macSize = macSize;
+
+		buf = null;
+		scratch = new byte[mac.getMacLength()];
+		L = Lu = Lu2 = null;
+	}
+
 	/**
 	 * Doubles the values of every byte of the given byte array.
 	 * 
@@ -167,22 +219,29 @@ public class CMac {
 	 *             If an error occurs during the encryption operation.
 	 */
 	public void update(final byte[] in, int inOff, int len) throws GeneralSecurityException {
-		final int blockSize = cipher.getBlockSize();
+		if (mac != null) {
+			mac.update(in, inOff, len);
+			return;
+		}
+
+		final int blockSize = buf.length;
 		final int gapLen = blockSize - bufOff;
 
 		if (len > gapLen) {
 			System.arraycopy(in, inOff, buf, bufOff, gapLen);
-			cipher.update(buf, 0, blockSize);
+			cipher.update(buf, 0, blockSize, scratch, 0);
 
 			bufOff = 0;
 			len -= gapLen;
 			inOff += gapLen;
 
+			// all full blocks in bulk, except the last one which is kept for doFinal
 			while (len > blockSize) {
-				cipher.update(in, inOff, blockSize);
+				final int bulkLen = Math.min((len - 1) / blockSize * blockSize, scratch.length);
+				cipher.update(in, inOff, bulkLen, scratch, 0);
 
-				len -= blockSize;
-				inOff += blockSize;
+				len -= bulkLen;
+				inOff += bulkLen;
 			}
 		}
 		
@@ -210,7 +269,34 @@ public class CMac {
 	 *             process.
 	 */
 	public byte[] doFinal() throws GeneralSecurityException {
-		final int blockSize = cipher.getBlockSize();
+		final byte[] result = new byte[macSize];
+		doFinal(result, 0);
+		return result;
+	}
+
+	/**
+	 * Finishes the multiple-part creation of the {@link CMac} and writes the
+	 * truncated MAC to <tt>out</tt>, starting at <tt>outOff</tt>. The
+	 * {@link CMac} is reset afterwards.
+	 * 
+	 * @param out
+	 *            - The buffer for the MAC.
+	 * @param outOff
+	 *            - The offset in the output buffer.
+	 * 
+	 * @return Returns the size of the MAC.
+	 * 
+	 * @throws GeneralSecurityException
+	 *             If a error occurs during the encryption process.
+	 */
+	public int doFinal(final byte[] out, final int outOff) throws GeneralSecurityException {
+		if (mac != null) {
+			mac.doFinal(scratch, 0);
+			System.arraycopy(scratch, 0, out, outOff, macSize);
+			return macSize;
+		}
+
+		final int blockSize = buf.length;
 
 		byte[] lu;
 		//Padding doesn't has to be added.
@@ -225,9 +311,10 @@ public class CMac {
 			buf[i] ^= lu[i];
 		}
 
-		final byte[] mac = cipher.doFinal(buf, 0, buf.length);
+		cipher.doFinal(buf, 0, buf.length, scratch, 0);
 		reset();
-		return ArrayTool.subArray(mac, 0, macSize);
+		System.arraycopy(scratch, 0, out, outOff, macSize);
+		return macSize;
 	}
 
 	/**
@@ -238,6 +325,11 @@ public class CMac {
 	 *             method.
 	 */
 	public void reset() throws GeneralSecurityException {
+		if (mac != null) {
+			mac.reset();
+			return;
+		}
+
 		/*
 		 * clean the buffer.
 		 */
@@ -0,0 +1,544 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import de.persoapp.core.util.ObjectIdentifier;
+import de.persoapp.core.util.TLVCursor;
+
+/**
+ * <p>
+ * The <tt>CVCertificate</tt> is an immutable, parsed <em>card verifiable
+ * certificate</em>. The structure is parsed once, references, dates and
+ * extensions are decoded on first use. Instances are obtained with
+ * {@link #getInstance(byte[])}, which keeps recently used certificates by
+ * their SHA-256 digest. Terminal and DV certificates of the eServices repeat
+ * across sessions and don't have to be parsed again.
+ * </p>
+ * <p>
+ * The cache holds a limited amount of certificates and evicts the least
+ * recently used one.
+ * </p>
+ * 
+ * @see CardHandler#verifyCertificate(byte[])
+ */
+public final class CVCertificate {
+
+	/**
+	 * The default amount of cached certificates.
+	 */
+	public static final int										DEFAULT_CACHE_SIZE	= 32;
+
+	/**
+	 * The cached certificates by digest in access order.
+	 */
+	private static final LinkedHashMap<ByteBuffer, CVCertificate>	CACHE;
+
+	/**
+	 * The maximum amount of cached certificates.
+	 */
+	private static int											maxCacheSize		= DEFAULT_CACHE_SIZE;
+
+	static {
+		CACHE = new LinkedHashMap<ByteBuffer, CVCertificate>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, CVCertificate> eldest) {
+				return size() > maxCacheSize;
+			}
+		};
+	}
+
+	/**
+	 * The encoded certificate.
+	 */
+	private final byte[]										encoded;
+
+	/**
+	 * The SHA-256 digest of the encoded certificate.
+	 */
+	private final byte[]										digest;
+
+	/**
+	 * The offset of the contents of the certificate, i.e. the body and the
+	 * signature.
+	 */
+	final int													contentsOffset;
+
+	/**
+	 * The length of the contents of the certificate.
+	 */
+	final int													contentsLength;
+
+	/**
+	 * The offset of the contents of the body.
+	 */
+	private final int											bodyOffset;
+
+	/**
+	 * The length of the contents of the body.
+	 */
+	private final int											bodyLength;
+
+	/**
+	 * The offset of the certification authority reference.
+	 */
+	final int													carOffset;
+
+	/**
+	 * The length of the certification authority reference.
+	 */
+	final int													carLength;
+
+	/**
+	 * The certificate holder reference.
+	 */
+	private final byte[]										chr;
+
+	/**
+	 * The role in the certificate holder authorization template or
+	 * <tt>null</tt>, if the role isn't registered.
+	 */
+	private final ObjectIdentifier								role;
+
+	/**
+	 * The relative authorization or <tt>null</tt>, if the certificate has no
+	 * certificate holder authorization template.
+	 */
+	private final byte[]										authorization;
+
+	/**
+	 * The decoded certification authority reference.
+	 */
+	private volatile String										carString;
+
+	/**
+	 * The decoded certificate holder reference.
+	 */
+	private volatile String										chrString;
+
+	/**
+	 * The decoded effective date.
+	 */
+	private volatile Date										effectiveDate;
+
+	/**
+	 * The decoded expiration date.
+	 */
+	private volatile Date										expirationDate;
+
+	/**
+	 * Parses a certificate.
+	 * 
+	 * @param encoded
+	 *            - The encoded certificate, not copied.
+	 * @param digest
+	 *            - The SHA-256 digest of the encoded certificate.
+	 * @param cert
+	 *            - The certificate data object.
+	 * @param body
+	 *            - The body data object.
+	 * @param car
+	 *            - The certification authority reference data object.
+	 * @param chr
+	 *            - The certificate holder reference data object.
+	 */
+	private CVCertificate(final byte[] encoded, final byte[] digest, final TLVCursor cert, final TLVCursor body,
+			final TLVCursor car, final TLVCursor chr) {
+		this.encoded = encoded;
+		this.digest = digest;
+		this.contentsOffset = cert.getValueOffset();
+		this.contentsLength = cert.getValueLength();
+		this.bodyOffset = body.getValueOffset();
+		this.bodyLength = body.getValueLength();
+		this.carOffset = car.getValueOffset();
+		this.carLength = car.getValueLength();
+		this.chr = chr.getValue();
+
+		final TLVCursor chat = body.enter().enter(0x7F4C);
+		this.role = chat.next(0x06) ? chat.getObjectIdentifier() : null;
+		chat.reset();
+		this.authorization = chat.next(0x53) ? chat.getValue() : null;
+	}
+
+	/**
+	 * Returns the parsed certificate, either from the cache or parsed and
+	 * added to the cache.
+	 * 
+	 * @param encoded
+	 *            - The encoded certificate.
+	 * 
+	 * @return Returns the certificate or <tt>null</tt>, if the encoding isn't
+	 *         a certificate with body, CAR and CHR.
+	 */
+	public static CVCertificate getInstance(final byte[] encoded) {
+		if (encoded == null) {
+			return null;
+		}
+
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		final ByteBuffer key = ByteBuffer.wrap(digest);
+		synchronized (CACHE) {
+			final CVCertificate cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		final byte[] copy = encoded.clone();
+		final TLVCursor cert = new TLVCursor(copy).find(0x7F21);
+		if (cert == null) {
+			return null;
+		}
+		final TLVCursor body = cert.enter().find(0x7F4E);
+		if (body == null) {
+			return null;
+		}
+		final TLVCursor car = body.enter().find(0x42);
+		final TLVCursor chr = body.enter().find(0x5F20);
+		if (car == null || chr == null) {
+			return null;
+		}
+
+		final CVCertificate parsed = new CVCertificate(copy, digest, cert, body, car, chr);
+		synchronized (CACHE) {
+			if (maxCacheSize > 0) {
+				CACHE.put(key, parsed);
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * Changes the maximum amount of cached certificates and evicts the least
+	 * recently used certificates if necessary.
+	 * 
+	 * @param maxSize
+	 *            - The maximum amount of cached certificates, <tt>0</tt>
+	 *            disables the cache.
+	 */
+	public static void setCacheSize(final int maxSize) {
+		synchronized (CACHE) {
+			maxCacheSize = maxSize;
+			while (CACHE.size() > maxSize) {
+				CACHE.remove(CACHE.keySet().iterator().next());
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of cached certificates.
+	 * 
+	 * @return Returns the amount of cached certificates.
+	 */
+	public static int getCachedCount() {
+		synchronized (CACHE) {
+			return CACHE.size();
+		}
+	}
+
+	/**
+	 * Removes all cached certificates.
+	 */
+	public static void clearCache() {
+		synchronized (CACHE) {
+			CACHE.clear();
+		}
+	}
+
+	/**
+	 * Converts a date of a certificate, six unpacked BCD digits <tt>YYMMDD</tt>
+	 * , to a date in UTC.
+	 * 
+	 * @param cvDate
+	 *            - The date of the certificate.
+	 * @param endOfDay
+	 *            - Set to <tt>true</tt> for the last millisecond of the day,
+	 *            to <tt>false</tt> for the first.
+	 * 
+	 * @return Returns the converted date.
+	 */
+	public static Date toDate(final byte[] cvDate, final boolean endOfDay) {
+		final GregorianCalendar cal = (GregorianCalendar) GregorianCalendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.set(Calendar.YEAR, 2000 + cvDate[0] * 10 + cvDate[1]);
+		cal.set(Calendar.MONTH, -1 + cvDate[2] * 10 + cvDate[3]);
+		cal.set(Calendar.DAY_OF_MONTH, cvDate[4] * 10 + cvDate[5]);
+		cal.set(Calendar.HOUR_OF_DAY, endOfDay ? 23 : 0);
+		cal.set(Calendar.MINUTE, endOfDay ? 59 : 0);
+		cal.set(Calendar.SECOND, endOfDay ? 59 : 0);
+		cal.set(Calendar.MILLISECOND, endOfDay ? 999 : 0);
+		return cal.getTime();
+	}
+
+	/**
+	 * Returns the encoded certificate.
+	 * 
+	 * @return Returns a copy of the encoded certificate.
+	 */
+	public byte[] getEncoded() {
+		return encoded.clone();
+	}
+
+	/**
+	 * Returns the SHA-256 digest of the encoded certificate.
+	 * 
+	 * @return Returns a copy of the digest.
+	 */
+	public byte[] getDigest() {
+		return digest.clone();
+	}
+
+	/**
+	 * Returns the encoded certificate, not a copy, for the
+	 * {@link CardHandler}.
+	 * 
+	 * @return Returns the encoded certificate.
+	 */
+	byte[] getArray() {
+		return encoded;
+	}
+
+	/**
+	 * Returns the certification authority reference.
+	 * 
+	 * @return Returns a copy of the CAR.
+	 */
+	public byte[] getCAR() {
+		return Arrays.copyOfRange(encoded, carOffset, carOffset + carLength);
+	}
+
+	/**
+	 * Checks the certification authority reference.
+	 * 
+	 * @param car
+	 *            - The reference of a certification authority.
+	 * 
+	 * @return Returns <tt>true</tt>, if the certificate is issued by the given
+	 *         certification authority.
+	 */
+	public boolean isIssuedBy(final byte[] car) {
+		if (car == null || car.length != carLength) {
+			return false;
+		}
+		for (int i = 0; i < carLength; i++) {
+			if (encoded[carOffset + i] != car[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the certificate holder reference.
+	 * 
+	 * @return Returns a copy of the CHR.
+	 */
+	public byte[] getCHR() {
+		return chr.clone();
+	}
+
+	/**
+	 * Returns the certification authority reference as string.
+	 * 
+	 * @return Returns the CAR.
+	 */
+	public String getCARString() {
+		String s = carString;
+		if (s == null) {
+			s = carString = latin1(encoded, carOffset, carLength);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the certificate holder reference as string.
+	 * 
+	 * @return Returns the CHR.
+	 */
+	public String getCHRString() {
+		String s = chrString;
+		if (s == null) {
+			s = chrString = latin1(chr, 0, chr.length);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the role of the certificate holder authorization template, like
+	 * {@link ObjectIdentifier#AUTHENTICATION_TERMINAL}.
+	 * 
+	 * @return Returns the role or <tt>null</tt>, if the certificate has no
+	 *         CHAT or the role isn't registered.
+	 */
+	public ObjectIdentifier getRole() {
+		return role;
+	}
+
+	/**
+	 * Returns the relative authorization of the certificate holder
+	 * authorization template.
+	 * 
+	 * @return Returns a copy of the relative authorization or <tt>null</tt>, if
+	 *         the certificate has no CHAT.
+	 */
+	public byte[] getAuthorization() {
+		return authorization == null ? null : authorization.clone();
+	}
+
+	/**
+	 * Checks whether the certificate is a terminal certificate. The two most
+	 * significant bits of the relative authorization are cleared for terminals
+	 * and set for DV and CVCA certificates.
+	 * 
+	 * @return Returns <tt>true</tt>, if the certificate belongs to a terminal.
+	 */
+	public boolean isTerminal() {
+		return authorization != null && authorization.length > 0 && (authorization[0] & 0xC0) == 0x00;
+	}
+
+	/**
+	 * Returns the first day of the validity period.
+	 * 
+	 * @return Returns the start of the effective day in UTC or <tt>null</tt>,
+	 *         if the certificate has no effective date.
+	 */
+	public Date getEffectiveDate() {
+		Date d = effectiveDate;
+		if (d == null) {
+			final byte[] cvDate = new TLVCursor(encoded, bodyOffset, bodyLength).getValue(0x5F25);
+			if (cvDate == null) {
+				return null;
+			}
+			d = effectiveDate = toDate(cvDate, false);
+		}
+		return (Date) d.clone();
+	}
+
+	/**
+	 * Returns the last day of the validity period.
+	 * 
+	 * @return Returns the end of the expiration day in UTC or <tt>null</tt>,
+	 *         if the certificate has no expiration date.
+	 */
+	public Date getExpirationDate() {
+		Date d = expirationDate;
+		if (d == null) {
+			final byte[] cvDate = new TLVCursor(encoded, bodyOffset, bodyLength).getValue(0x5F24);
+			if (cvDate == null) {
+				return null;
+			}
+			d = expirationDate = toDate(cvDate, true);
+		}
+		return (Date) d.clone();
+	}
+
+	/**
+	 * Returns the hash of a certificate extension, like
+	 * {@link ObjectIdentifier#DESCRIPTION}.
+	 * 
+	 * @param oid
+	 *            - The object identifier of the extension.
+	 * 
+	 * @return Returns a copy of the first hash of the extension or
+	 *         <tt>null</tt>, if the certificate doesn't have the extension.
+	 */
+	public byte[] getExtension(final ObjectIdentifier oid) {
+		final TLVCursor extensions = new TLVCursor(encoded, bodyOffset, bodyLength).enter(0x65);
+		while (extensions.next(0x73)) {
+			final TLVCursor ext = extensions.enter();
+			if (ext.next(0x06) && ext.getObjectIdentifier() == oid) {
+				return ext.next(0x80) ? ext.getValue() : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes ISO-8859-1 characters.
+	 */
+	private static String latin1(final byte[] data, final int offset, final int length) {
+		try {
+			return new String(data, offset, length, "ISO-8859-1");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof CVCertificate && Arrays.equals(digest, ((CVCertificate) obj).digest);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(digest);
+	}
+
+	@Override
+	public String toString() {
+		return getCARString() + "/" + getCHRString();
+	}
+}
@@ -0,0 +1,1623 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.ECField;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.smartcardio.CardException;
+
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
+import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
+
+/**
+ * <p>
+ * The CardEmulator-class emulates an identity card with its reader in the
+ * same process. It answers the <em>APDUs</em> of the eID application like a
+ * card: The static files EF.DIR, EF.ATR, EF.CardAccess and EF.CardSecurity,
+ * PACE with CAN, PIN and PUK, terminal authentication, chip authentication,
+ * the data groups, the auxiliary data verification, restricted
+ * identification, the change of the PIN and the unblocking of the PIN. The
+ * commands after PACE and chip authentication are protected by secure
+ * messaging with AES.
+ * </p>
+ * <p>
+ * The personalization is taken from a {@link CardEmulatorProfile}. Every
+ * instance is an independent card with its own PIN retry counter and
+ * security state, so a single process can emulate many cards for load tests.
+ * The protocols reuse {@link PACE}, {@link CMac} and {@link TLV} of the
+ * terminal side. The reader has no PIN pad and no features.
+ * </p>
+ * <p>
+ * {@link CardHandler} uses the emulator instead of a card, if the system
+ * property {@value #PROPERTY} is set or a profile is set by
+ * {@link CardHandler#setCardEmulatorProfile(CardEmulatorProfile)}.
+ * </p>
+ */
+public class CardEmulator implements TransportProvider, CCID {
+
+	/**
+	 * The system property, which replaces the card by an emulator with the
+	 * default profile.
+	 */
+	public static final String			PROPERTY			= "de.persoapp.core.card.emulator";
+
+	/**
+	 * The maximum length of a command and a response.
+	 */
+	public static final int				MAX_LENGTH			= 65536;
+
+	/**
+	 * The initial value of the retry counter of the PIN.
+	 */
+	public static final int				PIN_RETRIES			= 3;
+
+	/**
+	 * The bit in the effective authorization for the age verification.
+	 */
+	private static final int			CHAT_AGE			= 0;
+
+	/**
+	 * The bit in the effective authorization for the community id
+	 * verification.
+	 */
+	private static final int			CHAT_COMMUNITY		= 1;
+
+	/**
+	 * The bit in the effective authorization for restricted identification.
+	 */
+	private static final int			CHAT_RI				= 2;
+
+	/**
+	 * The bit in the effective authorization to read data group 1, the
+	 * following data groups use the following bits.
+	 */
+	private static final int			CHAT_READ_DG1		= 8;
+
+	/**
+	 * The protocols selected by MANAGE SECURITY ENVIRONMENT.
+	 */
+	private static final int			NONE				= 0, PACE_PROTOCOL = 1, TA_PROTOCOL = 2,
+			CA_PROTOCOL = 3, RI_PROTOCOL = 4;
+
+	/**
+	 * The password references of PACE.
+	 */
+	private static final int			CAN					= 2, PIN = 3, PUK = 4;
+
+	/**
+	 * The padding of secure messaging.
+	 */
+	private static final byte[]			SM_PAD				= new byte[] { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0,
+			0, 0, 0, 0, 0, 0, 0									};
+
+	/**
+	 * The empty data.
+	 */
+	private static final byte[]			EMPTY				= new byte[0];
+
+	/**
+	 * The personalization of the card.
+	 */
+	private final CardEmulatorProfile	profile;
+
+	/**
+	 * The curve of PACE and chip authentication.
+	 */
+	private final ECParameterSpec		ecSpec;
+
+	/**
+	 * The static key pair of chip authentication.
+	 */
+	private final PACE.KeyPair			caKey;
+
+	/**
+	 * The static key pair of restricted identification.
+	 */
+	private final PACE.KeyPair			riKey;
+
+	/**
+	 * Whether every certificate chain and terminal signature is accepted,
+	 * the profile has no trust points.
+	 */
+	private final boolean				permissive;
+
+	/**
+	 * The public keys of the trust points, by holder reference.
+	 */
+	private final Map<String, Key>		trustPoints			= new HashMap<String, Key>();
+
+	/**
+	 * The public keys of the trust points and the imported certificates, by
+	 * holder reference.
+	 */
+	private final Map<String, Key>		keys				= new HashMap<String, Key>();
+
+	/**
+	 * The random source of nonces, challenges and ephemeral keys, independent
+	 * of a seeded random source of the terminal side.
+	 */
+	private final SecureRandom			random				= new SecureRandom();
+
+	/**
+	 * The hash of the key derivation.
+	 */
+	private final MessageDigest			sha1;
+
+	/**
+	 * The last status word.
+	 */
+	private int							lastSW;
+
+	/**
+	 * The current PIN, changed by the card holder.
+	 */
+	private byte[]						pin;
+
+	/**
+	 * The retry counter of the PIN.
+	 */
+	private int							pinRetries			= PIN_RETRIES;
+
+	/**
+	 * Whether a suspended PIN was resumed by PACE with the CAN.
+	 */
+	private boolean						pinResumed;
+
+	/**
+	 * Whether the eID application is selected, otherwise the master file.
+	 */
+	private boolean						eidSelected;
+
+	/**
+	 * The identifier of the selected elementary file or <em>-1</em>.
+	 */
+	private int							currentFile			= -1;
+
+	/**
+	 * The secure messaging channel or <strong>null</strong>.
+	 */
+	private SMChannel					channel;
+
+	/**
+	 * The channel of the keys of the last authentication, which replaces the
+	 * current channel after the response.
+	 */
+	private SMChannel					nextChannel;
+
+	/**
+	 * The protocol selected by MANAGE SECURITY ENVIRONMENT.
+	 */
+	private int							protocol			= NONE;
+
+	/**
+	 * The password reference of the running PACE.
+	 */
+	private int							paceKeyRef;
+
+	/**
+	 * The authorization requested by the terminal with PACE or
+	 * <strong>null</strong>.
+	 */
+	private byte[]						paceCHAT;
+
+	/**
+	 * The next step of the running PACE.
+	 */
+	private int							paceStep;
+
+	/**
+	 * The key agreement of the running PACE.
+	 */
+	private PACE						pace;
+
+	/**
+	 * The ephemeral public key of the card of the running PACE.
+	 */
+	private byte[]						paceCardKey;
+
+	/**
+	 * The ephemeral public key of the terminal of the running PACE.
+	 */
+	private byte[]						paceTerminalKey;
+
+	/**
+	 * The session keys of the running PACE.
+	 */
+	private byte[]						paceKEnc, paceKMac;
+
+	/**
+	 * The password reference of the last successful PACE or <em>0</em>.
+	 */
+	private int							authenticated;
+
+	/**
+	 * The authorization of the last successful PACE.
+	 */
+	private byte[]						authenticatedCHAT;
+
+	/**
+	 * The x-coordinate of the ephemeral public key of the card of the last
+	 * successful PACE.
+	 */
+	private byte[]						idPICC;
+
+	/**
+	 * The key selected to verify the next certificate.
+	 */
+	private Key							selectedKey;
+
+	/**
+	 * The key of the terminal selected for terminal authentication.
+	 */
+	private Key							terminalKey;
+
+	/**
+	 * The x-coordinate of the ephemeral public key of the terminal.
+	 */
+	private byte[]						terminalComp;
+
+	/**
+	 * The auxiliary data of the terminal, tag <em>67</em>, or an empty array.
+	 */
+	private byte[]						auxData				= EMPTY;
+
+	/**
+	 * The challenge of terminal authentication.
+	 */
+	private byte[]						challenge;
+
+	/**
+	 * The effective authorization after terminal authentication or
+	 * <strong>null</strong>.
+	 */
+	private byte[]						effectiveCHAT;
+
+	/**
+	 * Whether chip authentication succeeded.
+	 */
+	private boolean						caDone;
+
+	/**
+	 * A public key of a certificate.
+	 */
+	private static final class Key {
+
+		/** The holder reference. */
+		final byte[]			holder;
+
+		/** The curve or <strong>null</strong>, if unknown. */
+		final ECParameterSpec	curve;
+
+		/** The encoded public point or <strong>null</strong>. */
+		final byte[]			point;
+
+		/** The hash of the signatures or <strong>null</strong>. */
+		final String			hash;
+
+		/** The relative authorization or <strong>null</strong>. */
+		final byte[]			chat;
+
+		Key(final byte[] holder, final ECParameterSpec curve, final byte[] point, final String hash,
+				final byte[] chat) {
+			this.holder = holder;
+			this.curve = curve;
+			this.point = point;
+			this.hash = hash;
+			this.chat = chat;
+		}
+
+		/**
+		 * Whether signatures of the key can be verified.
+		 */
+		boolean canVerify() {
+			return curve != null && point != null && hash != null;
+		}
+	}
+
+	/**
+	 * A parsed command <em>APDU</em>.
+	 */
+	private static final class Command {
+
+		final int		cla, ins, p1, p2;
+
+		final byte[]	data;
+
+		final int		ne;
+
+		Command(final int cla, final int ins, final int p1, final int p2, final byte[] data, final int ne) {
+			this.cla = cla;
+			this.ins = ins;
+			this.p1 = p1;
+			this.p2 = p2;
+			this.data = data;
+			this.ne = ne;
+		}
+
+		/**
+		 * Parses a command with short or extended length.
+		 * 
+		 * @return Returns the command or <strong>null</strong>, if the length
+		 *         is malformed.
+		 */
+		static Command parse(final byte[] apdu) {
+			if (apdu == null || apdu.length < 4) {
+				return null;
+			}
+
+			byte[] data = EMPTY;
+			int ne = 0;
+			if (apdu.length == 5) {
+				ne = apdu[4] == 0 ? 256 : apdu[4] & 0xFF;
+			} else if (apdu.length > 5) {
+				final int l1 = apdu[4] & 0xFF;
+				if (l1 != 0) {
+					if (apdu.length == 5 + l1) {
+						data = ArrayTool.subArray(apdu, 5, l1);
+					} else if (apdu.length == 6 + l1) {
+						data = ArrayTool.subArray(apdu, 5, l1);
+						ne = apdu[5 + l1] == 0 ? 256 : apdu[5 + l1] & 0xFF;
+					} else {
+						return null;
+					}
+				} else if (apdu.length >= 7) {
+					final int l2 = (apdu[5] & 0xFF) << 8 | apdu[6] & 0xFF;
+					if (apdu.length == 7) {
+						ne = l2 == 0 ? 65536 : l2;
+					} else if (l2 != 0 && apdu.length == 7 + l2) {
+						data = ArrayTool.subArray(apdu, 7, l2);
+					} else if (l2 != 0 && apdu.length == 9 + l2) {
+						data = ArrayTool.subArray(apdu, 7, l2);
+						final int l3 = (apdu[7 + l2] & 0xFF) << 8 | apdu[8 + l2] & 0xFF;
+						ne = l3 == 0 ? 65536 : l3;
+					} else {
+						return null;
+					}
+				} else {
+					return null;
+				}
+			}
+			return new Command(apdu[0] & 0xFF, apdu[1] & 0xFF, apdu[2] & 0xFF, apdu[3] & 0xFF, data, ne);
+		}
+	}
+
+	/**
+	 * The secure messaging of the card: It unwraps protected commands and
+	 * wraps the responses with the session keys of PACE or chip
+	 * authentication.
+	 */
+	private static final class SMChannel {
+
+		/** The send sequence counter. */
+		private final byte[]		ssc		= new byte[16];
+
+		/** The encryption key. */
+		private final SecretKeySpec	kEnc;
+
+		/** The cipher of the initialization vectors. */
+		private final Cipher		ecb;
+
+		/** The cipher of the data. */
+		private final Cipher		cbc;
+
+		/** The MAC of the commands and responses. */
+		private final CMac			cmac;
+
+		SMChannel(final byte[] kEnc, final byte[] kMac) throws GeneralSecurityException {
+			this.kEnc = new SecretKeySpec(kEnc, "AES");
+			this.ecb = Cipher.getInstance("AES/ECB/NoPadding");
+			this.ecb.init(Cipher.ENCRYPT_MODE, this.kEnc);
+			this.cbc = Cipher.getInstance("AES/CBC/NoPadding");
+			final Cipher mac = Cipher.getInstance("AES/CBC/NoPadding");
+			mac.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kMac, "AES"), new IvParameterSpec(new byte[16]));
+			this.cmac = new CMac(mac, 8);
+		}
+
+		/**
+		 * Increments the send sequence counter.
+		 */
+		private void increment() {
+			for (int i = ssc.length - 1; i >= 0 && ++ssc[i] == 0; i--) {
+				;
+			}
+		}
+
+		/**
+		 * Unwraps a protected command.
+		 * 
+		 * @return Returns the plain command or <strong>null</strong>, if the
+		 *         data objects or the MAC are wrong.
+		 */
+		Command unwrap(final Command command) throws GeneralSecurityException {
+			increment();
+
+			final byte[] in = command.data;
+			int dataOff = -1, dataLen = 0, neOff = -1, neLen = 0, macOff = -1, macDO = -1;
+			int i = 0;
+			while (i + 2 <= in.length && macOff < 0) {
+				final int tag = in[i] & 0xFF;
+				int len = in[i + 1] & 0xFF;
+				int hdr = 2;
+				if (len > 0x7F) {
+					final int sizeLen = len - 0x80;
+					if (sizeLen > 3 || i + 2 + sizeLen > in.length) {
+						return null;
+					}
+					len = 0;
+					for (int j = 0; j < sizeLen; j++) {
+						len = (len << 8) + (in[i + 2 + j] & 0xFF);
+					}
+					hdr += sizeLen;
+				}
+				if (i + hdr + len > in.length) {
+					return null;
+				}
+
+				if (tag == 0x87) {
+					dataOff = i + hdr;
+					dataLen = len;
+				} else if (tag == 0x97) {
+					neOff = i + hdr;
+					neLen = len;
+				} else if (tag == 0x8E && len == 8) {
+					macDO = i;
+					macOff = i + hdr;
+				} else {
+					return null;
+				}
+				i += hdr + len;
+			}
+			if (macOff < 0) {
+				return null;
+			}
+
+			cmac.update(ssc, 0, ssc.length);
+			cmac.update(new byte[] { (byte) command.cla, (byte) command.ins, (byte) command.p1, (byte) command.p2 },
+					0, 4);
+			cmac.update(SM_PAD, 0, SM_PAD.length - 4);
+			if (macDO > 0) {
+				cmac.update(in, 0, macDO);
+				cmac.update(SM_PAD, 0, SM_PAD.length - macDO % SM_PAD.length);
+			}
+			final byte[] mac = cmac.doFinal();
+			if (!MessageDigest.isEqual(mac, ArrayTool.subArray(in, macOff, 8))) {
+				return null;
+			}
+
+			byte[] data = EMPTY;
+			if (dataOff >= 0) {
+				if (dataLen < 17 || (dataLen - 1) % 16 != 0 || in[dataOff] != 0x01) {
+					return null;
+				}
+				cbc.init(Cipher.DECRYPT_MODE, kEnc, new IvParameterSpec(ecb.doFinal(ssc)));
+				final byte[] padded = cbc.doFinal(in, dataOff + 1, dataLen - 1);
+				int len = padded.length - 1;
+				while (len >= 0 && padded[len] == 0) {
+					len--;
+				}
+				if (len < 0 || padded[len] != (byte) 0x80) {
+					return null;
+				}
+				data = ArrayTool.subArray(padded, 0, len);
+			}
+
+			int ne = 0;
+			if (neOff >= 0) {
+				for (int j = 0; j < neLen; j++) {
+					ne = (ne << 8) + (in[neOff + j] & 0xFF);
+				}
+				if (ne == 0) {
+					ne = neLen == 1 ? 256 : 65536;
+				}
+			}
+
+			return new Command(command.cla & ~0x0C, command.ins, command.p1, command.p2, data, ne);
+		}
+
+		/**
+		 * Wraps a response into the data objects <em>87</em>, <em>99</em>
+		 * and <em>8E</em>.
+		 * 
+		 * @param rapdu
+		 *            - The plain response with status word.
+		 * @return Returns the protected response with status word.
+		 */
+		byte[] wrap(final byte[] rapdu) throws GeneralSecurityException {
+			increment();
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(rapdu.length + 48);
+			final int dataLen = rapdu.length - 2;
+			if (dataLen > 0) {
+				final int encLen = (dataLen / 16 + 1) * 16;
+				final byte[] padded = new byte[encLen];
+				System.arraycopy(rapdu, 0, padded, 0, dataLen);
+				padded[dataLen] = (byte) 0x80;
+				cbc.init(Cipher.ENCRYPT_MODE, kEnc, new IvParameterSpec(ecb.doFinal(ssc)));
+				final byte[] cryptogram = new byte[encLen + 1];
+				cryptogram[0] = 0x01;
+				cbc.doFinal(padded, 0, encLen, cryptogram, 1);
+				write(out, TLV.build(0x87, cryptogram));
+			}
+			write(out, TLV.build(0x99, ArrayTool.subArray(rapdu, dataLen, 2)));
+
+			final byte[] dos = out.toByteArray();
+			cmac.update(ssc, 0, ssc.length);
+			cmac.update(dos, 0, dos.length);
+			cmac.update(SM_PAD, 0, SM_PAD.length - dos.length % SM_PAD.length);
+			write(out, TLV.build(0x8E, cmac.doFinal()));
+
+			return TransportBatch.response(out.toByteArray(), 0x9000);
+		}
+	}
+
+	/**
+	 * Creates an emulated card with the default profile.
+	 */
+	public CardEmulator() {
+		this(new CardEmulatorProfile());
+	}
+
+	/**
+	 * Creates an emulated card with the given personalization. The PIN, the
+	 * curve and the keys of the profile are taken at creation.
+	 * 
+	 * @param profile
+	 *            - The personalization of the card.
+	 */
+	public CardEmulator(final CardEmulatorProfile profile) {
+		this.profile = profile;
+		this.caKey = profile.getCAKey();
+		this.riKey = profile.getRIKey();
+		this.ecSpec = caKey.getCurve();
+		this.pin = profile.getPIN();
+		try {
+			this.sha1 = MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		for (final byte[] cvca : profile.getTrustPoints()) {
+			final byte[] body = new TLVCursor(cvca).getValue(0x7F21, 0x7F4E);
+			final Key key = parseKey(body, null);
+			if (key != null) {
+				trustPoints.put(Hex.toString(key.holder), key);
+			}
+		}
+		this.permissive = trustPoints.isEmpty();
+		this.keys.putAll(trustPoints);
+	}
+
+	/**
+	 * Returns the personalization of the card.
+	 * 
+	 * @return Returns the profile of the card.
+	 */
+	@Override
+	public Object getParent() {
+		return profile;
+	}
+
+	@Override
+	public synchronized byte[] transmit(final byte[] apdu) {
+		final byte[] rapdu;
+		if (apdu != null && apdu.length >= 4 && apdu[0] == (byte) 0xFF && apdu[1] == (byte) 0x9A) {
+			rapdu = readerInfo(apdu);
+		} else {
+			rapdu = process(apdu);
+		}
+
+		lastSW = (rapdu[rapdu.length - 2] & 0xFF) << 8 | rapdu[rapdu.length - 1] & 0xFF;
+		return ArrayTool.subArray(rapdu, 0, rapdu.length - 2);
+	}
+
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		return TransportBatch.transmitEach(this, apdus, acceptable);
+	}
+
+	@Override
+	public synchronized int lastSW() {
+		return lastSW;
+	}
+
+	@Override
+	public int getMaxResponseLength() {
+		return MAX_LENGTH;
+	}
+
+	/**
+	 * Ends the secure messaging session. The emulated card stays present.
+	 */
+	@Override
+	public synchronized void close() {
+		closeSession();
+	}
+
+	@Override
+	public String getName() {
+		return "PersoApp Card Emulator";
+	}
+
+	@Override
+	public boolean hasFeature(final byte feature) {
+		return false;
+	}
+
+	@Override
+	public byte[] verifyPinDirect(final byte[] PIN_VERIFY) throws CardException {
+		throw new CardException("no PIN pad");
+	}
+
+	@Override
+	public byte[] modifyPinDirect(final byte[] PIN_MODIFY) throws CardException {
+		throw new CardException("no PIN pad");
+	}
+
+	@Override
+	public byte[] transmitControlCommand(final byte feature, final byte[] ctrlCommand) {
+		return null;
+	}
+
+	/**
+	 * Returns the retry counter of the PIN.
+	 * 
+	 * @return Returns the remaining attempts.
+	 */
+	public synchronized int getPINRetries() {
+		return pinRetries;
+	}
+
+	/**
+	 * Answers the commands of the reader with its manufacturer and product.
+	 */
+	private static byte[] readerInfo(final byte[] apdu) {
+		if (apdu[2] == 0x01) {
+			switch (apdu[3]) {
+				case 0x01:
+					return TransportBatch.response("PersoApp".getBytes(), 0x9000);
+				case 0x03:
+					return TransportBatch.response("Card Emulator".getBytes(), 0x9000);
+				case 0x06:
+					return TransportBatch.response("1.0".getBytes(), 0x9000);
+			}
+		}
+		return sw(0x6A88);
+	}
+
+	/**
+	 * Returns a response without data.
+	 */
+	private static byte[] sw(final int sw) {
+		return TransportBatch.response(EMPTY, sw);
+	}
+
+	/**
+	 * Processes a plain or protected command. A plain command ends secure
+	 * messaging and a wrong MAC ends it with <em>6988</em>.
+	 */
+	private byte[] process(final byte[] apdu) {
+		final Command command = Command.parse(apdu);
+		if (command == null) {
+			return sw(0x6700);
+		}
+
+		try {
+			byte[] rapdu;
+			if ((command.cla & 0x0C) == 0) {
+				if (channel != null) {
+					closeSession();
+				}
+				rapdu = execute(command);
+			} else if (channel == null) {
+				rapdu = sw(0x6882);
+			} else {
+				final Command plain = channel.unwrap(command);
+				if (plain == null) {
+					closeSession();
+					return sw(0x6988);
+				}
+				rapdu = channel.wrap(execute(plain));
+			}
+
+			if (nextChannel != null) {
+				channel = nextChannel;
+				nextChannel = null;
+			}
+			return rapdu;
+		} catch (final GeneralSecurityException e) {
+			e.printStackTrace();
+			closeSession();
+			return sw(0x6F00);
+		}
+	}
+
+	/**
+	 * Drops the secure messaging channel and the security state of the
+	 * authentications.
+	 */
+	private void closeSession() {
+		channel = nextChannel = null;
+		resetSecurityState();
+	}
+
+	/**
+	 * Drops the security state of the authentications and the imported
+	 * certificates.
+	 */
+	private void resetSecurityState() {
+		protocol = NONE;
+		authenticated = 0;
+		authenticatedCHAT = effectiveCHAT = null;
+		selectedKey = terminalKey = null;
+		challenge = null;
+		caDone = false;
+		keys.clear();
+		keys.putAll(trustPoints);
+	}
+
+	/**
+	 * Executes a plain command.
+	 * 
+	 * @return Returns the response with status word.
+	 */
+	private byte[] execute(final Command c) throws GeneralSecurityException {
+		switch (c.ins) {
+			case 0xA4:
+				return select(c);
+			case 0xB0:
+			case 0xB1:
+				return readBinary(c);
+			case 0x22:
+				return manageSecurityEnvironment(c);
+			case 0x86:
+				return generalAuthenticate(c);
+			case 0x2A:
+				return verifyCertificate(c);
+			case 0x84:
+				return getChallenge(c);
+			case 0x82:
+				return externalAuthenticate(c);
+			case 0x20:
+				return verify(c);
+			case 0x2C:
+				return resetRetryCounter(c);
+			default:
+				return sw(0x6D00);
+		}
+	}
+
+	/**
+	 * SELECT of the master file, the eID application or an elementary file.
+	 */
+	private byte[] select(final Command c) {
+		switch (c.p1) {
+			case 0x00:
+				eidSelected = false;
+				currentFile = -1;
+				return sw(0x9000);
+			case 0x04:
+				if (!Hex.toString(c.data).equals(CardEmulatorProfile.AID_EID)) {
+					return sw(0x6A82);
+				}
+				eidSelected = true;
+				currentFile = -1;
+				return sw(0x9000);
+			case 0x02:
+				if (c.data.length != 2) {
+					return sw(0x6A80);
+				}
+				final int fid = (c.data[0] & 0xFF) << 8 | c.data[1] & 0xFF;
+				final byte[] content = fileContent(fid);
+				if (content == null) {
+					return sw(0x6A82);
+				}
+				currentFile = fid;
+				if (c.p2 == 0x0C) {
+					return sw(0x9000);
+				}
+				final byte[] fcp = TLV.build(0x62, TLV.concat(
+						TLV.build(0x80, new byte[] { (byte) (content.length >> 8), (byte) content.length }),
+						TLV.concat(TLV.build(0x82, new byte[] { 0x01 }), TLV.build(0x83, c.data))));
+				return TransportBatch.response(fcp, 0x9000);
+			default:
+				return sw(0x6A86);
+		}
+	}
+
+	/**
+	 * Returns the contents of the elementary file in the selected directory
+	 * or <strong>null</strong>, if it doesn't exist.
+	 */
+	private byte[] fileContent(final int fid) {
+		if (eidSelected) {
+			return fid > 0x0100 && fid <= 0x0100 + CardEmulatorProfile.DATA_GROUPS ? profile
+					.getDataGroup(fid - 0x0100) : null;
+		}
+
+		switch (fid) {
+			case 0x011C:
+				return profile.getEFCardAccess();
+			case 0x011D:
+				return profile.getEFCardSecurity();
+			case 0x2F00:
+				return profile.getEFDir();
+			case 0x2F01:
+				return profile.getEFAtr(MAX_LENGTH);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Returns the identifier of the elementary file with the given short
+	 * identifier in the selected directory.
+	 */
+	private int fileOf(final int sfi) {
+		if (eidSelected) {
+			return sfi >= 1 && sfi <= CardEmulatorProfile.DATA_GROUPS ? 0x0100 + sfi : -1;
+		}
+
+		switch (sfi) {
+			case 0x1C:
+				return 0x011C;
+			case 0x1D:
+				return 0x011D;
+			case 0x1E:
+				return 0x2F00;
+			case 0x01:
+				return 0x2F01;
+			default:
+				return -1;
+		}
+	}
+
+	/**
+	 * Checks the access condition of reading: EF.CardSecurity requires PACE,
+	 * a data group terminal and chip authentication with the right to read
+	 * it.
+	 */
+	private boolean mayRead(final int fid) {
+		if (eidSelected) {
+			return caDone && hasRight(CHAT_READ_DG1 + fid - 0x0101);
+		}
+		return fid != 0x011D || authenticated != 0;
+	}
+
+	/**
+	 * READ BINARY with offset in P1-P2 or with short file identifier, the odd
+	 * instruction with the offset in data object <em>54</em>.
+	 */
+	private byte[] readBinary(final Command c) {
+		int fid = currentFile;
+		final int offset;
+		if (c.ins == 0xB1) {
+			final byte[] offsetDO = TLV.get(c.data, (byte) 0x54);
+			if (offsetDO == null || offsetDO.length == 0 || offsetDO.length > 3) {
+				return sw(0x6A80);
+			}
+			offset = new BigInteger(1, offsetDO).intValue();
+		} else if ((c.p1 & 0x80) != 0) {
+			fid = fileOf(c.p1 & 0x1F);
+			offset = c.p2;
+		} else {
+			offset = c.p1 << 8 | c.p2;
+		}
+
+		if (fid < 0) {
+			return sw(c.ins == 0xB0 && (c.p1 & 0x80) != 0 ? 0x6A82 : 0x6986);
+		}
+		final byte[] content = fileContent(fid);
+		if (content == null) {
+			return sw(0x6A82);
+		}
+		if (!mayRead(fid)) {
+			return sw(0x6982);
+		}
+		currentFile = fid;
+		if (offset > content.length) {
+			return sw(0x6B00);
+		}
+
+		// the odd instruction wraps the data, its header takes up to 4 bytes
+		final int max = c.ins == 0xB1 ? Math.max(0, c.ne - 4) : c.ne;
+		final int n = Math.min(max, content.length - offset);
+		final byte[] data = ArrayTool.subArray(content, offset, n);
+		final int sw = n < max && c.ne != 256 && c.ne != 65536 ? 0x6282 : 0x9000;
+		return TransportBatch.response(c.ins == 0xB1 ? TLV.build(0x53, data) : data, sw);
+	}
+
+	/**
+	 * MANAGE SECURITY ENVIRONMENT: Selects PACE, terminal authentication,
+	 * chip authentication or restricted identification, or the key to verify
+	 * the next certificate.
+	 */
+	private byte[] manageSecurityEnvironment(final Command c) {
+		final int p1p2 = c.p1 << 8 | c.p2;
+		final ObjectIdentifier oid = ObjectIdentifier.lookup(TLV.get(c.data, (byte) 0x80));
+		switch (p1p2) {
+			case 0xC1A4: {
+				final byte[] keyRef = TLV.get(c.data, (byte) 0x83);
+				if (oid != ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128 || keyRef == null || keyRef.length != 1) {
+					return sw(0x6A80);
+				}
+				if (keyRef[0] < CAN || keyRef[0] > PUK) {
+					// the MRZ is only used by travel documents
+					return sw(0x6A88);
+				}
+
+				final byte[] chat = TLV.get(c.data, (short) 0x7F4C);
+				protocol = PACE_PROTOCOL;
+				paceKeyRef = keyRef[0];
+				paceCHAT = chat == null ? null : TLV.get(chat, (byte) 0x53);
+				paceStep = 0;
+				pace = null;
+				if (paceKeyRef == PIN && pinRetries < PIN_RETRIES) {
+					return sw(0x63C0 | pinRetries);
+				}
+				return sw(0x9000);
+			}
+			case 0x81B6: {
+				final byte[] car = TLV.get(c.data, (byte) 0x83);
+				if (car == null || authenticated == 0) {
+					return sw(0x6982);
+				}
+				selectedKey = keys.get(Hex.toString(car));
+				if (selectedKey == null && permissive) {
+					// every certification authority is trusted
+					selectedKey = new Key(car, null, null, null, null);
+				}
+				return sw(selectedKey != null ? 0x9000 : 0x6A88);
+			}
+			case 0x81A4: {
+				final byte[] chr = TLV.get(c.data, (byte) 0x83);
+				final byte[] comp = TLV.get(c.data, (byte) 0x91);
+				final byte[] aux = TLV.get(c.data, (byte) 0x67);
+				if (authenticated == 0 || caDone) {
+					return sw(0x6982);
+				}
+				if (hashOf(oid) == null || chr == null || comp == null) {
+					return sw(0x6A80);
+				}
+				terminalKey = keys.get(Hex.toString(chr));
+				if (terminalKey == null) {
+					return sw(0x6A88);
+				}
+				protocol = TA_PROTOCOL;
+				terminalComp = comp;
+				auxData = aux == null ? EMPTY : TLV.build(0x67, aux);
+				effectiveCHAT = null;
+				return sw(0x9000);
+			}
+			case 0x41A4:
+				if (oid == ObjectIdentifier.CA_ECDH_AES_CBC_CMAC_128) {
+					if (effectiveCHAT == null) {
+						return sw(0x6982);
+					}
+					protocol = CA_PROTOCOL;
+					return sw(0x9000);
+				} else if (oid == ObjectIdentifier.RI_ECDH_SHA_256) {
+					if (!caDone || !hasRight(CHAT_RI)) {
+						return sw(0x6982);
+					}
+					protocol = RI_PROTOCOL;
+					return sw(0x9000);
+				}
+				return sw(0x6A80);
+			default:
+				return sw(0x6A86);
+		}
+	}
+
+	/**
+	 * GENERAL AUTHENTICATE of PACE, chip authentication or restricted
+	 * identification.
+	 */
+	private byte[] generalAuthenticate(final Command c) throws GeneralSecurityException {
+		if (c.data.length < 2 || c.data[0] != 0x7C) {
+			return sw(0x6A80);
+		}
+		final byte[] data = TLV.get(c.data, (byte) 0x7C);
+
+		switch (protocol) {
+			case PACE_PROTOCOL:
+				return paceStep(data);
+			case CA_PROTOCOL:
+				return chipAuthentication(data);
+			case RI_PROTOCOL:
+				return restrictedIdentification(data);
+			default:
+				return sw(0x6985);
+		}
+	}
+
+	/**
+	 * The steps of PACE: Nonce, mapping, key agreement and mutual
+	 * authentication.
+	 */
+	private byte[] paceStep(final byte[] data) throws GeneralSecurityException {
+		switch (paceStep) {
+			case 0: {
+				if (paceKeyRef == PIN && pinRetries == 0) {
+					return sw(0x6983);
+				}
+				if (paceKeyRef == PIN && pinRetries == 1 && !pinResumed) {
+					// the suspended PIN requires PACE with the CAN first
+					return sw(0x6985);
+				}
+
+				final byte[] password = paceKeyRef == PIN ? pin : paceKeyRef == CAN ? profile.getCAN() : profile
+						.getPUK();
+				final byte[] nonce = new byte[16];
+				random.nextBytes(nonce);
+				final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+				c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kdf(password, null, 3), "AES"), new IvParameterSpec(
+						new byte[16]));
+				pace = new PACE(ecSpec, new BigInteger(1, nonce), random);
+				paceStep = 1;
+				return dynamicData(TLV.build(0x80, c.doFinal(nonce)));
+			}
+			case 1: {
+				final byte[] terminalMapKey = TLV.get(data, (byte) 0x81);
+				if (!isOnCurve(ecSpec, terminalMapKey)) {
+					return abortPACE(0x6A80);
+				}
+				final byte[] cardMapKey = pace.init();
+				paceCardKey = pace.step(terminalMapKey);
+				paceStep = 2;
+				return dynamicData(TLV.build(0x82, cardMapKey));
+			}
+			case 2: {
+				paceTerminalKey = TLV.get(data, (byte) 0x83);
+				if (!isOnCurve(ecSpec, paceTerminalKey) || ArrayTool.arrayequal(paceTerminalKey, paceCardKey)) {
+					return abortPACE(0x6A80);
+				}
+				final byte[] sharedSecret = pace.finish(paceTerminalKey)[1];
+				paceKEnc = kdf(sharedSecret, null, 1);
+				paceKMac = kdf(sharedSecret, null, 2);
+				paceStep = 3;
+				return dynamicData(TLV.build(0x84, paceCardKey));
+			}
+			case 3: {
+				final byte[] token = TLV.get(data, (byte) 0x85);
+				if (token == null
+						|| !MessageDigest.isEqual(token,
+								authToken(paceKMac, ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128, paceCardKey))) {
+					if (paceKeyRef == PIN) {
+						pinRetries = Math.max(0, pinRetries - 1);
+						pinResumed = false;
+						return abortPACE(0x63C0 | pinRetries);
+					}
+					return abortPACE(0x6300);
+				}
+
+				byte[] response = TLV.build(0x86, authToken(paceKMac, ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128,
+						paceTerminalKey));
+				if (paceCHAT != null) {
+					final List<byte[]> references = profile.getCAReferences();
+					response = TLV.concat(response, TLV.build(0x87, references.get(0)));
+					if (references.size() > 1) {
+						response = TLV.concat(response, TLV.build(0x88, references.get(1)));
+					}
+				}
+
+				if (paceKeyRef == PIN) {
+					pinRetries = PIN_RETRIES;
+					pinResumed = false;
+				} else if (paceKeyRef == CAN && pinRetries == 1) {
+					pinResumed = true;
+				}
+
+				final byte[] chat = paceCHAT;
+				final int keyRef = paceKeyRef;
+				nextChannel = new SMChannel(paceKEnc, paceKMac);
+				resetSecurityState();
+				authenticated = keyRef;
+				authenticatedCHAT = chat;
+				idPICC = ArrayTool.subArray(paceCardKey, 1, (paceCardKey.length - 1) / 2);
+				abortPACE(0x9000);
+				return dynamicData(response);
+			}
+			default:
+				return abortPACE(0x6985);
+		}
+	}
+
+	/**
+	 * Ends the running PACE.
+	 * 
+	 * @return Returns the response with the given status word.
+	 */
+	private byte[] abortPACE(final int sw) {
+		protocol = NONE;
+		pace = null;
+		paceStep = 0;
+		paceCardKey = paceTerminalKey = paceKEnc = paceKMac = null;
+		return sw(sw);
+	}
+
+	/**
+	 * Returns the dynamic authentication data, tag <em>7C</em>.
+	 */
+	private static byte[] dynamicData(final byte[] data) {
+		return TransportBatch.response(TLV.build(0x7C, data), 0x9000);
+	}
+
+	/**
+	 * PSO VERIFY CERTIFICATE: Verifies the certificate with the selected key
+	 * and imports its public key.
+	 */
+	private byte[] verifyCertificate(final Command c) {
+		if (c.p1 != 0x00 || c.p2 != 0xBE) {
+			return sw(0x6A86);
+		}
+		if (selectedKey == null) {
+			return sw(0x6A88);
+		}
+
+		final byte[] body = TLV.get(c.data, (short) 0x7F4E);
+		final byte[] signature = TLV.get(c.data, (short) 0x5F37);
+		if (body == null || signature == null
+				|| !ArrayTool.arrayequal(TLV.get(body, (byte) 0x42), selectedKey.holder)) {
+			return sw(0x6A80);
+		}
+
+		if (selectedKey.canVerify()) {
+			if (!verifySignature(selectedKey, TLV.build(0x7F4E, body), signature)) {
+				return sw(0x6300);
+			}
+		} else if (!permissive) {
+			return sw(0x6300);
+		}
+
+		final Key key = parseKey(body, selectedKey);
+		if (key == null) {
+			return sw(0x6A80);
+		}
+		keys.put(Hex.toString(key.holder), key);
+		selectedKey = null;
+		return sw(0x9000);
+	}
+
+	/**
+	 * Parses the holder, the public key and the authorization of a
+	 * certificate body. Without domain parameters the curve of the signer is
+	 * inherited.
+	 * 
+	 * @return Returns the key or <strong>null</strong>, if the body is
+	 *         malformed.
+	 */
+	private static Key parseKey(final byte[] body, final Key signer) {
+		final byte[] holder = TLV.get(body, (short) 0x5F20);
+		final byte[] publicKey = TLV.get(body, (short) 0x7F49);
+		if (holder == null || publicKey == null) {
+			return null;
+		}
+
+		ECParameterSpec curve = curveOf(publicKey);
+		if (curve == null && signer != null) {
+			curve = signer.curve;
+		}
+		final byte[] chat = TLV.get(body, (short) 0x7F4C);
+		return new Key(holder, curve, TLV.get(publicKey, (byte) 0x86), hashOf(ObjectIdentifier.lookup(TLV.get(publicKey, TLV.OID))),
+				chat == null ? null : TLV.get(chat, (byte) 0x53));
+	}
+
+	/**
+	 * Returns the curve of the domain parameters in a public key, a known
+	 * curve of {@link EC_Globals} if the parameters match.
+	 */
+	private static ECParameterSpec curveOf(final byte[] publicKey) {
+		final byte[] p = TLV.get(publicKey, (byte) 0x81);
+		final byte[] a = TLV.get(publicKey, (byte) 0x82);
+		final byte[] b = TLV.get(publicKey, (byte) 0x83);
+		final byte[] g = TLV.get(publicKey, (byte) 0x84);
+		final byte[] n = TLV.get(publicKey, (byte) 0x85);
+		final byte[] h = TLV.get(publicKey, (byte) 0x87);
+		if (p == null || a == null || b == null || g == null || n == null || g.length % 2 == 0) {
+			return null;
+		}
+
+		final BigInteger prime = new BigInteger(1, p);
+		final BigInteger gx = new BigInteger(1, ArrayTool.subArray(g, 1, g.length / 2));
+		for (int id = 0; id < 32; id++) {
+			final ECParameterSpec known = EC_Globals.getCurve(id);
+			if (known != null && prime.equals(((ECFieldFp) known.getCurve().getField()).getP())
+					&& new BigInteger(1, a).equals(known.getCurve().getA())
+					&& gx.equals(known.getGenerator().getAffineX())) {
+				return known;
+			}
+		}
+
+		return new ECParameterSpec(new EllipticCurve(new ECFieldFp(prime), new BigInteger(1, a), new BigInteger(1,
+				b)), new ECPoint(gx, new BigInteger(1, ArrayTool.subArray(g, 1 + g.length / 2, g.length / 2))),
+				new BigInteger(1, n), h == null ? 1 : new BigInteger(1, h).intValue());
+	}
+
+	/**
+	 * Returns the hash of a terminal authentication object identifier.
+	 */
+	private static String hashOf(final ObjectIdentifier oid) {
+		if (oid == ObjectIdentifier.TA_ECDSA_SHA_1) {
+			return "SHA-1";
+		} else if (oid == ObjectIdentifier.TA_ECDSA_SHA_224) {
+			return "SHA-224";
+		} else if (oid == ObjectIdentifier.TA_ECDSA_SHA_256) {
+			return "SHA-256";
+		} else if (oid == ObjectIdentifier.TA_ECDSA_SHA_384) {
+			return "SHA-384";
+		} else if (oid == ObjectIdentifier.TA_ECDSA_SHA_512) {
+			return "SHA-512";
+		}
+		return null;
+	}
+
+	/**
+	 * GET CHALLENGE for terminal authentication.
+	 */
+	private byte[] getChallenge(final Command c) {
+		if (authenticated == 0) {
+			return sw(0x6982);
+		}
+		if (c.ne != 8) {
+			return sw(0x6700);
+		}
+		challenge = new byte[8];
+		random.nextBytes(challenge);
+		return TransportBatch.response(challenge, 0x9000);
+	}
+
+	/**
+	 * EXTERNAL AUTHENTICATE: Verifies the signature of the terminal over the
+	 * identifier of the card, the challenge, the ephemeral public key of the
+	 * terminal and the auxiliary data.
+	 */
+	private byte[] externalAuthenticate(final Command c) {
+		final byte[] expected = challenge;
+		challenge = null;
+		if (protocol != TA_PROTOCOL || expected == null) {
+			return sw(0x6985);
+		}
+		protocol = NONE;
+
+		if (terminalKey.canVerify()) {
+			final byte[] message = TLV.concat(TLV.concat(idPICC, expected), TLV.concat(terminalComp, auxData));
+			if (!verifySignature(terminalKey, message, c.data)) {
+				return sw(0x6300);
+			}
+		} else if (!permissive) {
+			return sw(0x6300);
+		}
+
+		effectiveCHAT = intersect(authenticatedCHAT, terminalKey.chat);
+		if (effectiveCHAT == null) {
+			effectiveCHAT = new byte[5];
+		}
+		return sw(0x9000);
+	}
+
+	/**
+	 * Chip authentication: Key agreement with the static key of the card and
+	 * the ephemeral key of terminal authentication. The response is protected
+	 * with the current keys, the following commands with the new keys.
+	 */
+	private byte[] chipAuthentication(final byte[] data) throws GeneralSecurityException {
+		protocol = NONE;
+		final byte[] terminalKey = TLV.get(data, (byte) 0x80);
+		if (!isOnCurve(ecSpec, terminalKey)
+				|| !ArrayTool.arrayequal(terminalComp,
+						ArrayTool.subArray(terminalKey, 1, (terminalKey.length - 1) / 2))) {
+			return sw(0x6A80);
+		}
+
+		final PACE ca = new PACE(ecSpec, BigInteger.ONE, random);
+		ca.init(caKey);
+		final byte[] sharedSecret = ca.computeSharedSecret(terminalKey);
+		final byte[] nonce = new byte[8];
+		random.nextBytes(nonce);
+		final byte[] kMac = kdf(sharedSecret, nonce, 2);
+		nextChannel = new SMChannel(kdf(sharedSecret, nonce, 1), kMac);
+		caDone = true;
+
+		return dynamicData(TLV.concat(TLV.build(0x81, nonce),
+				TLV.build(0x82, authToken(kMac, ObjectIdentifier.CA_ECDH_AES_CBC_CMAC_128, terminalKey))));
+	}
+
+	/**
+	 * Restricted identification: The sector specific identifier is the hash
+	 * of the key agreement of the static key of the card and the public key
+	 * of the sector.
+	 */
+	private byte[] restrictedIdentification(final byte[] data) throws GeneralSecurityException {
+		protocol = NONE;
+		final byte[] sectorKey = new TLVCursor(data).getValue(0xA0, 0x86);
+		if (!isOnCurve(ecSpec, sectorKey)) {
+			return sw(0x6A80);
+		}
+
+		final PACE ri = new PACE(ecSpec, BigInteger.ONE, random);
+		ri.init(riKey);
+		final byte[] id = MessageDigest.getInstance("SHA-256").digest(ri.computeSharedSecret(sectorKey));
+		return dynamicData(TLV.build(0x81, id));
+	}
+
+	/**
+	 * VERIFY of the auxiliary data: Age, document validity and community id.
+	 */
+	private byte[] verify(final Command c) {
+		if (!caDone) {
+			return sw(0x6982);
+		}
+		if (c.p1 != 0x80 || c.p2 != 0x00) {
+			return sw(0x6A86);
+		}
+
+		final byte[] oidValue = TLV.get(c.data, TLV.OID);
+		final ObjectIdentifier oid = ObjectIdentifier.lookup(oidValue);
+		byte[] reference = null;
+		final TLVCursor templates = new TLVCursor(auxData).enter(0x67);
+		while (templates.next(0x73)) {
+			final TLVCursor template = templates.enter();
+			if (template.next(TLV.OID) && template.valueEquals(oidValue)) {
+				reference = template.getValue(0x53);
+			}
+		}
+		if (reference == null) {
+			return sw(0x6A88);
+		}
+
+		final boolean verified;
+		if (oid == ObjectIdentifier.DATE_OF_BIRTH) {
+			if (!hasRight(CHAT_AGE)) {
+				return sw(0x6982);
+			}
+			// born on or before the reference date
+			final String birth = dataGroupString(8);
+			verified = birth != null && birth.compareTo(new String(reference)) <= 0;
+		} else if (oid == ObjectIdentifier.DATE_OF_EXPIRY) {
+			// valid on the reference date
+			final String expiry = dataGroupString(3);
+			verified = expiry != null && expiry.compareTo(new String(reference)) >= 0;
+		} else if (oid == ObjectIdentifier.COMMUNITY_ID) {
+			if (!hasRight(CHAT_COMMUNITY)) {
+				return sw(0x6982);
+			}
+			final byte[] community = new TLVCursor(profile.getDataGroup(18)).getValue(0x72, TLV.OCTETSTRING);
+			verified = community != null && community.length >= reference.length
+					&& ArrayTool.arrayequal(ArrayTool.subArray(community, 0, reference.length), reference);
+		} else {
+			return sw(0x6A80);
+		}
+		return sw(verified ? 0x9000 : 0x6300);
+	}
+
+	/**
+	 * Returns the string of a data group with a single string, i.e. a date.
+	 */
+	private String dataGroupString(final int number) {
+		final byte[] dg = profile.getDataGroup(number);
+		if (dg == null) {
+			return null;
+		}
+		final byte[] value = TLV.get(dg, dg[0]);
+		return value == null || value.length == 0 ? null : TLV.getString(value);
+	}
+
+	/**
+	 * RESET RETRY COUNTER: Unblocks the PIN after PACE with the PUK or
+	 * changes the PIN after PACE with the PIN.
+	 */
+	private byte[] resetRetryCounter(final Command c) {
+		if (c.p2 != PIN) {
+			return sw(0x6A86);
+		}
+		if (c.p1 == 0x03) {
+			if (authenticated != PUK) {
+				return sw(0x6982);
+			}
+			pinRetries = PIN_RETRIES;
+			pinResumed = false;
+			return sw(0x9000);
+		} else if (c.p1 == 0x02) {
+			if (authenticated != PIN && authenticated != PUK) {
+				return sw(0x6982);
+			}
+			if (c.data.length < 5 || c.data.length > 6) {
+				return sw(0x6A80);
+			}
+			pin = c.data.clone();
+			pinRetries = PIN_RETRIES;
+			return sw(0x9000);
+		}
+		return sw(0x6A86);
+	}
+
+	/**
+	 * Checks a bit of the effective authorization.
+	 */
+	private boolean hasRight(final int bit) {
+		final byte[] chat = effectiveCHAT;
+		return chat != null && bit / 8 < chat.length && (chat[chat.length - 1 - bit / 8] >> bit % 8 & 1) != 0;
+	}
+
+	/**
+	 * Returns the intersection of two authorizations, aligned at the lowest
+	 * bit. A missing authorization doesn't restrict the other one.
+	 */
+	private static byte[] intersect(final byte[] a, final byte[] b) {
+		if (a == null || b == null) {
+			return a == null ? b : a;
+		}
+		final byte[] result = a.clone();
+		for (int i = 0; i < result.length; i++) {
+			result[result.length - 1 - i] &= i < b.length ? b[b.length - 1 - i] : 0;
+		}
+		return result;
+	}
+
+	/**
+	 * The key derivation function with SHA-1 and an optional nonce.
+	 */
+	private byte[] kdf(final byte[] secret, final byte[] nonce, final int counter) {
+		sha1.reset();
+		sha1.update(secret);
+		if (nonce != null) {
+			sha1.update(nonce);
+		}
+		sha1.update(new byte[] { (byte) (counter >> 24), (byte) (counter >> 16), (byte) (counter >> 8),
+				(byte) counter });
+		return ArrayTool.subArray(sha1.digest(), 0, 16);
+	}
+
+	/**
+	 * Calculates the authentication token: The MAC of the public key data
+	 * object with the given protocol and point.
+	 */
+	private static byte[] authToken(final byte[] kMac, final ObjectIdentifier oid, final byte[] point)
+			throws GeneralSecurityException {
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kMac, "AES"), new IvParameterSpec(new byte[16]));
+		final CMac cmac = new CMac(c, 8);
+		final byte[] token = TLV.build(0x7F49, TLV.buildOID(oid.getEncoded(), TLV.build(0x86, point)));
+		cmac.update(token, 0, token.length);
+		return cmac.doFinal();
+	}
+
+	/**
+	 * Decodes an uncompressed point.
+	 * 
+	 * @return Returns the affine point or <strong>null</strong>.
+	 */
+	private static BigInteger[] decodePoint(final ECParameterSpec curve, final byte[] point) {
+		final int fieldLen = (curve.getCurve().getField().getFieldSize() + 7) / 8;
+		if (point == null || point.length != 1 + 2 * fieldLen || point[0] != 0x04) {
+			return null;
+		}
+		return new BigInteger[] { new BigInteger(1, ArrayTool.subArray(point, 1, fieldLen)),
+				new BigInteger(1, ArrayTool.subArray(point, 1 + fieldLen, fieldLen)), BigInteger.ONE };
+	}
+
+	/**
+	 * Validates, that an encoded point lies on the curve.
+	 */
+	private static boolean isOnCurve(final ECParameterSpec curve, final byte[] point) {
+		final BigInteger[] P = decodePoint(curve, point);
+		final ECField field = curve.getCurve().getField();
+		if (P == null || !(field instanceof ECFieldFp)) {
+			return false;
+		}
+
+		final BigInteger p = ((ECFieldFp) field).getP();
+		if (P[0].compareTo(p) >= 0 || P[1].compareTo(p) >= 0) {
+			return false;
+		}
+		// y^2 = x^3 + ax + b
+		final BigInteger right = P[0].multiply(P[0]).add(curve.getCurve().getA()).multiply(P[0])
+				.add(curve.getCurve().getB()).mod(p);
+		return P[1].multiply(P[1]).mod(p).equals(right);
+	}
+
+	/**
+	 * Verifies a plain ECDSA signature <em>r || s</em> with the given key.
+	 */
+	private static boolean verifySignature(final Key key, final byte[] message, final byte[] signature) {
+		final BigInteger n = key.curve.getOrder();
+		final BigInteger[] Q = decodePoint(key.curve, key.point);
+		if (Q == null || signature == null || signature.length == 0 || signature.length % 2 != 0) {
+			return false;
+		}
+
+		final int half = signature.length / 2;
+		final BigInteger r = new BigInteger(1, ArrayTool.subArray(signature, 0, half));
+		final BigInteger s = new BigInteger(1, ArrayTool.subArray(signature, half, half));
+		if (r.signum() == 0 || s.signum() == 0 || r.compareTo(n) >= 0 || s.compareTo(n) >= 0) {
+			return false;
+		}
+
+		final byte[] hash;
+		try {
+			hash = MessageDigest.getInstance(key.hash).digest(message);
+		} catch (final NoSuchAlgorithmException e) {
+			return false;
+		}
+		BigInteger e = new BigInteger(1, hash);
+		if (hash.length * 8 > n.bitLength()) {
+			e = e.shiftRight(hash.length * 8 - n.bitLength());
+		}
+
+		// R = e/s * G + r/s * Q
+		final BigInteger w = s.modInverse(n);
+		final BigInteger[] R = new FastCurve(key.curve).multiplyAdd(e.multiply(w).mod(n), Q, r.multiply(w).mod(n));
+		return R[0] != null && R[0].mod(n).equals(r);
+	}
+
+	/**
+	 * Writes the bytes to the stream.
+	 */
+	private static void write(final ByteArrayOutputStream out, final byte[] data) {
+		out.write(data, 0, data.length);
+	}
+}
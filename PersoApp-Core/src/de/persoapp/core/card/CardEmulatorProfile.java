@@ -0,0 +1,490 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
+import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
+
+/**
+ * <p>
+ * The personalization of an emulated identity card, see {@link CardEmulator}.
+ * It holds the passwords, the curve of the protocols, the trust points of the
+ * terminal authentication and the data groups of the eID application.
+ * </p>
+ * <p>
+ * The static keys of chip authentication and restricted identification and
+ * the files built from them are created on first use and shared by all
+ * emulators of the profile, so a profile can back any number of emulated
+ * cards. Changing the curve creates new keys.
+ * </p>
+ * <p>
+ * Without trust points the emulated card trusts every certification
+ * authority, so it accepts the certificate chains and terminal signatures of
+ * any PKI. With trust points the certificates and the signature of the
+ * terminal authentication are verified.
+ * </p>
+ */
+public class CardEmulatorProfile {
+
+	/**
+	 * The default PIN.
+	 */
+	public static final String			DEFAULT_PIN		= "123456";
+
+	/**
+	 * The default CAN.
+	 */
+	public static final String			DEFAULT_CAN		= "500540";
+
+	/**
+	 * The default PUK.
+	 */
+	public static final String			DEFAULT_PUK		= "9876543210";
+
+	/**
+	 * The default curve, brainpoolP256r1.
+	 */
+	public static final int				DEFAULT_CURVE	= 13;
+
+	/**
+	 * The certification authority reference announced without trust points.
+	 */
+	public static final String			DEFAULT_CAR		= "DETESTeID00005";
+
+	/**
+	 * The number of data groups of the eID application.
+	 */
+	public static final int				DATA_GROUPS		= 21;
+
+	/**
+	 * The charset of the passwords and the default data groups.
+	 */
+	private static final Charset		ASCII			= Charset.forName("US-ASCII");
+
+	/**
+	 * The application identifier of the eID application.
+	 */
+	static final String					AID_EID			= "E80704007F00070302";
+
+	/**
+	 * The PIN.
+	 */
+	private byte[]						pin				= DEFAULT_PIN.getBytes(ASCII);
+
+	/**
+	 * The CAN.
+	 */
+	private byte[]						can				= DEFAULT_CAN.getBytes(ASCII);
+
+	/**
+	 * The PUK.
+	 */
+	private byte[]						puk				= DEFAULT_PUK.getBytes(ASCII);
+
+	/**
+	 * The standardized domain parameter id of the curve.
+	 */
+	private int							curveID			= DEFAULT_CURVE;
+
+	/**
+	 * The CVCA certificates, the trust points of the terminal authentication.
+	 */
+	private final List<byte[]>			trustPoints		= new ArrayList<byte[]>();
+
+	/**
+	 * The data groups of the eID application, indexed by number.
+	 */
+	private final byte[][]				dataGroups		= new byte[DATA_GROUPS + 1][];
+
+	/**
+	 * The static key pair of chip authentication.
+	 */
+	private PACE.KeyPair				caKey;
+
+	/**
+	 * The static key pair of restricted identification.
+	 */
+	private PACE.KeyPair				riKey;
+
+	/**
+	 * The built contents of EF.CardAccess.
+	 */
+	private byte[]						efCardAccess;
+
+	/**
+	 * The built contents of EF.CardSecurity.
+	 */
+	private byte[]						efCardSecurity;
+
+	/**
+	 * Creates a profile with the default passwords and the data groups of a
+	 * test card.
+	 */
+	public CardEmulatorProfile() {
+		dataGroups[1] = TLV.build(0x61, TLV.build(TLV.STRING_PRINT, "ID".getBytes(ASCII)));
+		dataGroups[2] = TLV.build(0x62, TLV.build(TLV.STRING_PRINT, "D".getBytes(ASCII)));
+		dataGroups[3] = TLV.build(0x63, TLV.build(TLV.STRING_NUM, "20301231".getBytes(ASCII)));
+		dataGroups[4] = TLV.buildUTF8(0x64, "ERIKA");
+		dataGroups[5] = TLV.buildUTF8(0x65, "MUSTERMANN");
+		dataGroups[6] = TLV.buildUTF8(0x66, "");
+		dataGroups[7] = TLV.buildUTF8(0x67, "");
+		dataGroups[8] = TLV.build(0x68, TLV.build(TLV.STRING_NUM, "19640812".getBytes(ASCII)));
+		dataGroups[9] = TLV.build(0x69, TLV.buildUTF8(0xA1, "BERLIN"));
+		dataGroups[10] = TLV.build(0x6A, TLV.build(TLV.STRING_PRINT, "D".getBytes(ASCII)));
+		dataGroups[13] = TLV.buildUTF8(0x6D, "GABLER");
+		dataGroups[17] = TLV.build(0x71, TLV.build(TLV.SEQ, TLV.concat(
+				TLV.concat(TLV.buildUTF8(0xAA, "HEIDESTRASSE 17"), TLV.buildUTF8(0xAB, "KOLN")),
+				TLV.concat(TLV.build(0xAD, TLV.build(TLV.STRING_PRINT, "D".getBytes(ASCII))),
+						TLV.build(0xAE, TLV.build(TLV.STRING_PRINT, "51147".getBytes(ASCII)))))));
+		dataGroups[18] = TLV.build(0x72, TLV.build(TLV.OCTETSTRING, Hex.fromString("02760503150000")));
+	}
+
+	/**
+	 * Returns a copy of the PIN.
+	 * 
+	 * @return Returns the PIN.
+	 */
+	public synchronized byte[] getPIN() {
+		return pin.clone();
+	}
+
+	/**
+	 * Sets the PIN of new emulated cards.
+	 * 
+	 * @param pin
+	 *            - The PIN.
+	 */
+	public synchronized void setPIN(final String pin) {
+		this.pin = pin.getBytes(ASCII);
+	}
+
+	/**
+	 * Returns a copy of the CAN.
+	 * 
+	 * @return Returns the CAN.
+	 */
+	public synchronized byte[] getCAN() {
+		return can.clone();
+	}
+
+	/**
+	 * Sets the CAN.
+	 * 
+	 * @param can
+	 *            - The CAN.
+	 */
+	public synchronized void setCAN(final String can) {
+		this.can = can.getBytes(ASCII);
+	}
+
+	/**
+	 * Returns a copy of the PUK.
+	 * 
+	 * @return Returns the PUK.
+	 */
+	public synchronized byte[] getPUK() {
+		return puk.clone();
+	}
+
+	/**
+	 * Sets the PUK.
+	 * 
+	 * @param puk
+	 *            - The PUK.
+	 */
+	public synchronized void setPUK(final String puk) {
+		this.puk = puk.getBytes(ASCII);
+	}
+
+	/**
+	 * Returns the curve of PACE and chip authentication.
+	 * 
+	 * @return Returns the standardized domain parameter id.
+	 */
+	public synchronized int getCurveID() {
+		return curveID;
+	}
+
+	/**
+	 * Sets the curve of PACE and chip authentication. The static keys are
+	 * created again on the new curve.
+	 * 
+	 * @param curveID
+	 *            - The standardized domain parameter id, see
+	 *            {@link EC_Globals}.
+	 * @throws IllegalArgumentException
+	 *             If the curve is unknown.
+	 */
+	public synchronized void setCurveID(final int curveID) {
+		if (curveID < 0 || EC_Globals.getCurve(curveID) == null) {
+			throw new IllegalArgumentException("unknown curve: " + curveID);
+		}
+		this.curveID = curveID;
+		this.caKey = this.riKey = null;
+		this.efCardAccess = this.efCardSecurity = null;
+	}
+
+	/**
+	 * Adds a trust point of the terminal authentication. With trust points
+	 * configured, certificate chains and terminal signatures are verified.
+	 * Emulated cards take the trust points at creation.
+	 * 
+	 * @param cvcaCertificate
+	 *            - The encoded CVCA certificate, tag <em>7F21</em>.
+	 * @throws IllegalArgumentException
+	 *             If the certificate has no body or holder reference.
+	 */
+	public synchronized void addTrustPoint(final byte[] cvcaCertificate) {
+		if (new TLVCursor(cvcaCertificate).find(0x7F21, 0x7F4E, 0x5F20) == null) {
+			throw new IllegalArgumentException("no CVCA certificate");
+		}
+		trustPoints.add(cvcaCertificate.clone());
+	}
+
+	/**
+	 * Returns the trust points of the terminal authentication.
+	 * 
+	 * @return Returns the encoded CVCA certificates, an empty list if every
+	 *         terminal is accepted.
+	 */
+	public synchronized List<byte[]> getTrustPoints() {
+		return new ArrayList<byte[]>(trustPoints);
+	}
+
+	/**
+	 * Returns the references of the certification authorities, which are
+	 * announced after PACE. These are the holder references of the trust
+	 * points or {@value #DEFAULT_CAR} without trust points.
+	 * 
+	 * @return Returns the references, at most two.
+	 */
+	public synchronized List<byte[]> getCAReferences() {
+		final List<byte[]> references = new ArrayList<byte[]>(2);
+		for (int i = trustPoints.size() - 1; i >= 0 && references.size() < 2; i--) {
+			references.add(new TLVCursor(trustPoints.get(i)).getValue(0x7F21, 0x7F4E, 0x5F20));
+		}
+		if (references.isEmpty()) {
+			references.add(DEFAULT_CAR.getBytes(ASCII));
+		}
+		return references;
+	}
+
+	/**
+	 * Returns a data group of the eID application.
+	 * 
+	 * @param number
+	 *            - The number of the data group, <em>1</em> to
+	 *            {@value #DATA_GROUPS}.
+	 * @return Returns the encoded data group or <strong>null</strong>, if the
+	 *         card doesn't have it.
+	 */
+	public synchronized byte[] getDataGroup(final int number) {
+		return number < 1 || number > DATA_GROUPS ? null : dataGroups[number];
+	}
+
+	/**
+	 * Sets a data group of the eID application.
+	 * 
+	 * @param number
+	 *            - The number of the data group, <em>1</em> to
+	 *            {@value #DATA_GROUPS}.
+	 * @param content
+	 *            - The encoded data group or <strong>null</strong> to remove
+	 *            it.
+	 * @throws IllegalArgumentException
+	 *             If the number is out of range.
+	 */
+	public synchronized void setDataGroup(final int number, final byte[] content) {
+		if (number < 1 || number > DATA_GROUPS) {
+			throw new IllegalArgumentException("no data group: " + number);
+		}
+		dataGroups[number] = content == null ? null : content.clone();
+	}
+
+	/**
+	 * Returns the static key pair of chip authentication.
+	 * 
+	 * @return Returns the key pair on the curve of the profile.
+	 */
+	public synchronized PACE.KeyPair getCAKey() {
+		if (caKey == null) {
+			caKey = new PACE(EC_Globals.getCurve(curveID), BigInteger.ONE, new SecureRandom()).createKeyPair();
+		}
+		return caKey;
+	}
+
+	/**
+	 * Returns the static key pair of restricted identification.
+	 * 
+	 * @return Returns the key pair on the curve of the profile.
+	 */
+	public synchronized PACE.KeyPair getRIKey() {
+		if (riKey == null) {
+			riKey = new PACE(EC_Globals.getCurve(curveID), BigInteger.ONE, new SecureRandom()).createKeyPair();
+		}
+		return riKey;
+	}
+
+	/**
+	 * Returns the contents of EF.CardAccess: The security infos of PACE, chip
+	 * authentication and terminal authentication.
+	 * 
+	 * @return Returns the encoded security infos.
+	 */
+	public synchronized byte[] getEFCardAccess() {
+		if (efCardAccess == null) {
+			efCardAccess = TLV.build(TLV.SET, cardAccessInfos());
+		}
+		return efCardAccess;
+	}
+
+	/**
+	 * Returns the contents of EF.CardSecurity: A signed data structure with
+	 * the security infos of EF.CardAccess, the public key of chip
+	 * authentication and the info of restricted identification.
+	 * <p>
+	 * The emulated card has no document signer, so the signed data has no
+	 * signer infos. Terminals, which verify the passive authentication,
+	 * reject it.
+	 * </p>
+	 * 
+	 * @return Returns the encoded content info.
+	 */
+	public synchronized byte[] getEFCardSecurity() {
+		if (efCardSecurity == null) {
+			final byte[] domainParameters = TLV.build(TLV.SEQ,
+					TLV.buildOID(ObjectIdentifier.STANDARDIZED_DOMAIN_PARAMETERS.getEncoded(), integer(curveID)));
+			final byte[] caPublicKey = TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.PK_ECDH.getEncoded(), TLV.concat(
+					TLV.build(TLV.SEQ, TLV.concat(domainParameters,
+							bitString(getCAKey().getPublicKey()))), integer(1))));
+			// RestrictedIdentificationInfo: version 1, key id 1, not only for
+			// authorized terminals
+			final byte[] riInfo = TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.RI_ECDH_SHA_256.getEncoded(), TLV.build(TLV.SEQ,
+					TLV.concat(TLV.concat(integer(1), integer(1)), TLV.build(TLV.BOOLEAN, new byte[] { 0 })))));
+
+			final byte[] securityInfos = TLV.build(TLV.SET,
+					TLV.concat(cardAccessInfos(), TLV.concat(caPublicKey, riInfo)));
+			final byte[] content = TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.SECURITY_OBJECT.getEncoded(),
+					TLV.build(0xA0, TLV.build(TLV.OCTETSTRING, securityInfos))));
+			final byte[] sha256 = TLV.build(TLV.SET,
+					TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.SHA_256.getEncoded(), TLV.build(TLV.NULL, new byte[0]))));
+			final byte[] signedData = TLV.build(TLV.SEQ,
+					TLV.concat(TLV.concat(integer(3), sha256), TLV.concat(content, TLV.build(TLV.SET, new byte[0]))));
+			efCardSecurity = TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.SIGNED_DATA.getEncoded(), TLV.build(0xA0, signedData)));
+		}
+		return efCardSecurity;
+	}
+
+	/**
+	 * Returns the contents of EF.DIR with the eID application.
+	 * 
+	 * @return Returns the application templates.
+	 */
+	public byte[] getEFDir() {
+		return TLV.build(0x61, TLV.concat(TLV.build(0x4F, Hex.fromString(AID_EID)),
+				TLV.build(0x50, "eID".getBytes(ASCII))));
+	}
+
+	/**
+	 * Returns the contents of EF.ATR with the extended length info.
+	 * 
+	 * @param maxResponseLength
+	 *            - The maximum length of a command and of a response.
+	 * @return Returns the encoded ATR info.
+	 */
+	public byte[] getEFAtr(final int maxResponseLength) {
+		return TLV.build(0x7F66, TLV.concat(integer(maxResponseLength), integer(maxResponseLength)));
+	}
+
+	/**
+	 * Builds the security infos of EF.CardAccess without the enclosing set.
+	 */
+	private byte[] cardAccessInfos() {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try {
+			// PACEInfo: version 2, standardized domain parameters
+			baos.write(TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128.getEncoded(), TLV.concat(integer(2), integer(curveID)))));
+			// ChipAuthenticationInfo: version 2, key id 1
+			baos.write(TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.CA_ECDH_AES_CBC_CMAC_128.getEncoded(), TLV.concat(integer(2), integer(1)))));
+			// ChipAuthenticationDomainParameterInfo
+			baos.write(TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.CA_ECDH.getEncoded(), TLV.concat(
+					TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.STANDARDIZED_DOMAIN_PARAMETERS.getEncoded(), integer(curveID))), integer(1)))));
+			// TerminalAuthenticationInfo: version 2
+			baos.write(TLV.build(TLV.SEQ, TLV.buildOID(ObjectIdentifier.TA.getEncoded(), integer(2))));
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Encodes a non-negative integer.
+	 */
+	private static byte[] integer(final int value) {
+		return TLV.build(TLV.INTEGER, BigInteger.valueOf(value).toByteArray());
+	}
+
+	/**
+	 * Encodes a bit string without unused bits.
+	 */
+	private static byte[] bitString(final byte[] value) {
+		final byte[] content = new byte[value.length + 1];
+		System.arraycopy(value, 0, content, 1, value.length);
+		return TLV.build(TLV.BITSTRING, content);
+	}
+}
@@ -58,22 +58,22 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.ECParameterSpec;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
-import javax.smartcardio.CommandAPDU;
 
 import de.persoapp.core.client.IMainView;
 import de.persoapp.core.client.PropertyResolver;
 import de.persoapp.core.client.SecureHolder;
 import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.DERWriter;
 import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
 import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
 
 /**
  * <p>
@@ -94,6 +94,39 @@ public class CardHandler implements ICardHandler {
      */
     private static final String           PACE_AES128CBC = "04007F00070202040202";
 
+    /**
+     * The static files of recently used cards, shared by all card handlers.
+     */
+    private static final CardInfoCache    CARD_INFO_CACHE = new CardInfoCache(CardInfoCache.DEFAULT_SIZE);
+
+    /**
+     * The ephemeral key pairs of PACE created in advance, shared by all card
+     * handlers.
+     */
+    private static final PACEKeyPool      PACE_KEY_POOL   = new PACEKeyPool(PACEKeyPool.DEFAULT_SIZE);
+
+    /**
+     * The engine of the local PACE until an engine has been selected.
+     */
+    private static final PaceEngine       DEFAULT_PACE_ENGINE = new DefaultPaceEngine(PACE_KEY_POOL);
+
+    /**
+     * Guards the selection of the engine of the local PACE, the benchmark
+     * doesn't hold the class monitor.
+     */
+    private static final Object           PACE_ENGINE_LOCK = new Object();
+
+    /**
+     * The selected engine of the local PACE or <tt>null</tt>.
+     */
+    private static volatile PaceEngine    paceEngine;
+
+    /**
+     * The personalization of the emulated cards, which replace the card, or
+     * <tt>null</tt>.
+     */
+    private static CardEmulatorProfile    cardEmulatorProfile;
+
     /**
      * Local instance of core message bundle for localized output.
      */
@@ -162,6 +195,17 @@ public class CardHandler implements ICardHandler {
      */
     private int                           PACEv2_curveID = 13;
 
+    /**
+     * The maximum response length of the ECard as announced in EF.ATR or
+     * <tt>0</tt> if unknown.
+     */
+    private int                           maxCardResponseLength;
+
+    /**
+     * The static information of the card connected through {@link #tp0}.
+     */
+    private CardInfoCache.CardInfo        cardInfo;
+
     /**
      * Create and initialize the {@link CardHandler} with the {@link IMainView}
      * instance of the applications GUI.
@@ -173,6 +217,116 @@ public class CardHandler implements ICardHandler {
         this.mainView = mainView;
     }
 
+    /**
+     * Returns the cache of static card files, i.e. to configure its size.
+     *
+     * @return the cache shared by all card handlers
+     */
+    public static CardInfoCache getCardInfoCache() {
+        return CARD_INFO_CACHE;
+    }
+
+    /**
+     * Returns the pool of ephemeral key pairs of PACE.
+     *
+     * @return the pool shared by all card handlers
+     */
+    public static PACEKeyPool getPACEKeyPool() {
+        return PACE_KEY_POOL;
+    }
+
+    /**
+     * Returns the engine of the local PACE. The call never waits for the
+     * benchmark of {@link #selectPaceEngine()}, until an engine has been
+     * selected the engine named by the system property
+     * {@value PaceEngines#PROPERTY} or the {@link DefaultPaceEngine} is used.
+     *
+     * @return the engine shared by all card handlers
+     */
+    public static PaceEngine getPaceEngine() {
+        final PaceEngine engine = paceEngine;
+        if (engine != null) {
+            return engine;
+        }
+
+        // selecting a known engine by name doesn't run the benchmark
+        final String name = System.getProperty(PaceEngines.PROPERTY);
+        if (name != null && !PaceEngines.AUTO.equalsIgnoreCase(name)) {
+            for (final PaceEngine named : createPaceEngines()) {
+                if (named.getName().equalsIgnoreCase(name)) {
+                    return selectPaceEngine();
+                }
+            }
+        }
+        return DEFAULT_PACE_ENGINE;
+    }
+
+    /**
+     * Selects the engine of the local PACE by the system property
+     * {@value PaceEngines#PROPERTY} or by a short benchmark of the available
+     * engines, see {@link PaceEngines}. Clients call this ahead of the first
+     * card on a thread of their own.
+     *
+     * @return the selected engine
+     */
+    public static PaceEngine selectPaceEngine() {
+        synchronized (PACE_ENGINE_LOCK) {
+            if (paceEngine == null) {
+                // the benchmark runs without the pool, its key pairs stay with the curve of the card
+                final PaceEngine selected = PaceEngines.select(createPaceEngines(),
+                        System.getProperty(PaceEngines.PROPERTY));
+                paceEngine = selected instanceof DefaultPaceEngine ? DEFAULT_PACE_ENGINE : selected;
+                System.out.println("PACE engine: " + paceEngine.getName());
+            }
+            return paceEngine;
+        }
+    }
+
+    /**
+     * Creates the available engines of the local PACE, the reference first.
+     */
+    private static PaceEngine[] createPaceEngines() {
+        return new PaceEngine[] { new DefaultPaceEngine(null), new BCPaceEngine() };
+    }
+
+    /**
+     * Sets the engine of the local PACE.
+     *
+     * @param engine
+     *            - the engine, <tt>null</tt> uses the default engine until
+     *            {@link #selectPaceEngine()} selects one again
+     */
+    public static void setPaceEngine(final PaceEngine engine) {
+        synchronized (PACE_ENGINE_LOCK) {
+            paceEngine = engine;
+        }
+    }
+
+    /**
+     * Returns the personalization of the emulated cards. If the system
+     * property {@value CardEmulator#PROPERTY} is <tt>true</tt>, the default
+     * profile is created on first use.
+     *
+     * @return the profile or <tt>null</tt>, if the card isn't emulated
+     */
+    public static synchronized CardEmulatorProfile getCardEmulatorProfile() {
+        if (cardEmulatorProfile == null && Boolean.getBoolean(CardEmulator.PROPERTY)) {
+            cardEmulatorProfile = new CardEmulatorProfile();
+        }
+        return cardEmulatorProfile;
+    }
+
+    /**
+     * Replaces the card by emulated cards with the given personalization,
+     * every card handler gets its own {@link CardEmulator}.
+     *
+     * @param profile
+     *            - the profile, <tt>null</tt> uses a card again
+     */
+    public static synchronized void setCardEmulatorProfile(final CardEmulatorProfile profile) {
+        cardEmulatorProfile = profile;
+    }
+
     /**
      * Logs the given <tt>message</tt> to the console.
      *
@@ -204,24 +358,10 @@ public class CardHandler implements ICardHandler {
      */
     private byte[] buildCmd(final byte cla, final byte ins, final byte p1, final byte p2, final byte[] data,
             final int le) {
-        if (data == null) {
-            if (le < 0) {
-                return new byte[] { cla, ins, p1, p2, 0, 0, 0 };
-            } else {
-                return new byte[] { cla, ins, p1, p2, 0, 0, 0, (byte) (le >> 8 & 0xFF), (byte) (le & 0xFF) };
-            }
-        } else {
-            if (le < 0) {
-                return ArrayTool.arrayconcat(new byte[] { cla, ins, p1, p2, 0, (byte) (data.length >> 8 & 0xFF),
-                        (byte) (data.length & 0xFF) }, data);
-            } else {
-                return ArrayTool.arrayconcat(
-                        ArrayTool.arrayconcat(new byte[] { cla, ins, p1, p2, 0, (byte) (data.length >> 8 & 0xFF),
-                                (byte) (data.length & 0xFF) }, data), new byte[] { (byte) (le >> 8 & 0xFF),
-                                (byte) (le & 0xFF) });
-
-            }
-        }
+        // the buffer is sized exactly, so it is handed over without copying
+        final int lc = data == null ? 0 : data.length;
+        return new DERWriter(7 + lc + (le < 0 ? 0 : 2)).beginCommand(cla, ins, p1, p2).raw(data).endCommand(le)
+                .toByteArray();
     }
 
     /**
@@ -243,24 +383,32 @@ public class CardHandler implements ICardHandler {
      */
     private int setMSE_AT(final TransportProvider tp, final String cryptoMechanism, final byte keyReference,
             final byte[] CHAT) {
-        try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            baos.write(TLV.build(0x80, Hex.fromString(cryptoMechanism)));
-            baos.write(TLV.build(0x83, new byte[] { keyReference }));
+        final DERWriter cmd = new DERWriter(7 + DERWriter.encodedSize(0x80, (cryptoMechanism.length() + 1) / 2) + 3
+                + (CHAT == null ? 0 : CHAT.length));
+        putMechanism(cmd.beginCommand(0x00, 0x22, 0xC1, 0xA4), 0x80, cryptoMechanism)
+                .put(0x83, new byte[] { keyReference }).raw(CHAT).endCommand(-1);
 
-            if (CHAT != null) {
-                baos.write(CHAT);
-            }
-
-            final byte[] data = baos.toByteArray();
-
-            tp.transmit(buildCmd((byte) 0x00, (byte) 0x22, (byte) 0xC1, (byte) 0xA4, data, -1));
-        } catch (final IOException e2) {
-            e2.printStackTrace();
-        }
+        tp.transmit(cmd.toByteArray());
         return tp.lastSW();
     }
 
+    /**
+     * Writes the object identifier of a cryptographic mechanism, registered
+     * mechanisms are written without decoding the hex string.
+     *
+     * @param w
+     *            - the {@link DERWriter} to write to
+     * @param tag
+     *            - the tag of the data object
+     * @param cryptoMechanism
+     *            - hex string encoded OID
+     * @return the given writer
+     */
+    private static DERWriter putMechanism(final DERWriter w, final int tag, final String cryptoMechanism) {
+        final ObjectIdentifier oid = ObjectIdentifier.forName(cryptoMechanism);
+        return oid != null ? w.putOID(tag, oid) : w.put(tag, Hex.fromString(cryptoMechanism));
+    }
+
     /**
      * General Authenticate to process <tt>PACE</tt> protocol steps. The
      * cryptographic mechanism and key reference is already set by Manage
@@ -282,8 +430,9 @@ public class CardHandler implements ICardHandler {
         }
 
         // apply command chaining indication if not last command
-        authData = tp.transmit(buildCmd(!lastCommand ? (byte) 0x10 : (byte) 0x00, (byte) 0x86, (byte) 0x00,
-                (byte) 0x00, TLV.build((byte) 0x7C, authData), 0));
+        final DERWriter cmd = new DERWriter(7 + DERWriter.encodedSize(0x7C, authData.length) + 2);
+        cmd.beginCommand(!lastCommand ? 0x10 : 0x00, 0x86, 0x00, 0x00).put(0x7C, authData).endCommand(0);
+        authData = tp.transmit(cmd.toByteArray());
 
         // if there is no error extract embedded protocol response
         if (tp.lastSW() == 0x9000) {
@@ -300,32 +449,26 @@ public class CardHandler implements ICardHandler {
      */
     @Override
     public TransportProvider getECard() {
-        if (this.tp0 != null) {
-            final CardChannel cc = (CardChannel) this.tp0.getParent();
-            if (cc != null) {
-                try {
-                    // send 00 00 00 00 command to card to test connection
-                    // exchange with DF AID_NPA for selection ...
-                    if (cc.transmit(new CommandAPDU(new byte[4])) != null) {
-                        return this.tp0;
-                    }
-
-                    // option #2: select MF, test pin state, but resets current
-                    // card internal state
-                    // this.tp0.transmit(new byte[] { 0x00, (byte) 0xA4, 0x00,
-                    // 0x0C, 0x02, 0x3F, 0x00 });
-                    // if (setMSE_AT(this.tp0, PACE_AES128CBC, (byte) 0x03,
-                    // null) != -1) {
-                    // return this.tp0;
-                    // }
-                } catch (final CardException e) {
-                    this.tp0 = null;
-                    e.printStackTrace();
-                }
+        final Object card = this.tp0 instanceof RecordingTransport ? this.tp0.getParent() : this.tp0;
+        if (card instanceof JSCIOTransport) {
+            // the card monitor keeps track of removed and inserted cards, so
+            // the connection is tested without accessing the card
+            if (((JSCIOTransport) card).isCardPresent()) {
+                return this.tp0;
             }
+            this.tp0 = null;
+        } else if (card instanceof CardEmulator) {
+            // the emulated card is never removed
+            return this.tp0;
         }
 
-        final TransportProvider tpNew = getHALTransport();
+        TransportProvider tpNew = getHALTransport();
+
+        // see ApduTrace.PROPERTY
+        final ApduTrace trace = ApduTrace.getDefault();
+        if (tpNew != null && trace != null) {
+            tpNew = new RecordingTransport(tpNew, trace);
+        }
 
         if (tpNew != null) {
             this.tp0 = tpNew;
@@ -352,34 +495,24 @@ public class CardHandler implements ICardHandler {
                 }
             }
 
-            final byte[] EF_DIR = readFile(tpNew, (short) 0x2F00);
-            if (EF_DIR != null) {
-                System.out.println("EF_DIR: " + Hex.toString(EF_DIR));
-                // System.out.println("EF_DIR: " + new String(EF_DIR)); -
-                // Reminder
-                final List<byte[]> apps = TLV.getM(EF_DIR, (byte) 0x61);
-
-                for (final byte[] app : apps) {
-                    final byte[] appAID = TLV.get(app, (byte) 0x4F);
-                    final byte[] appDesc = TLV.get(app, (byte) 0x50);
-                    // byte[] appUnk = TLV.get(app, (byte)0x51); - Reminder
-                    final byte[] appLink = TLV.get(app, (byte) 0x73);
-                    final byte[] appLinkDest = TLV.get(appLink, (byte) 0x4F);
-
-                    System.out.println("APP AID = " + Hex.toString(appAID) + " / "
-                            + (appDesc == null ? "no name" : new String(appDesc))
-                            + (appLinkDest == null ? "" : " -> " + Hex.toString(appLinkDest)));
+            // the static files of known cards are taken from the cache
+            this.maxCardResponseLength = 0;
+            final byte[] efCardAccess = readEFCardAccess(tpNew);
+            final String cardKey = efCardAccess == null ? null : CardInfoCache.identify(getATR(tpNew), efCardAccess);
+            this.cardInfo = cardKey == null ? null : CARD_INFO_CACHE.get(cardKey);
+            if (this.cardInfo == null) {
+                this.cardInfo = readCardInfo(tpNew, efCardAccess);
+                if (cardKey != null) {
+                    CARD_INFO_CACHE.put(cardKey, this.cardInfo);
                 }
-
+            } else {
+                log("Known card, static files from cache: " + cardKey);
             }
+            this.maxCardResponseLength = parseMaxResponseLength(this.cardInfo.getEFAtr());
 
-            final byte[] EF_ATR = readFile(tpNew, (short) 0x2F01);
-            if (EF_ATR != null) {
-                // 7F66 = ISO24727-3 Services
-                final byte[] services = TLV.get(EF_ATR, (short) 0x7F66);
-                System.out.println("EF_ATR: " + Hex.toString(EF_ATR)
-                        + (services == null ? "" : " / ISO 24727-3 services = " + Hex.toString(services)));
-            }
+            // the first key pair of PACE is created while the PIN is entered
+            final int curveID = this.cardInfo.getPACECurveID();
+            getPaceEngine().prepare(EC_Globals.getCurve(curveID >= 0 ? curveID : this.PACEv2_curveID));
 
             tpNew.transmit(new byte[] { 0x00, (byte) 0xA4, 0x00, 0x0C, 0x02, 0x3F, 0x00 });
             setMSE_AT(tpNew, PACE_AES128CBC, (byte) 0x03, null);
@@ -388,6 +521,100 @@ public class CardHandler implements ICardHandler {
         return tpNew;
     }
 
+    /**
+     * Reads EF.CardAccess using its short file identifier.
+     *
+     * @param tp
+     *            - {@link TransportProvider} to be used
+     * @return contents of EF.CardAccess or <tt>null</tt> if not available
+     */
+    private byte[] readEFCardAccess(final TransportProvider tp) {
+        final byte[] efca = tp.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x9C, 0x00, 0x00, 0x00, 0x00 });
+        if (tp.lastSW() != 0x9000 || efca == null || efca.length == 0) {
+            return null;
+        }
+        return efca;
+    }
+
+    /**
+     * Returns the ATR of the card, if the transport provider offers access
+     * to it.
+     *
+     * @param tp
+     *            - {@link TransportProvider} to be used
+     * @return ATR of the card or <tt>null</tt>
+     */
+    private static byte[] getATR(final TransportProvider tp) {
+        Object parent = tp.getParent();
+        while (parent instanceof TransportProvider) {
+            parent = ((TransportProvider) parent).getParent();
+        }
+        if (parent instanceof CardChannel) {
+            return ((CardChannel) parent).getCard().getATR().getBytes();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the static files EF.DIR and EF.ATR of a card not found in the
+     * cache.
+     *
+     * @param tpNew
+     *            - {@link TransportProvider} to be used
+     * @param efCardAccess
+     *            - contents of EF.CardAccess or <tt>null</tt>
+     * @return static information of the card
+     */
+    private CardInfoCache.CardInfo readCardInfo(final TransportProvider tpNew, final byte[] efCardAccess) {
+        final byte[] EF_DIR = readFile(tpNew, (short) 0x2F00);
+        if (EF_DIR != null) {
+            System.out.println("EF_DIR: " + Hex.toString(EF_DIR));
+            // System.out.println("EF_DIR: " + new String(EF_DIR)); -
+            // Reminder
+            final TLVCursor apps = new TLVCursor(EF_DIR);
+
+            while (apps.next(0x61)) {
+                final TLVCursor app = apps.enter();
+                final byte[] appAID = app.getValue(0x4F);
+                final byte[] appDesc = app.getValue(0x50);
+                // byte[] appUnk = app.getValue(0x51); - Reminder
+                final byte[] appLinkDest = app.getValue(0x73, 0x4F);
+
+                System.out.println("APP AID = " + Hex.toString(appAID) + " / "
+                        + (appDesc == null ? "no name" : new String(appDesc))
+                        + (appLinkDest == null ? "" : " -> " + Hex.toString(appLinkDest)));
+            }
+
+        }
+
+        final byte[] EF_ATR = readFile(tpNew, (short) 0x2F01);
+        if (EF_ATR != null) {
+            // 7F66 = ISO24727-3 Services
+            final byte[] services = TLV.get(EF_ATR, (short) 0x7F66);
+            System.out.println("EF_ATR: " + Hex.toString(EF_ATR)
+                    + (services == null ? "" : " / ISO 24727-3 services = " + Hex.toString(services)));
+        }
+
+        return new CardInfoCache.CardInfo(efCardAccess, EF_DIR, EF_ATR, parseCardAccess(efCardAccess));
+    }
+
+    /**
+     * Returns the maximum response length from the extended length info in
+     * EF.ATR.
+     *
+     * @param EF_ATR
+     *            - contents of EF.ATR or <tt>null</tt>
+     * @return maximum response length or <tt>0</tt> if unknown
+     */
+    private static int parseMaxResponseLength(final byte[] EF_ATR) {
+        // extended length info: maximum command and response length
+        final TLVCursor lengths = new TLVCursor(EF_ATR).enter(0x7F66);
+        if (lengths.next(TLV.INTEGER) && lengths.next(TLV.INTEGER)) {
+            return lengths.getInt();
+        }
+        return 0;
+    }
+
     /**
      * Searches for supported ECards through available TransportProviders. This
      * method may be overriden, i.e. in Android as an interface to the hardware
@@ -396,6 +623,11 @@ public class CardHandler implements ICardHandler {
      * @return connected {@link TransportProvider}
      */
     protected TransportProvider getHALTransport() {
+        final CardEmulatorProfile profile = getCardEmulatorProfile();
+        if (profile != null) {
+            return new CardEmulator(profile);
+        }
+
         TransportProvider tpNew = null;
         try {
             // try to find a PC/SC terminal
@@ -405,8 +637,9 @@ public class CardHandler implements ICardHandler {
         }
 
         if (tpNew == null) {
-            // try to connect to PersoSim (http://www.persosim.de)
-            tpNew = PersoSimTransport.getInstance("localhost", 9876);
+            // try to connect to PersoSim (http://www.persosim.de), see
+            // PersoSimTransport.HOST_PROPERTY and PORT_PROPERTY
+            tpNew = PersoSimTransport.getInstance();
 
             if (tpNew != null) {
                 final byte[] aid = Hex.fromString(AID_NPA);
@@ -707,7 +940,7 @@ public class CardHandler implements ICardHandler {
         final ECParameterSpec ecSpec = EC_Globals.getCurve(this.PACEv2_curveID);
 
         /* The PACE protocol */
-        final PACE pace = new PACE(ecSpec, paceNonce);
+        final PaceEngine.Session pace = getPaceEngine().open(ecSpec, paceNonce);
 
         /* send public key on base-curve to card */
         /* retrieve public key of key-pair on base-curve from card */
@@ -739,19 +972,23 @@ public class CardHandler implements ICardHandler {
             final CMac cmac = new CMac(c, 8);
 
             /*
-             * The authentication token.
+             * The authentication token, the public key data object is
+             * written once per key and fed to the MAC from the buffer.
              */
-            byte[] authToken = TLV.build(0x7F49, TLV.buildOID(cryptoMechanism, TLV.build(0x86, paceYA)));
-            cmac.update(authToken, 0, authToken.length);
+            final DERWriter keyData = new DERWriter(DERWriter.encodedSize(0x7F49, DERWriter.encodedSize(TLV.OID,
+                    (cryptoMechanism.length() + 1) / 2) + DERWriter.encodedSize(0x86, paceYA.length)));
+            putMechanism(keyData.begin(0x7F49), TLV.OID, cryptoMechanism).put(0x86, paceYA).end();
+            cmac.update(keyData.getArray(), 0, keyData.size());
 
             final byte[] macResultA = generalAUTH(this.tp, TLV.build(0x85, cmac.doFinal()), true);
             status = this.tp.lastSW();
 
             if (status == 0x9000) {
-                authToken = TLV.build(0x7F49, TLV.buildOID(cryptoMechanism, TLV.build(0x86, paceYB)));
-                cmac.update(authToken, 0, authToken.length);
+                keyData.reset();
+                putMechanism(keyData.begin(0x7F49), TLV.OID, cryptoMechanism).put(0x86, paceYB).end();
+                cmac.update(keyData.getArray(), 0, keyData.size());
 
-                authToken = cmac.doFinal();
+                final byte[] authToken = cmac.doFinal();
                 if (!ArrayTool.arrayequal(TLV.get(macResultA, (byte) 0x86), authToken)) {
                     log("AuthToken does not match! " + Hex.toString(authToken));
                     log("kEnc/kMac should be: " + Hex.toString(kEnc) + "," + Hex.toString(kMac) + " / resp = "
@@ -800,6 +1037,56 @@ public class CardHandler implements ICardHandler {
         return executePACE(keyReference, secret, CHAT, null);
     }
 
+    /**
+     * Parses the security infos in EF.CardAccess.
+     *
+     * @param efCardAccess
+     *            - contents of EF.CardAccess or <tt>null</tt>
+     * @return the standardized domain parameter ID of PACE version 2 or
+     *         <tt>-1</tt> if not announced
+     */
+    private static int parseCardAccess(final byte[] efCardAccess) {
+        int curveID = -1;
+        if (efCardAccess == null) {
+            return curveID;
+        }
+
+        final TLVCursor sets = new TLVCursor(efCardAccess).enter(0x31);
+        while (sets.next(0x30)) {
+            final TLVCursor t = sets.enter();
+            final ObjectIdentifier oid = t.next(TLV.OID) ? t.getObjectIdentifier() : null;
+            System.out.println((oid != null ? oid.getName() : "unknown") + ": " + Hex.toString(sets.getValue()));
+
+            if (oid == ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128) {
+                // version and standardized domain parameter ID
+                if (t.next(TLV.INTEGER)) {
+                    final int paceVersion = t.getInt();
+                    // 0.4.0.127.0.7.2.2.4.2.2 PACE Version
+                    if (paceVersion >= 2 && t.next(TLV.INTEGER)) {
+                        curveID = t.getInt();
+                        System.out.println("PACE: v" + paceVersion + " curve: " + curveID);
+                    } else {
+                        // what about PACE Version < 2?
+                    }
+                }
+            } else if (oid == ObjectIdentifier.CARD_INFO_LOCATOR) {
+                System.out.println("CardInfoLocator: " + new String(t.getValue(0x16)));
+                // AwT ePA - BDr GmbH - Testkarte v1.0
+                // ePA - BDr GmbH - Testkarte v2.0
+                // http://bsi.bund.de/cif/npa.xml
+                //
+            } else if (oid == ObjectIdentifier.TA) {
+            }
+            // 04007F0007020202 // ?
+            // 04007F00070202030202 // KEY
+            // 04007F00070202040202 // Version
+            // 04007F000702020302 // KEY
+            // 04007F0007020206 // CIFL
+        }
+
+        return curveID;
+    }
+
     /**
      * Execute the PACE protocol either remote (terminal with external pin-pad)
      * or locally.
@@ -817,42 +1104,27 @@ public class CardHandler implements ICardHandler {
      * @return status word of failing instruction or -1 for internal error
      */
     private int executePACE(final byte keyReference, final byte[] secret, final byte[] CHAT, final byte[] termDesc) {
-        this.EFCardAccess = this.tp.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x9C, 0x00, 0x00, 0x00, 0x00 });
-        if (this.tp.lastSW() != 0x9000) {
-            this.EFCardAccess = readFile((short) 0x011C);
+        final byte[] cachedCardAccess = this.cardInfo != null ? this.cardInfo.getEFCardAccess() : null;
+        if (cachedCardAccess != null) {
+            this.EFCardAccess = cachedCardAccess;
+        } else {
+            this.EFCardAccess = this.tp.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x9C, 0x00, 0x00, 0x00, 0x00 });
+            if (this.tp.lastSW() != 0x9000) {
+                this.EFCardAccess = readFile((short) 0x011C);
+            }
         }
 
         if (this.EFCardAccess != null) {
             log("EFCardAccess: (" + Integer.toHexString(this.EFCardAccess.length) + ") "
                     + Hex.toString(this.EFCardAccess));
-            final byte[][] sets = TLV.getM(TLV.get(this.EFCardAccess, (byte) 0x31), (byte) 0x30).toArray(new byte[0][]);
-            for (final byte[] t : sets) {
-                final byte[] oid = TLV.get(t, (byte) 0x06);
-                System.out.println(Hex.toString(oid) + ": " + Hex.toString(t));
-
-                if ("04007F00070202040202".equals(Hex.toString(oid))) {
-                    final List<byte[]> data = TLV.getM(t, (byte) 0x02);
-                    final int paceVersion = data.get(0)[0];
-                    // 0.4.0.127.0.7.2.2.4.2.2 PACE Version
-                    if (paceVersion >= 2) {
-                        this.PACEv2_curveID = data.get(1)[0] & 0xFF;
-                        System.out.println("PACE: v" + data.get(0)[0] + " curve: " + this.PACEv2_curveID);
-                    } else {
-                        // what about PACE Version < 2?
-                    }
-                } else if ("04007F0007020206".equals(Hex.toString(oid))) {
-                    System.out.println("CardInfoLocator: " + new String(TLV.get(t, (byte) 0x16)));
-                    // AwT ePA - BDr GmbH - Testkarte v1.0
-                    // ePA - BDr GmbH - Testkarte v2.0
-                    // http://bsi.bund.de/cif/npa.xml
-                    //
-                } else if ("04007F0007020202".equals(Hex.toString(oid))) {
-                }
-                // 04007F0007020202 // ?
-                // 04007F00070202030202 // KEY
-                // 04007F00070202040202 // Version
-                // 04007F000702020302 // KEY
-                // 04007F0007020206 // CIFL
+            final int curveID;
+            if (cachedCardAccess != null) {
+                curveID = this.cardInfo.getPACECurveID();
+            } else {
+                curveID = parseCardAccess(this.EFCardAccess);
+            }
+            if (curveID >= 0) {
+                this.PACEv2_curveID = curveID;
             }
         } else {
             log("EFCardAccess: null");
@@ -1001,21 +1273,26 @@ public class CardHandler implements ICardHandler {
      * @see de.persoapp.core.card.ICardHandler#verifyCertificate(byte[])
      */
     @Override
-    public boolean verifyCertificate(byte[] data) {
+    public boolean verifyCertificate(final byte[] data) {
 
         /*
-         * The certificate to be verified
+         * The certificate to be verified, parsed or taken from the cache
          */
-        final byte[] cert = TLV.get(data, (short) 0x7F21);
-
-        // Certificate data as BER-TLV
-        data = TLV.get(cert, (short) 0x7F4E);
+        final CVCertificate cert = CVCertificate.getInstance(data);
+        if (cert == null) {
+            return false;
+        }
 
-        this.lastCertSubject = TLV.get(data, (short) 0x5F20);
-        data = TLV.build(0x83, TLV.get(data, (byte) 0x42));
-        this.tp.transmit(buildCmd((byte) 0x00, (byte) 0x22, (byte) 0x81, (byte) 0xB6, data, -1));
+        final byte[] encoded = cert.getArray();
+        this.lastCertSubject = cert.getCHR();
+        final DERWriter mse = new DERWriter(7 + DERWriter.encodedSize(0x83, cert.carLength));
+        mse.beginCommand(0x00, 0x22, 0x81, 0xB6).put(0x83, encoded, cert.carOffset, cert.carLength).endCommand(-1);
+        this.tp.transmit(mse.toByteArray());
         if (this.tp.lastSW() == 0x9000) {
-            this.tp.transmit(buildCmd((byte) 0x00, (byte) 0x2A, (byte) 0x00, (byte) 0xBE, cert, -1));
+            final DERWriter pso = new DERWriter(7 + cert.contentsLength);
+            pso.beginCommand(0x00, 0x2A, 0x00, 0xBE).raw(encoded, cert.contentsOffset, cert.contentsLength)
+                    .endCommand(-1);
+            this.tp.transmit(pso.toByteArray());
             if (this.tp.lastSW() == 0x9000) {
                 return true;
             }
@@ -1030,9 +1307,6 @@ public class CardHandler implements ICardHandler {
      */
     @Override
     public void initTA(final byte[] ephemeralKey, final byte[] auxData) {
-        byte[] data = ArrayTool.arrayconcat(TLV.build((byte) 0x80, Hex.fromString("04007F00070202020203")),
-                TLV.build((byte) 0x83, this.lastCertSubject));
-
         // check format of ephemeralKey if uncompressed indicator exists or not
         // and correct it
         // check if input is even -> indicator missing
@@ -1046,16 +1320,19 @@ public class CardHandler implements ICardHandler {
                     + ephemeralKey[0]);
         }
 
+        final DERWriter cmd = new DERWriter();
+        cmd.beginCommand(0x00, 0x22, 0x81, 0xA4);
+        cmd.putOID(0x80, ObjectIdentifier.TA_ECDSA_SHA_256).put(0x83, this.lastCertSubject);
+
         // split x-coordinate away and include it, omit indicator byte
-        data = ArrayTool.arrayconcat(data,
-                TLV.build((byte) 0x91, ArrayTool.subArray(this.TAKey, 1, (this.TAKey.length - 1) / 2)));
+        cmd.put(0x91, this.TAKey, 1, (this.TAKey.length - 1) / 2);
 
-        data = ArrayTool.arrayconcat(data, auxData);
+        cmd.raw(auxData).endCommand(-1);
 
         // tp.transmit("002281A400" + Hex.shortToString(data.length) +
         // Hex.toString(data));
         // transmit("002281A4", data);
-        this.tp.transmit(buildCmd((byte) 0x00, (byte) 0x22, (byte) 0x81, (byte) 0xA4, data, -1));
+        this.tp.transmit(cmd.toByteArray());
     }
 
     /*
@@ -1104,7 +1381,10 @@ public class CardHandler implements ICardHandler {
     }
 
     /**
-     * Read elementary file using specified transport probider.
+     * Read elementary file using specified transport probider. The file is
+     * read in chunks of the largest response length supported by transport
+     * provider and card. If the file control parameters are available, they
+     * determine the size of the file and the amount of chunks.
      *
      * @param tp
      *            - {@link TransportProvider} to be used
@@ -1113,28 +1393,108 @@ public class CardHandler implements ICardHandler {
      * @return contents of elementary file
      */
     private byte[] readFile(final TransportProvider tp, final short FID) {
-        tp.transmit(new byte[] { 0x00, (byte) 0xA4, 0x02, 0x0C, 0x02, (byte) (FID >> 8), (byte) (FID & 0xFF) });
-        if (tp.lastSW() != 0x9000) {
+        final byte[] fcp = tp.transmit(new byte[] { 0x00, (byte) 0xA4, 0x02, 0x04, 0x02, (byte) (FID >> 8),
+                (byte) (FID & 0xFF), 0x00 });
+        if (tp.lastSW() == 0x6A82) {
             return null;
         }
 
-        final byte[] READ_BINARY = new byte[] { 0x00, (byte) 0xB0, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        short read = 0;
-        try {
-            do {
-                READ_BINARY[2] = (byte) (read >> 8);
-                READ_BINARY[3] = (byte) (read & 0xFF);
-                baos.write(tp.transmit(READ_BINARY));
-                read = (short) baos.size();
-            } while (tp.lastSW() == 0x9000 && read >= 0x0100);
-        } catch (final IOException ex) {
-            Logger.getLogger(CardHandler.class.getName()).log(Level.SEVERE, null, ex);
+        int size = -1;
+        if (tp.lastSW() == 0x9000) {
+            size = getFileSize(fcp);
+        } else {
+            // card doesn't return file control parameters
+            tp.transmit(new byte[] { 0x00, (byte) 0xA4, 0x02, 0x0C, 0x02, (byte) (FID >> 8), (byte) (FID & 0xFF) });
+            if (tp.lastSW() != 0x9000) {
+                return null;
+            }
+        }
+
+        int max = tp.getMaxResponseLength();
+        if (this.maxCardResponseLength > 0) {
+            max = Math.min(max, tp instanceof ISOSMTransport ? SecureMessaging
+                    .maxPlainLength(this.maxCardResponseLength) : Math.max(256, this.maxCardResponseLength));
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(size > 0 ? size : max);
+        int read = 0;
+        while (size < 0 || read < size) {
+            // odd instruction READ BINARY wraps the data in DO53
+            final boolean odd = read > 0x7FFF;
+            final int ne = size < 0 ? max : Math.min(max, size - read + (odd ? 4 : 0));
+            final byte[] rsp = tp.transmit(buildReadBinary(read, ne));
+            final byte[] data = odd ? TLV.get(rsp, (byte) 0x53) : rsp;
+            if (data == null) {
+                break;
+            }
+
+            baos.write(data, 0, data.length);
+            read += data.length;
+            if (tp.lastSW() != 0x9000 || data.length == 0) {
+                break;
+            }
         }
 
         return baos.toByteArray();
     }
 
+    /**
+     * Returns the size of the file from the file control parameters.
+     *
+     * @param fcp
+     *            - response of SELECT with file control parameters
+     * @return size of the file or <tt>-1</tt> if unknown
+     */
+    private static int getFileSize(final byte[] fcp) {
+        final TLVCursor size = new TLVCursor(fcp).find(0x62, 0x80);
+        if (size == null || size.getValueLength() == 0 || size.getValueLength() > 3) {
+            return -1;
+        }
+        return size.getInt();
+    }
+
+    /**
+     * Builds a READ BINARY command. Offsets beyond 32767 can't be encoded in
+     * P1-P2 and use the odd instruction with an offset data object.
+     *
+     * @param offset
+     *            - offset within the file
+     * @param ne
+     *            - the expected length of the response
+     * @return <em>APDU</em> to be sent to card
+     */
+    private static byte[] buildReadBinary(final int offset, final int ne) {
+        final byte[] header;
+        final byte[] data;
+        if (offset <= 0x7FFF) {
+            header = new byte[] { 0x00, (byte) 0xB0, (byte) (offset >> 8), (byte) (offset & 0xFF) };
+            data = new byte[0];
+        } else {
+            header = new byte[] { 0x00, (byte) 0xB1, 0x00, 0x00 };
+            data = TLV.build(0x54, new byte[] { (byte) (offset >> 16), (byte) (offset >> 8), (byte) offset });
+        }
+
+        final ByteArrayOutputStream apdu = new ByteArrayOutputStream(data.length + 11);
+        apdu.write(header, 0, header.length);
+        if (ne <= 0x100) {
+            if (data.length > 0) {
+                apdu.write(data.length);
+                apdu.write(data, 0, data.length);
+            }
+            apdu.write(ne & 0xFF);
+        } else {
+            apdu.write(0);
+            if (data.length > 0) {
+                apdu.write(data.length >> 8);
+                apdu.write(data.length & 0xFF);
+                apdu.write(data, 0, data.length);
+            }
+            apdu.write(ne >> 8 & 0xFF);
+            apdu.write(ne & 0xFF);
+        }
+        return apdu.toByteArray();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1160,6 +1520,12 @@ public class CardHandler implements ICardHandler {
             this.tp0.close();
             this.tp.close();
             this.tp0 = this.tp = null;
+            this.cardInfo = null;
+        } else if (this.tp0 != null) {
+            // release the terminal for other card handlers
+            this.tp0.close();
+            this.tp0 = null;
+            this.cardInfo = null;
         }
     }
 
@@ -1175,6 +1541,17 @@ public class CardHandler implements ICardHandler {
                 (byte) (this.tp0.lastSW() & 0xFF) });
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see de.persoapp.core.card.ICardHandler#transmitBatch(java.util.List,
+     * java.util.List)
+     */
+    @Override
+    public List<byte[]> transmitBatch(final List<byte[]> cmds, final List<List<byte[]>> acceptable) {
+        return this.tp0.transmitBatch(cmds, acceptable);
+    }
+
     /**
      * Initiate PACE with signature terminal and select signature application
      * (DF_ESIGN).
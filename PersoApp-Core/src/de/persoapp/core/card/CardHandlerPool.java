@@ -0,0 +1,201 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import de.persoapp.core.util.Hex;
+
+/**
+ * <p>
+ * The <tt>CardHandlerPool</tt> assigns a {@link ICardHandler} to every slot
+ * handle of a running session. Sessions with different slot handles get
+ * different card handlers, so they don't share any state of a card and run on
+ * different terminals at the same time.
+ * </p>
+ * <p>
+ * The primary card handler is handed out first, further card handlers are
+ * created by the {@link Factory}. Released card handlers are reused. Without a
+ * factory, all sessions share the primary card handler.
+ * </p>
+ * 
+ * @see de.persoapp.core.client.ECardSession
+ */
+public final class CardHandlerPool {
+
+	/**
+	 * Creates the card handlers of the pool.
+	 */
+	public interface Factory {
+
+		/**
+		 * Creates a new card handler.
+		 * 
+		 * @return Returns the new card handler.
+		 */
+		ICardHandler create();
+	}
+
+	/**
+	 * The card handler used first, i.e. the one of the GUI.
+	 */
+	private final ICardHandler				primary;
+
+	/**
+	 * The factory for further card handlers or <tt>null</tt>.
+	 */
+	private final Factory					factory;
+
+	/**
+	 * The card handlers in use, mapped by the slot handle.
+	 */
+	private final Map<String, ICardHandler>	bound	= new HashMap<String, ICardHandler>();
+
+	/**
+	 * The released card handlers.
+	 */
+	private final LinkedList<ICardHandler>	idle	= new LinkedList<ICardHandler>();
+
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param primary
+	 *            - The card handler used first.
+	 * @param factory
+	 *            - The factory for further card handlers or <tt>null</tt>, if
+	 *            all sessions share the primary card handler.
+	 */
+	public CardHandlerPool(final ICardHandler primary, final Factory factory) {
+		if (primary == null) {
+			throw new NullPointerException();
+		}
+
+		this.primary = primary;
+		this.factory = factory;
+	}
+
+	/**
+	 * Returns the card handler used first.
+	 * 
+	 * @return Returns the primary card handler.
+	 */
+	public ICardHandler getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * Returns the card handler bound to the given slot handle. If no card
+	 * handler is bound yet, a free card handler is bound.
+	 * 
+	 * @param slotHandle
+	 *            - The slot handle of the session or <tt>null</tt>.
+	 * @return Returns the card handler of the slot handle or the primary card
+	 *         handler, if no slot handle is given.
+	 */
+	public synchronized ICardHandler acquire(final byte[] slotHandle) {
+		if (slotHandle == null || factory == null) {
+			return primary;
+		}
+
+		final String key = Hex.toString(slotHandle);
+		ICardHandler handler = bound.get(key);
+		if (handler == null) {
+			if (!bound.containsValue(primary)) {
+				handler = primary;
+			} else if (!idle.isEmpty()) {
+				handler = idle.removeFirst();
+			} else {
+				handler = factory.create();
+			}
+			bound.put(key, handler);
+		}
+
+		return handler;
+	}
+
+	/**
+	 * Releases the card handler bound to the given slot handle. The card
+	 * handler is reset, which closes its connection to the card and frees the
+	 * terminal.
+	 * 
+	 * @param slotHandle
+	 *            - The slot handle of the session.
+	 */
+	public void release(final byte[] slotHandle) {
+		if (slotHandle == null) {
+			return;
+		}
+
+		final ICardHandler handler;
+		synchronized (this) {
+			handler = bound.get(Hex.toString(slotHandle));
+		}
+		if (handler == null) {
+			return;
+		}
+
+		handler.reset();
+		synchronized (this) {
+			bound.remove(Hex.toString(slotHandle));
+			if (handler != primary) {
+				idle.addLast(handler);
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of card handlers in use.
+	 * 
+	 * @return Returns the amount of bound card handlers.
+	 */
+	public synchronized int size() {
+		return bound.size();
+	}
+}
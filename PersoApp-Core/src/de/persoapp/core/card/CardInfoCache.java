@@ -0,0 +1,280 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.persoapp.core.util.Hex;
+
+/**
+ * <p>
+ * The <tt>CardInfoCache</tt> keeps the static files of recently used cards,
+ * so they don't have to be read again when a card is inserted again or used
+ * in another session. Cards are identified by their ATR and the hash of
+ * EF.CardAccess. The cache holds a limited amount of cards and evicts the
+ * least recently used one.
+ * </p>
+ * <p>
+ * Only files which are identical for all cards with the same identity are
+ * cached. EF.CardSecurity contains the chip authentication key and is always
+ * read from the card.
+ * </p>
+ * 
+ * @see CardHandler
+ */
+public final class CardInfoCache {
+
+	/**
+	 * The default amount of cached cards.
+	 */
+	public static final int	DEFAULT_SIZE	= 8;
+
+	/**
+	 * The static information of a card. The instances are shared by all
+	 * sessions with the same card, the contents are copied on the way in and
+	 * out.
+	 */
+	public static final class CardInfo {
+
+		/**
+		 * The raw contents of EF.CardAccess.
+		 */
+		private final byte[]	efCardAccess;
+
+		/**
+		 * The raw contents of EF.DIR or <tt>null</tt>.
+		 */
+		private final byte[]	efDir;
+
+		/**
+		 * The raw contents of EF.ATR or <tt>null</tt>.
+		 */
+		private final byte[]	efAtr;
+
+		/**
+		 * The curve announced in the PACEInfo of EF.CardAccess or <tt>-1</tt>.
+		 */
+		private final int		paceCurveID;
+
+		/**
+		 * Creates the information of a card.
+		 * 
+		 * @param efCardAccess
+		 *            - The raw contents of EF.CardAccess.
+		 * @param efDir
+		 *            - The raw contents of EF.DIR or <tt>null</tt>.
+		 * @param efAtr
+		 *            - The raw contents of EF.ATR or <tt>null</tt>.
+		 * @param paceCurveID
+		 *            - The curve announced in EF.CardAccess or <tt>-1</tt>.
+		 */
+		public CardInfo(final byte[] efCardAccess, final byte[] efDir, final byte[] efAtr, final int paceCurveID) {
+			this.efCardAccess = copy(efCardAccess);
+			this.efDir = copy(efDir);
+			this.efAtr = copy(efAtr);
+			this.paceCurveID = paceCurveID;
+		}
+
+		/**
+		 * Returns the raw contents of EF.CardAccess.
+		 * 
+		 * @return Returns the raw contents of EF.CardAccess.
+		 */
+		public byte[] getEFCardAccess() {
+			return copy(efCardAccess);
+		}
+
+		/**
+		 * Returns the raw contents of EF.DIR.
+		 * 
+		 * @return Returns the raw contents of EF.DIR or <tt>null</tt>, if the
+		 *         card doesn't have an EF.DIR.
+		 */
+		public byte[] getEFDir() {
+			return copy(efDir);
+		}
+
+		/**
+		 * Returns the raw contents of EF.ATR.
+		 * 
+		 * @return Returns the raw contents of EF.ATR or <tt>null</tt>, if the
+		 *         card doesn't have an EF.ATR.
+		 */
+		public byte[] getEFAtr() {
+			return copy(efAtr);
+		}
+
+		/**
+		 * Returns the curve announced in the PACEInfo of EF.CardAccess.
+		 * 
+		 * @return Returns the standardized domain parameter ID or <tt>-1</tt>,
+		 *         if EF.CardAccess doesn't announce one.
+		 */
+		public int getPACECurveID() {
+			return paceCurveID;
+		}
+
+		/**
+		 * Copies the given contents.
+		 */
+		private static byte[] copy(final byte[] data) {
+			return data == null ? null : data.clone();
+		}
+	}
+
+	/**
+	 * The cached cards in access order.
+	 */
+	private final LinkedHashMap<String, CardInfo>	cards;
+
+	/**
+	 * The maximum amount of cached cards.
+	 */
+	private int										maxSize;
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param maxSize
+	 *            - The maximum amount of cached cards, <tt>0</tt> disables
+	 *            the cache.
+	 */
+	public CardInfoCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.cards = new LinkedHashMap<String, CardInfo>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CardInfo> eldest) {
+				return size() > CardInfoCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Computes the identity of a card.
+	 * 
+	 * @param atr
+	 *            - The ATR of the card or <tt>null</tt>, if the transport
+	 *            doesn't provide it.
+	 * @param efCardAccess
+	 *            - The raw contents of EF.CardAccess.
+	 * 
+	 * @return Returns the key of the card within the cache.
+	 */
+	public static String identify(final byte[] atr, final byte[] efCardAccess) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-256");
+			return (atr == null ? "" : Hex.toString(atr)) + "/" + Hex.toString(md.digest(efCardAccess));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the information of a cached card.
+	 * 
+	 * @param key
+	 *            - The identity of the card.
+	 * 
+	 * @return Returns the information or <tt>null</tt>, if the card isn't
+	 *         cached.
+	 */
+	public synchronized CardInfo get(final String key) {
+		return cards.get(key);
+	}
+
+	/**
+	 * Adds the information of a card and evicts the least recently used card
+	 * if the cache is full.
+	 * 
+	 * @param key
+	 *            - The identity of the card.
+	 * @param info
+	 *            - The information of the card.
+	 */
+	public synchronized void put(final String key, final CardInfo info) {
+		if (maxSize > 0) {
+			cards.put(key, info);
+		}
+	}
+
+	/**
+	 * Changes the maximum amount of cached cards and evicts the least recently
+	 * used cards if necessary.
+	 * 
+	 * @param maxSize
+	 *            - The maximum amount of cached cards, <tt>0</tt> disables
+	 *            the cache.
+	 */
+	public synchronized void setMaxSize(final int maxSize) {
+		this.maxSize = maxSize;
+		while (cards.size() > maxSize) {
+			cards.remove(cards.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Returns the amount of cached cards.
+	 * 
+	 * @return Returns the amount of cached cards.
+	 */
+	public synchronized int size() {
+		return cards.size();
+	}
+
+	/**
+	 * Removes all cached cards.
+	 */
+	public synchronized void clear() {
+		cards.clear();
+	}
+}
@@ -0,0 +1,431 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * <p>
+ * The <tt>CardMonitor</tt> watches the installed card terminals in the
+ * background and keeps a snapshot of the terminals and the inserted cards.
+ * The snapshot is replaced as a whole on every change, so reading it needs
+ * neither a lock nor a round trip to the terminals.
+ * </p>
+ * <p>
+ * Every insertion of a card opens a new card session. A connection to a card
+ * remains valid as long as the terminal reports the same session, so a card
+ * that has been removed and inserted again is detected, too.
+ * </p>
+ * 
+ * @see JSCIOTransport
+ */
+public final class CardMonitor {
+
+	/**
+	 * The time in milliseconds to wait for a change of the terminals, before
+	 * the list of terminals is refreshed. Attached and detached terminals are
+	 * not reported by every implementation of the terminals.
+	 */
+	private static final long			POLL_TIMEOUT	= 1000;
+
+	/**
+	 * The time in milliseconds to wait, before the terminals are queried again
+	 * after an error.
+	 */
+	private static final long			RETRY_TIMEOUT	= 2000;
+
+	/**
+	 * The time in milliseconds to wait for the first snapshot.
+	 */
+	private static final long			START_TIMEOUT	= 2000;
+
+	/**
+	 * The monitor of the system terminals.
+	 */
+	private static CardMonitor			instance;
+
+	/**
+	 * The listener for changes of the terminals or the inserted cards.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the thread of the monitor, after a terminal has been
+		 * attached or detached or a card has been inserted or removed.
+		 * 
+		 * @param state
+		 *            - The new snapshot.
+		 */
+		void stateChanged(State state);
+	}
+
+	/**
+	 * The immutable snapshot of the terminals and the inserted cards.
+	 */
+	public static final class State {
+
+		/**
+		 * The snapshot without any terminal.
+		 */
+		static final State						EMPTY	= new State(Collections.<CardTerminal> emptyList(),
+																Collections.<String, Integer> emptyMap());
+
+		/**
+		 * The installed terminals.
+		 */
+		private final List<CardTerminal>		terminals;
+
+		/**
+		 * The card sessions of the terminals with an inserted card, mapped by
+		 * the name of the terminal.
+		 */
+		private final Map<String, Integer>	sessions;
+
+		/**
+		 * Creates a snapshot.
+		 * 
+		 * @param terminals
+		 *            - The installed terminals.
+		 * @param sessions
+		 *            - The card sessions of the terminals with an inserted
+		 *            card.
+		 */
+		State(final List<CardTerminal> terminals, final Map<String, Integer> sessions) {
+			this.terminals = terminals;
+			this.sessions = sessions;
+		}
+
+		/**
+		 * Returns the installed terminals.
+		 * 
+		 * @return Returns the unmodifiable list of the terminals.
+		 */
+		public List<CardTerminal> getTerminals() {
+			return terminals;
+		}
+
+		/**
+		 * Returns the terminals with an inserted card.
+		 * 
+		 * @return Returns the list of the terminals with a card.
+		 */
+		public List<CardTerminal> getCardTerminals() {
+			final List<CardTerminal> result = new ArrayList<CardTerminal>(sessions.size());
+			for (final CardTerminal terminal : terminals) {
+				if (sessions.containsKey(terminal.getName())) {
+					result.add(terminal);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Returns whether a card is inserted in the given terminal.
+		 * 
+		 * @param terminal
+		 *            - The terminal.
+		 * @return Returns <tt>true</tt>, if a card is inserted.
+		 */
+		public boolean isCardPresent(final CardTerminal terminal) {
+			return getCardSession(terminal) != 0;
+		}
+
+		/**
+		 * Returns the session of the card inserted in the given terminal.
+		 * 
+		 * @param terminal
+		 *            - The terminal.
+		 * @return Returns the session of the card or <tt>0</tt>, if no card is
+		 *         inserted.
+		 */
+		public int getCardSession(final CardTerminal terminal) {
+			final Integer session = terminal == null ? null : sessions.get(terminal.getName());
+			return session == null ? 0 : session.intValue();
+		}
+	}
+
+	/**
+	 * The monitored terminals or <tt>null</tt>, if there is no terminal
+	 * service.
+	 */
+	private final CardTerminals					terminals;
+
+	/**
+	 * The current snapshot.
+	 */
+	private final AtomicReference<State>		state		= new AtomicReference<State>(State.EMPTY);
+
+	/**
+	 * The registered listeners.
+	 */
+	private final List<Listener>				listeners	= new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * Released after the first snapshot has been taken.
+	 */
+	private final CountDownLatch				started		= new CountDownLatch(1);
+
+	/**
+	 * The counter of the card sessions, used by the thread of the monitor
+	 * only.
+	 */
+	private int									lastSession;
+
+	/**
+	 * The thread of the monitor or <tt>null</tt>, if the monitor isn't
+	 * running.
+	 */
+	private volatile Thread						thread;
+
+	/**
+	 * Creates a monitor of the given terminals. The monitor must be started
+	 * with {@link #start()}.
+	 * 
+	 * @param terminals
+	 *            - The terminals to monitor or <tt>null</tt>, if there is no
+	 *            terminal service.
+	 */
+	public CardMonitor(final CardTerminals terminals) {
+		this.terminals = terminals;
+	}
+
+	/**
+	 * Returns the running monitor of the terminals of the system.
+	 * 
+	 * @return Returns the monitor.
+	 */
+	public static synchronized CardMonitor getInstance() {
+		if (instance == null) {
+			instance = new CardMonitor(JSCIOTransport.getTerminals());
+			instance.start();
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts the background thread of the monitor.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+
+		if (terminals == null) {
+			started.countDown();
+			return;
+		}
+
+		final Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				monitor();
+			}
+		}, "CardMonitor");
+		t.setDaemon(true);
+		thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stops the background thread of the monitor. The last snapshot remains
+	 * available.
+	 */
+	public synchronized void stop() {
+		final Thread t = thread;
+		thread = null;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Returns the current snapshot of the terminals. Only the first call waits
+	 * until the terminals have been queried.
+	 * 
+	 * @return Returns the current snapshot.
+	 */
+	public State getState() {
+		if (started.getCount() > 0) {
+			try {
+				started.await(START_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return state.get();
+	}
+
+	/**
+	 * Registers the given listener.
+	 * 
+	 * @param listener
+	 *            - The listener to register.
+	 */
+	public void addListener(final Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener
+	 *            - The listener to remove.
+	 */
+	public void removeListener(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Queries the terminals and waits for changes until the monitor is
+	 * stopped.
+	 */
+	private void monitor() {
+		final Thread self = Thread.currentThread();
+		while (thread == self) {
+			try {
+				update(refresh());
+				terminals.waitForChange(POLL_TIMEOUT);
+			} catch (final CardException e) {
+				// no terminal installed or terminal service not available
+				update(State.EMPTY);
+				Logger.getLogger(CardMonitor.class.getName()).log(Level.FINE, "Terminals not available", e);
+				try {
+					Thread.sleep(RETRY_TIMEOUT);
+				} catch (final InterruptedException ie) {
+					break;
+				}
+			} catch (final RuntimeException e) {
+				// i.e. IllegalStateException if the terminal service was stopped
+				update(State.EMPTY);
+				Logger.getLogger(CardMonitor.class.getName()).log(Level.WARNING, "Monitoring terminals failed", e);
+				try {
+					Thread.sleep(RETRY_TIMEOUT);
+				} catch (final InterruptedException ie) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queries the terminals and the inserted cards.
+	 * 
+	 * @return Returns the new snapshot.
+	 * @throws CardException
+	 *             If the terminals couldn't be queried.
+	 */
+	private State refresh() throws CardException {
+		final List<CardTerminal> all = terminals.list(CardTerminals.State.ALL);
+		final List<CardTerminal> present = terminals.list(CardTerminals.State.CARD_PRESENT);
+
+		// cards removed and inserted again since the last change
+		final Set<String> inserted = new HashSet<String>();
+		for (final CardTerminal terminal : terminals.list(CardTerminals.State.CARD_INSERTION)) {
+			inserted.add(terminal.getName());
+		}
+
+		final State previous = state.get();
+		final Map<String, Integer> sessions = new HashMap<String, Integer>();
+		for (final CardTerminal terminal : present) {
+			final String name = terminal.getName();
+			final Integer session = previous.sessions.get(name);
+			sessions.put(name, session == null || inserted.contains(name) ? Integer.valueOf(++lastSession)
+					: session);
+		}
+
+		return new State(Collections.unmodifiableList(new ArrayList<CardTerminal>(all)),
+				Collections.unmodifiableMap(sessions));
+	}
+
+	/**
+	 * Publishes the given snapshot and notifies the listeners, if the
+	 * terminals or the cards have changed.
+	 * 
+	 * @param next
+	 *            - The new snapshot.
+	 */
+	private void update(final State next) {
+		final State previous = state.get();
+		boolean changed = !previous.sessions.equals(next.sessions)
+				|| previous.terminals.size() != next.terminals.size();
+		for (int i = 0; !changed && i < next.terminals.size(); i++) {
+			changed = !previous.terminals.get(i).getName().equals(next.terminals.get(i).getName());
+		}
+
+		if (changed) {
+			state.set(next);
+		}
+		started.countDown();
+
+		if (changed) {
+			for (final Listener listener : listeners) {
+				try {
+					listener.stateChanged(next);
+				} catch (final RuntimeException e) {
+					Logger.getLogger(CardMonitor.class.getName()).log(Level.WARNING, "Listener failed", e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+
+/**
+ * <p>
+ * The <tt>DefaultPaceEngine</tt> runs the generic mapping on the
+ * self-contained {@link PACE} implementation. The first ephemeral key pair
+ * of a session is taken from a {@link PACEKeyPool}, if available. The pool
+ * is skipped while {@link PACE#setRandomSource(java.util.Random)} holds a
+ * generator, so that all keys of a seeded session come from the generator.
+ * </p>
+ * 
+ * @see PaceEngines
+ */
+public final class DefaultPaceEngine implements PaceEngine {
+
+	/**
+	 * The name of the engine.
+	 */
+	public static final String	NAME	= "default";
+
+	/**
+	 * The pool of key pairs or <tt>null</tt>.
+	 */
+	private final PACEKeyPool	pool;
+
+	/**
+	 * Creates the engine.
+	 * 
+	 * @param pool
+	 *            - The pool of ephemeral key pairs or <tt>null</tt>.
+	 */
+	public DefaultPaceEngine(final PACEKeyPool pool) {
+		this.pool = pool;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#getName()
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#prepare(java.security.spec.ECParameterSpec)
+	 */
+	@Override
+	public void prepare(final ECParameterSpec ecSpec) {
+		if (pool != null && PACE.getRandomSource() == null) {
+			pool.prepare(ecSpec);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see de.persoapp.core.card.PaceEngine#open(java.security.spec.ECParameterSpec, java.math.BigInteger)
+	 */
+	@Override
+	public Session open(final ECParameterSpec ecSpec, final BigInteger nonce) {
+		final PACE pace = new PACE(ecSpec, nonce);
+		final PACEKeyPool keys = PACE.getRandomSource() == null ? pool : null;
+		return new Session() {
+			@Override
+			public byte[] init() {
+				return pace.init(keys == null ? null : keys.take(ecSpec));
+			}
+
+			@Override
+			public byte[] step(final byte[] mapData) {
+				return pace.step(mapData);
+			}
+
+			@Override
+			public byte[][] finish(final byte[] data) {
+				return pace.finish(data);
+			}
+		};
+	}
+}
@@ -150,21 +150,48 @@ public class EC_Globals {
 			"AADD9DB8DBE9C48B3FD4E6AE33C9FC07CB308DB3B3C9D20ED6639CCA703308717D4D9B009BC66842AECDA12AE6A380E62881FF2F2D82C68528AA6056583A48F3", // P
 			"7830A3318B603B89E2327145AC234CC594CBDD8D3DF91610A83441CAEA9863BC2DED5D5AA8253AA10A2EF1C98B9AC8B57F1117A72BF2C7B9E7C1AC4D77FC94CA", // A
 			"3DF91610A83441CAEA9863BC2DED5D5AA8253AA10A2EF1C98B9AC8B57F1117A72BF2C7B9E7C1AC4D77FC94CADC083E67984050B75EBAE5DD2809BD638016F723", // B
-			"0481AEE4BDD82ED9645A21322E9C4C6A9385ED9F70B5D916C1B43B62EEF4D0098EFF3B1F78E2D0D48D50D1687B93B97D5F7C6D5047406A5E688B352209BCB9F822", // Gx
+			"81AEE4BDD82ED9645A21322E9C4C6A9385ED9F70B5D916C1B43B62EEF4D0098EFF3B1F78E2D0D48D50D1687B93B97D5F7C6D5047406A5E688B352209BCB9F822", // Gx
 			"7DDE385D566332ECC0EABFA9CF7822FDF209F70024A57B1AA000C55B881F8111B2DCDE494A5F485E5BCA4BD88A2763AED1CA2B2FA8F0540678CD1E0F3AD80892", // Gy
 			"AADD9DB8DBE9C48B3FD4E6AE33C9FC07CB308DB3B3C9D20ED6639CCA70330870553E5C414CA92619418661197FAC10471DB1D381085DDADDB58796829CA90069", // N
 			"01" // h
 			}											};
 
+	/**
+	 * The parsed curves, indexed by id. {@link ECParameterSpec} is immutable,
+	 * so one instance per curve is shared by all callers.
+	 */
+	private static final ECParameterSpec[]	CURVES				= new ECParameterSpec[DOMAIN_PARAMETERS.length];
+
 	/**
 	 * Returns the {@link ECParameterSpec} according to
-	 * the given <em>id</em>.
+	 * the given <em>id</em>. The domain parameters are parsed on the first
+	 * request, later requests return the same instance.
 	 * 
 	 * @param id
 	 *            - The id of the curve.
 	 * @return Returns the {@link ECParameterSpec}.
 	 */
-	public static ECParameterSpec getCurve(final int id) {
+	public static synchronized ECParameterSpec getCurve(final int id) {
+		if (id < CURVES.length && CURVES[id] != null) {
+			return CURVES[id];
+		}
+
+		final ECParameterSpec ecSpec = parseCurve(id);
+		if (ecSpec != null) {
+			CURVES[id] = ecSpec;
+		}
+		return ecSpec;
+	}
+
+	/**
+	 * Parses the domain parameters of the curve with the given <em>id</em>.
+	 * 
+	 * @param id
+	 *            - The id of the curve.
+	 * @return Returns the {@link ECParameterSpec} or <strong>null</strong>, if
+	 *         the curve is unknown.
+	 */
+	private static ECParameterSpec parseCurve(final int id) {
 		if (id < DOMAIN_PARAMETERS.length && DOMAIN_PARAMETERS[id] != null) {
 			final EllipticCurve curve = new EllipticCurve(new ECFieldFp(new BigInteger(DOMAIN_PARAMETERS[id][0], 16)),
 					new BigInteger(DOMAIN_PARAMETERS[id][1], 16), new BigInteger(DOMAIN_PARAMETERS[id][2], 16));
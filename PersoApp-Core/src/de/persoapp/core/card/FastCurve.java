@@ -0,0 +1,740 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ * Point arithmetic of a short Weierstrass curve over a prime field using
+ * {@link MontgomeryField}. Points are calculated in Jacobian coordinates on
+ * preallocated limb arrays, the public methods take and return affine points
+ * in the <tt>BigInteger[] { x, y, z }</tt> format of {@link PACE}, a point
+ * with <tt>null</tt> coordinates is the point at infinity.
+ * </p>
+ * <p>
+ * Curves with <em>a = -3</em> (NIST) use the shorter doubling formula, all
+ * other curves (Brainpool) the general one. An instance holds scratch space
+ * and must not be used by several threads at the same time.
+ * </p>
+ * <p>
+ * The constants of the field and a fixed-base comb table of the generator are
+ * computed once per curve and shared by all instances. Multiples of the
+ * generator ({@link #multiplyGenerator(BigInteger)}) take one doubling per
+ * comb column instead of one per scalar bit. The tables of both methods are
+ * normalised to affine coordinates with a single inversion, so every
+ * addition of a multiplication is a mixed one.
+ * </p>
+ * 
+ * @see PACE
+ */
+public final class FastCurve {
+
+	/**
+	 * The precomputed parameters of the curves in use. The keys are compared
+	 * by identity, {@link EC_Globals#getCurve(int)} returns one instance per
+	 * curve.
+	 */
+	private static final Map<ECParameterSpec, Parameters>	PARAMETERS	= new WeakHashMap<ECParameterSpec, Parameters>();
+
+	/**
+	 * The immutable parameters of a curve, shared by all instances.
+	 */
+	private static final class Parameters {
+
+		/** The field, used as template for the field of an instance. */
+		final MontgomeryField	field;
+
+		/** The coefficient <em>a</em> in Montgomery representation. */
+		final int[]				a;
+
+		/** Set, if <em>a = -3</em>. */
+		final boolean			aIsMinus3;
+
+		/** The width of the window of the non-adjacent form. */
+		final int				window;
+
+		/** The width of the comb, the number of rows of the scalar. */
+		final int				combWidth;
+
+		/** The number of columns of the comb. */
+		final int				combSpan;
+
+		/**
+		 * The affine points <em>sum(b_j * 2^(j * span) * G)</em> for all bit
+		 * patterns <em>b</em> of one comb column, index 0 is unused.
+		 */
+		int[][][]				comb;
+
+		/**
+		 * The affine odd multiples <em>G, 3G, 5G, ...</em> of the generator
+		 * for a window one wider than {@link #window}, used by
+		 * {@link FastCurve#multiplyAdd(BigInteger, BigInteger[], BigInteger)}.
+		 */
+		int[][][]				generatorTable;
+
+		Parameters(final ECParameterSpec ecSpec) {
+			final EllipticCurve curve = ecSpec.getCurve();
+			final BigInteger q = ((ECFieldFp) curve.getField()).getP();
+			this.field = new MontgomeryField(q);
+			this.a = field.newElement();
+			field.toMontgomery(curve.getA(), this.a);
+			this.aIsMinus3 = curve.getA().equals(q.subtract(BigInteger.valueOf(3)));
+
+			// scalars have at most the byte length of the field
+			final int bits = (q.bitLength() + 7) / 8 * 8;
+			this.window = window(q.bitLength());
+			this.combWidth = bits > 256 ? 6 : 5;
+			this.combSpan = (bits + combWidth - 1) / combWidth;
+		}
+	}
+
+	/**
+	 * The parameters of the curve.
+	 */
+	private final Parameters				params;
+
+	/**
+	 * The field of the curve.
+	 */
+	private final MontgomeryField			f;
+
+	/**
+	 * The coefficient <em>a</em> in Montgomery representation.
+	 */
+	private final int[]						a;
+
+	/**
+	 * Set, if <em>a = -3</em>.
+	 */
+	private final boolean					aIsMinus3;
+
+	/**
+	 * The precomputed odd multiples <em>P, 3P, 5P, ...</em> of the point to
+	 * multiply, normalised to affine coordinates.
+	 */
+	private final int[][][]					table;
+
+	/**
+	 * The affine generator of the curve.
+	 */
+	private final BigInteger[]				generator;
+
+	/**
+	 * The partial products of the simultaneous inversion, allocated on
+	 * demand.
+	 */
+	private int[][]							prefix;
+
+	/**
+	 * The accumulator of the multiplication.
+	 */
+	private final int[][]					acc;
+
+	/**
+	 * A temporary point.
+	 */
+	private final int[][]					tmp;
+
+	/**
+	 * Temporary field elements.
+	 */
+	private final int[]						t1, t2, t3, t4, t5, t6, t7;
+
+	/**
+	 * Creates the arithmetic of the given curve.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 */
+	public FastCurve(final ECParameterSpec ecSpec) {
+		this(parameters(ecSpec), new BigInteger[] { ecSpec.getGenerator().getAffineX(),
+				ecSpec.getGenerator().getAffineY(), BigInteger.ONE });
+	}
+
+	/**
+	 * Creates the arithmetic on the given parameters, the comb table of the
+	 * parameters may still be missing.
+	 */
+	private FastCurve(final Parameters params, final BigInteger[] generator) {
+		this.params = params;
+		this.generator = generator;
+		this.f = new MontgomeryField(params.field);
+		this.a = params.a;
+		this.aIsMinus3 = params.aIsMinus3;
+
+		this.table = new int[1 << params.window - 2][][];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = newPoint();
+		}
+		this.acc = newPoint();
+		this.tmp = newPoint();
+		this.t1 = f.newElement();
+		this.t2 = f.newElement();
+		this.t3 = f.newElement();
+		this.t4 = f.newElement();
+		this.t5 = f.newElement();
+		this.t6 = f.newElement();
+		this.t7 = f.newElement();
+	}
+
+	/**
+	 * Returns the width of the window of the non-adjacent form for a field of
+	 * the given size. The table of a wider window needs more additions to
+	 * build than it saves on short scalars.
+	 * 
+	 * @param bits
+	 *            - The bit length of the prime.
+	 * @return Returns the width of the window.
+	 */
+	static int window(final int bits) {
+		return bits <= 224 ? 4 : bits <= 384 ? 5 : 6;
+	}
+
+	/**
+	 * Returns the shared parameters of the given curve, they are computed on
+	 * the first request.
+	 */
+	private static Parameters parameters(final ECParameterSpec ecSpec) {
+		synchronized (PARAMETERS) {
+			Parameters params = PARAMETERS.get(ecSpec);
+			if (params == null) {
+				params = new Parameters(ecSpec);
+				final FastCurve builder = new FastCurve(params, null);
+				builder.buildComb(ecSpec.getGenerator());
+				builder.buildGeneratorTable(ecSpec.getGenerator());
+				PARAMETERS.put(ecSpec, params);
+			}
+			return params;
+		}
+	}
+
+	/**
+	 * Builds the comb table of the generator and stores it in the parameters.
+	 */
+	private void buildComb(final ECPoint G) {
+		final int width = params.combWidth;
+		final int[][][] comb = new int[1 << width][][];
+
+		// the rows 2^(j * span) * G
+		final int[][] row = newPoint();
+		load(new BigInteger[] { G.getAffineX(), G.getAffineY(), BigInteger.ONE }, row);
+		for (int j = 0; j < width; j++) {
+			if (j > 0) {
+				for (int i = 0; i < params.combSpan; i++) {
+					twice(row, row);
+				}
+			}
+			comb[1 << j] = newPoint();
+			copy(row, comb[1 << j]);
+		}
+
+		// all other patterns are the sum of their lowest row and the rest
+		for (int i = 3; i < comb.length; i++) {
+			if ((i & i - 1) != 0) {
+				comb[i] = newPoint();
+				add(comb[i & i - 1], comb[i & -i], comb[i]);
+			}
+		}
+
+		// normalised to affine, the additions of the multiplication are mixed
+		normalize(comb, 1, comb.length - 1);
+		params.comb = comb;
+	}
+
+	/**
+	 * Builds the odd multiples of the generator and stores them in the
+	 * parameters.
+	 */
+	private void buildGeneratorTable(final ECPoint G) {
+		final int[][][] odd = new int[1 << params.window - 1][][];
+		for (int i = 0; i < odd.length; i++) {
+			odd[i] = newPoint();
+		}
+		oddMultiples(new BigInteger[] { G.getAffineX(), G.getAffineY(), BigInteger.ONE }, odd);
+		params.generatorTable = odd;
+	}
+
+	/**
+	 * Multiplies the generator of the curve with the given scalar using the
+	 * shared comb table.
+	 * 
+	 * @param k
+	 *            - The non-negative scalar.
+	 * @return Returns the affine result.
+	 */
+	public BigInteger[] multiplyGenerator(final BigInteger k) {
+		final int width = params.combWidth;
+		final int span = params.combSpan;
+		if (k.bitLength() > width * span) {
+			return multiply(this.generator, k);
+		}
+		if (k.signum() == 0) {
+			return new BigInteger[] { null, null, null };
+		}
+
+		final int[][][] comb = params.comb;
+		setInfinity(acc);
+		for (int i = span - 1; i >= 0; i--) {
+			twice(acc, acc);
+			int index = 0;
+			for (int j = width - 1; j >= 0; j--) {
+				index <<= 1;
+				if (k.testBit(j * span + i)) {
+					index |= 1;
+				}
+			}
+			if (index != 0) {
+				add(acc, comb[index], acc);
+			}
+		}
+
+		return store(acc);
+	}
+
+	/**
+	 * Multiplies the given point with the given scalar.
+	 * 
+	 * @param P
+	 *            - The point.
+	 * @param k
+	 *            - The non-negative scalar.
+	 * @return Returns the affine result.
+	 */
+	public BigInteger[] multiply(final BigInteger[] P, final BigInteger k) {
+		if (k.signum() == 0 || P[0] == null) {
+			return new BigInteger[] { null, null, null };
+		}
+
+		oddMultiples(P, table);
+
+		final int[] naf = wnaf(k, params.window);
+		setInfinity(acc);
+		for (int i = naf.length - 1; i >= 0; i--) {
+			twice(acc, acc);
+			addDigit(naf[i], table);
+		}
+
+		return store(acc);
+	}
+
+	/**
+	 * Calculates <em>s &middot; G + k &middot; P</em> with the generator
+	 * <em>G</em> in a single pass. The non-adjacent forms of both scalars are
+	 * interleaved (Shamir's trick), so the doublings are shared and only the
+	 * additions of both scalars are needed.
+	 * 
+	 * @param s
+	 *            - The non-negative scalar of the generator.
+	 * @param P
+	 *            - The point.
+	 * @param k
+	 *            - The non-negative scalar of the point.
+	 * @return Returns the affine result.
+	 */
+	public BigInteger[] multiplyAdd(final BigInteger s, final BigInteger[] P, final BigInteger k) {
+		if (k.signum() == 0 || P[0] == null) {
+			return multiplyGenerator(s);
+		}
+		if (s.signum() == 0) {
+			return multiply(P, k);
+		}
+
+		oddMultiples(P, table);
+
+		final int[] nafS = wnaf(s, params.window + 1);
+		final int[] nafK = wnaf(k, params.window);
+		setInfinity(acc);
+		for (int i = Math.max(nafS.length, nafK.length) - 1; i >= 0; i--) {
+			twice(acc, acc);
+			if (i < nafS.length) {
+				addDigit(nafS[i], params.generatorTable);
+			}
+			if (i < nafK.length) {
+				addDigit(nafK[i], table);
+			}
+		}
+
+		return store(acc);
+	}
+
+	/**
+	 * Fills the given table with the affine odd multiples <em>P, 3P, 5P,
+	 * ...</em> of the given point.
+	 */
+	private void oddMultiples(final BigInteger[] P, final int[][][] odd) {
+		load(P, odd[0]);
+		twice(odd[0], tmp);
+		for (int i = 1; i < odd.length; i++) {
+			add(odd[i - 1], tmp, odd[i]);
+		}
+		normalize(odd, 0, odd.length);
+	}
+
+	/**
+	 * Adds the multiple of a digit of a non-adjacent form to the accumulator.
+	 */
+	private void addDigit(final int digit, final int[][][] odd) {
+		if (digit > 0) {
+			add(acc, odd[digit - 1 >> 1], acc);
+		} else if (digit < 0) {
+			negate(odd[-digit - 1 >> 1], tmp);
+			add(acc, tmp, acc);
+		}
+	}
+
+	/**
+	 * Adds the given points.
+	 * 
+	 * @param P
+	 *            - The first point.
+	 * @param Q
+	 *            - The second point.
+	 * @return Returns the affine sum.
+	 */
+	public BigInteger[] add(final BigInteger[] P, final BigInteger[] Q) {
+		if (P[0] == null) {
+			setInfinity(acc);
+		} else {
+			load(P, acc);
+		}
+		if (Q[0] == null) {
+			setInfinity(tmp);
+		} else {
+			load(Q, tmp);
+		}
+		add(acc, tmp, acc);
+		return store(acc);
+	}
+
+	/**
+	 * Creates a new point.
+	 */
+	private int[][] newPoint() {
+		return new int[][] { f.newElement(), f.newElement(), f.newElement() };
+	}
+
+	/**
+	 * Sets the point to infinity, which has <em>Z = 0</em>.
+	 */
+	private void setInfinity(final int[][] P) {
+		f.setOne(P[0]);
+		f.setOne(P[1]);
+		for (int i = 0; i < P[2].length; i++) {
+			P[2][i] = 0;
+		}
+	}
+
+	/**
+	 * Copies a point.
+	 */
+	private static void copy(final int[][] P, final int[][] R) {
+		System.arraycopy(P[0], 0, R[0], 0, P[0].length);
+		System.arraycopy(P[1], 0, R[1], 0, P[1].length);
+		System.arraycopy(P[2], 0, R[2], 0, P[2].length);
+	}
+
+	/**
+	 * Converts a point into Montgomery representation.
+	 */
+	private void load(final BigInteger[] P, final int[][] R) {
+		f.toMontgomery(P[0], R[0]);
+		f.toMontgomery(P[1], R[1]);
+		if (P[2] == null || P[2].equals(BigInteger.ONE)) {
+			f.setOne(R[2]);
+		} else {
+			f.toMontgomery(P[2], R[2]);
+		}
+	}
+
+	/**
+	 * Converts a point to affine coordinates.
+	 */
+	private BigInteger[] store(final int[][] P) {
+		if (f.isZero(P[2])) {
+			return new BigInteger[] { null, null, null };
+		}
+
+		f.invert(P[2], t1);
+		f.sqr(t1, t2);
+		f.mul(P[0], t2, t3);
+		f.mul(t2, t1, t2);
+		f.mul(P[1], t2, t4);
+		return new BigInteger[] { f.fromMontgomery(t3), f.fromMontgomery(t4), BigInteger.ONE };
+	}
+
+	/**
+	 * Normalises finite points to affine coordinates in place with a single
+	 * inversion (Montgomery's simultaneous inversion).
+	 * 
+	 * @param points
+	 *            - The points.
+	 * @param from
+	 *            - The index of the first point.
+	 * @param count
+	 *            - The number of points.
+	 */
+	private void normalize(final int[][][] points, final int from, final int count) {
+		if (prefix == null || prefix.length < count) {
+			prefix = new int[count][];
+			for (int i = 0; i < count; i++) {
+				prefix[i] = f.newElement();
+			}
+		}
+
+		// prefix[i] = Z_0 * ... * Z_i
+		System.arraycopy(points[from][2], 0, prefix[0], 0, prefix[0].length);
+		for (int i = 1; i < count; i++) {
+			f.mul(prefix[i - 1], points[from + i][2], prefix[i]);
+		}
+
+		// t1 = (Z_0 * ... * Z_i)^-1, peeled off from the last point down
+		f.invert(prefix[count - 1], t1);
+		for (int i = count - 1; i >= 0; i--) {
+			final int[][] P = points[from + i];
+			if (i > 0) {
+				f.mul(t1, prefix[i - 1], t2);
+				f.mul(t1, P[2], t1);
+			} else {
+				System.arraycopy(t1, 0, t2, 0, t2.length);
+			}
+
+			// t2 = Z^-1
+			f.sqr(t2, t3);
+			f.mul(P[0], t3, P[0]);
+			f.mul(t3, t2, t3);
+			f.mul(P[1], t3, P[1]);
+			f.setOne(P[2]);
+		}
+	}
+
+	/**
+	 * Negates a point.
+	 */
+	private void negate(final int[][] P, final int[][] R) {
+		if (P != R) {
+			System.arraycopy(P[0], 0, R[0], 0, P[0].length);
+			System.arraycopy(P[2], 0, R[2], 0, P[2].length);
+		}
+		f.neg(P[1], R[1]);
+	}
+
+	/**
+	 * Doubles a point, <em>R</em> may be <em>P</em>.
+	 */
+	private void twice(final int[][] P, final int[][] R) {
+		final int[] X = P[0], Y = P[1], Z = P[2];
+		if (f.isZero(Z) || f.isZero(Y)) {
+			setInfinity(R);
+			return;
+		}
+
+		// t1 = Y^2, t2 = S = 4XY^2
+		f.sqr(Y, t1);
+		f.mul(X, t1, t2);
+		f.add(t2, t2, t2);
+		f.add(t2, t2, t2);
+
+		// t3 = M = 3X^2 + aZ^4
+		if (aIsMinus3) {
+			// M = 3(X - Z^2)(X + Z^2)
+			f.sqr(Z, t4);
+			f.sub(X, t4, t3);
+			f.add(X, t4, t4);
+			f.mul(t3, t4, t3);
+			f.add(t3, t3, t4);
+			f.add(t3, t4, t3);
+		} else {
+			f.sqr(X, t3);
+			f.add(t3, t3, t4);
+			f.add(t3, t4, t3);
+			if (f.isOne(Z)) {
+				f.add(t3, a, t3);
+			} else {
+				f.sqr(Z, t4);
+				f.sqr(t4, t4);
+				f.mul(t4, a, t4);
+				f.add(t3, t4, t3);
+			}
+		}
+
+		// Z' = 2YZ, computed first as R may be P
+		f.mul(Y, Z, t5);
+		f.add(t5, t5, R[2]);
+
+		// t1 = 8Y^4
+		f.sqr(t1, t1);
+		f.add(t1, t1, t1);
+		f.add(t1, t1, t1);
+		f.add(t1, t1, t1);
+
+		// X' = M^2 - 2S
+		f.sqr(t3, t4);
+		f.sub(t4, t2, t4);
+		f.sub(t4, t2, R[0]);
+
+		// Y' = M(S - X') - 8Y^4
+		f.sub(t2, R[0], t2);
+		f.mul(t3, t2, t2);
+		f.sub(t2, t1, R[1]);
+	}
+
+	/**
+	 * Adds two points, <em>R</em> may be <em>P</em> or <em>Q</em>.
+	 */
+	private void add(final int[][] P, final int[][] Q, final int[][] R) {
+		if (f.isZero(P[2])) {
+			copy(Q, R);
+			return;
+		}
+		if (f.isZero(Q[2])) {
+			copy(P, R);
+			return;
+		}
+
+		final boolean pAffine = f.isOne(P[2]);
+		final boolean qAffine = f.isOne(Q[2]);
+
+		// t1 = U1 = X1*Z2^2, t2 = S1 = Y1*Z2^3
+		if (qAffine) {
+			System.arraycopy(P[0], 0, t1, 0, t1.length);
+			System.arraycopy(P[1], 0, t2, 0, t2.length);
+		} else {
+			f.sqr(Q[2], t5);
+			f.mul(P[0], t5, t1);
+			f.mul(t5, Q[2], t5);
+			f.mul(P[1], t5, t2);
+		}
+
+		// t3 = U2 = X2*Z1^2, t4 = S2 = Y2*Z1^3
+		if (pAffine) {
+			System.arraycopy(Q[0], 0, t3, 0, t3.length);
+			System.arraycopy(Q[1], 0, t4, 0, t4.length);
+		} else {
+			f.sqr(P[2], t5);
+			f.mul(Q[0], t5, t3);
+			f.mul(t5, P[2], t5);
+			f.mul(Q[1], t5, t4);
+		}
+
+		// t3 = H = U2 - U1, t4 = r = S2 - S1
+		f.sub(t3, t1, t3);
+		f.sub(t4, t2, t4);
+		if (f.isZero(t3)) {
+			if (f.isZero(t4)) {
+				twice(P, R);
+			} else {
+				setInfinity(R);
+			}
+			return;
+		}
+
+		// Z' = Z1*Z2*H
+		if (pAffine && qAffine) {
+			System.arraycopy(t3, 0, t7, 0, t7.length);
+		} else if (pAffine) {
+			f.mul(Q[2], t3, t7);
+		} else if (qAffine) {
+			f.mul(P[2], t3, t7);
+		} else {
+			f.mul(P[2], Q[2], t7);
+			f.mul(t7, t3, t7);
+		}
+
+		// t5 = H^2, t6 = H^3, t1 = V = U1*H^2
+		f.sqr(t3, t5);
+		f.mul(t5, t3, t6);
+		f.mul(t1, t5, t1);
+
+		// X' = r^2 - H^3 - 2V
+		f.sqr(t4, t5);
+		f.sub(t5, t6, t5);
+		f.sub(t5, t1, t5);
+		f.sub(t5, t1, R[0]);
+
+		// Y' = r(V - X') - S1*H^3
+		f.sub(t1, R[0], t1);
+		f.mul(t4, t1, t1);
+		f.mul(t2, t6, t2);
+		f.sub(t1, t2, R[1]);
+
+		System.arraycopy(t7, 0, R[2], 0, t7.length);
+	}
+
+	/**
+	 * Determines the width-w non-adjacent form of a non-negative scalar, least
+	 * significant digit first.
+	 */
+	private static int[] wnaf(final BigInteger k, final int width) {
+		final int[] naf = new int[k.bitLength() + 1];
+		final int window = 1 << width;
+		final int mask = window - 1;
+
+		BigInteger c = k;
+		int i = 0;
+		while (c.signum() > 0) {
+			int digit = 0;
+			if (c.testBit(0)) {
+				digit = c.intValue() & mask;
+				if (digit >= window >> 1) {
+					digit -= window;
+				}
+				c = c.subtract(BigInteger.valueOf(digit));
+			}
+			naf[i++] = digit;
+			c = c.shiftRight(1);
+		}
+		return naf;
+	}
+}
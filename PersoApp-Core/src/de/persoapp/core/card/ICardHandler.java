@@ -304,4 +304,20 @@ public interface ICardHandler {
 	 * @return response APDU from card
 	 */
 	byte[] transmit(byte[] cmd);
+
+	/**
+	 * Transparently transmit a batch of <em>APDUs</em> from IFDService to
+	 * card. The processing stops at the first response with a status word,
+	 * which is not acceptable.
+	 * 
+	 * @param cmds
+	 *            - <em>APDUs</em>
+	 * @param acceptable
+	 *            - acceptable status codes per <em>APDU</em> or <tt>null</tt>
+	 * 
+	 * @return response APDUs from card
+	 * 
+	 * @see TransportProvider#transmitBatch(List, List)
+	 */
+	List<byte[]> transmitBatch(List<byte[]> cmds, List<List<byte[]>> acceptable);
 }
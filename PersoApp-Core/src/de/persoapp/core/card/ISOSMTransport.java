@@ -48,13 +48,16 @@
 package de.persoapp.core.card;
 
 import java.nio.ByteBuffer;
-
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import de.persoapp.core.util.ArrayTool;
-import de.persoapp.core.util.TLV;
 
 /**
  * <p>
@@ -67,16 +70,19 @@ import de.persoapp.core.util.TLV;
  * @author Rico Klimsa - added javadoc comments.
  */
 public class ISOSMTransport implements TransportProvider {
-	
-	/**
-	 * The algorithm to encrypt the initialization vector.
-	 */
-	private static final String		IV_ENC_ALG		= "AES/ECB/NoPadding";
-	
+
 	/**
-	 * The algorithm to encrypt the data, which is send on the established line.
+	 * Wraps the next command of a batch while the current command is
+	 * processed by the card.
 	 */
-	private static final String		LINE_ENC_ALG	= "AES/CBC/NoPadding";
+	private static final ExecutorService	PIPELINE		= Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "ISOSMTransport-pipeline");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 
 	/**
 	 * The currently used TransportProvider.
@@ -84,20 +90,10 @@ public class ISOSMTransport implements TransportProvider {
 	private final TransportProvider	parent;
 
 	/**
-	 * The used keys.
+	 * The secure messaging engine holding the session keys.
 	 */
-	private byte[]					kEnc, kMac;
+	private SecureMessaging			sm;
 
-	/**
-	 * The ciphers for encoding, decoding and the initialization vector.
-	 */
-	private Cipher					ivCipher, encCipher, decCipher;
-	
-	/**
-	 * The used block-cipher based message authentication code.
-	 */
-	private CMac					cmac;
-	
 	/**
 	 * The buffer of the initialization vector.
 	 */
@@ -113,9 +109,16 @@ public class ISOSMTransport implements TransportProvider {
 	 */
 	private int						lastSW			= -1;
 
+	/**
+	 * The trace of the unprotected <em>APDUs</em> or <tt>null</tt>.
+	 */
+	private final ApduTrace			trace;
+
 	/**
 	 * Creates and initializes a new instance of the {@link ISOSMTransport}
-	 * -provider. 
+	 * -provider. If the underlying transport provider is a
+	 * {@link RecordingTransport}, the unprotected <em>APDUs</em> are recorded
+	 * in its trace.
 	 * 
 	 * @param parent
 	 *            - The underlying transport provider.
@@ -128,6 +131,7 @@ public class ISOSMTransport implements TransportProvider {
 			parent = (TransportProvider) parent.getParent();
 		}
 		this.parent = parent;
+		this.trace = parent instanceof RecordingTransport ? ((RecordingTransport) parent).getTrace() : null;
 	}
 
 	@Override
@@ -143,9 +147,20 @@ public class ISOSMTransport implements TransportProvider {
 		return lastSW;
 	}
 
+	@Override
+	public int getMaxResponseLength() {
+		if (sm == null) {
+			return parent.getMaxResponseLength();
+		}
+		return SecureMessaging.maxPlainLength(parent.getMaxResponseLength());
+	}
+
 	@Override
 	public byte[] transmit(byte[] apdu) {
-		if (ivCipher != null && encCipher != null && decCipher != null) {
+		final byte[] plain = apdu;
+		final long start = trace == null ? 0 : trace.now();
+
+		if (sm != null) {
 			apdu = encodeSM(apdu);
 		}
 
@@ -155,18 +170,142 @@ public class ISOSMTransport implements TransportProvider {
 
 		//System.out.println(">" + Hex.toString(apdu));  // Kept for debugging issues
 
-		if (ivCipher != null && encCipher != null && decCipher != null) {
+		if (sm != null) {
 			apdu = decodeSM(apdu);
+			if (trace != null) {
+				trace.record(ApduTrace.LAYER_PLAIN, plain, apdu, lastSW(), start);
+			}
 		}
 
 		return apdu;
 	}
 
 	/**
-	 * Initializes the used ciphers. This is the cipher for the initialization
-	 * vector, the cipher for encryption and the cipher for decryption. The
-	 * cipher of the message authentication code is also initialized by this
-	 * function.
+	 * Transmits the batch with overlapping secure messaging: While the card
+	 * processes command <tt>N</tt>, command <tt>N+1</tt> is already wrapped
+	 * with its send sequence counter. The counters of command and response
+	 * are fixed in advance. A prepared command, which isn't sent because the
+	 * batch stops, is dropped and its counter is used by the next command. If
+	 * the pipeline fails to wrap a command, the rest of the batch is sent one
+	 * by one.
+	 */
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		if (sm == null || apdus.size() < 2) {
+			return TransportBatch.transmitEach(this, apdus, acceptable);
+		}
+
+		final List<byte[]> responses = new ArrayList<byte[]>(apdus.size());
+		Future<byte[]> next = null;
+		try {
+			byte[] cmd = wrap(apdus.get(0), ssc + 1);
+			for (int i = 0; cmd != null; i++) {
+				final long start = trace == null ? 0 : trace.now();
+				ssc++;
+				next = i + 1 < apdus.size() ? PIPELINE.submit(wrapTask(apdus.get(i + 1), ssc + 2)) : null;
+
+				final byte[] rsp = parent.transmit(cmd);
+				cmd = await(next);
+				next = null;
+
+				final byte[] data = decodeSM(rsp);
+				if (trace != null) {
+					trace.record(ApduTrace.LAYER_PLAIN, apdus.get(i), data, lastSW(), start);
+				}
+				if (data == null) {
+					break;
+				}
+
+				final int sw = lastSW();
+				responses.add(TransportBatch.response(data, sw));
+				if (!TransportBatch.isAcceptable(sw, TransportBatch.acceptableAt(acceptable, i))) {
+					break;
+				}
+
+				if (cmd == null && i + 1 < apdus.size()) {
+					// the pipeline failed, the counters continue with the plain transmission
+					final List<List<byte[]>> rest = acceptable == null ? null : acceptable.subList(
+							Math.min(i + 1, acceptable.size()), acceptable.size());
+					responses.addAll(TransportBatch.transmitEach(this, apdus.subList(i + 1, apdus.size()), rest));
+					break;
+				}
+			}
+		} finally {
+			// never leave the engine to the pipeline thread
+			await(next);
+		}
+		return responses;
+	}
+
+	/**
+	 * Waits for a command wrapped by the pipeline.
+	 * 
+	 * @param task
+	 *            - The pending task or <tt>null</tt>.
+	 * 
+	 * @return Returns the protected command or <tt>null</tt>, if there is no
+	 *         task or it failed.
+	 */
+	private static byte[] await(final Future<byte[]> task) {
+		if (task == null) {
+			return null;
+		}
+		try {
+			return task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the task wrapping a command of a batch.
+	 * 
+	 * @param apdu
+	 *            - The plain command.
+	 * @param counter
+	 *            - The send sequence counter of the command.
+	 * 
+	 * @return Returns the task.
+	 */
+	private Callable<byte[]> wrapTask(final byte[] apdu, final long counter) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return wrap(apdu, counter);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a command of a batch with the given send sequence counter.
+	 * 
+	 * @return Returns the protected command or <tt>null</tt>, if the command
+	 *         is malformed.
+	 */
+	private byte[] wrap(final byte[] apdu, final long counter) {
+		try {
+			return sm.wrap(toSSC(counter), apdu);
+		} catch (final Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the send sequence counter as block.
+	 */
+	private static byte[] toSSC(final long counter) {
+		final byte[] block = new byte[16];
+		ArrayTool.insertLongInByteArray(block, 8, counter);
+		return block;
+	}
+
+	/**
+	 * Initializes the {@link SecureMessaging} engine with the session keys.
+	 * The keys are expanded once and used for all following APDUs.
 	 * 
 	 * @param newkEnc
 	 *            - The EncKey.
@@ -174,22 +313,11 @@ public class ISOSMTransport implements TransportProvider {
 	 *            - The MacKey.
 	 */
 	public void setupKeys(final byte[] newkEnc, final byte[] newkMac) {
-		kEnc = newkEnc.clone();
-		kMac = newkMac.clone();
-
 		try {
-			ivCipher = Cipher.getInstance(IV_ENC_ALG);
-			encCipher = Cipher.getInstance(LINE_ENC_ALG);
-			decCipher = Cipher.getInstance(LINE_ENC_ALG);
-
-			final Cipher macCipher = Cipher.getInstance(LINE_ENC_ALG);
-			macCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kMac, "AES"), new IvParameterSpec(new byte[16]));
-			cmac = new CMac(macCipher, 8);
+			sm = new SecureMessaging(newkEnc, newkMac);
 
 			ivBuf = ByteBuffer.allocate(16);
 			ssc = 0;
-
-			ivCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kEnc, "AES"));
 		} catch (final Exception e) {
 			throw new IllegalStateException(e);
 		}
@@ -211,11 +339,6 @@ public class ISOSMTransport implements TransportProvider {
 		return null;
 	}
 
-	/**
-	 * The padding.
-	 */
-	private static final byte[]	SM_PAD	= new byte[] { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
-
 	/**
 	 * Decodes the given data.
 	 * 
@@ -228,44 +351,10 @@ public class ISOSMTransport implements TransportProvider {
 	 */
 	private byte[] decodeSM(final byte[] in) {
 		try {
-			byte[] data = TLV.get(in, (byte) 0x87);
-			final byte[] mac = TLV.get(in, (byte) 0x8E);
-			final byte[] sw = TLV.get(in, (byte) 0x99);
-
-			final byte[] currentSSC = getIV();
-			cmac.update(currentSSC, 0, currentSSC.length);
-			if (in.length > 0) {
-				// -8 -2 is short for "ignore MAC"
-				cmac.update(in, 0, in.length - 8 - 2);
-				cmac.update(SM_PAD, 0, SM_PAD.length - (in.length - 8 - 2) % SM_PAD.length);
-			}
+			final byte[] data = sm.unwrap(getIV(), in);
 
-			if (mac != null && !ArrayTool.arrayequal(mac, cmac.doFinal())) {
-				throw new IllegalStateException("MAC error.");
-			}
-
-			decCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(kEnc, "AES"),
-					new IvParameterSpec(ivCipher.doFinal(currentSSC)));
-
-			if (data != null) {
-				data = decCipher.doFinal(data, 1, data.length - 1);
-				for (int i = data.length - 1; i > 0; i--) {
-					if (data[i] == 0x00) {
-						continue;
-					} else if (data[i] == (byte) 0x80) {
-						data = ArrayTool.subArray(data, 0, i);
-						break;
-					} else {
-						break;
-					}
-				}
-			} else {
-				data = new byte[0];
-			}
-
-			if (sw != null) {
-				this.lastSW = ((sw[0] & 0xFF) << 8) + (sw[1] & 0xFF);
-			} else {
+			this.lastSW = sm.lastSW();
+			if (this.lastSW == -1) {
 				this.lastSW = parent.lastSW();
 			}
 
@@ -289,120 +378,7 @@ public class ISOSMTransport implements TransportProvider {
 	 */
 	private byte[] encodeSM(final byte[] in) {
 		try {
-			final byte[] currentSSC = getIV();
-
-			byte[] cmdHead = null;
-			byte[] data = null;
-			int ne = 0;
-
-			try {
-				cmdHead = ArrayTool.subArray(in, 0, 4);
-				// case 1 APDU
-				if (in.length < 5) {
-					data = new byte[0];
-				} else {
-					final int l1 = in[4] & 0xff;
-					// case 2 short
-					if (in.length == 5) {
-						data = new byte[0];
-						ne = l1 == 0 ? 256 : l1;
-						// short APDU
-					} else if (l1 != 0) {
-						// case 3 short, header, length, data
-						if (in.length == 4 + 1 + l1) {
-							data = ArrayTool.subArray(in, 5, l1);
-							// case 4 short, header, length, data, response-length
-						} else if (in.length == 4 + 2 + l1) {
-							data = ArrayTool.subArray(in, 5, l1);
-							final int l2 = in[in.length - 1] & 0xff;
-							ne = l2 == 0 ? 256 : l2;
-						} else {
-							throw new IllegalArgumentException("Invalid APDU#1: length=" + in.length + ", le=" + l1);
-						}
-						// extended length
-					} else if (in.length >= 7) {
-						final int l2 = (in[5] & 0xff) << 8 | in[6] & 0xff;
-						// case 2 extended
-						if (in.length == 7) {
-							data = new byte[0];
-							ne = l2 == 0 ? 65536 : l2;
-						} else if (l2 == 0) {
-							throw new IllegalArgumentException("Invalid APDU#3: length=" + in.length + ", le1=" + l1
-									+ ", le2=" + l2);
-							// case 3 extended
-						} else if (in.length == 4 + 3 + l2) {
-							data = ArrayTool.subArray(in, 7, l2);
-							// case 4 extended
-						} else if (in.length == 4 + 5 + l2) {
-							data = ArrayTool.subArray(in, 7, l2);
-							final int neOfs = in.length - 2;
-							final int l3 = (in[neOfs] & 0xff) << 8 | in[neOfs + 1] & 0xff;
-							ne = l3 == 0 ? 65536 : l3;
-						} else {
-							throw new IllegalArgumentException("Invalid APDU#4: length=" + in.length + ", le1=" + l1
-									+ ", le2=" + l2);
-						}
-					} else {
-						throw new IllegalArgumentException("Invalid APDU#2: length=" + in.length + ", le=" + l1);
-					}
-				}
-			} catch (final Exception e) {
-				//e.printStackTrace();
-				cmdHead = ArrayTool.subArray(in, 0, 4);
-				data = ArrayTool.subArray(in, 5, in[4]);
-				if (in.length > 5 + data.length) {
-					ne = in[5 + data.length];
-				}
-			}
-
-			if (data.length > 0) {
-				encCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kEnc, "AES"),
-						new IvParameterSpec(ivCipher.doFinal(currentSSC)));
-
-				final int dataLength = data.length;
-				data = encCipher.update(data, 0, dataLength);
-
-				if (data != null) {
-					data = ArrayTool.arrayconcat(data,
-							encCipher.doFinal(SM_PAD, 0, SM_PAD.length - (dataLength - 0) % SM_PAD.length));
-				} else {
-					data = encCipher.doFinal(SM_PAD, 0, SM_PAD.length - (dataLength - 0) % SM_PAD.length);
-				}
-
-				data = TLV.build((byte) 0x87, ArrayTool.arrayconcat(new byte[] { 0x01 }, data));
-			}
-
-			if (ne > 0) {
-				if (ne < 0x0100) {
-					data = ArrayTool.arrayconcat(data, TLV.build((byte) 0x97, new byte[] { (byte) ne }));
-				} else {
-					data = ArrayTool.arrayconcat(data, TLV.build((byte) 0x97, new byte[] { (byte) 0, (byte) 0 }));
-				}
-			}
-
-			cmdHead[0] |= 0x0C;
-
-			cmac.update(currentSSC, 0, currentSSC.length);
-			cmac.update(cmdHead, 0, cmdHead.length);
-			cmac.update(SM_PAD, 0, SM_PAD.length - cmdHead.length % SM_PAD.length);
-			if (data.length > 0) {
-				cmac.update(data, 0, data.length);
-				cmac.update(SM_PAD, 0, SM_PAD.length - data.length % SM_PAD.length);
-			}
-
-			data = ArrayTool.arrayconcat(data, TLV.build((byte) 0x8E, cmac.doFinal()));
-
-			if (data.length < 0x0100 && ne < 0x0100) {
-				data = ArrayTool.arrayconcat(cmdHead, ArrayTool.arrayconcat(
-						ArrayTool.arrayconcat(new byte[] { (byte) data.length }, data), new byte[] { 0 }));
-			} else {
-				data = ArrayTool.arrayconcat(
-						cmdHead,
-						ArrayTool.arrayconcat(ArrayTool.arrayconcat(new byte[] { 0, (byte) (data.length >> 8),
-								(byte) data.length }, data), new byte[] { 0, 0 }));
-			}
-
-			return data;
+			return sm.wrap(getIV(), in);
 		} catch (final Exception e) {
 			e.printStackTrace();
 			return null;
@@ -49,17 +49,26 @@ package de.persoapp.core.card;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -151,11 +160,26 @@ public class JSCIOTransport implements TransportProvider, CCID {
 	 */
 	private final Map<Byte, Integer>	features;
 
+	/**
+	 * The maximum response length supported by the terminal device.
+	 */
+	private final int					maxResponseLength;
+
 	/**
 	 * The last received status word.
 	 */
 	private int							lastSW;
 
+	/**
+	 * The terminal of the card.
+	 */
+	private final CardTerminal			terminal;
+
+	/**
+	 * The session of the card reported by the {@link CardMonitor}.
+	 */
+	private final int					cardSession;
+
 	/**
 	 * <p>
 	 * Creates and initializes a {@link JSCIOTransport}-provider. The provided
@@ -165,19 +189,28 @@ public class JSCIOTransport implements TransportProvider, CCID {
 	 * 
 	 * @param cc
 	 *            - The underlying {@link CardChannel}.
+	 * @param terminal
+	 *            - The terminal of the card.
+	 * @param cardSession
+	 *            - The session of the card reported by the {@link CardMonitor}.
 	 */
-	private JSCIOTransport(final CardChannel cc) {
+	private JSCIOTransport(final CardChannel cc, final CardTerminal terminal, final int cardSession) {
 		this.cc = cc;
+		this.terminal = terminal;
+		this.cardSession = cardSession;
 		this.icc = cc.getCard();
 		this.features = queryFeatures(this.icc);
+		this.maxResponseLength = queryMaxResponseLength(this.icc, this.features);
 	}
 
 	/**
-	 * Returns all connected and installed <em>CardTerminals</em>.
+	 * Returns the <em>CardTerminals</em> of the system. The terminals are
+	 * watched by the {@link CardMonitor}.
 	 * 
-	 * @return Returns all connected and installed IFDs.
+	 * @return Returns the terminals or <tt>null</tt>, if no terminal service is
+	 *         available.
 	 */
-	private static final List<CardTerminal> getList() {
+	static final CardTerminals getTerminals() {
 		try {
 			TerminalFactory tf = null;
 
@@ -186,6 +219,7 @@ public class JSCIOTransport implements TransportProvider, CCID {
 					tf = TerminalFactory.getInstance(PcscServiceType, null, PcscDefaultProvider);
 				} catch (final GeneralSecurityException gse) {
 					Logger.getLogger(JSCIOTransport.class.getName()).log(Level.SEVERE, null, gse);
+					return null;
 				}
 			} else {
 				tf = TerminalFactory.getDefault();
@@ -194,14 +228,73 @@ public class JSCIOTransport implements TransportProvider, CCID {
 			Logger.getLogger(JSCIOTransport.class.getName()).log(Level.INFO,
 					"TerminalFactory: " + tf.getType() + ": " + tf.getProvider());
 
-			return tf.terminals().list(CardTerminals.State.ALL);
-		} catch (final CardException ex) {
+			return tf.terminals();
+		} catch (final RuntimeException ex) {
 			Logger.getLogger(JSCIOTransport.class.getName()).log(Level.SEVERE, null, ex);
 		}
 
 		return null;
 	}
 
+	/**
+	 * Returns whether the card of this transport is still inserted. The state
+	 * is taken from the snapshot of the {@link CardMonitor}, the card isn't
+	 * accessed. A card that was removed and inserted again isn't reported as
+	 * present.
+	 * 
+	 * @return Returns <tt>true</tt>, if the card is still inserted.
+	 */
+	public boolean isCardPresent() {
+		return CardMonitor.getInstance().getState().getCardSession(terminal) == cardSession;
+	}
+
+	/**
+	 * The maximum amount of terminals probed at the same time.
+	 */
+	private static final int				PROBE_THREADS						= 4;
+
+	/**
+	 * The time in milliseconds a terminal may take to connect the card and to
+	 * answer the application selection.
+	 */
+	private static final long				PROBE_TIMEOUT						= 2000;
+
+	/**
+	 * The executor probing the terminals, shared by all calls of
+	 * {@link #open(byte[])}. Idle threads terminate after a while.
+	 */
+	private static final ThreadPoolExecutor	PROBE_EXECUTOR;
+
+	/**
+	 * The terminals in use by an opened transport, mapped to the session of
+	 * the used card. A terminal is used by one transport at a time, so
+	 * concurrent sessions are spread over the terminals.
+	 */
+	private static final ConcurrentMap<String, Integer>	CLAIMS	= new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * The state of a search, while the winning probe creates its transport.
+	 */
+	private static final Object							TAKEN	= new Object();
+
+	/**
+	 * The state of a search, which has ended.
+	 */
+	private static final Object							CLOSED	= new Object();
+
+	static {
+		PROBE_EXECUTOR = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "JSCIOTransport-probe");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		PROBE_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
 	/**
 	 * <p>
 	 * This function opens the application and thus creates a connection to the
@@ -211,11 +304,14 @@ public class JSCIOTransport implements TransportProvider, CCID {
 	 * Transport-Provider.
 	 * </p>
 	 * <p>
-	 * Additionally, it installs for every found <em>card terminal</em>, which
-	 * has currently a card inserted, an {@link FutureTask} to call the inserted
-	 * card. If the connection protocol of an inserted card did not match T=1,
-	 * the specific card executes disconnect and the card terminal
-	 * re-establishes the connection according to the protocol T=1.
+	 * All <em>card terminals</em> with an inserted card, as reported by the
+	 * {@link CardMonitor}, are probed at the same time on a shared executor.
+	 * A probe connects the inserted card and selects the application. If the
+	 * connection protocol of an inserted card did not match T=1, the specific
+	 * card executes disconnect and the card terminal re-establishes the
+	 * connection according to the protocol T=1. The first terminal answering
+	 * the selection is used, the remaining probes are cancelled. A failing
+	 * terminal doesn't end the search.
 	 * </p>
 	 * 
 	 * @param AID
@@ -226,69 +322,185 @@ public class JSCIOTransport implements TransportProvider, CCID {
 	 *             If no terminals are installed.
 	 */
 	public static final JSCIOTransport open(final byte[] AID) {
-		final List<CardTerminal> terminalList = getList();
-		if (terminalList == null || terminalList.size() == 0) {
+		final CardMonitor.State state = CardMonitor.getInstance().getState();
+		if (state.getTerminals().size() == 0) {
 			throw new IllegalStateException("No Terminals installed.");
 		}
 
-		for (final CardTerminal terminal : terminalList) {
-			try {
-				final FutureTask<Card> task = new FutureTask<Card>(new Callable<Card>() {
-					@Override
-					public final Card call() throws Exception {
-						try {
-							Card currentCard = terminal.connect("*");
-							if (!"T=1".equals(currentCard.getProtocol())) {
-								currentCard.disconnect(false);
-								currentCard = null;
-								currentCard = terminal.connect("T=1");
-							}
-							return currentCard;
-							// } catch(CardNotPresentException cnpex) {
-							// no card in reader
-						} catch (final CardException cex) {
-							// most probably could not connect with T=1, because it's a T=0 card
-							System.out.println(terminal.getName() + ": " + cex.getClass().getName() + ", "
-									+ cex.getMessage());
-						}
-						return null;
-					}
-				});
+		final List<CardTerminal> terminalList = state.getCardTerminals();
 
-				Executors.newFixedThreadPool(1).submit(task);
+		final AtomicReference<Object> found = new AtomicReference<Object>();
+		final CompletionService<JSCIOTransport> probes = new ExecutorCompletionService<JSCIOTransport>(
+				PROBE_EXECUTOR);
+		final List<Future<JSCIOTransport>> pending = new ArrayList<Future<JSCIOTransport>>(terminalList.size());
+		for (final CardTerminal terminal : terminalList) {
+			pending.add(probes.submit(new Callable<JSCIOTransport>() {
+				@Override
+				public final JSCIOTransport call() throws Exception {
+					return probe(terminal, state.getCardSession(terminal), AID, found);
+				}
+			}));
+		}
 
-				Card currentCard = null;
-				try {
-					currentCard = task.get(2, TimeUnit.SECONDS);
-				} catch (final TimeoutException toe) {
+		// probes exceeding the thread limit start later
+		final int rounds = (terminalList.size() + PROBE_THREADS - 1) / PROBE_THREADS;
+		final long deadline = System.currentTimeMillis() + rounds * PROBE_TIMEOUT;
+		JSCIOTransport chosen = null;
+		try {
+			for (int i = 0; i < pending.size(); i++) {
+				final Future<JSCIOTransport> result = probes.poll(deadline - System.currentTimeMillis(),
+						TimeUnit.MILLISECONDS);
+				if (result == null) {
 					Logger.getLogger(JSCIOTransport.class.getName()).log(Level.SEVERE,
-							"!Terminal timed out: " + terminal.getName());
+							"!Terminals timed out: " + (pending.size() - i));
+					break;
 				}
 
-				if (currentCard == null) {
+				final JSCIOTransport transport;
+				try {
+					transport = result.get();
+				} catch (final ExecutionException e) {
+					// the other terminals may still hold a usable card
+					Logger.getLogger(JSCIOTransport.class.getName()).log(Level.SEVERE, "Terminal probe failed",
+							e.getCause());
 					continue;
 				}
 
-				final byte[] atr = currentCard.getATR().getBytes();
-				System.out.println("Trying terminal " + terminal.getName() + " with card " + Hex.toString(atr) + " /"
-						+ currentCard.getProtocol());
+				if (transport != null) {
+					chosen = transport;
+					return transport;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			final Object last = found.getAndSet(CLOSED);
+			for (final Future<JSCIOTransport> probe : pending) {
+				probe.cancel(true);
+			}
+
+			// a probe, which completed after the search had ended
+			if (last instanceof JSCIOTransport && last != chosen) {
+				((JSCIOTransport) last).close();
+			}
+		}
 
-				final CardChannel cc = currentCard.getBasicChannel();
-				final byte[] selectAID = { (byte) 0x00, (byte) 0xA4, (byte) 0x04, (byte) 0x0C, (byte) AID.length };
-				final ResponseAPDU rapdu = cc.transmit(new CommandAPDU(ArrayTool.arrayconcat(selectAID, AID)));
-				if (rapdu.getSW() == 0x9000 || rapdu.getSW() == 0x6982) {
-					return new JSCIOTransport(cc);
+		return null;
+	}
+
+	/**
+	 * Connects the card inserted in the terminal and selects the application.
+	 * 
+	 * @param terminal
+	 *            - The terminal to probe.
+	 * @param cardSession
+	 *            - The session of the inserted card.
+	 * @param AID
+	 *            - The application identifier, for opening.
+	 * @param found
+	 *            - The state of the search, the first probe selecting the
+	 *            application takes it and hands over its transport. A probe
+	 *            finding the search taken or ended releases its card.
+	 * @return Returns the transport to the card or <tt>null</tt>, if the
+	 *         terminal has no card or the card doesn't support the
+	 *         application.
+	 */
+	private static JSCIOTransport probe(final CardTerminal terminal, final int cardSession, final byte[] AID,
+			final AtomicReference<Object> found) {
+		final long start = System.currentTimeMillis();
+		if (!claim(terminal.getName(), cardSession)) {
+			Logger.getLogger(JSCIOTransport.class.getName()).log(Level.INFO,
+					"Terminal " + terminal.getName() + ": in use");
+			return null;
+		}
+
+		String state = "no card";
+		boolean won = false;
+		boolean selected = false;
+		Card currentCard = null;
+		try {
+			currentCard = terminal.connect("*");
+			if (!"T=1".equals(currentCard.getProtocol())) {
+				currentCard.disconnect(false);
+				currentCard = null;
+				currentCard = terminal.connect("T=1");
+			}
+
+			final byte[] atr = currentCard.getATR().getBytes();
+			System.out.println("Trying terminal " + terminal.getName() + " with card " + Hex.toString(atr) + " /"
+					+ currentCard.getProtocol());
+
+			final CardChannel cc = currentCard.getBasicChannel();
+			final byte[] selectAID = { (byte) 0x00, (byte) 0xA4, (byte) 0x04, (byte) 0x0C, (byte) AID.length };
+			final ResponseAPDU rapdu = cc.transmit(new CommandAPDU(ArrayTool.arrayconcat(selectAID, AID)));
+			if ((rapdu.getSW() == 0x9000 || rapdu.getSW() == 0x6982) && found.compareAndSet(null, TAKEN)) {
+				won = true;
+				final JSCIOTransport transport = new JSCIOTransport(cc, terminal, cardSession);
+				if (found.compareAndSet(TAKEN, transport)) {
+					state = "card selected";
+					selected = true;
+					return transport;
 				}
-			} catch (final CardException ex) {
-				Logger.getLogger(JSCIOTransport.class.getName()).log(Level.SEVERE, terminal.getName(), ex);
-			} catch (final Exception e) {
-				e.printStackTrace();
+
+				// the search has ended meanwhile
+				state = "card selected too late";
+				transport.close();
+				return null;
 			}
+
+			state = "card not used, SW " + Hex.shortToString(rapdu.getSW());
+			currentCard.disconnect(false);
+			// } catch(CardNotPresentException cnpex) {
+			// no card in reader
+		} catch (final CardException cex) {
+			// most probably could not connect with T=1, because it's a T=0 card
+			System.out.println(terminal.getName() + ": " + cex.getClass().getName() + ", " + cex.getMessage());
+		} catch (final RuntimeException rex) {
+			// i.e. a failure of the PC/SC layer
+			state = "failed, " + rex;
+			if (currentCard != null) {
+				try {
+					currentCard.disconnect(false);
+				} catch (final CardException cex) {
+					// nothing left to release
+				}
+			}
+		} finally {
+			if (!selected) {
+				CLAIMS.remove(terminal.getName(), Integer.valueOf(cardSession));
+				if (won) {
+					// let the other probes take the search
+					found.compareAndSet(TAKEN, null);
+				}
+			}
+			Logger.getLogger(JSCIOTransport.class.getName()).log(Level.INFO,
+					"Terminal " + terminal.getName() + ": " + state + " (" + (System.currentTimeMillis() - start)
+							+ " ms)");
 		}
 
 		return null;
 	}
 
+	/**
+	 * Claims the terminal for a transport. The claim of a card, which has been
+	 * removed in the meantime, is taken over.
+	 * 
+	 * @param name
+	 *            - The name of the terminal.
+	 * @param cardSession
+	 *            - The session of the inserted card.
+	 * @return Returns <tt>true</tt>, if the terminal has been claimed, or
+	 *         <tt>false</tt>, if the terminal is in use.
+	 */
+	private static boolean claim(final String name, final int cardSession) {
+		final Integer session = Integer.valueOf(cardSession);
+		final Integer claimed = CLAIMS.putIfAbsent(name, session);
+		if (claimed == null) {
+			return true;
+		}
+		return claimed.intValue() != cardSession && CLAIMS.replace(name, claimed, session);
+	}
+
 	/**
 	 * Logs the given message to the console.
 	 * 
@@ -299,6 +511,28 @@ public class JSCIOTransport implements TransportProvider, CCID {
 		System.out.println(msg);
 	}
 
+	/**
+	 * Logs the given message followed by the data as hexadecimal digits to the
+	 * console. The digits are written directly to the console without
+	 * building a string.
+	 * 
+	 * @param msg
+	 *            - The message, which is logged before the data.
+	 * @param data
+	 *            - The data, which is logged as hexadecimal digits.
+	 */
+	private static void log(final String msg, final byte[] data) {
+		synchronized (System.out) {
+			System.out.print(msg);
+			try {
+				Hex.encode(data, 0, data.length, (OutputStream) System.out);
+			} catch (final IOException e) {
+				// PrintStream doesn't throw
+			}
+			System.out.println();
+		}
+	}
+
 	@Override
 	public Object getParent() {
 		return this.cc;
@@ -313,11 +547,11 @@ public class JSCIOTransport implements TransportProvider, CCID {
 	public byte[] transmit(byte[] apdu) {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try {
-			log("<P " + Hex.toString(apdu));
+			log("<P ", apdu);
 			ResponseAPDU res = cc.transmit(new CommandAPDU(apdu));
 			baos.write(res.getData());
 			lastSW = res.getSW();
-			log(">P " + Hex.shortToString(lastSW) + ": " + Hex.toString(res.getData()));
+			log(">P " + Hex.shortToString(lastSW) + ": ", res.getData());
 			while (res.getSW1() == 0x61 || res.getSW1() == 0x9F) {
 				if (res.getSW1() == 0x9F) {
 					apdu = new byte[] { (byte) 0xA0, (byte) 0xC0, 0, 0, (byte) res.getSW2() };
@@ -337,8 +571,14 @@ public class JSCIOTransport implements TransportProvider, CCID {
 		return apdu;
 	}
 
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		return TransportBatch.transmitEach(this, apdus, acceptable);
+	}
+
 	@Override
 	public void close() {
+		CLAIMS.remove(terminal.getName(), Integer.valueOf(cardSession));
 		if (cc != null) {
 			try {
 				// cc.getCard().disconnect(true);
@@ -414,6 +654,44 @@ public class JSCIOTransport implements TransportProvider, CCID {
 		return features;
 	}
 
+	/**
+	 * Queries the maximum response length from the TLV properties of the
+	 * terminal device. The property <em>dwMaxAPDUDataSize</em> is <tt>0</tt>
+	 * for terminals supporting short <em>APDUs</em> only.
+	 * 
+	 * @param icc
+	 *            - The handle to the inserted card.
+	 * @param features
+	 *            - The supported features of the terminal device.
+	 * @return Returns the maximum response length or <tt>256</tt>, if the
+	 *         terminal doesn't report extended length support.
+	 */
+	private static final int queryMaxResponseLength(final Card icc, final Map<Byte, Integer> features) {
+		if (features == null || !features.containsKey(CCID.FEATURE_GET_TLV_PROPERTIES)) {
+			return 256;
+		}
+
+		try {
+			final byte[] props = icc.transmitControlCommand(features.get(CCID.FEATURE_GET_TLV_PROPERTIES),
+					new byte[0]);
+			for (int i = 0; props != null && i + 1 < props.length; i += 2 + (props[i + 1] & 0xFF)) {
+				// PCSCv2_PART10_PROPERTY_dwMaxAPDUDataSize
+				if (props[i] == 0x0A && props[i + 1] == 4 && i + 6 <= props.length) {
+					final int size = ByteBuffer.wrap(props, i + 2, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+					return size > 256 ? Math.min(size, 65536) : 256;
+				}
+			}
+		} catch (final CardException ce) {
+			// IOCTL not supported
+		}
+		return 256;
+	}
+
+	@Override
+	public int getMaxResponseLength() {
+		return maxResponseLength;
+	}
+
 	@Override
 	public boolean hasFeature(final byte feature) {
 		if (features != null) {
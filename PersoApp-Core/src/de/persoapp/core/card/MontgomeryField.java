@@ -0,0 +1,503 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Arithmetic in the prime field of an elliptic curve on fixed-size arrays of
+ * 32-bit limbs. Elements are kept in Montgomery representation
+ * <em>a&middot;R mod p</em> with <em>R = 2<sup>32&middot;n</sup></em>, so a
+ * multiplication needs no division. All elements are fully reduced to
+ * <em>[0, p)</em> and stored least significant limb first.
+ * </p>
+ * <p>
+ * The operations work on arrays provided by the caller and don't allocate
+ * memory, except for the conversions and the inversion. An instance holds
+ * scratch space and must not be used by several threads at the same time,
+ * use {@link #MontgomeryField(MontgomeryField)} to get another instance of
+ * the same field.
+ * </p>
+ * 
+ * @see FastCurve
+ */
+public final class MontgomeryField {
+
+	/**
+	 * The mask of a limb.
+	 */
+	private static final long	M	= 0xFFFFFFFFL;
+
+	/**
+	 * The prime.
+	 */
+	private final BigInteger	prime;
+
+	/**
+	 * The amount of limbs.
+	 */
+	private final int			n;
+
+	/**
+	 * The limbs of the prime.
+	 */
+	private final int[]			p;
+
+	/**
+	 * The limbs of the prime as unsigned values.
+	 */
+	private final long[]		pl;
+
+	/**
+	 * <em>-p<sup>-1</sup> mod 2<sup>32</sup></em>.
+	 */
+	private final long			n0;
+
+	/**
+	 * <em>R<sup>2</sup> mod p</em>, used for the conversion into Montgomery
+	 * representation.
+	 */
+	private final int[]			r2;
+
+	/**
+	 * The element one in Montgomery representation.
+	 */
+	private final int[]			one;
+
+	/**
+	 * <em>R<sup>3</sup> mod p</em>, used for the inversion.
+	 */
+	private final int[]			r3;
+
+	/**
+	 * The scratch space of the multiplication.
+	 */
+	private final long[]		t;
+
+	/**
+	 * Creates the field of the given odd prime.
+	 * 
+	 * @param prime
+	 *            - The prime.
+	 */
+	public MontgomeryField(final BigInteger prime) {
+		if (prime.signum() <= 0 || !prime.testBit(0)) {
+			throw new IllegalArgumentException("odd prime required");
+		}
+
+		this.prime = prime;
+		this.n = (prime.bitLength() + 31) / 32;
+		this.p = toLimbs(prime, n);
+		this.pl = new long[n];
+		for (int i = 0; i < n; i++) {
+			this.pl[i] = p[i] & M;
+		}
+
+		final BigInteger b = BigInteger.ONE.shiftLeft(32);
+		this.n0 = prime.negate().modInverse(b).longValue() & M;
+
+		final BigInteger r = BigInteger.ONE.shiftLeft(32 * n);
+		this.r2 = toLimbs(r.multiply(r).mod(prime), n);
+		this.one = toLimbs(r.mod(prime), n);
+		this.r3 = toLimbs(r.multiply(r).multiply(r).mod(prime), n);
+
+		this.t = new long[n + 2];
+	}
+
+	/**
+	 * Creates another instance of the given field with its own scratch space.
+	 * 
+	 * @param field
+	 *            - The field.
+	 */
+	public MontgomeryField(final MontgomeryField field) {
+		this.prime = field.prime;
+		this.n = field.n;
+		this.p = field.p;
+		this.pl = field.pl;
+		this.n0 = field.n0;
+		this.r2 = field.r2;
+		this.one = field.one;
+		this.r3 = field.r3;
+
+		this.t = new long[n + 2];
+	}
+
+	/**
+	 * Returns the prime of the field.
+	 * 
+	 * @return Returns the prime.
+	 */
+	public BigInteger getPrime() {
+		return prime;
+	}
+
+	/**
+	 * Returns the amount of limbs of an element.
+	 * 
+	 * @return Returns the amount of limbs.
+	 */
+	public int getLimbs() {
+		return n;
+	}
+
+	/**
+	 * Creates a new element, initialized with zero.
+	 * 
+	 * @return Returns the new element.
+	 */
+	public int[] newElement() {
+		return new int[n];
+	}
+
+	/**
+	 * Converts the given number into Montgomery representation.
+	 * 
+	 * @param a
+	 *            - The number, reduced modulo the prime if necessary.
+	 * @param r
+	 *            - The result.
+	 */
+	public void toMontgomery(final BigInteger a, final int[] r) {
+		final BigInteger reduced = a.signum() < 0 || a.compareTo(prime) >= 0 ? a.mod(prime) : a;
+		final int[] limbs = toLimbs(reduced, n);
+		mul(limbs, r2, r);
+	}
+
+	/**
+	 * Converts the given element from Montgomery representation.
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @return Returns the number.
+	 */
+	public BigInteger fromMontgomery(final int[] a) {
+		final int[] plain = new int[n];
+		plain[0] = 1;
+		mul(a, plain, plain);
+		return fromLimbs(plain);
+	}
+
+	/**
+	 * Sets the given element to one.
+	 * 
+	 * @param r
+	 *            - The element.
+	 */
+	public void setOne(final int[] r) {
+		System.arraycopy(one, 0, r, 0, n);
+	}
+
+	/**
+	 * Returns whether the given element is one.
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @return Returns <tt>true</tt>, if the element is one.
+	 */
+	public boolean isOne(final int[] a) {
+		for (int i = 0; i < n; i++) {
+			if (a[i] != one[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the given element is zero.
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @return Returns <tt>true</tt>, if the element is zero.
+	 */
+	public boolean isZero(final int[] a) {
+		int bits = 0;
+		for (int i = 0; i < n; i++) {
+			bits |= a[i];
+		}
+		return bits == 0;
+	}
+
+	/**
+	 * Multiplies two elements, <em>r = a&middot;b&middot;R<sup>-1</sup> mod
+	 * p</em>. The result may be one of the arguments.
+	 * 
+	 * @param a
+	 *            - The first factor.
+	 * @param b
+	 *            - The second factor.
+	 * @param r
+	 *            - The product.
+	 */
+	public void mul(final int[] a, final int[] b, final int[] r) {
+		final int n = this.n;
+		final long[] t = this.t;
+		final long[] pl = this.pl;
+		for (int i = 0; i < n + 2; i++) {
+			t[i] = 0;
+		}
+
+		for (int i = 0; i < n; i++) {
+			// t += a[i] * b
+			final long ai = a[i] & M;
+			long c = 0;
+			for (int j = 0; j < n; j++) {
+				final long s = t[j] + ai * (b[j] & M) + c;
+				t[j] = s & M;
+				c = s >>> 32;
+			}
+			long s = t[n] + c;
+			t[n] = s & M;
+			t[n + 1] = s >>> 32;
+
+			// t = (t + m * p) / 2^32
+			final long m = t[0] * n0 & M;
+			s = t[0] + m * pl[0];
+			c = s >>> 32;
+			for (int j = 1; j < n; j++) {
+				s = t[j] + m * pl[j] + c;
+				t[j - 1] = s & M;
+				c = s >>> 32;
+			}
+			s = t[n] + c;
+			t[n - 1] = s & M;
+			t[n] = t[n + 1] + (s >>> 32);
+		}
+
+		// t < 2p
+		if (t[n] != 0 || !lessThanPrime(t)) {
+			long borrow = 0;
+			for (int i = 0; i < n; i++) {
+				final long d = t[i] - pl[i] - borrow;
+				r[i] = (int) d;
+				borrow = d >>> 63;
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				r[i] = (int) t[i];
+			}
+		}
+	}
+
+	/**
+	 * Squares an element. The result may be the argument.
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @param r
+	 *            - The square.
+	 */
+	public void sqr(final int[] a, final int[] r) {
+		mul(a, a, r);
+	}
+
+	/**
+	 * Adds two elements. The result may be one of the arguments.
+	 * 
+	 * @param a
+	 *            - The first summand.
+	 * @param b
+	 *            - The second summand.
+	 * @param r
+	 *            - The sum.
+	 */
+	public void add(final int[] a, final int[] b, final int[] r) {
+		long c = 0;
+		for (int i = 0; i < n; i++) {
+			final long s = (a[i] & M) + (b[i] & M) + c;
+			r[i] = (int) s;
+			c = s >>> 32;
+		}
+
+		if (c != 0 || !lessThanPrime(r)) {
+			subtractPrime(r);
+		}
+	}
+
+	/**
+	 * Subtracts two elements. The result may be one of the arguments.
+	 * 
+	 * @param a
+	 *            - The minuend.
+	 * @param b
+	 *            - The subtrahend.
+	 * @param r
+	 *            - The difference.
+	 */
+	public void sub(final int[] a, final int[] b, final int[] r) {
+		long borrow = 0;
+		for (int i = 0; i < n; i++) {
+			final long d = (a[i] & M) - (b[i] & M) - borrow;
+			r[i] = (int) d;
+			borrow = d >>> 63;
+		}
+
+		if (borrow != 0) {
+			long c = 0;
+			for (int i = 0; i < n; i++) {
+				final long s = (r[i] & M) + pl[i] + c;
+				r[i] = (int) s;
+				c = s >>> 32;
+			}
+		}
+	}
+
+	/**
+	 * Negates an element. The result may be the argument.
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @param r
+	 *            - The negated element.
+	 */
+	public void neg(final int[] a, final int[] r) {
+		if (isZero(a)) {
+			System.arraycopy(a, 0, r, 0, n);
+			return;
+		}
+
+		long borrow = 0;
+		for (int i = 0; i < n; i++) {
+			final long d = pl[i] - (a[i] & M) - borrow;
+			r[i] = (int) d;
+			borrow = d >>> 63;
+		}
+	}
+
+	/**
+	 * Inverts an element. The inverse of zero is zero. The result may be the
+	 * argument.
+	 * <p>
+	 * The representation <em>aR</em> is inverted directly by
+	 * {@link BigInteger#modInverse(BigInteger)}, which is several times faster
+	 * than the exponentiation <em>a<sup>p-2</sup></em> on the limbs, and
+	 * brought back with one multiplication by <em>R<sup>3</sup></em>.
+	 * </p>
+	 * 
+	 * @param a
+	 *            - The element.
+	 * @param r
+	 *            - The inverse.
+	 */
+	public void invert(final int[] a, final int[] r) {
+		if (isZero(a)) {
+			System.arraycopy(a, 0, r, 0, n);
+			return;
+		}
+
+		final int[] inverse = toLimbs(fromLimbs(a).modInverse(prime), n);
+		mul(inverse, r3, r);
+	}
+
+	/**
+	 * Returns whether the value in the first <em>n</em> limbs is less than the
+	 * prime.
+	 */
+	private boolean lessThanPrime(final long[] a) {
+		for (int i = n - 1; i >= 0; i--) {
+			if (a[i] != pl[i]) {
+				return a[i] < pl[i];
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the element is less than the prime.
+	 */
+	private boolean lessThanPrime(final int[] a) {
+		for (int i = n - 1; i >= 0; i--) {
+			final long ai = a[i] & M;
+			if (ai != pl[i]) {
+				return ai < pl[i];
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Subtracts the prime, ignoring the final borrow.
+	 */
+	private void subtractPrime(final int[] r) {
+		long borrow = 0;
+		for (int i = 0; i < n; i++) {
+			final long d = (r[i] & M) - pl[i] - borrow;
+			r[i] = (int) d;
+			borrow = d >>> 63;
+		}
+	}
+
+	/**
+	 * Converts a non-negative number to limbs.
+	 */
+	private static int[] toLimbs(final BigInteger a, final int n) {
+		final int[] r = new int[n];
+		for (int i = 0; i < n; i++) {
+			r[i] = a.shiftRight(32 * i).intValue();
+		}
+		return r;
+	}
+
+	/**
+	 * Converts limbs to a non-negative number.
+	 */
+	private static BigInteger fromLimbs(final int[] a) {
+		final byte[] b = new byte[a.length * 4 + 1];
+		for (int i = 0; i < a.length; i++) {
+			final int v = a[i];
+			final int o = b.length - 4 * i;
+			b[o - 1] = (byte) v;
+			b[o - 2] = (byte) (v >>> 8);
+			b[o - 3] = (byte) (v >>> 16);
+			b[o - 4] = (byte) (v >>> 24);
+		}
+		return new BigInteger(b);
+	}
+}
@@ -53,7 +53,9 @@ import java.security.spec.ECFieldFp;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
 import java.security.spec.EllipticCurve;
+import java.util.Map;
 import java.util.Random;
+import java.util.WeakHashMap;
 
 import de.persoapp.core.util.ArrayTool;
 
@@ -66,6 +68,12 @@ import de.persoapp.core.util.ArrayTool;
  * 
  * XXX: Might be replaced with standard-BouncyCastle code later.
  * 
+ * <p>
+ * The point arithmetic either runs on {@link FastCurve} with fixed-size limbs
+ * in Montgomery representation or on {@link BigInteger}. The
+ * {@link BigInteger} implementation is kept as reference.
+ * </p>
+ * 
  * @author Christian Kahlo
  * @author Rico Klimsa - added javadoc comments.
  */
@@ -86,20 +94,94 @@ public class PACE {
 	 */
 	private static final BigInteger[]	INFINITY	= new BigInteger[] { null, null, null };
 
+	/**
+	 * Selects the arithmetic of new instances, see
+	 * {@link #setFastArithmetic(boolean)}.
+	 */
+	private static volatile boolean		fastArithmetic	= true;
+
+	/**
+	 * The shared random number generator of the private keys, see
+	 * {@link #setRandomSource(Random)}.
+	 */
+	private static volatile Random		randomSource;
+
+	/**
+	 * The affine precomputation tables of the generators for the reference
+	 * implementation, computed once per curve.
+	 */
+	private static final Map<ECParameterSpec, BigInteger[][]>	GENERATOR_TABLES	= new WeakHashMap<ECParameterSpec, BigInteger[][]>();
+
+	/**
+	 * An ephemeral key pair on the generator of a curve, which was created in
+	 * advance by {@link PACE#createKeyPair()}. The private key is only
+	 * accessible to {@link PACE}.
+	 */
+	public static final class KeyPair {
+
+		/** The curve of the key pair. */
+		private final ECParameterSpec	ecSpec;
+
+		/** The private key. */
+		private final BigInteger		privateKey;
+
+		/** The encoded public key. */
+		private final byte[]			publicKey;
+
+		/**
+		 * Creates a key pair.
+		 */
+		private KeyPair(final ECParameterSpec ecSpec, final BigInteger privateKey, final byte[] publicKey) {
+			this.ecSpec = ecSpec;
+			this.privateKey = privateKey;
+			this.publicKey = publicKey;
+		}
+
+		/**
+		 * Returns the curve of the key pair.
+		 * 
+		 * @return Returns the elliptic curve specifications.
+		 */
+		public ECParameterSpec getCurve() {
+			return ecSpec;
+		}
+
+		/**
+		 * Returns the encoded public key.
+		 * 
+		 * @return Returns a copy of the encoded public key.
+		 */
+		public byte[] getPublicKey() {
+			return publicKey.clone();
+		}
+	}
+
 	/**
 	 * A pseudorandom number generator.
 	 */
 	private Random						random;
 
+	/** The elliptic curve specifications. */
+	private final ECParameterSpec		ecSpec;
+
 	/** The point Q. */
 	private final BigInteger			Q;
 	
 	/** The point A. */
 	private final BigInteger			A;
+
+	/** The length of an encoded field element in bytes. */
+	private final int					fieldLength;
+
+	/** The width of the window of the non-adjacent form. */
+	private final int					window;
 	
 	/** The precomputed curve. */
 	private final BigInteger[][]		preComp;
 
+	/** The generator, the base point of the multiplications until mapped. */
+	private final BigInteger[]			generator;
+
 	/**
 	 * The initial randomized number.
 	 */
@@ -108,6 +190,61 @@ public class PACE {
 	/** The ephemeral key. */
 	private BigInteger					ephemeralKey;
 
+	/**
+	 * The arithmetic on fixed-size limbs or <strong>null</strong>, if the
+	 * reference implementation is used.
+	 */
+	private final FastCurve				fast;
+
+	/**
+	 * Selects the point arithmetic of new instances. The arithmetic on
+	 * fixed-size limbs is used by default.
+	 * 
+	 * @param fast
+	 *            - <strong>true</strong> for the arithmetic on fixed-size
+	 *            limbs, <strong>false</strong> for the {@link BigInteger}
+	 *            reference implementation.
+	 */
+	public static void setFastArithmetic(final boolean fast) {
+		fastArithmetic = fast;
+	}
+
+	/**
+	 * Returns whether new instances use the arithmetic on fixed-size limbs.
+	 * 
+	 * @return Returns <strong>true</strong>, if the arithmetic on fixed-size
+	 *         limbs is used.
+	 */
+	public static boolean isFastArithmetic() {
+		return fastArithmetic;
+	}
+
+	/**
+	 * Sets the random number generator of the private keys of all
+	 * <em>PACE</em> engines. A seeded generator makes the key agreement
+	 * reproducible, i.e. to replay a recorded {@link ApduTrace}. The key
+	 * pairs of a {@link PACEKeyPool} are created in the background with a
+	 * generator of their own, the {@link DefaultPaceEngine} doesn't use the
+	 * pool while a generator is set.
+	 * 
+	 * @param random
+	 *            - The random number generator or <strong>null</strong>
+	 *            for a new {@link SecureRandom} per instance.
+	 */
+	public static void setRandomSource(final Random random) {
+		randomSource = random;
+	}
+
+	/**
+	 * Returns the random number generator set by
+	 * {@link #setRandomSource(Random)}.
+	 * 
+	 * @return Returns the random number generator or <strong>null</strong>.
+	 */
+	public static Random getRandomSource() {
+		return randomSource;
+	}
+
 	/**
 	 * Initializes a creation of the <em>ECDH</em> according to the given
 	 * <em>ecSpec</em>.
@@ -118,37 +255,159 @@ public class PACE {
 	 *            - The initial randomized number.
 	 */
 	public PACE(final ECParameterSpec ecSpec, final BigInteger nonce) {
-		try {
-			this.random = SecureRandom.getInstance("SHA1PRNG");
-		} catch (final Exception e) {
-			e.printStackTrace();
-			this.random = new SecureRandom();
+		this(ecSpec, nonce, fastArithmetic);
+	}
+
+	/**
+	 * Initializes a creation of the <em>ECDH</em> according to the given
+	 * <em>ecSpec</em> with the given point arithmetic.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @param nonce
+	 *            - The initial randomized number.
+	 * @param fast
+	 *            - <strong>true</strong> for the arithmetic on fixed-size
+	 *            limbs, <strong>false</strong> for the {@link BigInteger}
+	 *            reference implementation.
+	 */
+	public PACE(final ECParameterSpec ecSpec, final BigInteger nonce, final boolean fast) {
+		this(ecSpec, nonce, fast, randomSource);
+	}
+
+	/**
+	 * Initializes a creation of the <em>ECDH</em> according to the given
+	 * <em>ecSpec</em> with the given random number generator of the private
+	 * keys, independent of {@link #setRandomSource(Random)}.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @param nonce
+	 *            - The initial randomized number.
+	 * @param random
+	 *            - The random number generator or <strong>null</strong> for
+	 *            a new {@link SecureRandom}.
+	 */
+	public PACE(final ECParameterSpec ecSpec, final BigInteger nonce, final Random random) {
+		this(ecSpec, nonce, fastArithmetic, random);
+	}
+
+	/**
+	 * Initializes the instance.
+	 */
+	private PACE(final ECParameterSpec ecSpec, final BigInteger nonce, final boolean fast, final Random random) {
+		this.random = random;
+		if (this.random == null) {
+			try {
+				this.random = SecureRandom.getInstance("SHA1PRNG");
+			} catch (final Exception e) {
+				e.printStackTrace();
+				this.random = new SecureRandom();
+			}
 		}
 
+		this.ecSpec = ecSpec;
 		final EllipticCurve curve = ecSpec.getCurve();
 		this.Q = ((ECFieldFp) curve.getField()).getP();
 		this.A = curve.getA();
-
-		this.preComp = new BigInteger[16][];
-		final ECPoint G = ecSpec.getGenerator();
-		this.preComp[0] = new BigInteger[] { G.getAffineX(), G.getAffineY(), ONE };
-		preComputation(this.preComp);
+		this.fieldLength = (this.Q.bitLength() + 7) / 8;
+		this.window = FastCurve.window(this.Q.bitLength());
+		this.fast = fast ? new FastCurve(ecSpec) : null;
+
+		this.preComp = new BigInteger[1 << this.window - 2][];
+		if (this.fast != null) {
+			final ECPoint G = ecSpec.getGenerator();
+			this.preComp[0] = new BigInteger[] { G.getAffineX(), G.getAffineY(), ONE };
+		} else {
+			final BigInteger[][] table = generatorTable(ecSpec);
+			System.arraycopy(table, 0, this.preComp, 0, table.length);
+		}
+		this.generator = this.preComp[0];
 
 		this.nonce = nonce;
 	}
 
+	/**
+	 * Returns the precomputation table of the generator for the reference
+	 * implementation. The table is computed on the first request.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @return Returns the shared table, which must not be modified.
+	 */
+	private BigInteger[][] generatorTable(final ECParameterSpec ecSpec) {
+		synchronized (GENERATOR_TABLES) {
+			BigInteger[][] table = GENERATOR_TABLES.get(ecSpec);
+			if (table == null) {
+				table = new BigInteger[1 << this.window - 2][];
+				final ECPoint G = ecSpec.getGenerator();
+				table[0] = new BigInteger[] { G.getAffineX(), G.getAffineY(), ONE };
+				preComputation(table);
+				GENERATOR_TABLES.put(ecSpec, table);
+			}
+			return table;
+		}
+	}
+
 	/**
 	 * Precomputes pcData to achieve higher calculation speed of the
-	 * ECDH.
+	 * ECDH. The odd multiples of the first point are normalised to affine
+	 * coordinates, so the additions of {@link #fastMultiply(BigInteger)} are
+	 * mixed additions.
 	 * 
 	 * @param pcData
 	 *            - The data to precompute.
 	 */
 	private final void preComputation(final BigInteger[][] pcData) {
+		if (this.fast != null) {
+			// the table is built by the fast arithmetic
+			return;
+		}
+
 		final BigInteger[] Ptwice = multiplyBy2NEW(pcData[0]);
 		for (int i = 1; i < pcData.length; i++) {
 			pcData[i] = add(Ptwice, pcData[i - 1]);
 		}
+		normalize(pcData);
+	}
+
+	/**
+	 * Converts the given points from Jacobian to affine coordinates with a
+	 * single modular inversion (Montgomery's simultaneous inversion). Points
+	 * at infinity and affine points are left as they are.
+	 * 
+	 * @param points
+	 *            - The points, which are replaced by their affine form.
+	 */
+	private void normalize(final BigInteger[][] points) {
+		// prefix[i] = product of all Z up to i
+		final BigInteger[] prefix = new BigInteger[points.length];
+		BigInteger product = ONE;
+		for (int i = 0; i < points.length; i++) {
+			final BigInteger z = points[i][2];
+			if (z != null && !z.equals(ONE)) {
+				product = product.multiply(z).mod(Q);
+			}
+			prefix[i] = product;
+		}
+		if (product.equals(ONE)) {
+			return;
+		}
+
+		BigInteger inverse = product.modInverse(Q);
+		for (int i = points.length - 1; i >= 0; i--) {
+			final BigInteger[] p = points[i];
+			if (p[2] == null || p[2].equals(ONE)) {
+				continue;
+			}
+
+			final BigInteger zInv = i > 0 ? inverse.multiply(prefix[i - 1]).mod(Q) : inverse;
+			inverse = inverse.multiply(p[2]).mod(Q);
+
+			final BigInteger zInv2 = zInv.multiply(zInv).mod(Q);
+			points[i] = new BigInteger[] { p[0].multiply(zInv2).mod(Q),
+					p[1].multiply(zInv2.multiply(zInv)).mod(Q), ONE };
+		}
 	}
 	
 	/**
@@ -178,6 +437,24 @@ public class PACE {
 		return result;
 	}
 
+	/**
+	 * Encodes a field element with the length of the field, as leading zeros
+	 * must not be dropped (FE2OS, BSI TR-03111).
+	 * 
+	 * @param i
+	 *            - The field element.
+	 * 
+	 * @return Returns the encoded field element.
+	 */
+	private byte[] encodeFieldElement(final BigInteger i) {
+		final byte[] result = new byte[this.fieldLength];
+		if (i.signum() != 0) {
+			final byte[] value = reduceBigInt(i);
+			System.arraycopy(value, 0, result, result.length - value.length, value.length);
+		}
+		return result;
+	}
+
 	/**
 	 * Encodes the point, which is identified through the parameter <em>p</em>
 	 * and returns it as an byte array.
@@ -189,8 +466,8 @@ public class PACE {
 	 * @return The encoded point as an byte array.
 	 */
 	private byte[] encodePoint(final BigInteger[] p) {
-		return ArrayTool
-				.arrayconcat(new byte[] { 0x04 }, ArrayTool.arrayconcat(reduceBigInt(p[0]), reduceBigInt(p[1])));
+		return ArrayTool.arrayconcat(new byte[] { 0x04 },
+				ArrayTool.arrayconcat(encodeFieldElement(p[0]), encodeFieldElement(p[1])));
 	}
 
 	/**
@@ -220,8 +497,50 @@ public class PACE {
 	 * 
 	 */
 	public final byte[] init() {
-		this.ephemeralKey = createPrivateKey();
-		return encodePoint(this.fastMultiply(this.ephemeralKey));
+		return generateKeyPair();
+	}
+
+	/**
+	 * Uses the given ephemeral key pair, which was created in advance, and
+	 * returns its public key. Without a key pair a new one is created, as by
+	 * {@link #init()}.
+	 * 
+	 * @param keyPair
+	 *            - The key pair on the generator of the curve or
+	 *            <strong>null</strong>.
+	 * @return Returns the public key of the key-pair of the base-curve from the
+	 *         communication channel.
+	 * @throws IllegalArgumentException
+	 *             If the key pair belongs to another curve.
+	 */
+	public final byte[] init(final KeyPair keyPair) {
+		if (keyPair == null) {
+			return init();
+		}
+		if (keyPair.ecSpec != this.ecSpec || this.preComp[0] != this.generator) {
+			throw new IllegalArgumentException("key pair of another curve");
+		}
+
+		this.ephemeralKey = keyPair.privateKey;
+		return keyPair.getPublicKey();
+	}
+
+	/**
+	 * Creates an ephemeral key pair on the generator of the curve for a later
+	 * {@link #init(KeyPair)}. The state of this instance isn't changed, so one
+	 * instance can create several key pairs.
+	 * 
+	 * @return Returns the new key pair.
+	 * @throws IllegalStateException
+	 *             If the nonce has already been mapped.
+	 */
+	public final KeyPair createKeyPair() {
+		if (this.preComp[0] != this.generator) {
+			throw new IllegalStateException("nonce already mapped");
+		}
+
+		final BigInteger privateKey = createPrivateKey();
+		return new KeyPair(this.ecSpec, privateKey, encodePoint(this.fastMultiply(privateKey)));
 	}
 
 	/**
@@ -234,18 +553,8 @@ public class PACE {
 	 * @return Returns the public point relative to 'G'.
 	 */
 	public final byte[] step(final byte[] mapData) {
-		final BigInteger[] G_ = fastMultiply(this.nonce);
-
-		this.preComp[0] = decodePoint(mapData);
-		preComputation(this.preComp);
-
-		final BigInteger[] H = fastMultiply(this.ephemeralKey);
-
-		this.preComp[0] = add(G_, H);
-		preComputation(this.preComp);
-
-		this.ephemeralKey = createPrivateKey();
-		return encodePoint(this.fastMultiply(this.ephemeralKey));
+		mapNonce(mapData);
+		return generateKeyPair();
 	}
 
 	/**
@@ -257,14 +566,62 @@ public class PACE {
 	 * @return Returns the created ECDH.
 	 */
 	public final byte[][] finish(final byte[] mapData) {
-		this.preComp[0] = decodePoint(mapData);
+		return new byte[][] { encodeFieldElement(decodePoint(mapData)[0]), // IDPICC
+				computeSharedSecret(mapData) // shared secret
+		};
+	}
+
+	/**
+	 * Creates a new ephemeral key and returns the encoded public key, the
+	 * multiple of the current base point. The base point is the generator of
+	 * the curve until {@link #mapNonce(byte[])} is called.
+	 * 
+	 * @return Returns the encoded public key.
+	 */
+	public final byte[] generateKeyPair() {
+		this.ephemeralKey = createPrivateKey();
+		return encodePoint(this.fastMultiply(this.ephemeralKey));
+	}
+
+	/**
+	 * Maps the nonce to a new base point with the generic mapping
+	 * <em>G' = s &middot; G + H</em>. The point <em>H</em> is the product of
+	 * the current ephemeral key and the given mapping public key of the card,
+	 * both products are calculated together in a single pass. The following
+	 * key pair is generated on <em>G'</em>.
+	 * 
+	 * @param mapData
+	 *            - The encoded mapping public key of the card.
+	 */
+	public final void mapNonce(final byte[] mapData) {
+		final BigInteger[] P = decodePoint(mapData);
+
+		// G' = s * G + k * P in one pass
+		if (this.fast != null) {
+			this.preComp[0] = this.fast.multiplyAdd(this.nonce, P, this.ephemeralKey);
+		} else {
+			this.preComp[0] = P;
+			preComputation(this.preComp);
+			this.preComp[0] = multiplyAdd(this.nonce, this.ephemeralKey);
+		}
 		preComputation(this.preComp);
+	}
 
-		final BigInteger[] S = fastMultiply(this.ephemeralKey);
+	/**
+	 * Computes the shared secret of the key agreement, the x-coordinate of the
+	 * product of the current ephemeral key and the given public key of the
+	 * card.
+	 * 
+	 * @param publicKey
+	 *            - The encoded ephemeral public key of the card.
+	 * @return Returns the encoded shared secret.
+	 */
+	public final byte[] computeSharedSecret(final byte[] publicKey) {
+		this.preComp[0] = decodePoint(publicKey);
+		preComputation(this.preComp);
 
-		return new byte[][] { reduceBigInt(this.preComp[0][0]), // IDPICC
-				reduceBigInt(S[0]) // shared secret
-		};
+		final BigInteger[] S = fastMultiply(this.ephemeralKey);
+		return encodeFieldElement(S[0]);
 	}
 
 	/*
@@ -336,7 +693,15 @@ public class PACE {
 	 *         values.
 	 */
 	public BigInteger[] fastMultiply(final BigInteger k) {
-		final int[] N = determineNaf(k, 5, k.bitLength());
+		if (this.fast != null) {
+			if (this.preComp[0] == this.generator) {
+				return this.fast.multiplyGenerator(k);
+			}
+			return this.fast.multiply(this.preComp[0], k);
+		}
+
+		// the digits of determineNaf are less than 2^w, the table holds 2^(w-1)
+		final int[] N = determineNaf(k, this.window - 1, k.bitLength());
 
 		BigInteger[] r = INFINITY;
 		final int l = N.length - 1;
@@ -350,6 +715,56 @@ public class PACE {
 			}
 		}
 
+		return toAffine(r);
+	}
+
+	/**
+	 * Calculates <em>s &middot; G + k &middot; P</em> with the generator
+	 * <em>G</em> and the point <em>P</em> of the current table in a single
+	 * pass. The non-adjacent forms of both scalars are interleaved (Shamir's
+	 * trick), so the doublings are shared.
+	 * 
+	 * @param s
+	 *            - The scalar of the generator.
+	 * @param k
+	 *            - The scalar of the current point.
+	 * 
+	 * @return Returns the affine result.
+	 */
+	private BigInteger[] multiplyAdd(final BigInteger s, final BigInteger k) {
+		final BigInteger[][] gTable = generatorTable(this.ecSpec);
+		final int[] S = determineNaf(s, this.window - 1, s.bitLength());
+		final int[] K = determineNaf(k, this.window - 1, k.bitLength());
+
+		BigInteger[] r = INFINITY;
+		for (int i = Math.max(S.length, K.length) - 1; i >= 0; i--) {
+			r = multiplyBy2NEW(r);
+			final int sIndex = i < S.length ? S[i] : 0;
+			if (sIndex > 0) {
+				r = add(r, gTable[sIndex - 1 >> 1]);
+			} else if (sIndex < 0) {
+				r = subtract(r, gTable[-sIndex - 1 >> 1]);
+			}
+			final int kIndex = i < K.length ? K[i] : 0;
+			if (kIndex > 0) {
+				r = add(r, this.preComp[kIndex - 1 >> 1]);
+			} else if (kIndex < 0) {
+				r = subtract(r, this.preComp[-kIndex - 1 >> 1]);
+			}
+		}
+
+		return toAffine(r);
+	}
+
+	/**
+	 * Converts a point from Jacobian to affine coordinates.
+	 * 
+	 * @param r
+	 *            - The point.
+	 * 
+	 * @return Returns the point with <em>Z = 1</em>.
+	 */
+	private BigInteger[] toAffine(final BigInteger[] r) {
 		BigInteger x = r[0], y = r[1], z = r[2];
 
 		z = z.modInverse(Q);
@@ -0,0 +1,271 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.security.spec.ECParameterSpec;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The <tt>PACEKeyPool</tt> keeps ephemeral key pairs of {@link PACE}, which
+ * are created in advance on a background thread. The first key pair of PACE
+ * is on the generator of the curve and doesn't depend on anything the card
+ * sends, so its scalar multiplication is moved out of the interactive part
+ * of the protocol, which starts after the PIN has been entered.
+ * </p>
+ * <p>
+ * The pool holds a limited amount of key pairs of a single curve. Every key
+ * pair is handed out once. A request for another curve discards the key
+ * pairs of the previous one, the pool is refilled in the background after
+ * each request.
+ * </p>
+ * <p>
+ * The key pairs are always created with a {@link java.security.SecureRandom}
+ * of the pool, a generator set by {@link PACE#setRandomSource(Random)} is
+ * left to the foreground.
+ * </p>
+ * 
+ * @see CardHandler
+ * @see PACE#init(PACE.KeyPair)
+ */
+public final class PACEKeyPool {
+
+	/**
+	 * The default amount of key pairs.
+	 */
+	public static final int					DEFAULT_SIZE	= 2;
+
+	/**
+	 * The maximum amount of key pairs.
+	 */
+	private final int						capacity;
+
+	/**
+	 * The key pairs of the current curve.
+	 */
+	private final LinkedList<PACE.KeyPair>	pairs			= new LinkedList<PACE.KeyPair>();
+
+	/**
+	 * The refill thread, which ends when the pool is full.
+	 */
+	private final ThreadPoolExecutor		executor;
+
+	/**
+	 * The current curve or <tt>null</tt>.
+	 */
+	private ECParameterSpec					curve;
+
+	/**
+	 * Counts the changes of the curve, a refill of an outdated curve stops.
+	 */
+	private int								generation;
+
+	/**
+	 * Set, while a refill is scheduled or running.
+	 */
+	private boolean							refilling;
+
+	/**
+	 * Creates a pool with the given capacity.
+	 * 
+	 * @param capacity
+	 *            - The maximum amount of key pairs, <tt>0</tt> disables the
+	 *            pool.
+	 */
+	public PACEKeyPool(final int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("negative capacity");
+		}
+
+		this.capacity = capacity;
+		this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "PACEKeyPool-refill");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					}
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts filling the pool with key pairs of the given curve, i.e. as soon
+	 * as the curve of a card is known.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications or <tt>null</tt>.
+	 */
+	public synchronized void prepare(final ECParameterSpec ecSpec) {
+		if (ecSpec != null) {
+			select(ecSpec);
+			refill();
+		}
+	}
+
+	/**
+	 * Takes a key pair of the given curve out of the pool. The call doesn't
+	 * wait for the background thread, an empty pool returns <tt>null</tt> and
+	 * the caller creates the key pair itself.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @return Returns a key pair or <tt>null</tt>, if there is none.
+	 */
+	public synchronized PACE.KeyPair take(final ECParameterSpec ecSpec) {
+		if (ecSpec == null) {
+			return null;
+		}
+
+		select(ecSpec);
+		final PACE.KeyPair pair = pairs.poll();
+		refill();
+		return pair;
+	}
+
+	/**
+	 * Discards all key pairs and stops a running refill.
+	 */
+	public synchronized void invalidate() {
+		pairs.clear();
+		curve = null;
+		generation++;
+	}
+
+	/**
+	 * Returns the amount of available key pairs.
+	 * 
+	 * @return Returns the amount of key pairs.
+	 */
+	public synchronized int size() {
+		return pairs.size();
+	}
+
+	/**
+	 * Returns the maximum amount of key pairs.
+	 * 
+	 * @return Returns the capacity.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Switches to the given curve, the key pairs of another curve are
+	 * discarded.
+	 */
+	private void select(final ECParameterSpec ecSpec) {
+		if (curve != ecSpec) {
+			invalidate();
+			curve = ecSpec;
+		}
+	}
+
+	/**
+	 * Schedules a refill, if the pool isn't full.
+	 */
+	private void refill() {
+		if (refilling || curve == null || pairs.size() >= capacity) {
+			return;
+		}
+
+		final ECParameterSpec ecSpec = curve;
+		final int gen = generation;
+		refilling = true;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				fill(ecSpec, gen);
+			}
+		});
+	}
+
+	/**
+	 * Creates key pairs of the given curve until the pool is full or the
+	 * curve has changed.
+	 */
+	private void fill(final ECParameterSpec ecSpec, final int gen) {
+		try {
+			PACE pace = null;
+			while (true) {
+				synchronized (this) {
+					if (gen != generation || pairs.size() >= capacity) {
+						return;
+					}
+				}
+
+				if (pace == null) {
+					pace = new PACE(ecSpec, null, (Random) null);
+				}
+				final PACE.KeyPair pair = pace.createKeyPair();
+
+				synchronized (this) {
+					if (gen != generation) {
+						return;
+					}
+					pairs.add(pair);
+				}
+			}
+		} finally {
+			synchronized (this) {
+				refilling = false;
+				// the curve has changed meanwhile
+				if (gen != generation) {
+					refill();
+				}
+			}
+		}
+	}
+}
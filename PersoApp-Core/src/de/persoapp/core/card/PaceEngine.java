@@ -0,0 +1,129 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+
+/**
+ * <p>
+ * The <tt>PaceEngine</tt> interface defines the elliptic curve cryptography
+ * of the generic mapping of <em>PACE</em>, which is executed by the
+ * {@link CardHandler}, if the card terminal doesn't support PACE. All
+ * engines calculate the same protocol and are interchangeable, the fastest
+ * engine of a platform is chosen by {@link PaceEngines}.
+ * </p>
+ * 
+ * @see DefaultPaceEngine
+ * @see BCPaceEngine
+ */
+public interface PaceEngine {
+
+	/**
+	 * The key agreement of one PACE execution.
+	 */
+	public interface Session {
+
+		/**
+		 * Creates the ephemeral key pair for the mapping on the generator of
+		 * the curve.
+		 * 
+		 * @return Returns the encoded public key.
+		 */
+		public byte[] init();
+
+		/**
+		 * Maps the nonce with the mapping public key of the card to a new
+		 * generator and creates the ephemeral key pair on it.
+		 * 
+		 * @param mapData
+		 *            - The encoded mapping public key of the card.
+		 * @return Returns the encoded public key relative to the mapped
+		 *         generator.
+		 */
+		public byte[] step(byte[] mapData);
+
+		/**
+		 * Computes the shared secret with the ephemeral public key of the
+		 * card.
+		 * 
+		 * @param data
+		 *            - The encoded ephemeral public key of the card.
+		 * @return Returns the x-coordinate of the public key of the card
+		 *         (<em>ID<sub>PICC</sub></em>) and the shared secret.
+		 */
+		public byte[][] finish(byte[] data);
+	}
+
+	/**
+	 * Returns the name of the engine, which selects it in the configuration.
+	 * 
+	 * @return Returns the name.
+	 */
+	public String getName();
+
+	/**
+	 * Announces sessions on the given curve, i.e. as soon as the curve of a
+	 * card is known. An engine may precompute tables or keys.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 */
+	public void prepare(ECParameterSpec ecSpec);
+
+	/**
+	 * Opens a new session on the given curve.
+	 * 
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @param nonce
+	 *            - The decrypted nonce of the card.
+	 * @return Returns the session.
+	 */
+	public Session open(ECParameterSpec ecSpec, BigInteger nonce);
+}
@@ -0,0 +1,190 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Selects the {@link PaceEngine} of the platform. An engine is either chosen
+ * by name with the system property {@value #PROPERTY} or, if the property is
+ * missing or <tt>auto</tt>, by a short self-benchmark, which runs complete
+ * key agreements with every engine and picks the fastest one. Engines which
+ * fail or don't agree with the first engine on the shared secret are
+ * skipped.
+ * </p>
+ * 
+ * @see CardHandler#selectPaceEngine()
+ */
+public final class PaceEngines {
+
+	/**
+	 * The system property, which selects an engine by name.
+	 */
+	public static final String	PROPERTY	= "de.persoapp.core.card.paceEngine";
+
+	/**
+	 * The value of {@link #PROPERTY}, which selects the engine by benchmark.
+	 */
+	public static final String	AUTO		= "auto";
+
+	/**
+	 * The curve of the benchmark, the default curve brainpoolP256r1.
+	 */
+	private static final int	CURVE_ID	= 13;
+
+	/**
+	 * The number of measured key agreements per engine.
+	 */
+	private static final int	ROUNDS		= 5;
+
+	/**
+	 * Hidden constructor.
+	 */
+	private PaceEngines() {
+	}
+
+	/**
+	 * Selects an engine by name or by benchmark.
+	 * 
+	 * @param engines
+	 *            - The available engines, the first one is the reference of
+	 *            the benchmark.
+	 * @param name
+	 *            - The name of the engine, <tt>null</tt> or {@value #AUTO}
+	 *            for the benchmark.
+	 * @return Returns the selected engine.
+	 */
+	public static PaceEngine select(final PaceEngine[] engines, final String name) {
+		if (name != null && !AUTO.equalsIgnoreCase(name)) {
+			for (final PaceEngine engine : engines) {
+				if (engine.getName().equalsIgnoreCase(name)) {
+					return engine;
+				}
+			}
+			System.out.println("Unknown PACE engine: " + name);
+		}
+
+		return benchmark(engines, EC_Globals.getCurve(CURVE_ID), ROUNDS);
+	}
+
+	/**
+	 * Measures the engines on the given curve and returns the fastest one.
+	 * Each engine first runs a key agreement against the first engine, which
+	 * also warms up the engine, and then the measured rounds against itself.
+	 * 
+	 * @param engines
+	 *            - The available engines, the first one is the reference.
+	 * @param ecSpec
+	 *            - The elliptic curve specifications.
+	 * @param rounds
+	 *            - The number of measured key agreements.
+	 * @return Returns the fastest working engine or the first one, if no
+	 *         other engine works.
+	 */
+	public static PaceEngine benchmark(final PaceEngine[] engines, final ECParameterSpec ecSpec, final int rounds) {
+		final BigInteger nonce = new BigInteger(1, new byte[] { 0x4E, 0x6F, 0x6E, 0x63, 0x65, 0x20, 0x6F, 0x66, 0x20,
+				0x50, 0x41, 0x43, 0x45, 0x20, 0x62, 0x6D });
+
+		PaceEngine fastest = engines[0];
+		long best = Long.MAX_VALUE;
+		for (final PaceEngine engine : engines) {
+			try {
+				if (engine != engines[0] && !agree(engine, engines[0], ecSpec, nonce)) {
+					System.out.println("PACE engine " + engine.getName() + ": no agreement, skipped");
+					continue;
+				}
+
+				long time = Long.MAX_VALUE;
+				for (int i = 0; i <= rounds; i++) {
+					final long start = System.nanoTime();
+					if (!agree(engine, engine, ecSpec, nonce)) {
+						throw new IllegalStateException("no agreement");
+					}
+					// the first round warms up
+					if (i > 0) {
+						time = Math.min(time, System.nanoTime() - start);
+					}
+				}
+
+				System.out.println("PACE engine " + engine.getName() + ": " + time / 1000 + " us");
+				if (time < best) {
+					best = time;
+					fastest = engine;
+				}
+			} catch (final Throwable t) {
+				// i.e. a missing library
+				System.out.println("PACE engine " + engine.getName() + ": " + t + ", skipped");
+			}
+		}
+		return fastest;
+	}
+
+	/**
+	 * Runs a key agreement between two engines and compares the shared
+	 * secrets.
+	 */
+	private static boolean agree(final PaceEngine terminal, final PaceEngine card, final ECParameterSpec ecSpec,
+			final BigInteger nonce) {
+		final PaceEngine.Session a = terminal.open(ecSpec, nonce);
+		final PaceEngine.Session b = card.open(ecSpec, nonce);
+
+		final byte[] aMap = a.init();
+		final byte[] bMap = b.init();
+		final byte[] aKey = a.step(bMap);
+		final byte[] bKey = b.step(aMap);
+		final byte[][] aResult = a.finish(bKey);
+		final byte[][] bResult = b.finish(aKey);
+
+		// IDPICC is the x-coordinate of the public key of the other side
+		return Arrays.equals(aResult[1], bResult[1])
+				&& Arrays.equals(aResult[0], Arrays.copyOfRange(bKey, 1, 1 + aResult[0].length));
+	}
+}
@@ -48,10 +48,18 @@
 package de.persoapp.core.card;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import de.persoapp.core.util.ArrayTool;
 import de.persoapp.core.util.Hex;
@@ -61,31 +69,196 @@ import de.persoapp.core.util.Hex;
  * The PersoSimTransport-class simulates the transport and the exchange
  * of data from a personal identity card with a remotehost.
  * </p>
+ * <p>
+ * The <em>APDUs</em> are exchanged as lines of hexadecimal digits over a
+ * connection, which is kept open and shared by all instances for the same
+ * simulator. A broken connection is reopened with the next command. The
+ * simulator is configured with the system properties {@value #HOST_PROPERTY}
+ * and {@value #PORT_PROPERTY}.
+ * </p>
+ * <p>
+ * With pipelining enabled, a batch is written as a whole before the responses
+ * are read, so the round trips of the batch overlap. The simulator processes
+ * every command of the batch, even if the batch stops at an unacceptable
+ * status word: The responses of the following commands are dropped. Since
+ * the simulator is a test environment, this is acceptable and pipelining is
+ * enabled with the system property {@value #PIPELINING_PROPERTY} or
+ * {@link #setPipelining(boolean)}.
+ * </p>
  * 
  * @author Christian Kahlo
  * @author Rico Klimsa - added javadoc comments.
  */
 public class PersoSimTransport implements TransportProvider {
 
+	/**
+	 * The system property with the name or ip address of the simulator.
+	 */
+	public static final String						HOST_PROPERTY		= "de.persoapp.core.card.persoSimHost";
+
+	/**
+	 * The system property with the port of the simulator.
+	 */
+	public static final String						PORT_PROPERTY		= "de.persoapp.core.card.persoSimPort";
+
+	/**
+	 * The system property, which enables the pipelining of batches.
+	 */
+	public static final String						PIPELINING_PROPERTY	= "de.persoapp.core.card.persoSimPipelining";
+
+	/**
+	 * The default host of the simulator.
+	 */
+	public static final String						DEFAULT_HOST		= "localhost";
+
+	/**
+	 * The default port of the simulator.
+	 */
+	public static final int							DEFAULT_PORT		= 9876;
+
+	/**
+	 * The timeout for opening a connection, in milliseconds.
+	 */
+	private static final int						CONNECT_TIMEOUT		= 5000;
+
+	/**
+	 * The open connections, by simulator address.
+	 */
+	private static final Map<String, Connection>	CONNECTIONS			= new HashMap<String, Connection>();
+
 	/**
 	 * The last received status word.
 	 */
-	private int				lastSW;
-	
+	private int										lastSW;
+
 	/**
-	 * The name or ip address of the remotehost.
+	 * The connection to the simulator.
 	 */
-	private final String	host;
-	
+	private final Connection						connection;
+
 	/**
-	 * The port of the remotehost.
+	 * Whether batches are pipelined.
 	 */
-	private final int		port;
-	
+	private volatile boolean						pipelining;
+
 	/**
-	 * The underlying {@link Socket} for transmitting operations.
+	 * The connection to a simulator. The exchange of lines is synchronized, so
+	 * the commands and responses of different instances don't interleave.
 	 */
-	private Socket			socket;
+	private static final class Connection {
+
+		/**
+		 * The name or ip address of the remotehost.
+		 */
+		private final String	host;
+
+		/**
+		 * The port of the remotehost.
+		 */
+		private final int		port;
+
+		/**
+		 * The underlying {@link Socket} or <tt>null</tt>, if not connected.
+		 */
+		private Socket			socket;
+
+		/**
+		 * The buffered response lines.
+		 */
+		private BufferedReader	in;
+
+		/**
+		 * The buffered command lines.
+		 */
+		private Writer			out;
+
+		Connection(final String host, final int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		/**
+		 * Sends the command lines and reads a response line for every command.
+		 * A connection, which has been opened before and fails before the
+		 * first response, probably has been closed by the simulator and is
+		 * reopened once to repeat the commands.
+		 * 
+		 * @param commands
+		 *            - The command lines.
+		 * 
+		 * @return Returns the response lines. The list is shorter than the
+		 *         list of commands, if the connection failed.
+		 */
+		synchronized List<String> exchange(final List<String> commands) {
+			final List<String> responses = new ArrayList<String>(commands.size());
+			boolean reused = socket != null;
+			while (true) {
+				try {
+					if (socket == null) {
+						open();
+					}
+
+					for (final String command : commands) {
+						out.write(command);
+						out.write('\n');
+					}
+					out.flush();
+
+					while (responses.size() < commands.size()) {
+						final String line = in.readLine();
+						if (line == null) {
+							throw new IOException("connection closed by simulator");
+						}
+						responses.add(line);
+					}
+					return responses;
+				} catch (final IOException e) {
+					close();
+					if (!reused || !responses.isEmpty()) {
+						System.out.println("PersoSim " + host + ":" + port + ": " + e.getMessage());
+						return responses;
+					}
+					reused = false;
+				}
+			}
+		}
+
+		/**
+		 * Opens the connection.
+		 * 
+		 * @throws IOException
+		 *             If the simulator is not reachable.
+		 */
+		private void open() throws IOException {
+			final Socket s = new Socket();
+			try {
+				s.setTcpNoDelay(true);
+				s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+				in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+				out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), "US-ASCII"));
+			} catch (final IOException e) {
+				s.close();
+				throw e;
+			}
+			socket = s;
+		}
+
+		/**
+		 * Closes the connection, it is reopened with the next exchange.
+		 */
+		synchronized void close() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (final IOException e) {
+					// ignore, the connection is dropped anyway
+				}
+				socket = null;
+				in = null;
+				out = null;
+			}
+		}
+	}
 
 	/**
 	 * Creates and initializes a new {@link PersoSimTransport}.
@@ -96,10 +269,39 @@ public class PersoSimTransport implements TransportProvider {
 	 *            - The used port.
 	 */
 	private PersoSimTransport(final String host, final int port) {
-		this.host = host;
-		this.port = port;
+		this.connection = getConnection(host, port);
+		this.pipelining = Boolean.getBoolean(PIPELINING_PROPERTY);
+	}
+
+	/**
+	 * Returns the shared connection to the given simulator.
+	 */
+	private static Connection getConnection(final String host, final int port) {
+		synchronized (CONNECTIONS) {
+			final String key = host + ":" + port;
+			Connection connection = CONNECTIONS.get(key);
+			if (connection == null) {
+				connection = new Connection(host, port);
+				CONNECTIONS.put(key, connection);
+			}
+			return connection;
+		}
+	}
+
+	/**
+	 * Returns a new instance of {@link PersoSimTransport} for the simulator
+	 * configured by the system properties {@value #HOST_PROPERTY} and
+	 * {@value #PORT_PROPERTY}, by default {@value #DEFAULT_HOST}:
+	 * {@value #DEFAULT_PORT}.
+	 * 
+	 * @return Returns a new instance of {@link PersoSimTransport} or
+	 *         <tt>null</tt>, if the simulator is not reachable.
+	 */
+	public static PersoSimTransport getInstance() {
+		return getInstance(System.getProperty(HOST_PROPERTY, DEFAULT_HOST),
+				Integer.getInteger(PORT_PROPERTY, DEFAULT_PORT));
 	}
-	
+
 	/**
 	 * Returns a new instance of {@link PersoSimTransport}.
 	 * 
@@ -126,6 +328,39 @@ public class PersoSimTransport implements TransportProvider {
 		}
 	}
 
+	/**
+	 * Closes the shared connection to the given simulator. The connection is
+	 * reopened by the next command of an instance for this simulator.
+	 * 
+	 * @param host
+	 *            - The name of the remotehost.
+	 * @param port
+	 *            - The port of the remotehost.
+	 */
+	public static void disconnect(final String host, final int port) {
+		getConnection(host, port).close();
+	}
+
+	/**
+	 * Enables or disables the pipelining of batches.
+	 * 
+	 * @param pipelining
+	 *            - <strong>true</strong> to write every command of a batch
+	 *            before reading the responses.
+	 */
+	public void setPipelining(final boolean pipelining) {
+		this.pipelining = pipelining;
+	}
+
+	/**
+	 * Returns whether batches are pipelined.
+	 * 
+	 * @return Returns <strong>true</strong>, if batches are pipelined.
+	 */
+	public boolean isPipelining() {
+		return pipelining;
+	}
+
 	@Override
 	public Object getParent() {
 		// TODO Auto-generated method stub
@@ -137,9 +372,16 @@ public class PersoSimTransport implements TransportProvider {
 	 */
 	private static final byte[]	EMPTY_RESPONSE	= new byte[0];
 
+	/**
+	 * Checks for a command of the simulated reader, which is answered locally.
+	 */
+	private static boolean isReaderCommand(final byte[] apdu) {
+		return apdu != null && apdu.length >= 5 && apdu[0] == (byte) 0xFF && apdu[1] == (byte) 0x9A;
+	}
+
 	@Override
 	public byte[] transmit(final byte[] apdu) {
-		if (apdu != null && apdu.length >= 5 && apdu[0] == (byte) 0xFF && apdu[1] == (byte) 0x9A) {
+		if (isReaderCommand(apdu)) {
 			System.out.println("reader simulation for " + Hex.toString(apdu));
 			lastSW = 0x6A88;
 			byte[] response = EMPTY_RESPONSE;
@@ -165,7 +407,10 @@ public class PersoSimTransport implements TransportProvider {
 			}
 			return response;
 		} else {
-			final byte[] rpdu = Hex.fromString(exchangeApdu(Hex.toString(apdu)));
+			final byte[] rpdu = parseResponse(exchangeApdu(Hex.toString(apdu)));
+			if (rpdu == null) {
+				return null;
+			}
 			lastSW = ((rpdu[rpdu.length - 2] & 0xFF) << 8) + (rpdu[rpdu.length - 1] & 0xFF);
 
 			//					System.out.println("PS: " + Hex.toString(ArrayTool.subArray(rpdu, 0, rpdu.length - 2)) + " / "
@@ -174,54 +419,90 @@ public class PersoSimTransport implements TransportProvider {
 		}
 	}
 
+	/**
+	 * Transmits the batch. With pipelining enabled, all commands are written
+	 * before the first response is read.
+	 */
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		if (!pipelining || apdus.size() < 2) {
+			return TransportBatch.transmitEach(this, apdus, acceptable);
+		}
+
+		final List<String> commands = new ArrayList<String>(apdus.size());
+		for (final byte[] apdu : apdus) {
+			if (isReaderCommand(apdu)) {
+				return TransportBatch.transmitEach(this, apdus, acceptable);
+			}
+			commands.add(Hex.toString(apdu));
+		}
+
+		final List<String> lines = connection.exchange(commands);
+		final List<byte[]> responses = new ArrayList<byte[]>(lines.size());
+		for (int i = 0; i < lines.size(); i++) {
+			final byte[] rpdu = parseResponse(lines.get(i));
+			if (rpdu == null) {
+				break;
+			}
+
+			lastSW = ((rpdu[rpdu.length - 2] & 0xFF) << 8) + (rpdu[rpdu.length - 1] & 0xFF);
+			responses.add(rpdu);
+			if (!TransportBatch.isAcceptable(lastSW, TransportBatch.acceptableAt(acceptable, i))) {
+				break;
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * The simulator is connected through a socket and doesn't restrict the
+	 * length of APDUs.
+	 */
+	@Override
+	public int getMaxResponseLength() {
+		return 65536;
+	}
+
 	@Override
 	public int lastSW() {
 		// TODO Auto-generated method stub
 		return lastSW;
 	}
 
+	/**
+	 * The connection is shared and kept open for the next instance, see
+	 * {@link #disconnect(String, int)}.
+	 */
 	@Override
 	public void close() {
-		// TODO Auto-generated method stub
-
 	}
 
 	/**
-	 * Converts the provided argument into a {@link String} and exchanges it
-	 * with a remotehost.
+	 * Exchanges the command line with the remotehost.
 	 * 
 	 * @param cmdApdu
-	 *            - The provided data.
-	 * @return Returns the response.
-	 */
-	private String exchangeApdu(String cmdApdu) {
-		try {
-			socket = new Socket(host, port);
-		} catch (final IOException e) {
-			socket = null;
-			return null;
-		}
-
-		PrintStream out = null;
-		BufferedReader in = null;
-		try {
-			out = new PrintStream(socket.getOutputStream());
-			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
-
-		cmdApdu = cmdApdu.replaceAll("\\s", "");
-		out.println(cmdApdu);
-		out.flush();
+	 *            - The command as hexadecimal digits without whitespace.
+	 * @return Returns the response or <tt>null</tt>, if the exchange failed.
+	 */
+	private String exchangeApdu(final String cmdApdu) {
+		final List<String> responses = connection.exchange(Collections.singletonList(cmdApdu));
+		return responses.isEmpty() ? null : responses.get(0);
+	}
 
-		String respApdu = null;
-		try {
-			respApdu = in.readLine();
-		} catch (final IOException e) {
-			e.printStackTrace();
+	/**
+	 * Parses a response line.
+	 * 
+	 * @param respApdu
+	 *            - The response as hexadecimal digits or <tt>null</tt>.
+	 * @return Returns the response <em>APDU</em> including the status word or
+	 *         <tt>null</tt>, if there is no valid response.
+	 */
+	private static byte[] parseResponse(final String respApdu) {
+		if (respApdu == null) {
+			return null;
 		}
 
-		return respApdu;
+		final byte[] rpdu = Hex.fromString(respApdu.trim());
+		return rpdu.length < 2 ? null : rpdu;
 	}
 }
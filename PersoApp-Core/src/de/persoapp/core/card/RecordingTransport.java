@@ -0,0 +1,154 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.util.List;
+
+/**
+ * <p>
+ * A {@link TransportProvider} decorator, which records every exchange with
+ * the underlying transport provider in an {@link ApduTrace}. A
+ * {@link ISOSMTransport} on top of it records the unprotected
+ * <em>APDUs</em> in the same trace.
+ * </p>
+ * <p>
+ * Control commands of a terminal (see {@link CCID}) aren't recorded, so a
+ * trace of a <em>PACE</em> executed by the terminal can't be replayed.
+ * </p>
+ * 
+ * @see ReplayTransport
+ */
+public class RecordingTransport implements TransportProvider {
+
+	/**
+	 * The recorded transport provider.
+	 */
+	private final TransportProvider	parent;
+
+	/**
+	 * The trace.
+	 */
+	private final ApduTrace			trace;
+
+	/**
+	 * Creates a recording decorator.
+	 * 
+	 * @param parent
+	 *            - The recorded transport provider.
+	 * @param trace
+	 *            - The trace to write.
+	 */
+	public RecordingTransport(final TransportProvider parent, final ApduTrace trace) {
+		if (parent == null || trace == null) {
+			throw new NullPointerException("parent transport provider and trace required");
+		}
+		this.parent = parent;
+		this.trace = trace;
+		trace.setMaxResponseLength(parent.getMaxResponseLength());
+	}
+
+	/**
+	 * Returns the trace.
+	 * 
+	 * @return Returns the trace.
+	 */
+	public ApduTrace getTrace() {
+		return trace;
+	}
+
+	/*
+	 * The recorded transport provider is the parent, so CCID features are
+	 * still found.
+	 */
+	@Override
+	public Object getParent() {
+		return parent;
+	}
+
+	@Override
+	public byte[] transmit(final byte[] apdu) {
+		final long start = trace.now();
+		final byte[] response = parent.transmit(apdu);
+		trace.record(ApduTrace.LAYER_CARD, apdu, response, parent.lastSW(), start);
+		return response;
+	}
+
+	/*
+	 * The batch is passed on, so the recorded transport provider may overlap
+	 * the commands. All exchanges of the batch share the timing of the batch.
+	 */
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		final long start = trace.now();
+		final List<byte[]> responses = parent.transmitBatch(apdus, acceptable);
+		final long share = (trace.now() - start) / Math.max(1, responses.size());
+		for (int i = 0; i < responses.size(); i++) {
+			final byte[] rapdu = responses.get(i);
+			final byte[] data = new byte[rapdu.length - 2];
+			System.arraycopy(rapdu, 0, data, 0, data.length);
+			final int sw = (rapdu[data.length] & 0xFF) << 8 | rapdu[data.length + 1] & 0xFF;
+			trace.record(ApduTrace.LAYER_CARD, apdus.get(i), data, sw, start + i * share, share);
+		}
+		return responses;
+	}
+
+	@Override
+	public int lastSW() {
+		return parent.lastSW();
+	}
+
+	@Override
+	public int getMaxResponseLength() {
+		return parent.getMaxResponseLength();
+	}
+
+	@Override
+	public void close() {
+		parent.close();
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import de.persoapp.core.util.Hex;
+
+/**
+ * <p>
+ * A {@link TransportProvider}, which answers from the card layer of an
+ * {@link ApduTrace}. The commands have to match the recorded commands in
+ * order, so a replay is deterministic only with the random number generators
+ * of {@link PACE#setRandomSource(java.util.Random)} and the
+ * <em>PAOS</em> message IDs seeded as during the recording.
+ * </p>
+ * <p>
+ * Every answer is delayed by the recorded duration of the exchange times the
+ * time scale, so a scale of <tt>1</tt> replays the timing of the card and a
+ * scale of <tt>0</tt> measures the software stack alone.
+ * </p>
+ * 
+ * @see RecordingTransport
+ */
+public class ReplayTransport implements TransportProvider {
+
+	/**
+	 * The recorded exchanges.
+	 */
+	private final List<ApduTrace.Entry>	entries;
+
+	/**
+	 * The maximum response length of the recorded transport.
+	 */
+	private final int					maxResponseLength;
+
+	/**
+	 * The factor of the recorded durations.
+	 */
+	private final double				scale;
+
+	/**
+	 * The index of the next exchange.
+	 */
+	private int							next			= 0;
+
+	/**
+	 * The last status word.
+	 */
+	private int							lastSW			= -1;
+
+	/**
+	 * Creates a replay of the card layer of a trace.
+	 * 
+	 * @param trace
+	 *            - The loaded trace.
+	 * @param scale
+	 *            - The factor of the recorded durations, <tt>0</tt> answers
+	 *            without delay.
+	 */
+	public ReplayTransport(final ApduTrace trace, final double scale) {
+		if (scale < 0) {
+			throw new IllegalArgumentException("scale < 0");
+		}
+		this.entries = trace.getEntries(ApduTrace.LAYER_CARD);
+		this.maxResponseLength = trace.getMaxResponseLength();
+		this.scale = scale;
+	}
+
+	/**
+	 * Creates a replay of the card layer of a trace file.
+	 * 
+	 * @param file
+	 *            - The trace file.
+	 * @param scale
+	 *            - The factor of the recorded durations, <tt>0</tt> answers
+	 *            without delay.
+	 * 
+	 * @return Returns the replay.
+	 * 
+	 * @throws IOException
+	 *             If the trace can't be read.
+	 */
+	public static ReplayTransport open(final File file, final double scale) throws IOException {
+		return new ReplayTransport(ApduTrace.load(file), scale);
+	}
+
+	/**
+	 * Returns the number of exchanges not replayed yet.
+	 * 
+	 * @return Returns the number of remaining exchanges.
+	 */
+	public synchronized int remaining() {
+		return entries.size() - next;
+	}
+
+	@Override
+	public Object getParent() {
+		return null;
+	}
+
+	/**
+	 * Answers with the next recorded response.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the command doesn't match the recorded command or the
+	 *             trace is exhausted.
+	 */
+	@Override
+	public synchronized byte[] transmit(final byte[] apdu) {
+		if (next >= entries.size()) {
+			throw new IllegalStateException("trace exhausted after " + next + " exchanges: " + Hex.toString(apdu));
+		}
+		final ApduTrace.Entry entry = entries.get(next);
+		if (!entry.matches(apdu)) {
+			throw new IllegalStateException("command " + next + " differs from trace: " + Hex.toString(apdu)
+					+ " != " + Hex.toString(entry.getCommand()));
+		}
+		next++;
+
+		// parking may end early, so the deadline is checked
+		final long deadline = System.nanoTime() + (long) (entry.getDuration() * scale);
+		long delay;
+		while ((delay = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(delay);
+		}
+
+		lastSW = entry.getSW();
+		return entry.getResponse();
+	}
+
+	@Override
+	public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+		return TransportBatch.transmitEach(this, apdus, acceptable);
+	}
+
+	@Override
+	public synchronized int lastSW() {
+		return lastSW;
+	}
+
+	@Override
+	public int getMaxResponseLength() {
+		return maxResponseLength;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+import de.persoapp.core.util.ArrayTool;
+
+/**
+ * <p>
+ * Precomputes the initialization vectors of a secure messaging session. The
+ * IV of every APDU is the encrypted send sequence counter, and the sequence of
+ * counters is fully predictable once the session keys are known. Instead of
+ * one block cipher call per command and per response, the IVs of
+ * {@link #BATCH} consecutive counters are encrypted with a single bulk ECB
+ * call and handed out until the batch is exhausted.
+ * </p>
+ * 
+ * @see SecureMessaging
+ */
+final class SSCKeystream {
+
+	/**
+	 * The block size of AES.
+	 */
+	private static final int	BLOCK_SIZE	= 16;
+
+	/**
+	 * The amount of counters encrypted at once. Every round trip consumes two
+	 * counters, one for the command and one for the response.
+	 */
+	static final int			BATCH		= 32;
+
+	/**
+	 * The <em>AES/ECB</em> cipher initialized with the EncKey.
+	 */
+	private final Cipher		cipher;
+
+	/**
+	 * The plain counter blocks of the current batch.
+	 */
+	private final byte[]		counters	= new byte[BATCH * BLOCK_SIZE];
+
+	/**
+	 * The encrypted counter blocks of the current batch.
+	 */
+	private final byte[]		ivs			= new byte[BATCH * BLOCK_SIZE];
+
+	/**
+	 * The counter value of the first block of the current batch or
+	 * <tt>-1</tt> if no batch has been computed yet.
+	 */
+	private long				base		= -1;
+
+	/**
+	 * Creates a new keystream.
+	 * 
+	 * @param cipher
+	 *            - <em>AES/ECB/NoPadding</em> cipher initialized for
+	 *            encryption with the EncKey.
+	 */
+	SSCKeystream(final Cipher cipher) {
+		this.cipher = cipher;
+	}
+
+	/**
+	 * Copies the initialization vector for the given send sequence counter to
+	 * <tt>iv</tt>. Counters within the current batch are served without any
+	 * cipher call, any other counter starts a new batch.
+	 * 
+	 * @param ssc
+	 *            - The send sequence counter as 16 byte block.
+	 * @param iv
+	 *            - The destination of the initialization vector.
+	 * 
+	 * @throws GeneralSecurityException
+	 *             If the encryption of the counters fails.
+	 */
+	void getIV(final byte[] ssc, final byte[] iv) throws GeneralSecurityException {
+		// counters exceeding 64 bit never occur within a PACE session
+		if (ArrayTool.createLongfromByteArray(ssc, 0) != 0) {
+			cipher.doFinal(ssc, 0, BLOCK_SIZE, iv, 0);
+			return;
+		}
+
+		final long counter = ArrayTool.createLongfromByteArray(ssc, 8);
+		if (base < 0 || counter < base || counter - base >= BATCH) {
+			refill(counter);
+		}
+
+		System.arraycopy(ivs, (int) (counter - base) * BLOCK_SIZE, iv, 0, BLOCK_SIZE);
+	}
+
+	/**
+	 * Encrypts the next {@link #BATCH} counters starting at the given value.
+	 * 
+	 * @param counter
+	 *            - The first counter of the new batch.
+	 * 
+	 * @throws GeneralSecurityException
+	 *             If the encryption of the counters fails.
+	 */
+	private void refill(final long counter) throws GeneralSecurityException {
+		for (int i = 0; i < BATCH; i++) {
+			ArrayTool.insertLongInByteArray(counters, i * BLOCK_SIZE + 8, counter + i);
+		}
+		cipher.doFinal(counters, 0, counters.length, ivs, 0);
+		base = counter;
+	}
+}
@@ -0,0 +1,669 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import de.persoapp.core.util.DERWriter;
+
+/**
+ * <p>
+ * The SecureMessaging engine wraps command APDUs and unwraps response APDUs
+ * according to <em>ISO 7816-4</em> secure messaging with AES session keys as
+ * established by <em>PACE</em>.
+ * </p>
+ * <p>
+ * The keys are expanded once when the engine is created and every
+ * intermediate result is written to buffers owned by the engine, which are
+ * reused for every APDU of the session. The offset/length variants of
+ * {@link #wrap(byte[], byte[], int, int, byte[], int)} and
+ * {@link #unwrap(byte[], byte[], int, int, byte[], int)} write directly into a
+ * caller supplied buffer. The engine is not thread-safe, every secure channel
+ * uses its own instance.
+ * </p>
+ * <p>
+ * The MAC is computed by the {@link CMac} on top of a plain AES cipher by
+ * default. With the system property {@value #MAC_PROPERTY} set to
+ * {@value #MAC_JCE} or with {@link #setMacBackend(String)}, the AES-CMAC
+ * {@link Mac} of an installed provider is used, if available.
+ * </p>
+ * 
+ * @see ISOSMTransport
+ */
+public final class SecureMessaging {
+
+	/**
+	 * The algorithm for the raw block operations. CBC chaining is done by the
+	 * engine itself, so the ciphers never have to be re-initialized with a new
+	 * initialization vector.
+	 */
+	private static final String	BLOCK_ALG		= "AES/ECB/NoPadding";
+
+	/**
+	 * The algorithm of the cipher underlying the {@link CMac}.
+	 */
+	private static final String	MAC_ALG			= "AES/CBC/NoPadding";
+
+	/**
+	 * The algorithm of the provider AES-CMAC, as registered by BouncyCastle.
+	 */
+	private static final String	JCE_MAC_ALG		= "AESCMAC";
+
+	/**
+	 * The system property, which selects the MAC backend of new engines.
+	 */
+	public static final String	MAC_PROPERTY	= "de.persoapp.core.card.smMac";
+
+	/**
+	 * The MAC backend computing the CMAC on top of a plain AES cipher.
+	 */
+	public static final String	MAC_BUILTIN		= "builtin";
+
+	/**
+	 * The MAC backend using the AES-CMAC {@link Mac} of a provider.
+	 */
+	public static final String	MAC_JCE			= "jce";
+
+	/**
+	 * The MAC backend of new engines.
+	 */
+	private static volatile String	macBackend		= System.getProperty(MAC_PROPERTY, MAC_BUILTIN);
+
+	/**
+	 * The block size of AES.
+	 */
+	private static final int	BLOCK_SIZE		= 16;
+
+	/**
+	 * The size of the secure messaging MAC.
+	 */
+	private static final int	MAC_SIZE		= 8;
+
+	/**
+	 * The maximum amount of bytes a wrapped APDU is longer than the plain APDU.
+	 * Buffers passed to {@link #wrap(byte[], byte[], int, int, byte[], int)}
+	 * must provide at least the length of the plain APDU plus this overhead.
+	 */
+	public static final int		WRAP_OVERHEAD	= 48;
+
+	/**
+	 * The padding.
+	 */
+	private static final byte[]	SM_PAD			= new byte[] { (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+			0, 0									};
+
+	/**
+	 * The block cipher for encryption and the derivation of the initialization
+	 * vector.
+	 */
+	private final Cipher		encCipher;
+
+	/**
+	 * The precomputed initialization vectors of this session.
+	 */
+	private final SSCKeystream	keystream;
+
+	/**
+	 * The block cipher for decryption.
+	 */
+	private final Cipher		decCipher;
+
+	/**
+	 * The used block-cipher based message authentication code.
+	 */
+	private final CMac			cmac;
+
+	/**
+	 * The current initialization vector, respectively the previous cipher
+	 * block while chaining.
+	 */
+	private final byte[]		iv				= new byte[BLOCK_SIZE];
+
+	/**
+	 * Scratch block for chaining and padding.
+	 */
+	private final byte[]		block			= new byte[BLOCK_SIZE];
+
+	/**
+	 * The MAC computed for the last unwrapped response.
+	 */
+	private final byte[]		mac				= new byte[MAC_SIZE];
+
+	/**
+	 * Working buffer for wrapped commands and unwrapped responses. Grows with
+	 * the largest APDU seen in this session.
+	 */
+	private byte[]				work			= new byte[256 + WRAP_OVERHEAD];
+
+	/**
+	 * The status word of the last unwrapped response or <tt>-1</tt> if the
+	 * response didn't contain a protected status word.
+	 */
+	private int					lastSW			= -1;
+
+	/**
+	 * Creates a new engine and expands the given session keys.
+	 * 
+	 * @param kEnc
+	 *            - The EncKey.
+	 * @param kMac
+	 *            - The MacKey.
+	 * 
+	 * @throws GeneralSecurityException
+	 *             If the ciphers are not available or the keys are invalid.
+	 */
+	public SecureMessaging(final byte[] kEnc, final byte[] kMac) throws GeneralSecurityException {
+		final SecretKeySpec encKey = new SecretKeySpec(kEnc, "AES");
+
+		encCipher = Cipher.getInstance(BLOCK_ALG);
+		encCipher.init(Cipher.ENCRYPT_MODE, encKey);
+		keystream = new SSCKeystream(encCipher);
+		decCipher = Cipher.getInstance(BLOCK_ALG);
+		decCipher.init(Cipher.DECRYPT_MODE, encKey);
+
+		cmac = createCMac(new SecretKeySpec(kMac, "AES"));
+	}
+
+	/**
+	 * Selects the MAC backend of new engines.
+	 * 
+	 * @param backend
+	 *            - {@value #MAC_BUILTIN} or {@value #MAC_JCE}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the backend is unknown.
+	 */
+	public static void setMacBackend(final String backend) {
+		if (!MAC_BUILTIN.equals(backend) && !MAC_JCE.equals(backend)) {
+			throw new IllegalArgumentException("unknown MAC backend: " + backend);
+		}
+		macBackend = backend;
+	}
+
+	/**
+	 * Returns the MAC backend of new engines.
+	 * 
+	 * @return Returns {@value #MAC_BUILTIN} or {@value #MAC_JCE}.
+	 */
+	public static String getMacBackend() {
+		return macBackend;
+	}
+
+	/**
+	 * Creates the {@link CMac} of the configured backend. The provider
+	 * AES-CMAC falls back to the built-in one, if no provider offers it.
+	 */
+	private static CMac createCMac(final SecretKeySpec macKey) throws GeneralSecurityException {
+		if (MAC_JCE.equals(macBackend)) {
+			try {
+				final Mac provider = Mac.getInstance(JCE_MAC_ALG);
+				provider.init(macKey);
+				return new CMac(provider, MAC_SIZE);
+			} catch (final NoSuchAlgorithmException e) {
+				System.out.println("SecureMessaging: " + JCE_MAC_ALG + " not available, using built-in CMac");
+			}
+		}
+
+		final Cipher macCipher = Cipher.getInstance(MAC_ALG);
+		macCipher.init(Cipher.ENCRYPT_MODE, macKey, new IvParameterSpec(new byte[BLOCK_SIZE]));
+		return new CMac(macCipher, MAC_SIZE);
+	}
+
+	/**
+	 * Returns the maximum plain response length, which fits into a protected
+	 * response of the given length. The protected response carries the
+	 * padded cryptogram in DO87, the status word in DO99 and the MAC in DO8E.
+	 * Channels limited to short responses keep requesting 256 bytes, since
+	 * the protected command is sent with extended length anyway.
+	 * 
+	 * @param responseLength
+	 *            - The maximum length of the protected response data.
+	 * 
+	 * @return Returns the maximum plain response length.
+	 */
+	public static int maxPlainLength(final int responseLength) {
+		// DO87 header with padding indicator, DO99 and DO8E
+		final int plain = (responseLength - 5 - 4 - 10) / BLOCK_SIZE * BLOCK_SIZE - 1;
+		return Math.max(256, Math.min(plain, 65536));
+	}
+
+	/**
+	 * Returns the status word of the last unwrapped response.
+	 * 
+	 * @return the protected status word or <tt>-1</tt> if the last response
+	 *         didn't contain one.
+	 */
+	public int lastSW() {
+		return lastSW;
+	}
+
+	/**
+	 * Wraps the given command APDU.
+	 * 
+	 * @param ssc
+	 *            - The send sequence counter for this command, as 16 byte
+	 *            block.
+	 * @param apdu
+	 *            - The plain command APDU.
+	 * 
+	 * @return Returns the protected command APDU.
+	 * 
+	 * @throws GeneralSecurityException
+	 *             If an error occurs during encryption or MAC calculation.
+	 */
+	public byte[] wrap(final byte[] ssc, final byte[] apdu) throws GeneralSecurityException {
+		ensureCapacity(apdu.length + WRAP_OVERHEAD);
+		final int len = wrap(ssc, apdu, 0, apdu.length, work, 0);
+		final byte[] result = new byte[len];
+		System.arraycopy(work, 0, result, 0, len);
+		return result;
+	}
+
+	/**
+	 * Wraps the command APDU <tt>in[inOff..inOff+inLen)</tt> into
+	 * <tt>out</tt>, starting at <tt>outOff</tt>. The output buffer must not
+	 * overlap the input and must provide at least <tt>inLen</tt> +
+	 * {@link #WRAP_OVERHEAD} bytes.
+	 * 
+	 * @param ssc
+	 *            - The send sequence counter for this command, as 16 byte
+	 *            block.
+	 * @param in
+	 *            - The buffer holding the plain command APDU.
+	 * @param inOff
+	 *            - The offset of the APDU.
+	 * @param inLen
+	 *            - The length of the APDU.
+	 * @param out
+	 *            - The buffer for the protected APDU.
+	 * @param outOff
+	 *            - The offset in the output buffer.
+	 * 
+	 * @return Returns the length of the protected APDU.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the APDU has an malformed structure.
+	 * @throws GeneralSecurityException
+	 *             If an error occurs during encryption or MAC calculation.
+	 */
+	public int wrap(final byte[] ssc, final byte[] in, final int inOff, final int inLen, final byte[] out,
+			final int outOff) throws GeneralSecurityException {
+		if (inLen < 4) {
+			throw new IllegalArgumentException("Invalid APDU: length=" + inLen);
+		}
+
+		int dataOff = inOff + 5;
+		int dataLen = 0;
+		int ne = 0;
+
+		// case 1 APDU
+		if (inLen >= 5) {
+			final int l1 = in[inOff + 4] & 0xff;
+			// case 2 short
+			if (inLen == 5) {
+				ne = l1 == 0 ? 256 : l1;
+				// short APDU
+			} else if (l1 != 0 && inLen == 4 + 1 + l1) {
+				// case 3 short, header, length, data
+				dataLen = l1;
+			} else if (l1 != 0 && inLen == 4 + 2 + l1) {
+				// case 4 short, header, length, data, response-length
+				dataLen = l1;
+				final int l2 = in[inOff + inLen - 1] & 0xff;
+				ne = l2 == 0 ? 256 : l2;
+				// extended length
+			} else if (l1 == 0 && inLen >= 7) {
+				final int l2 = (in[inOff + 5] & 0xff) << 8 | in[inOff + 6] & 0xff;
+				dataOff = inOff + 7;
+				// case 2 extended
+				if (inLen == 7) {
+					ne = l2 == 0 ? 65536 : l2;
+					// case 3 extended
+				} else if (l2 != 0 && inLen == 4 + 3 + l2) {
+					dataLen = l2;
+					// case 4 extended
+				} else if (l2 != 0 && inLen == 4 + 5 + l2) {
+					dataLen = l2;
+					final int neOfs = inOff + inLen - 2;
+					final int l3 = (in[neOfs] & 0xff) << 8 | in[neOfs + 1] & 0xff;
+					ne = l3 == 0 ? 65536 : l3;
+				} else {
+					dataOff = inOff + 5;
+					dataLen = lenientDataLength(in, inOff, inLen);
+					ne = lenientNe(in, inOff, inLen, dataLen);
+				}
+			} else {
+				dataLen = lenientDataLength(in, inOff, inLen);
+				ne = lenientNe(in, inOff, inLen, dataLen);
+			}
+		}
+
+		// size of the data objects: DO87, DO97 and DO8E
+		final int encLen = dataLen > 0 ? (dataLen / BLOCK_SIZE + 1) * BLOCK_SIZE : 0;
+		final int do87Len = encLen > 0 ? 1 + DERWriter.lengthSize(1 + encLen) + 1 + encLen : 0;
+		final int do97Len = ne > 0 ? ne < 0x0100 ? 3 : 4 : 0;
+		final int doLen = do87Len + do97Len + 2 + MAC_SIZE;
+		final boolean extended = !(doLen < 0x0100 && ne < 0x0100);
+
+		// header
+		int pos = outOff;
+		out[pos++] = (byte) (in[inOff] | 0x0C);
+		out[pos++] = in[inOff + 1];
+		out[pos++] = in[inOff + 2];
+		out[pos++] = in[inOff + 3];
+		if (extended) {
+			out[pos++] = 0;
+			out[pos++] = (byte) (doLen >> 8);
+		}
+		out[pos++] = (byte) doLen;
+		final int doOff = pos;
+
+		if (encLen > 0) {
+			out[pos++] = (byte) 0x87;
+			pos = DERWriter.putLength(out, pos, 1 + encLen);
+			out[pos++] = 0x01;
+			pos = encrypt(ssc, in, dataOff, dataLen, out, pos);
+		}
+
+		if (ne > 0) {
+			out[pos++] = (byte) 0x97;
+			if (ne < 0x0100) {
+				out[pos++] = 1;
+				out[pos++] = (byte) ne;
+			} else {
+				out[pos++] = 2;
+				out[pos++] = 0;
+				out[pos++] = 0;
+			}
+		}
+
+		cmac.update(ssc, 0, BLOCK_SIZE);
+		cmac.update(out, outOff, 4);
+		cmac.update(SM_PAD, 0, SM_PAD.length - 4);
+		if (pos > doOff) {
+			cmac.update(out, doOff, pos - doOff);
+			cmac.update(SM_PAD, 0, SM_PAD.length - (pos - doOff) % SM_PAD.length);
+		}
+
+		out[pos++] = (byte) 0x8E;
+		out[pos++] = MAC_SIZE;
+		pos += cmac.doFinal(out, pos);
+
+		out[pos++] = 0;
+		if (extended) {
+			out[pos++] = 0;
+		}
+
+		return pos - outOff;
+	}
+
+	/**
+	 * Unwraps the given response APDU.
+	 * 
+	 * @param ssc
+	 *            - The send sequence counter for this response, as 16 byte
+	 *            block.
+	 * @param rapdu
+	 *            - The protected response data, without status word.
+	 * 
+	 * @return Returns the plain response data.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the MAC of the response is corrupted.
+	 * @throws GeneralSecurityException
+	 *             If an error occurs during decryption or MAC calculation.
+	 */
+	public byte[] unwrap(final byte[] ssc, final byte[] rapdu) throws GeneralSecurityException {
+		ensureCapacity(rapdu.length);
+		final int len = unwrap(ssc, rapdu, 0, rapdu.length, work, 0);
+		final byte[] result = new byte[len];
+		System.arraycopy(work, 0, result, 0, len);
+		return result;
+	}
+
+	/**
+	 * Unwraps the response data <tt>in[inOff..inOff+inLen)</tt> into
+	 * <tt>out</tt>, starting at <tt>outOff</tt>. The output buffer must not
+	 * overlap the input and must provide at least <tt>inLen</tt> bytes. The
+	 * protected status word is available through {@link #lastSW()} afterwards.
+	 * 
+	 * @param ssc
+	 *            - The send sequence counter for this response, as 16 byte
+	 *            block.
+	 * @param in
+	 *            - The buffer holding the protected response data.
+	 * @param inOff
+	 *            - The offset of the response data.
+	 * @param inLen
+	 *            - The length of the response data.
+	 * @param out
+	 *            - The buffer for the plain response data.
+	 * @param outOff
+	 *            - The offset in the output buffer.
+	 * 
+	 * @return Returns the length of the plain response data.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the MAC of the response is corrupted.
+	 * @throws GeneralSecurityException
+	 *             If an error occurs during decryption or MAC calculation.
+	 */
+	public int unwrap(final byte[] ssc, final byte[] in, final int inOff, final int inLen, final byte[] out,
+			final int outOff) throws GeneralSecurityException {
+		int dataOff = -1, dataLen = 0, macOff = -1, macLen = 0, swOff = -1;
+
+		final int end = inOff + inLen;
+		int i = inOff;
+		while (i + 2 < end) {
+			final int tag = in[i] & 0xFF;
+			int len = in[i + 1] & 0xFF;
+			int hdr = 2;
+			if (len > 0x7F) {
+				final int sizeLen = len - 0x80;
+				len = 0;
+				for (int j = 0; j < sizeLen; j++) {
+					len = (len << 8) + (in[i + 2 + j] & 0xFF);
+				}
+				hdr += sizeLen;
+			}
+
+			if (tag == 0x87 && dataOff < 0) {
+				dataOff = i + hdr;
+				dataLen = len;
+			} else if (tag == 0x8E && macOff < 0) {
+				macOff = i + hdr;
+				macLen = len;
+			} else if (tag == 0x99 && swOff < 0) {
+				swOff = i + hdr;
+			}
+			i += hdr + len;
+		}
+
+		cmac.update(ssc, 0, BLOCK_SIZE);
+		if (inLen > 0) {
+			// -8 -2 is short for "ignore MAC"
+			final int macInputLen = inLen - MAC_SIZE - 2;
+			cmac.update(in, inOff, macInputLen);
+			cmac.update(SM_PAD, 0, SM_PAD.length - macInputLen % SM_PAD.length);
+		}
+
+		cmac.doFinal(mac, 0);
+		if (macOff >= 0) {
+			if (macLen != MAC_SIZE) {
+				throw new IllegalStateException("MAC error.");
+			}
+			for (int j = 0; j < MAC_SIZE; j++) {
+				if (mac[j] != in[macOff + j]) {
+					throw new IllegalStateException("MAC error.");
+				}
+			}
+		}
+
+		int len = 0;
+		if (dataOff >= 0) {
+			len = decrypt(ssc, in, dataOff + 1, dataLen - 1, out, outOff);
+			for (int j = outOff + len - 1; j > outOff; j--) {
+				if (out[j] == 0x00) {
+					continue;
+				} else if (out[j] == (byte) 0x80) {
+					len = j - outOff;
+				}
+				break;
+			}
+		}
+
+		if (swOff >= 0) {
+			this.lastSW = ((in[swOff] & 0xFF) << 8) + (in[swOff + 1] & 0xFF);
+		} else {
+			this.lastSW = -1;
+		}
+
+		return len;
+	}
+
+	/**
+	 * Pads and encrypts the given data in CBC mode with the initialization
+	 * vector derived from the send sequence counter.
+	 * 
+	 * @return Returns the position behind the last written cipher block.
+	 */
+	private int encrypt(final byte[] ssc, final byte[] in, int inOff, final int inLen, final byte[] out, int outOff)
+			throws GeneralSecurityException {
+		keystream.getIV(ssc, iv);
+
+		final int end = inOff + inLen;
+		byte[] prev = iv;
+		int prevOff = 0;
+		while (true) {
+			final int n = Math.min(BLOCK_SIZE, end - inOff);
+			for (int j = 0; j < n; j++) {
+				block[j] = (byte) (in[inOff + j] ^ prev[prevOff + j]);
+			}
+			if (n < BLOCK_SIZE) {
+				// padding block
+				for (int j = n; j < BLOCK_SIZE; j++) {
+					block[j] = (byte) (SM_PAD[j - n] ^ prev[prevOff + j]);
+				}
+			}
+
+			encCipher.doFinal(block, 0, BLOCK_SIZE, out, outOff);
+			prev = out;
+			prevOff = outOff;
+			outOff += BLOCK_SIZE;
+			inOff += n;
+
+			if (n < BLOCK_SIZE) {
+				return outOff;
+			}
+		}
+	}
+
+	/**
+	 * Decrypts the given data in CBC mode with the initialization vector
+	 * derived from the send sequence counter.
+	 * 
+	 * @return Returns the amount of decrypted bytes.
+	 */
+	private int decrypt(final byte[] ssc, final byte[] in, final int inOff, final int inLen, final byte[] out,
+			final int outOff) throws GeneralSecurityException {
+		if (inLen % BLOCK_SIZE != 0) {
+			throw new IllegalArgumentException("Invalid cryptogram length: " + inLen);
+		}
+
+		keystream.getIV(ssc, iv);
+		decCipher.doFinal(in, inOff, inLen, out, outOff);
+
+		for (int j = 0; j < BLOCK_SIZE && j < inLen; j++) {
+			out[outOff + j] ^= iv[j];
+		}
+		for (int j = BLOCK_SIZE; j < inLen; j++) {
+			out[outOff + j] ^= in[inOff + j - BLOCK_SIZE];
+		}
+
+		return inLen;
+	}
+
+	/**
+	 * Determines the length of the command data field if the APDU doesn't
+	 * follow one of the <em>ISO 7816-4</em> cases. The length byte is taken
+	 * as-is, as done by earlier versions.
+	 */
+	private static int lenientDataLength(final byte[] in, final int inOff, final int inLen) {
+		final int dataLen = in[inOff + 4];
+		if (dataLen < 0 || 5 + dataLen > inLen) {
+			throw new IllegalArgumentException("Invalid APDU: length=" + inLen + ", lc=" + dataLen);
+		}
+		return dataLen;
+	}
+
+	/**
+	 * Determines the expected response length if the APDU doesn't follow one
+	 * of the <em>ISO 7816-4</em> cases.
+	 */
+	private static int lenientNe(final byte[] in, final int inOff, final int inLen, final int dataLen) {
+		if (inLen > 5 + dataLen) {
+			return in[inOff + 5 + dataLen];
+		}
+		return 0;
+	}
+
+	/**
+	 * Grows the working buffer if necessary.
+	 */
+	private void ensureCapacity(final int len) {
+		if (work.length < len) {
+			work = new byte[Math.max(len, work.length << 1)];
+		}
+	}
+}
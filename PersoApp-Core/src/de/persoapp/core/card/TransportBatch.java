@@ -0,0 +1,172 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.card;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Helper functions for the transmission of <em>APDU</em> batches through a
+ * {@link TransportProvider}. A batch is processed in order and stops at the
+ * first response, whose status word is not acceptable.
+ * </p>
+ * 
+ * @see TransportProvider#transmitBatch(List, List)
+ */
+public final class TransportBatch {
+
+	/**
+	 * Instantiation is not allowed.
+	 */
+	private TransportBatch() {
+	}
+
+	/**
+	 * Checks the status word against the acceptable status codes. A status
+	 * code of one byte matches every status word with the same <em>SW1</em>,
+	 * a status code of two bytes matches exactly.
+	 * 
+	 * @param sw
+	 *            - The status word to check.
+	 * @param acceptable
+	 *            - The acceptable status codes or <tt>null</tt>.
+	 * 
+	 * @return Returns <tt>true</tt>, if the list is <tt>null</tt> or empty or
+	 *         one of the status codes matches.
+	 */
+	public static boolean isAcceptable(final int sw, final List<byte[]> acceptable) {
+		if (acceptable == null || acceptable.isEmpty()) {
+			return true;
+		}
+
+		for (final byte[] code : acceptable) {
+			if (code == null || code.length == 0) {
+				continue;
+			}
+			if ((code[0] & 0xFF) != (sw >> 8 & 0xFF)) {
+				continue;
+			}
+			if (code.length == 1 || (code[1] & 0xFF) == (sw & 0xFF)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the acceptable status codes of the <em>APDU</em> at the given
+	 * index.
+	 * 
+	 * @param acceptable
+	 *            - The acceptable status codes of the batch or <tt>null</tt>.
+	 * @param index
+	 *            - The index of the <em>APDU</em>.
+	 * 
+	 * @return Returns the acceptable status codes or <tt>null</tt>, if all
+	 *         status words are accepted.
+	 */
+	public static List<byte[]> acceptableAt(final List<List<byte[]>> acceptable, final int index) {
+		if (acceptable == null || index >= acceptable.size()) {
+			return null;
+		}
+		return acceptable.get(index);
+	}
+
+	/**
+	 * Appends the status word to the response data.
+	 * 
+	 * @param data
+	 *            - The response data.
+	 * @param sw
+	 *            - The status word.
+	 * 
+	 * @return Returns the complete response <em>APDU</em>.
+	 */
+	public static byte[] response(final byte[] data, final int sw) {
+		final byte[] rapdu = new byte[data.length + 2];
+		System.arraycopy(data, 0, rapdu, 0, data.length);
+		rapdu[data.length] = (byte) (sw >> 8);
+		rapdu[data.length + 1] = (byte) sw;
+		return rapdu;
+	}
+
+	/**
+	 * Transmits the <em>APDUs</em> one by one through the given transport
+	 * provider. This is the batch processing of transport providers, which
+	 * can't overlap the processing of consecutive commands.
+	 * 
+	 * @param tp
+	 *            - The transport provider to use.
+	 * @param apdus
+	 *            - The command <em>APDUs</em>.
+	 * @param acceptable
+	 *            - The acceptable status codes per command or <tt>null</tt>.
+	 * 
+	 * @return Returns the response <em>APDUs</em> including the status words.
+	 *         The list is shorter than the list of commands, if a status word
+	 *         was not acceptable or a transmission failed.
+	 */
+	public static List<byte[]> transmitEach(final TransportProvider tp, final List<byte[]> apdus,
+			final List<List<byte[]>> acceptable) {
+		final List<byte[]> responses = new ArrayList<byte[]>(apdus.size());
+		for (int i = 0; i < apdus.size(); i++) {
+			final byte[] data = tp.transmit(apdus.get(i));
+			if (data == null) {
+				break;
+			}
+
+			final int sw = tp.lastSW();
+			responses.add(response(data, sw));
+			if (!isAcceptable(sw, acceptableAt(acceptable, i))) {
+				break;
+			}
+		}
+		return responses;
+	}
+}
@@ -47,6 +47,8 @@
  */
 package de.persoapp.core.card;
 
+import java.util.List;
+
 /**
  * <p>
  * The <tt>TransportProvider</tt> interface defines basic functionality to be
@@ -80,6 +82,25 @@ public interface TransportProvider {
 	 */
 	public byte[] transmit(byte[] apdu);
 
+	/**
+	 * Transmit a batch of <em>APDUs</em> through this TransportProvider. The
+	 * commands are processed in order and the processing stops at the first
+	 * response, whose status word is not contained in the acceptable status
+	 * codes of its command.
+	 * 
+	 * @param apdus
+	 *            - APDUs to be transmitted
+	 * @param acceptable
+	 *            - acceptable status codes per APDU, <tt>null</tt> or an empty
+	 *            list accept every status word
+	 * 
+	 * @return responses from card including the status words, at most one per
+	 *         APDU
+	 * 
+	 * @see TransportBatch
+	 */
+	public List<byte[]> transmitBatch(List<byte[]> apdus, List<List<byte[]>> acceptable);
+
 	/**
 	 * Returns the last received status word.
 	 * 
@@ -87,6 +108,15 @@ public interface TransportProvider {
 	 */
 	public int lastSW();
 
+	/**
+	 * Returns the maximum amount of response data a single APDU may request
+	 * through this TransportProvider. Transport providers without extended
+	 * length support return <tt>256</tt>.
+	 * 
+	 * @return maximum response length (Ne) of a single APDU
+	 */
+	public int getMaxResponseLength();
+
 	/**
 	 * Closes this transport provider
 	 */
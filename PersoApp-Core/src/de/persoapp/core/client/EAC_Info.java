@@ -50,15 +50,18 @@ package de.persoapp.core.client;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.TimeZone;
 
+import de.persoapp.core.card.CVCertificate;
 import de.persoapp.core.util.ArrayTool;
 import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
 import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
 
 /**
  * <p>
@@ -207,11 +210,10 @@ public class EAC_Info implements IEAC_Info {
 		this.cvcerts = cvcerts;
 
 		for (final byte[] cvcert : cvcerts) {
-			final byte[] chat = TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E), (short) 0x7F4C);
-			final byte[] oid = TLV.get(chat, (byte) 0x06); // IS, AT, ST, etc.
-			final byte[] auth = TLV.get(chat, (byte) 0x53);
+			// the OID of the CHAT is IS, AT, ST, etc.
+			final CVCertificate cert = CVCertificate.getInstance(cvcert);
 
-			if (auth != null && (auth[0] & (byte) 0xC0) == 0x00) {
+			if (cert != null && cert.isTerminal()) {
 				this.terminalCertificate = cvcert;
 				break;
 			}
@@ -285,15 +287,30 @@ public class EAC_Info implements IEAC_Info {
 	 * @return Returns the retrieved date of the certificate.
 	 */
 	private final Date cvDate2Date(final byte[] cvDate, final boolean endOfDay) {
-		final GregorianCalendar cal = (GregorianCalendar) GregorianCalendar.getInstance(TimeZone.getTimeZone("UTC"));
-		cal.set(Calendar.YEAR, 2000 + cvDate[0] * 10 + cvDate[1]);
-		cal.set(Calendar.MONTH, -1 + cvDate[2] * 10 + cvDate[3]);
-		cal.set(Calendar.DAY_OF_MONTH, cvDate[4] * 10 + cvDate[5]);
-		cal.set(Calendar.HOUR_OF_DAY, endOfDay ? 23 : 0);
-		cal.set(Calendar.MINUTE, endOfDay ? 59 : 0);
-		cal.set(Calendar.SECOND, endOfDay ? 59 : 0);
-		cal.set(Calendar.MILLISECOND, endOfDay ? 999 : 0);
-		return cal.getTime();
+		return CVCertificate.toDate(cvDate, endOfDay);
+	}
+
+	/**
+	 * Formats the object identifier at the current position of the given
+	 * cursor, also if it isn't registered.
+	 * 
+	 * @param cursor
+	 *            - The cursor on the object identifier.
+	 * @return Returns the dotted notation or the hex encoded contents, if the
+	 *         object identifier is malformed.
+	 */
+	private static String oidToString(final TLVCursor cursor) {
+		final ObjectIdentifier oid = cursor.getObjectIdentifier();
+		if (oid != null) {
+			return oid.toString();
+		}
+
+		final byte[] contents = cursor.getValue();
+		try {
+			return ObjectIdentifier.decode(contents, 0, contents.length);
+		} catch (final IllegalArgumentException e) {
+			return Hex.toString(contents);
+		}
 	}
 
 	/**
@@ -307,28 +324,20 @@ public class EAC_Info implements IEAC_Info {
 			return;
 		}
 
-		final byte[] ad = TLV.get(auxData, (byte) 0x67);
-
-		// no valid auxData Tag
-		if (ad == null) {
-			return;
-		}
-
-		final List<byte[]> adList = TLV.getM(ad, (byte) 0x73);
-
-		// no data objects
-		if (adList == null) {
-			return;
-		}
+		// no valid auxData Tag results in no data objects
+		final TLVCursor adList = new TLVCursor(auxData).enter(0x67);
 
 		final SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
 
-		for (final byte[] data : adList) {
-			final byte[] oid = TLV.get(data, (byte) 0x06);
-			final byte[] value = TLV.get(data, (byte) 0x53);
-			System.out.println("auxData: " + Hex.toString(oid) + " = " + Hex.toString(value));
+		while (adList.next(0x73)) {
+			final TLVCursor data = adList.enter();
+			final boolean hasOID = data.next(0x06);
+			final ObjectIdentifier oid = hasOID ? data.getObjectIdentifier() : null;
+			final String oidString = hasOID ? oidToString(data) : null;
+			final byte[] value = data.getValue(0x53);
+			System.out.println("auxData: " + oidString + " = " + Hex.toString(value));
 
-			if ("04007F000703010401".equals(Hex.toString(oid))) {
+			if (oid == ObjectIdentifier.DATE_OF_BIRTH) {
 				try {
 					// kinda dirty hack, but it does it's job quite well ...
 					final GregorianCalendar cal = new GregorianCalendar();
@@ -343,7 +352,7 @@ public class EAC_Info implements IEAC_Info {
 				} catch (final Exception e) {
 					e.printStackTrace();
 				}
-			} else if ("04007F000703010403".equals(Hex.toString(oid))) {
+			} else if (oid == ObjectIdentifier.COMMUNITY_ID) {
 				this.verifyCommunityID = Hex.toString(value);
 				System.out.println("verify CommunityID: " + this.verifyCommunityID);
 			}
@@ -361,41 +370,46 @@ public class EAC_Info implements IEAC_Info {
 	 * @throws IOException
 	 *             If an error occurs during the initialization.
 	 */
-	private final void initDescription(byte[] cvcert, final byte[] certDescription) throws IOException {
-		cvcert = TLV.get(cvcert, (short) 0x7F21);
-		cvcert = TLV.get(cvcert, (short) 0x7F4E);
-		this.caRef = new String(TLV.get(cvcert, (byte) 0x42), "ISO-8859-1");
-		this.chRef = new String(TLV.get(cvcert, (short) 0x5F20), "ISO-8859-1");
-		this.effectiveDate = cvDate2Date(TLV.get(cvcert, (short) 0x5F25), false);
-		this.expirationDate = cvDate2Date(TLV.get(cvcert, (short) 0x5F24), true);
-
-		final byte[] t = TLV.get(certDescription, (byte) 0x30);
-		this.descriptionType = Hex.toString(TLV.get(t, (byte) 0x06));
-
-		this.issuerName = TLV.getString(TLV.get(t, (byte) 0xA1));
-		this.issuerURL = TLV.getString(TLV.get(t, (byte) 0xA2));
-		this.subjectName = TLV.getString(TLV.get(t, (byte) 0xA3));
-		this.subjectURL = TLV.getString(TLV.get(t, (byte) 0xA4));
-		this.termsOfUsage = TLV.getString(TLV.get(t, (byte) 0xA5));
-		this.redirectURL = TLV.getString(TLV.get(t, (byte) 0xA6));
+	private final void initDescription(final byte[] cvcert, final byte[] certDescription) throws IOException {
+		final CVCertificate cert = CVCertificate.getInstance(cvcert);
+		this.caRef = cert.getCARString();
+		this.chRef = cert.getCHRString();
+		this.effectiveDate = cert.getEffectiveDate();
+		this.expirationDate = cert.getExpirationDate();
+
+		final TLVCursor t = new TLVCursor(certDescription).enter(0x30);
+		this.descriptionType = Hex.toString(t.getValue(0x06));
+
+		this.issuerName = TLV.getString(t.getValue(0xA1));
+		this.issuerURL = TLV.getString(t.getValue(0xA2));
+		this.subjectName = TLV.getString(t.getValue(0xA3));
+		this.subjectURL = TLV.getString(t.getValue(0xA4));
+		this.termsOfUsage = TLV.getString(t.getValue(0xA5));
+		this.redirectURL = TLV.getString(t.getValue(0xA6));
 		// set (0x31) of octet strings
-		this.certificateHashes = TLV.getM(TLV.get(TLV.get(t, (byte) 0xA7), (byte) 0x31), (byte) 0x04).toArray(
-				new byte[0][]);
+		final List<byte[]> hashes = new ArrayList<byte[]>();
+		final TLVCursor set = t.enter(0xA7, 0x31);
+		while (set.next(0x04)) {
+			hashes.add(set.getValue());
+		}
+		this.certificateHashes = hashes.toArray(new byte[0][]);
 
 		byte[] descriptionHash = null;
 
-		final byte[] extensions = TLV.get(cvcert, (byte) 0x65);
-		final List<byte[]> list = TLV.getM(extensions, (byte) 0x73);
-		for (final byte[] ext : list) {
-			final byte[] oid = TLV.get(ext, (byte) 0x06);
-			final byte[] value = TLV.get(ext, (byte) 0x80);
-			if ("04007F000703010302".equals(Hex.toString(oid))) {
+		final TLVCursor extensions = new TLVCursor(cvcert).enter(0x7F21, 0x7F4E, 0x65);
+		while (extensions.next(0x73)) {
+			final TLVCursor ext = extensions.enter();
+			final boolean hasOID = ext.next(0x06);
+			final ObjectIdentifier oid = hasOID ? ext.getObjectIdentifier() : null;
+			final String oidString = hasOID ? oidToString(ext) : null;
+			final byte[] value = ext.getValue(0x80);
+			if (oid == ObjectIdentifier.SECTOR) {
 				System.out.println("sector-hash: " + Hex.toString(value));
-			} else if ("04007F000703010301".equals(Hex.toString(oid))) {
+			} else if (oid == ObjectIdentifier.DESCRIPTION) {
 				descriptionHash = value;
 				System.out.println("desc-hash: " + Hex.toString(descriptionHash));
 			} else {
-				System.out.println("unknown: " + Hex.toString(oid) + " = " + Hex.toString(value));
+				System.out.println("unknown: " + oidString + " = " + Hex.toString(value));
 			}
 		}
 
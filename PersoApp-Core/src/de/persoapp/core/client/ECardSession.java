@@ -50,6 +50,7 @@ package de.persoapp.core.client;
 import java.util.HashMap;
 import java.util.Map;
 
+import de.persoapp.core.card.CardHandlerPool;
 import de.persoapp.core.card.ICardHandler;
 
 /**
@@ -87,6 +88,17 @@ public class ECardSession {
 	 * The handle to the used identity card.
 	 */
 	private ICardHandler				cardHandler;
+
+	/**
+	 * The pool providing the handler of the used identity card or
+	 * <strong>null</strong>.
+	 */
+	private CardHandlerPool				cardHandlerPool;
+
+	/**
+	 * The slot handle the card handler is bound to or <strong>null</strong>.
+	 */
+	private byte[]						slotHandle;
 	
 	/**
 	 * The attributes of the current {@link ECardSession}.
@@ -112,6 +124,30 @@ public class ECardSession {
 		this.initialized = true;
 	}
 
+	/**
+	 * Creates and initializes a new ECardSession, which takes its card handler
+	 * from the given pool. The card handler is bound to the given slot handle
+	 * until the session is terminated.
+	 * 
+	 * @param mainView
+	 *            - The GUI instance of this application.
+	 * @param pool
+	 *            - The pool of the card handlers.
+	 * @param slotHandle
+	 *            - The slot handle of the session.
+	 */
+	public ECardSession(final IMainView mainView, final CardHandlerPool pool, final byte[] slotHandle) {
+		if (mainView == null || pool == null || slotHandle == null) {
+			throw new NullPointerException();
+		}
+
+		this.attributes.clear();
+		this.mainView = mainView;
+		this.cardHandlerPool = pool;
+		this.slotHandle = slotHandle.clone();
+		this.initialized = true;
+	}
+
 	/**
 	 * Terminates the current {@link ECardSession} and deletes all attributes.
 	 */
@@ -120,6 +156,10 @@ public class ECardSession {
 		this.attributes.clear();
 		this.mainView = null;
 		this.cardHandler = null;
+		if (this.cardHandlerPool != null) {
+			this.cardHandlerPool.release(this.slotHandle);
+			this.cardHandlerPool = null;
+		}
 	}
 
 	/**
@@ -168,13 +208,19 @@ public class ECardSession {
 	}
 
 	/**
-	 * Returns the CardHandler
+	 * Returns the CardHandler. A session created with a pool binds a free card
+	 * handler to its own slot handle on first use.
 	 * 
 	 * @param slotHandle
 	 *            - This parameter isn't used and can be <strong>null</strong>.
+	 *            The slot handle of the session is used.
 	 * @return Returns the CardHandler
 	 */
 	public ICardHandler getCardHandler(final byte[] slotHandle) {
+		final CardHandlerPool pool = this.cardHandlerPool;
+		if (pool != null) {
+			return pool.acquire(this.slotHandle);
+		}
 		return this.cardHandler;
 	}
 }
@@ -48,6 +48,8 @@
 package de.persoapp.core.paos;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -68,11 +70,16 @@ import de.persoapp.core.util.ChunkingInputStream;
 /**
  * This class provides a small HTTP-capable client ensuring connection re-use.
  * (uses only one connection per instance).
+ * <p>
+ * Responses are read through a single buffer per connection, requests are
+ * written with one call per round trip. The connection is kept open until the
+ * server asks to close it or {@link #close()} is called.
+ * </p>
  * 
  * @author Christian Kahlo
  * @author Rico Klimsa - added javadoc comments.
  */
-public class MiniHttpClient {
+public class MiniHttpClient implements Closeable {
 	
 	/**
 	 * The URL of the {link MiniHttpClient}.
@@ -89,6 +96,16 @@ public class MiniHttpClient {
 	 * connection.
 	 */
 	private Socket						socket;
+
+	/**
+	 * The buffered response stream of the current connection.
+	 */
+	private ResponseInputStream			input;
+
+	/**
+	 * The request stream of the current connection.
+	 */
+	private OutputStream				output;
 	
 	/**
 	 * The stored requestHeaders of the {link MiniHttpClient}.
@@ -100,6 +117,36 @@ public class MiniHttpClient {
 	 */
 	private final Map<String, String>	responseHeaders	= new HashMap<String, String>();
 
+	/**
+	 * The number of completed requests.
+	 */
+	private int							requestCount;
+
+	/**
+	 * The number of connections set up so far.
+	 */
+	private int							connectionCount;
+
+	/**
+	 * The number of bytes written to the connections, headers included.
+	 */
+	private long						bytesSent;
+
+	/**
+	 * The number of bytes read from the connections, headers included.
+	 */
+	private long						bytesReceived;
+
+	/**
+	 * The duration of the last completed request in nanoseconds.
+	 */
+	private long						lastLatency;
+
+	/**
+	 * The duration of all completed requests in nanoseconds.
+	 */
+	private long						totalLatency;
+
 	/**
 	 * The used HTTP_PROTOCOL.
 	 */
@@ -114,6 +161,11 @@ public class MiniHttpClient {
 	 * The line feed.
 	 */
 	private static final char			LF				= 10;
+
+	/**
+	 * The size of the response buffer.
+	 */
+	private static final int			BUFFER_SIZE		= 8192;
 	
 	
 	private static final String			CONTENT_LENGTH = "Content-Length";
@@ -152,6 +204,14 @@ public class MiniHttpClient {
 	 * @return The read line.
 	 */
 	private static final String readLine(final InputStream input, final long limit) {
+		if (input instanceof ResponseInputStream) {
+			try {
+				return ((ResponseInputStream) input).readLine(limit);
+			} catch (final IOException ioe) {
+				return null;
+			}
+		}
+
 		long read = 0;
 		final StringBuilder line = new StringBuilder();
 		int c = -1;
@@ -206,7 +266,7 @@ public class MiniHttpClient {
 	public final SSLSession getSSLSession() {
 		if (socket == null || socket.isClosed()) {
 			try {
-				socket = getSocket();
+				connect();
 			} catch (final IOException e) {
 				e.printStackTrace();
 			}
@@ -240,6 +300,38 @@ public class MiniHttpClient {
 		return sf.createSocket(url.getHost(), port);
 	}
 
+	/**
+	 * Drops the current connection, if any, and sets up a new one.
+	 * 
+	 * @throws IOException
+	 *             If the {@link Socket} can't connected.
+	 */
+	private void connect() throws IOException {
+		close();
+		socket = getSocket();
+		input = new ResponseInputStream(socket.getInputStream());
+		output = socket.getOutputStream();
+		connectionCount++;
+	}
+
+	/**
+	 * Closes the current connection. The next request sets up a new one.
+	 */
+	public final void close() {
+		final Socket s = socket;
+		socket = null;
+		input = null;
+		output = null;
+
+		if (s != null) {
+			try {
+				s.close();
+			} catch (final IOException e) {
+				// nothing left to release
+			}
+		}
+	}
+
 	/**
 	 * Stores the request header.
 	 * 
@@ -282,6 +374,63 @@ public class MiniHttpClient {
 		return responseHeaders.get(key);
 	}
 
+	/**
+	 * Retrieves the number of completed requests.
+	 * 
+	 * @return The number of completed requests.
+	 */
+	public final int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Retrieves the number of connections set up so far. Stays at one as long
+	 * as the connection is re-used.
+	 * 
+	 * @return The number of connections.
+	 */
+	public final int getConnectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * Retrieves the number of bytes sent, request lines and headers included.
+	 * 
+	 * @return The number of bytes sent.
+	 */
+	public final long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Retrieves the number of bytes received, status lines and headers
+	 * included. Compressed bodies are counted as transferred.
+	 * 
+	 * @return The number of bytes received.
+	 */
+	public final long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Retrieves the time from writing the last request until its response was
+	 * read completely.
+	 * 
+	 * @return The latency of the last request in nanoseconds.
+	 */
+	public final long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * Retrieves the sum of the latencies of all completed requests.
+	 * 
+	 * @return The total latency in nanoseconds.
+	 */
+	public final long getTotalLatency() {
+		return totalLatency;
+	}
+
 	/**
 	 * Appends the header, which will be identified through the given
 	 * key/value pair at the given {@link StringBuilder}.
@@ -300,133 +449,407 @@ public class MiniHttpClient {
 	}
 
 	/**
-	 * Transmits the given byte-array to the connection endpoint of the
-	 * {@link MiniHttpClient}.
+	 * Builds the request line, the headers and the body into one array.
 	 * 
 	 * @param in
-	 *            - The given byte-array.
-	 * @return The collected response of the send request. If something went
-	 *         wrong with the request, the given <strong>byte-array</strong> is
-	 *         returned. If the given byte-array was empty,
-	 *         <strong>null</strong> is returned.
-	 * @throws IOException
-	 *             If something went wrong with the connection.
+	 *            - The body, may be <strong>null</strong>.
+	 * 
+	 * @return The complete request.
 	 */
-	public final byte[] transmit(final byte[] in) throws IOException {
-		if (socket == null || socket.isClosed()) {
-			socket = getSocket();
-		}
-
-		OutputStream os = socket.getOutputStream();
-		InputStream is = socket.getInputStream();
+	private byte[] buildRequest(final byte[] in) throws IOException {
+		final int length = in != null ? in.length : 0;
 
-		final StringBuilder request = new StringBuilder().append("POST ").append(url.getFile()).append(" ")
+		final StringBuilder request = new StringBuilder(256).append("POST ").append(url.getFile()).append(" ")
 				.append(HTTP_PROTOCOL).append("\r\n");
 		appendHeader(request, "Host", url.getHost());
 		appendHeader(request, "Connection", "keep-alive");
 		appendHeader(request, "Accept-Encoding", "gzip");
+		appendHeader(request, "Content-Length", Integer.toString(length));
 
-		if (in != null && in.length > 0) {
-			appendHeader(request, "Content-Length", Long.toString(in.length));
-		} else {
-			appendHeader(request, "Content-Length", Long.toString(0));
+		for (final Map.Entry<String, String> header : requestHeaders.entrySet()) {
+			appendHeader(request, header.getKey(), header.getValue());
 		}
+		request.append("\r\n");
 
-		for (final String headerKey : requestHeaders.keySet()) {
-			request.append(headerKey).append(": ").append(requestHeaders.get(headerKey)).append("\r\n");
+		final byte[] head = request.toString().getBytes("UTF-8");
+		if (length == 0) {
+			return head;
+		}
+
+		final byte[] result = new byte[head.length + length];
+		System.arraycopy(head, 0, result, 0, head.length);
+		System.arraycopy(in, 0, result, head.length, length);
+		return result;
+	}
+
+	/**
+	 * Writes the request and reads the status line of the response. A broken
+	 * connection is set up again once; so is a re-used connection which ends
+	 * before a single byte of the response arrived, i.e. an idle connection
+	 * closed by the server. Any other error is thrown, the request might have
+	 * been processed already.
+	 * 
+	 * @param request
+	 *            - The complete request.
+	 * 
+	 * @return The status line or <strong>null</strong> if the server didn't
+	 *         answer.
+	 * 
+	 * @throws IOException
+	 *             If the request can't be sent.
+	 */
+	private String exchange(final byte[] request) throws IOException {
+		boolean reused = socket != null && !socket.isClosed() && output != null;
+		if (!reused) {
+			connect();
 		}
-		request.append("\r\n");
 
 		try {
-			os.write(request.toString().getBytes("UTF-8"));
+			output.write(request);
+			output.flush();
 		} catch (final IOException ioe) {
 			// connection gone bad, try to set up new one
 			try {
-				socket = getSocket();
-				os = socket.getOutputStream();
-				is = socket.getInputStream();
-				os.write(request.toString().getBytes("UTF-8"));
+				connect();
+				output.write(request);
+				output.flush();
+				reused = false;
 			} catch (final IOException ioe2) {
 				ioe2.printStackTrace();
 				throw ioe;
 			}
 		}
+		bytesSent += request.length;
+
+		final long received = bytesReceived;
+		String response = input.readLine(-1);
+		if (response == null && reused && bytesReceived == received) {
+			// keep-alive connection timed out on the server side
+			connect();
+			output.write(request);
+			output.flush();
+			bytesSent += request.length;
+			response = input.readLine(-1);
+		}
+
+		return response;
+	}
+
+	/**
+	 * Transmits the given byte-array to the connection endpoint of the
+	 * {@link MiniHttpClient}. Request line, headers and body go out in one
+	 * write; the connection stays open for the next call unless the server
+	 * closes it.
+	 * 
+	 * @param in
+	 *            - The given byte-array.
+	 * @return The collected response of the send request. If the response has
+	 *         an empty body, <strong>null</strong> is returned.
+	 * @throws IOException
+	 *             If something went wrong with the connection.
+	 */
+	public final byte[] transmit(final byte[] in) throws IOException {
+		final byte[] request = buildRequest(in);
+		final long start = System.nanoTime();
 
-		if (in != null && in.length > 0) {
-			os.write(in);
+		final byte[] result;
+		try {
+			result = receive(exchange(request));
+		} catch (final IOException ioe) {
+			// the stream position is unknown, don't re-use it
+			close();
+			throw ioe;
 		}
-		os.flush();
 
-		String response = readLine(is);
-		int responseCode = -1;
+		lastLatency = System.nanoTime() - start;
+		totalLatency += lastLatency;
+		requestCount++;
+
+		return result;
+	}
 
+	/**
+	 * Reads headers and body of the response following the given status line.
+	 * 
+	 * @param response
+	 *            - The status line of the response.
+	 * 
+	 * @return The decoded body or <strong>null</strong> if it is empty.
+	 * 
+	 * @throws IOException
+	 *             If the response is malformed or incomplete.
+	 */
+	private byte[] receive(String response) throws IOException {
 		if (response == null || !response.startsWith(HTTP_PROTOCOL.substring(0, HTTP_PROTOCOL.length() - 1))) {
 			throw new IOException("protocol violation in response: " + response);
-		} else {
-			response = response.substring(HTTP_PROTOCOL.length() + 1);
-			final int n = response.indexOf(' ');
-			responseCode = Integer.parseInt(response.substring(0, n));
-			response = response.substring(n + 1);
 		}
 
+		// HTTP/1.0 servers close the connection unless told otherwise
+		boolean connectionClose = !response.startsWith(HTTP_PROTOCOL);
+
 		responseHeaders.clear();
 		String temp;
-		while ((temp = readLine(is)) != null && temp.length() > 0) {
+		while ((temp = readLine(input)) != null && temp.length() > 0) {
 			final int n = temp.indexOf(':');
-			responseHeaders.put(temp.substring(0, n).trim().toLowerCase(), temp.substring(n + 1).trim().toLowerCase());
+			if (n > 0) {
+				responseHeaders.put(temp.substring(0, n).trim().toLowerCase(), temp.substring(n + 1).trim()
+						.toLowerCase());
+			}
+		}
+
+		if (temp == null) {
+			throw new EOFException("connection closed in response header");
 		}
 
+		connectionClose |= CONNECTION_CLOSE.equals(responseHeaders.get(CONNECTION.toLowerCase()));
+
 		long contentLength = -1;
 		try {
 			contentLength = Long.parseLong(responseHeaders.get(CONTENT_LENGTH.toLowerCase()));
 		} catch (final Exception e) {
 		}
-		boolean connectionClose = false;
-		try {
-			connectionClose = CONNECTION_CLOSE.equalsIgnoreCase(responseHeaders.get(CONNECTION.toLowerCase()).toLowerCase());
-		} catch (final Exception e) {
-		}
 
-		if (TRANSFER_ENCODING_CHUNKED.equalsIgnoreCase(responseHeaders.get(TRANSFER_ENCODING.toLowerCase()))) {
-			is = new ChunkingInputStream(is);
+		InputStream body = input;
+		if (TRANSFER_ENCODING_CHUNKED.equals(responseHeaders.get(TRANSFER_ENCODING.toLowerCase()))) {
+			body = new ChunkingInputStream(input);
+		} else if (contentLength >= 0) {
+			input.setLimit(contentLength);
+		} else {
+			// body ends with the connection
+			connectionClose = true;
 		}
 
+		InputStream is = body;
 		final String contentEncoding = responseHeaders.get(CONTENT_ENCODING.toLowerCase());
-		if (CONTENT_ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
-			is = new GZIPInputStream(is);
-		}
-		if (CONTENT_ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+		if (CONTENT_ENCODING_GZIP.equals(contentEncoding)) {
+			is = new GZIPInputStream(body, BUFFER_SIZE);
+		} else if (CONTENT_ENCODING_DEFLATE.equals(contentEncoding)) {
 			final Inflater inf = new Inflater(true);
-			is = new InflaterInputStream(is, inf);
+			is = new InflaterInputStream(body, inf, BUFFER_SIZE);
 		}
 
-		if (contentLength > 0) {
-			final byte[] buffer = new byte[(int) contentLength];
+		final byte[] result;
+		if (is == input && contentLength >= 0) {
+			result = new byte[(int) contentLength];
 			int read = 0;
-			while (buffer.length - read > 0) {
-				read += is.read(buffer, read, buffer.length - read);
+			while (read < result.length) {
+				final int n = is.read(result, read, result.length - read);
+				if (n < 0) {
+					throw new EOFException("connection closed in response body");
+				}
+				read += n;
+			}
+		} else {
+			result = readAll(is);
+
+			// skip whatever the decoder left of the body framing
+			if (is != body) {
+				readAll(body);
+			}
+		}
+
+		if (input.limit > 0) {
+			throw new EOFException("connection closed in response body");
+		}
+		input.setLimit(-1);
+
+		if (connectionClose) {
+			close();
+		}
+
+		return result.length > 0 ? result : null;
+	}
+
+	/**
+	 * Reads the given {@link InputStream} up to its end.
+	 * 
+	 * @param is
+	 *            - The given {@link InputStream}.
+	 * 
+	 * @return The read bytes.
+	 * 
+	 * @throws IOException
+	 *             If the stream can't be read.
+	 */
+	private static byte[] readAll(final InputStream is) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(BUFFER_SIZE);
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		int n;
+		while ((n = is.read(buffer, 0, buffer.length)) >= 0) {
+			baos.write(buffer, 0, n);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Buffers the input of one connection and counts the received bytes. A
+	 * limit restricts reads to the body of the current response.
+	 */
+	private final class ResponseInputStream extends InputStream {
+
+		/**
+		 * The input of the connection.
+		 */
+		private final InputStream	source;
+
+		/**
+		 * The buffered, not yet consumed input.
+		 */
+		private final byte[]		buffer	= new byte[BUFFER_SIZE];
+
+		/**
+		 * The position of the next byte in the buffer.
+		 */
+		private int					pos;
+
+		/**
+		 * The end of the valid bytes in the buffer.
+		 */
+		private int					count;
+
+		/**
+		 * The number of bytes left in the current body, <strong>-1</strong>
+		 * if unlimited.
+		 */
+		private long				limit	= -1;
+
+		/**
+		 * Constructs a {@link ResponseInputStream} for the given input.
+		 * 
+		 * @param source
+		 *            - The input of the connection.
+		 */
+		ResponseInputStream(final InputStream source) {
+			this.source = source;
+		}
+
+		/**
+		 * Sets the number of bytes which may be read.
+		 * 
+		 * @param limit
+		 *            - The number of bytes, <strong>-1</strong> for no limit.
+		 */
+		void setLimit(final long limit) {
+			this.limit = limit;
+		}
+
+		/**
+		 * Refills the empty buffer with one read from the connection.
+		 * 
+		 * @return <strong>false</strong> at the end of the stream.
+		 */
+		private boolean fill() throws IOException {
+			pos = 0;
+			count = 0;
+
+			final int n = source.read(buffer, 0, buffer.length);
+			if (n <= 0) {
+				return false;
 			}
 
-			return buffer;
-		} else if (contentLength < 0) {
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			do {
-				int c = -1;
-				try {
-					c = is.read();
-				} catch (final IOException ioe) {
+			count = n;
+			bytesReceived += n;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (limit == 0 || pos >= count && !fill()) {
+				return -1;
+			}
+
+			if (limit > 0) {
+				limit--;
+			}
+			return buffer[pos++] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, int len) throws IOException {
+			if (limit == 0) {
+				return -1;
+			}
+			if (limit > 0 && len > limit) {
+				len = (int) limit;
+			}
+			if (len == 0) {
+				return 0;
+			}
+
+			int n;
+			if (pos < count) {
+				n = Math.min(len, count - pos);
+				System.arraycopy(buffer, pos, b, off, n);
+				pos += n;
+			} else if (len >= buffer.length) {
+				// large reads bypass the buffer
+				n = source.read(b, off, len);
+				if (n <= 0) {
+					return -1;
+				}
+				bytesReceived += n;
+			} else {
+				if (!fill()) {
+					return -1;
 				}
+				n = Math.min(len, count);
+				System.arraycopy(buffer, 0, b, off, n);
+				pos = n;
+			}
 
-				if (c != -1) {
-					baos.write(c);
-				} else {
+			if (limit > 0) {
+				limit -= n;
+			}
+			return n;
+		}
+
+		@Override
+		public int available() {
+			final int n = count - pos;
+			return limit >= 0 && limit < n ? (int) limit : n;
+		}
+
+		/**
+		 * Reads a line by scanning the buffer for the line feed. Carriage
+		 * returns are dropped.
+		 * 
+		 * @param max
+		 *            - The maximum number of bytes to read, <strong>-1</strong>
+		 *            for no limit.
+		 * 
+		 * @return The read line or <strong>null</strong> at the end of the
+		 *         stream.
+		 */
+		String readLine(final long max) throws IOException {
+			final StringBuilder line = new StringBuilder();
+			long read = 0;
+
+			while (max < 0 || read < max) {
+				if (pos >= count && !fill()) {
+					return line.length() == 0 ? null : line.toString();
+				}
+
+				final int end = max < 0 ? count : (int) Math.min(count, pos + max - read);
+				int i = pos;
+				while (i < end && buffer[i] != LF) {
+					i++;
+				}
+
+				for (int j = pos; j < i; j++) {
+					if (buffer[j] != CR) {
+						line.append((char) (buffer[j] & 0xFF));
+					}
+				}
+
+				read += i - pos;
+				if (i < end) {
+					pos = i + 1;
 					break;
 				}
-			} while (true);
+				pos = i;
+			}
 
-			return baos.toByteArray();
+			return line.toString();
 		}
-
-		return null;
 	}
 }
@@ -166,6 +166,25 @@ public class PAOSInitiator {
 		PAOSInitiator.paosInitiatorFactory = paosInitiatorFactory;
 	}
 
+	/**
+	 * shared random generator for message IDs, see
+	 * {@link #setMessageIDSource(Random)}
+	 */
+	private static volatile Random											messageIDSource;
+
+	/**
+	 * setter for a shared random generator of the message IDs, a seeded
+	 * generator makes the message IDs reproducible, i.e. to replay a recorded
+	 * {@link de.persoapp.core.card.ApduTrace}
+	 * 
+	 * @param random
+	 *            - random generator or <em>null</em> for a generator per
+	 *            instance
+	 */
+	public static void setMessageIDSource(final Random random) {
+		PAOSInitiator.messageIDSource = random;
+	}
+
 	/**
 	 * local JAXB content
 	 */
@@ -509,7 +528,8 @@ public class PAOSInitiator {
 	 */
 	private String createMessageID() {
 		final byte[] randomID = new byte[16];
-		random.nextBytes(randomID);
+		final Random source = messageIDSource;
+		(source != null ? source : random).nextBytes(randomID);
 		return "urn:uuid" + Hex.toString(randomID);
 	}
 
@@ -535,7 +555,8 @@ public class PAOSInitiator {
 
 			buf = mhc.transmit(baos.toByteArray());
 
-			System.out.println(">> " + (buf != null ? buf.length : "-") + ": "
+			System.out.println(">> " + (buf != null ? buf.length : "-") + " (" + mhc.getLastLatency() / 1000000
+					+ " ms): "
 					+ (buf != null ? new String(buf) : "null"));
 			if (buf != null) {
 				final ByteArrayInputStream bais = new ByteArrayInputStream(buf);
@@ -665,15 +686,26 @@ public class PAOSInitiator {
 		sp.getSupportedDIDProtocols().add(null);
 
 		// ISO24727Protocols.startPAOS(sp);
-		Object[] paosMsg = dispatch(sp);
-		while (paosMsg != null && paosMsg[1] != null && paosMsg[1] instanceof RequestType) {
-			final Object wsres = wsCtx.processRequest((QName) paosMsg[0], paosMsg[1]);
-			System.out.println(paosMsg[0] + " = " + paosMsg[1]);
+		Object[] paosMsg;
+		try {
+			paosMsg = dispatch(sp);
+			while (paosMsg != null && paosMsg[1] != null && paosMsg[1] instanceof RequestType) {
+				final Object wsres = wsCtx.processRequest((QName) paosMsg[0], paosMsg[1]);
+				System.out.println(paosMsg[0] + " = " + paosMsg[1]);
 
-			if (wsres != null) {
-				paosMsg = dispatch(wsres);
-			} else {
-				return null;
+				if (wsres != null) {
+					paosMsg = dispatch(wsres);
+				} else {
+					return null;
+				}
+			}
+		} finally {
+			// the conversation is over, release the connection
+			if (mhc != null) {
+				System.out.println("PAOS: " + mhc.getRequestCount() + " requests over " + mhc.getConnectionCount()
+						+ " connection(s), " + mhc.getBytesSent() + " bytes sent, " + mhc.getBytesReceived()
+						+ " bytes received, " + mhc.getTotalLatency() / 1000000 + " ms");
+				mhc.close();
 			}
 		}
 
@@ -0,0 +1,425 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Writer for <em>DER</em> encoded data objects and command <em>APDUs</em>,
+ * which emits the whole structure into one buffer. The length of a
+ * constructed data object is back-patched by {@link #end()}, the contents
+ * are moved only if the length needs more than one byte. With a buffer
+ * pre-sized by {@link #encodedSize(int, int)} the result is handed over
+ * without copying.
+ * </p>
+ * 
+ * <pre>
+ * final byte[] cmd = new DERWriter().beginCommand(0x10, 0x86, 0x00, 0x00).begin(0x7C).put(0x81, key).end()
+ * 		.endCommand(0).toByteArray();
+ * </pre>
+ * 
+ * @see TLV
+ * @see TLVCursor
+ */
+public final class DERWriter {
+
+	/** default capacity of the buffer */
+	private static final int	DEFAULT_CAPACITY	= 256;
+
+	/** maximum nesting of constructed data objects */
+	private static final int	MAX_DEPTH			= 16;
+
+	/** the buffer */
+	private byte[]				buf;
+
+	/** capacity of a new buffer after the buffer was handed over */
+	private final int			capacity;
+
+	/** end of the written data */
+	private int					pos					= 0;
+
+	/** start of the contents of the open constructed data objects */
+	private final int[]			open				= new int[MAX_DEPTH];
+
+	/** number of open constructed data objects */
+	private int					depth				= 0;
+
+	/** offset of Lc of the open command, -1 if none */
+	private int					command				= -1;
+
+	/**
+	 * create a writer with the default capacity
+	 */
+	public DERWriter() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * create a writer with the given capacity, the buffer grows if needed
+	 * 
+	 * @param capacity
+	 *            - initial size of the buffer
+	 */
+	public DERWriter(final int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.buf = new byte[this.capacity];
+	}
+
+	/**
+	 * @param tag
+	 *            - tag
+	 * @return amount of bytes of the encoded tag
+	 */
+	public static int tagSize(final int tag) {
+		return tag < 0x100 ? 1 : tag < 0x10000 ? 2 : tag < 0x1000000 ? 3 : 4;
+	}
+
+	/**
+	 * @param len
+	 *            - length of contents
+	 * @return amount of bytes of the encoded length
+	 */
+	public static int lengthSize(final int len) {
+		return len < 0x80 ? 1 : len < 0x100 ? 2 : len < 0x10000 ? 3 : len < 0x1000000 ? 4 : 5;
+	}
+
+	/**
+	 * @param tag
+	 *            - tag
+	 * @param len
+	 *            - length of contents
+	 * @return amount of bytes of the encoded data object
+	 */
+	public static int encodedSize(final int tag, final int len) {
+		return tagSize(tag) + lengthSize(len) + len;
+	}
+
+	/**
+	 * write an encoded length to the given array
+	 * 
+	 * @param out
+	 *            - destination array
+	 * @param pos
+	 *            - destination offset
+	 * @param len
+	 *            - length of contents
+	 * @return position behind the encoded length
+	 */
+	public static int putLength(final byte[] out, int pos, final int len) {
+		final int n = lengthSize(len) - 1;
+		if (n == 0) {
+			out[pos++] = (byte) len;
+		} else {
+			out[pos++] = (byte) (0x80 + n);
+			for (int i = n - 1; i >= 0; i--) {
+				out[pos++] = (byte) (len >> 8 * i);
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * start a constructed data object, its length is written by
+	 * {@link #end()}
+	 * 
+	 * @param tag
+	 *            - tag of the data object
+	 * @return this writer
+	 */
+	public DERWriter begin(final int tag) {
+		if (depth == MAX_DEPTH) {
+			throw new IllegalStateException("nesting too deep");
+		}
+		putTag(tag);
+		ensureCapacity(1);
+		pos++;
+		open[depth++] = pos;
+		return this;
+	}
+
+	/**
+	 * finish the innermost constructed data object
+	 * 
+	 * @return this writer
+	 */
+	public DERWriter end() {
+		if (depth == 0) {
+			throw new IllegalStateException("no open data object");
+		}
+		final int start = open[--depth];
+		final int len = pos - start;
+		final int shift = lengthSize(len) - 1;
+		if (shift > 0) {
+			ensureCapacity(shift);
+			System.arraycopy(buf, start, buf, start + shift, len);
+			pos += shift;
+		}
+		putLength(buf, start - 1, len);
+		return this;
+	}
+
+	/**
+	 * write a primitive data object
+	 * 
+	 * @param tag
+	 *            - tag of the data object
+	 * @param value
+	 *            - contents, <em>null</em> for none
+	 * @return this writer
+	 */
+	public DERWriter put(final int tag, final byte[] value) {
+		return value == null ? put(tag, value, 0, 0) : put(tag, value, 0, value.length);
+	}
+
+	/**
+	 * write a primitive data object
+	 * 
+	 * @param tag
+	 *            - tag of the data object
+	 * @param value
+	 *            - source array of the contents
+	 * @param off
+	 *            - offset in the source array
+	 * @param len
+	 *            - length of the contents
+	 * @return this writer
+	 */
+	public DERWriter put(final int tag, final byte[] value, final int off, final int len) {
+		putTag(tag);
+		ensureCapacity(lengthSize(len) + len);
+		pos = putLength(buf, pos, len);
+		if (len > 0) {
+			System.arraycopy(value, off, buf, pos, len);
+			pos += len;
+		}
+		return this;
+	}
+
+	/**
+	 * write an object identifier as primitive data object
+	 * 
+	 * @param tag
+	 *            - tag of the data object, usually {@link TLV#OID}
+	 * @param oid
+	 *            - object identifier
+	 * @return this writer
+	 */
+	public DERWriter putOID(final int tag, final ObjectIdentifier oid) {
+		return put(tag, oid.contents, 0, oid.contents.length);
+	}
+
+	/**
+	 * write already encoded data
+	 * 
+	 * @param data
+	 *            - encoded data, <em>null</em> for none
+	 * @return this writer
+	 */
+	public DERWriter raw(final byte[] data) {
+		return data == null ? this : raw(data, 0, data.length);
+	}
+
+	/**
+	 * write already encoded data
+	 * 
+	 * @param data
+	 *            - source array of the encoded data
+	 * @param off
+	 *            - offset in the source array
+	 * @param len
+	 *            - length of the encoded data
+	 * @return this writer
+	 */
+	public DERWriter raw(final byte[] data, final int off, final int len) {
+		ensureCapacity(len);
+		System.arraycopy(data, off, buf, pos, len);
+		pos += len;
+		return this;
+	}
+
+	/**
+	 * start a command <em>APDU</em> with extended length, the data field is
+	 * written by the following calls and its length by
+	 * {@link #endCommand(int)}
+	 * 
+	 * @param cla
+	 *            - instruction class byte
+	 * @param ins
+	 *            - instruction command byte
+	 * @param p1
+	 *            - instruction parameter P1
+	 * @param p2
+	 *            - instruction parameter P2
+	 * @return this writer
+	 */
+	public DERWriter beginCommand(final int cla, final int ins, final int p1, final int p2) {
+		if (command >= 0 || depth > 0) {
+			throw new IllegalStateException("command not at top level");
+		}
+		ensureCapacity(7);
+		buf[pos++] = (byte) cla;
+		buf[pos++] = (byte) ins;
+		buf[pos++] = (byte) p1;
+		buf[pos++] = (byte) p2;
+		command = pos;
+		pos += 3;
+		return this;
+	}
+
+	/**
+	 * finish the command <em>APDU</em>
+	 * 
+	 * @param le
+	 *            - expected length of the response, <tt>-1</tt> for none
+	 * @return this writer
+	 */
+	public DERWriter endCommand(final int le) {
+		if (command < 0 || depth > 0) {
+			throw new IllegalStateException("no open command");
+		}
+		final int lc = pos - command - 3;
+		if (lc > 0xFFFF) {
+			throw new IllegalStateException("data field too long: " + lc);
+		}
+		buf[command] = 0;
+		buf[command + 1] = (byte) (lc >> 8);
+		buf[command + 2] = (byte) lc;
+		command = -1;
+		if (le >= 0) {
+			ensureCapacity(2);
+			buf[pos++] = (byte) (le >> 8);
+			buf[pos++] = (byte) le;
+		}
+		return this;
+	}
+
+	/**
+	 * @return amount of written bytes
+	 */
+	public int size() {
+		return pos;
+	}
+
+	/**
+	 * @return the buffer, not a copy, valid up to {@link #size()}
+	 */
+	public byte[] getArray() {
+		return buf;
+	}
+
+	/**
+	 * discard the written data, the buffer is kept
+	 */
+	public void reset() {
+		pos = 0;
+		depth = 0;
+		command = -1;
+	}
+
+	/**
+	 * return the written data and reset the writer, a completely filled
+	 * buffer is handed over without copying
+	 * 
+	 * @return encoded data
+	 */
+	public byte[] toByteArray() {
+		checkComplete();
+		final byte[] result;
+		if (pos == buf.length) {
+			result = buf;
+			buf = new byte[0];
+		} else {
+			result = Arrays.copyOf(buf, pos);
+		}
+		reset();
+		return result;
+	}
+
+	/**
+	 * copy the written data to the given buffer
+	 * 
+	 * @param dst
+	 *            - destination buffer
+	 * @return the destination buffer
+	 */
+	public ByteBuffer writeTo(final ByteBuffer dst) {
+		checkComplete();
+		return dst.put(buf, 0, pos);
+	}
+
+	/**
+	 * throw if a data object or command is open
+	 */
+	private void checkComplete() {
+		if (depth > 0 || command >= 0) {
+			throw new IllegalStateException("incomplete structure");
+		}
+	}
+
+	/**
+	 * write a tag
+	 */
+	private void putTag(final int tag) {
+		final int n = tagSize(tag);
+		ensureCapacity(n);
+		for (int i = n - 1; i >= 0; i--) {
+			buf[pos++] = (byte) (tag >> 8 * i);
+		}
+	}
+
+	/**
+	 * grow the buffer if necessary
+	 */
+	private void ensureCapacity(final int len) {
+		if (buf.length - pos < len) {
+			buf = Arrays.copyOf(buf, Math.max(pos + len, Math.max(buf.length << 1, capacity)));
+		}
+	}
+}
@@ -1,221 +1,400 @@
-/**
- *
- * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
- *
- * Authors Christian Kahlo, Ralf Wondratschek
- *
- * All Rights Reserved.
- *
- * Contact: PersoApp, http://www.persoapp.de
- *
- * @version 1.0, 30.07.2013 13:50:47
- *
- *          This file is part of PersoApp.
- *
- *          PersoApp is free software: you can redistribute it and/or modify it
- *          under the terms of the GNU Lesser General Public License as
- *          published by the Free Software Foundation, either version 3 of the
- *          License, or (at your option) any later version.
- *
- *          PersoApp is distributed in the hope that it will be useful, but
- *          WITHOUT ANY WARRANTY; without even the implied warranty of
- *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
- *          Lesser General Public License for more details.
- *
- *          You should have received a copy of the GNU Lesser General Public
- *          License along with PersoApp. If not, see
- *          <http://www.gnu.org/licenses/>.
- *
- *          Diese Datei ist Teil von PersoApp.
- *
- *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
- *          GNU Lesser General Public License, wie von der Free Software
- *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
- *          späteren veröffentlichten Version, weiterverbreiten und/oder
- *          modifizieren.
- *
- *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
- *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
- *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
- *          ZWECK. Siehe die GNU Lesser General Public License für weitere
- *          Details.
- *
- *          Sie sollten eine Kopie der GNU Lesser General Public License
- *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
- *          <http://www.gnu.org/licenses/>.
- *
- */
-
-/**
- * XXX: Most code is originally part of the Cryptix lib as
- * cryptix.util.core.Hex. Additionally most code is part of the GNU classpath
- * library within gnu.java.security.util.Util.
- * 
- * Below is the original copyright message.
- * 
- */
-
-/**
- * Static methods for converting to and from hexadecimal strings.
- * <p>
- * 
- * <b>Copyright</b> &copy; 1995-1997 <a
- * href="http://www.systemics.com/">Systemics Ltd</a> on behalf of the <a
- * href="http://www.systemics.com/docs/cryptix/">Cryptix Development Team</a>. <br>
- * All rights reserved.
- * 
- * <p>
- * <b>$Revision: 1.2 $</b>
- * 
- * @author David Hopwood
- * @author Raif Naffah
- * @author Systemics Ltd
- * @since Cryptix 2.2.0a, 2.2.2
- */
-package de.persoapp.core.util;
-
-/**
- * Static functions for converting to and from hexadecimal strings.
- * 
- * @author Christian Kahlo
- * @author Rico Klimsa - added javadoc comments.
- */
-public class Hex {
-	
-	/**
-	 * Utility functions. Constructor is not used.
-	 */
-	private Hex() {
-	}
-
-	/**
-	 * A char array of the common hexadecimal digits.
-	 */
-	private static final char[]	hexDigits	= { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
-			'E', 'F'						};
-
-	/**
-	 * <p>
-	 * Converts the contents of the given byte buffer in an hexadecimal string.
-	 * The length of the returned string is 2 * length.
-	 * </p>
-	 * <p>
-	 * If offset and length are null, the whole array is used.
-	 * </p>
-	 * 
-	 * @param ba
-	 *            - The byte buffer to convert.
-	 * @param offset
-	 *            - The starting offset.
-	 * @param length
-	 *            - The number of characters of the byte array, which will be
-	 *            converted.
-	 * 
-	 * @return The string which contains the hexadecimal digits. The length of
-	 *         the returned string is 2 * length.
-	 */
-	public static String toString(final byte[] ba, final int offset, final int length) {
-		final char[] buf = new char[length * 2];
-		int j = 0;
-		int k;
-
-		for (int i = offset; i < offset + length; i++) {
-			k = ba[i];
-			buf[j++] = hexDigits[k >>> 4 & 0x0F];
-			buf[j++] = hexDigits[k & 0x0F];
-		}
-		return new String(buf);
-	}
-
-	/**
-	 * Converts the contents of the given byte buffer in an hexadecimal string.
-	 * 
-	 * @param ba
-	 *            - The byte buffer, to convert.
-	 * 
-	 * @return The created String. The length of the returned string is twice
-	 *         the length of the inserted byte array.
-	 */
-	public static String toString(final byte[] ba) {
-		return toString(ba, 0, ba.length);
-	}
-
-	/**
-	 * <p>
-	 * Returns a byte array from a string of hexadecimal digits. Two hexadecimal
-	 * digits will be one byte and thus the returned byte array is half of the
-	 * size of the inserted string.
-	 * </p>
-	 * 
-	 * @param hex
-	 *            - The {@link String}, to convert.
-	 * @return The byte array with the hexadecimal digits. The returned byte
-	 *         array is half of the size of the inserted string.
-	 */
-	public static byte[] fromString(final String hex) {
-		final int len = hex.length();
-		final byte[] buf = new byte[(len + 1) / 2];
-
-		int i = 0, j = 0;
-		if (len % 2 == 1) {
-			buf[j++] = (byte) fromDigit(hex.charAt(i++));
-		}
-
-		while (i < len) {
-			buf[j++] = (byte) (fromDigit(hex.charAt(i++)) << 4 | fromDigit(hex.charAt(i++)));
-		}
-		return buf;
-	}
-
-	/**
-	 * Decodes the given hex digit into an decimal integer.
-	 * 
-	 * @param ch
-	 *            - The hex digit, to decode.
-	 * @return Returns the decimal value.
-	 * 
-	 * @throws IllegalArgumentException
-	 *             If the given hex digit is invalid.
-	 */
-	public static int fromDigit(final char ch) {
-		if (ch >= '0' && ch <= '9') {
-			return ch - '0';
-		}
-		if (ch >= 'A' && ch <= 'F') {
-			return ch - 'A' + 10;
-		}
-		if (ch >= 'a' && ch <= 'f') {
-			return ch - 'a' + 10;
-		}
-
-		throw new IllegalArgumentException("invalid hex digit '" + ch + "'");
-	}
-
-	/**
-	 * Encodes the given value as a hex string.
-	 * 
-	 * @param n
-	 *            - The value, to encode
-	 * 
-	 * @return Returns the hexadecimal value.
-	 */
-	public static String byteToString(final int n) {
-		final char[] buf = { hexDigits[n >>> 4 & 0x0F], hexDigits[n & 0x0F] };
-		return new String(buf);
-	}
-
-	/**
-	 * Encodes the given value as a hex string.
-	 * 
-	 * @param n
-	 *            - The value, to encode
-	 * 
-	 * @return Returns the hexadecimal value.
-	 */
-	public static String shortToString(final int n) {
-		final char[] buf = { hexDigits[n >>> 12 & 0x0F], hexDigits[n >>> 8 & 0x0F], hexDigits[n >>> 4 & 0x0F],
-				hexDigits[n & 0x0F] };
-		return new String(buf);
-	}
-
-}
+/**
+ *
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ *
+ * Authors Christian Kahlo, Ralf Wondratschek
+ *
+ * All Rights Reserved.
+ *
+ * Contact: PersoApp, http://www.persoapp.de
+ *
+ * @version 1.0, 30.07.2013 13:50:47
+ *
+ *          This file is part of PersoApp.
+ *
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ *
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ *
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ *
+ *          Diese Datei ist Teil von PersoApp.
+ *
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ *
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ *
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ *
+ */
+
+/**
+ * XXX: Most code is originally part of the Cryptix lib as
+ * cryptix.util.core.Hex. Additionally most code is part of the GNU classpath
+ * library within gnu.java.security.util.Util.
+ * 
+ * Below is the original copyright message.
+ * 
+ */
+
+/**
+ * Static methods for converting to and from hexadecimal strings.
+ * <p>
+ * 
+ * <b>Copyright</b> &copy; 1995-1997 <a
+ * href="http://www.systemics.com/">Systemics Ltd</a> on behalf of the <a
+ * href="http://www.systemics.com/docs/cryptix/">Cryptix Development Team</a>. <br>
+ * All rights reserved.
+ * 
+ * <p>
+ * <b>$Revision: 1.2 $</b>
+ * 
+ * @author David Hopwood
+ * @author Raif Naffah
+ * @author Systemics Ltd
+ * @since Cryptix 2.2.0a, 2.2.2
+ */
+package de.persoapp.core.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Static functions for converting to and from hexadecimal strings.
+ * 
+ * @author Christian Kahlo
+ * @author Rico Klimsa - added javadoc comments.
+ */
+public class Hex {
+	
+	/**
+	 * Utility functions. Constructor is not used.
+	 */
+	private Hex() {
+	}
+
+	/**
+	 * A char array of the common hexadecimal digits.
+	 */
+	private static final char[]	hexDigits	= { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
+			'E', 'F'						};
+
+	/**
+	 * The two hexadecimal digits of every byte value, indexed by twice the
+	 * unsigned byte value.
+	 */
+	private static final char[]	PAIRS		= new char[512];
+
+	/**
+	 * The two hexadecimal digits of every byte value as ASCII characters.
+	 */
+	private static final byte[]	ASCII_PAIRS	= new byte[512];
+
+	/**
+	 * The value of every hexadecimal digit indexed by its character,
+	 * <tt>-1</tt> for other characters.
+	 */
+	private static final byte[]	VALUES		= new byte[128];
+
+	/**
+	 * The size of the buffers used to encode to streams.
+	 */
+	private static final int	CHUNK		= 512;
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			PAIRS[2 * i] = hexDigits[i >>> 4];
+			PAIRS[2 * i + 1] = hexDigits[i & 0x0F];
+			ASCII_PAIRS[2 * i] = (byte) PAIRS[2 * i];
+			ASCII_PAIRS[2 * i + 1] = (byte) PAIRS[2 * i + 1];
+		}
+		Arrays.fill(VALUES, (byte) -1);
+		for (int i = 0; i < 16; i++) {
+			VALUES[hexDigits[i]] = (byte) i;
+			VALUES[Character.toLowerCase(hexDigits[i])] = (byte) i;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Converts the contents of the given byte buffer in an hexadecimal string.
+	 * The length of the returned string is 2 * length.
+	 * </p>
+	 * <p>
+	 * If offset and length are null, the whole array is used.
+	 * </p>
+	 * 
+	 * @param ba
+	 *            - The byte buffer to convert.
+	 * @param offset
+	 *            - The starting offset.
+	 * @param length
+	 *            - The number of characters of the byte array, which will be
+	 *            converted.
+	 * 
+	 * @return The string which contains the hexadecimal digits. The length of
+	 *         the returned string is 2 * length.
+	 */
+	public static String toString(final byte[] ba, final int offset, final int length) {
+		final char[] buf = new char[length * 2];
+		encode(ba, offset, length, buf, 0);
+		return new String(buf);
+	}
+
+	/**
+	 * Converts the contents of the given byte buffer in an hexadecimal string.
+	 * 
+	 * @param ba
+	 *            - The byte buffer, to convert.
+	 * 
+	 * @return The created String. The length of the returned string is twice
+	 *         the length of the inserted byte array.
+	 */
+	public static String toString(final byte[] ba) {
+		return toString(ba, 0, ba.length);
+	}
+
+	/**
+	 * Encodes the given bytes as hexadecimal digits into the given char array.
+	 * 
+	 * @param src
+	 *            - The bytes, to encode.
+	 * @param offset
+	 *            - The offset of the first byte.
+	 * @param length
+	 *            - The number of bytes.
+	 * @param dst
+	 *            - The destination, which must have room for 2 * length
+	 *            characters.
+	 * @param dstOffset
+	 *            - The offset of the first character in the destination.
+	 * 
+	 * @return Returns the offset behind the last written character.
+	 */
+	public static int encode(final byte[] src, final int offset, final int length, final char[] dst,
+			final int dstOffset) {
+		int j = dstOffset;
+		for (int i = offset; i < offset + length; i++) {
+			final int k = (src[i] & 0xFF) << 1;
+			dst[j++] = PAIRS[k];
+			dst[j++] = PAIRS[k + 1];
+		}
+		return j;
+	}
+
+	/**
+	 * Encodes the given bytes as ASCII hexadecimal digits into the given byte
+	 * array.
+	 * 
+	 * @param src
+	 *            - The bytes, to encode.
+	 * @param offset
+	 *            - The offset of the first byte.
+	 * @param length
+	 *            - The number of bytes.
+	 * @param dst
+	 *            - The destination, which must have room for 2 * length
+	 *            bytes.
+	 * @param dstOffset
+	 *            - The offset of the first digit in the destination.
+	 * 
+	 * @return Returns the offset behind the last written digit.
+	 */
+	public static int encode(final byte[] src, final int offset, final int length, final byte[] dst,
+			final int dstOffset) {
+		int j = dstOffset;
+		for (int i = offset; i < offset + length; i++) {
+			final int k = (src[i] & 0xFF) << 1;
+			dst[j++] = ASCII_PAIRS[k];
+			dst[j++] = ASCII_PAIRS[k + 1];
+		}
+		return j;
+	}
+
+	/**
+	 * Appends the given bytes as hexadecimal digits without creating a
+	 * {@link String}. Writers and string builders receive chunks of
+	 * characters.
+	 * 
+	 * @param src
+	 *            - The bytes, to encode.
+	 * @param offset
+	 *            - The offset of the first byte.
+	 * @param length
+	 *            - The number of bytes.
+	 * @param out
+	 *            - The destination.
+	 * 
+	 * @throws IOException
+	 *             If the destination throws it.
+	 */
+	public static void encode(final byte[] src, final int offset, final int length, final Appendable out)
+			throws IOException {
+		if (out instanceof OutputStream) {
+			// e.g. PrintStream, write ASCII without converting chars
+			encode(src, offset, length, (OutputStream) out);
+			return;
+		}
+
+		final char[] buf = new char[Math.min(2 * length, CHUNK)];
+		for (int i = offset; i < offset + length; i += CHUNK / 2) {
+			final int n = encode(src, i, Math.min(CHUNK / 2, offset + length - i), buf, 0);
+			if (out instanceof StringBuilder) {
+				((StringBuilder) out).append(buf, 0, n);
+			} else if (out instanceof Writer) {
+				((Writer) out).write(buf, 0, n);
+			} else {
+				out.append(CharBuffer.wrap(buf, 0, n));
+			}
+		}
+	}
+
+	/**
+	 * Writes the given bytes as ASCII hexadecimal digits without creating a
+	 * {@link String}.
+	 * 
+	 * @param src
+	 *            - The bytes, to encode.
+	 * @param offset
+	 *            - The offset of the first byte.
+	 * @param length
+	 *            - The number of bytes.
+	 * @param out
+	 *            - The destination.
+	 * 
+	 * @throws IOException
+	 *             If the destination throws it.
+	 */
+	public static void encode(final byte[] src, final int offset, final int length, final OutputStream out)
+			throws IOException {
+		final byte[] buf = new byte[Math.min(2 * length, CHUNK)];
+		for (int i = offset; i < offset + length; i += CHUNK / 2) {
+			final int n = encode(src, i, Math.min(CHUNK / 2, offset + length - i), buf, 0);
+			out.write(buf, 0, n);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Returns a byte array from a string of hexadecimal digits. Two hexadecimal
+	 * digits will be one byte and thus the returned byte array is half of the
+	 * size of the inserted string.
+	 * </p>
+	 * 
+	 * @param hex
+	 *            - The {@link String}, to convert.
+	 * @return The byte array with the hexadecimal digits. The returned byte
+	 *         array is half of the size of the inserted string.
+	 */
+	public static byte[] fromString(final String hex) {
+		final byte[] buf = new byte[(hex.length() + 1) / 2];
+		decode(hex, buf, 0);
+		return buf;
+	}
+
+	/**
+	 * <p>
+	 * Decodes hexadecimal digits into the given byte array. Two hexadecimal
+	 * digits will be one byte, an odd number of digits is padded with a
+	 * leading zero.
+	 * </p>
+	 * 
+	 * @param hex
+	 *            - The hexadecimal digits, to decode.
+	 * @param dst
+	 *            - The destination, which must have room for half of the
+	 *            digits, rounded up.
+	 * @param dstOffset
+	 *            - The offset of the first byte in the destination.
+	 * 
+	 * @return Returns the offset behind the last written byte.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If a hex digit is invalid.
+	 */
+	public static int decode(final CharSequence hex, final byte[] dst, final int dstOffset) {
+		final int len = hex.length();
+
+		int i = 0, j = dstOffset;
+		if (len % 2 == 1) {
+			dst[j++] = (byte) fromDigit(hex.charAt(i++));
+		}
+
+		while (i < len) {
+			final char hi = hex.charAt(i++);
+			final char lo = hex.charAt(i++);
+			final int v = hi < 128 && lo < 128 ? VALUES[hi] << 4 | VALUES[lo] : -1;
+			// a single invalid digit makes the value negative
+			dst[j++] = (byte) (v >= 0 ? v : fromDigit(hi) << 4 | fromDigit(lo));
+		}
+		return j;
+	}
+
+	/**
+	 * Decodes the given hex digit into an decimal integer.
+	 * 
+	 * @param ch
+	 *            - The hex digit, to decode.
+	 * @return Returns the decimal value.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the given hex digit is invalid.
+	 */
+	public static int fromDigit(final char ch) {
+		final int v = ch < 128 ? VALUES[ch] : -1;
+		if (v < 0) {
+			throw new IllegalArgumentException("invalid hex digit '" + ch + "'");
+		}
+		return v;
+	}
+
+	/**
+	 * Encodes the given value as a hex string.
+	 * 
+	 * @param n
+	 *            - The value, to encode
+	 * 
+	 * @return Returns the hexadecimal value.
+	 */
+	public static String byteToString(final int n) {
+		final int k = (n & 0xFF) << 1;
+		return new String(PAIRS, k, 2);
+	}
+
+	/**
+	 * Encodes the given value as a hex string.
+	 * 
+	 * @param n
+	 *            - The value, to encode
+	 * 
+	 * @return Returns the hexadecimal value.
+	 */
+	public static String shortToString(final int n) {
+		final int hi = (n >>> 8 & 0xFF) << 1;
+		final int lo = (n & 0xFF) << 1;
+		final char[] buf = { PAIRS[hi], PAIRS[hi + 1], PAIRS[lo], PAIRS[lo + 1] };
+		return new String(buf);
+	}
+
+}
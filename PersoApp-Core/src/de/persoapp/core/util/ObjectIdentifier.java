@@ -0,0 +1,424 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Registry of the object identifiers used by the eID protocols. Every known
+ * object identifier exists exactly once, so registered instances are
+ * compared by identity. The contents of an encoded object identifier are
+ * looked up directly in the encoded data with an open addressing hash table,
+ * without copying or converting them to a string.
+ * </p>
+ * 
+ * <pre>
+ * if (ObjectIdentifier.lookup(data, off, len) == ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128) {
+ * 	...
+ * }
+ * </pre>
+ * 
+ * @see TLVCursor#getObjectIdentifier()
+ */
+public final class ObjectIdentifier {
+
+	/** size of the hash table, a power of two */
+	private static final int						TABLE_SIZE	= 64;
+
+	/** hash table of the registered object identifiers */
+	private static final ObjectIdentifier[]			TABLE		= new ObjectIdentifier[TABLE_SIZE];
+
+	/** registered object identifiers by dotted notation, hex and name */
+	private static final Map<String, ObjectIdentifier>	NAMES		= new HashMap<String, ObjectIdentifier>();
+
+	/** number of registered object identifiers */
+	private static int								count		= 0;
+
+	/** 0.4.0.127.0.7.1.2 standardized domain parameters */
+	public static final ObjectIdentifier	STANDARDIZED_DOMAIN_PARAMETERS	= register("0.4.0.127.0.7.1.2",
+																					"standardizedDomainParameters");
+
+	/** 0.4.0.127.0.7.2.2.1.2 ECDH public key */
+	public static final ObjectIdentifier	PK_ECDH							= register("0.4.0.127.0.7.2.2.1.2",
+																					"id-PK-ECDH");
+
+	/** 0.4.0.127.0.7.2.2.2 terminal authentication */
+	public static final ObjectIdentifier	TA								= register("0.4.0.127.0.7.2.2.2",
+																					"id-TA");
+
+	/** 0.4.0.127.0.7.2.2.2.2 terminal authentication with ECDSA */
+	public static final ObjectIdentifier	TA_ECDSA						= register("0.4.0.127.0.7.2.2.2.2",
+																					"id-TA-ECDSA");
+
+	/** 0.4.0.127.0.7.2.2.2.2.1 terminal authentication with ECDSA SHA-1 */
+	public static final ObjectIdentifier	TA_ECDSA_SHA_1					= register("0.4.0.127.0.7.2.2.2.2.1",
+																					"id-TA-ECDSA-SHA-1");
+
+	/** 0.4.0.127.0.7.2.2.2.2.2 terminal authentication with ECDSA SHA-224 */
+	public static final ObjectIdentifier	TA_ECDSA_SHA_224				= register("0.4.0.127.0.7.2.2.2.2.2",
+																					"id-TA-ECDSA-SHA-224");
+
+	/** 0.4.0.127.0.7.2.2.2.2.3 terminal authentication with ECDSA SHA-256 */
+	public static final ObjectIdentifier	TA_ECDSA_SHA_256				= register("0.4.0.127.0.7.2.2.2.2.3",
+																					"id-TA-ECDSA-SHA-256");
+
+	/** 0.4.0.127.0.7.2.2.2.2.4 terminal authentication with ECDSA SHA-384 */
+	public static final ObjectIdentifier	TA_ECDSA_SHA_384				= register("0.4.0.127.0.7.2.2.2.2.4",
+																					"id-TA-ECDSA-SHA-384");
+
+	/** 0.4.0.127.0.7.2.2.2.2.5 terminal authentication with ECDSA SHA-512 */
+	public static final ObjectIdentifier	TA_ECDSA_SHA_512				= register("0.4.0.127.0.7.2.2.2.2.5",
+																					"id-TA-ECDSA-SHA-512");
+
+	/** 0.4.0.127.0.7.2.2.3.2 chip authentication with ECDH */
+	public static final ObjectIdentifier	CA_ECDH							= register("0.4.0.127.0.7.2.2.3.2",
+																					"id-CA-ECDH");
+
+	/** 0.4.0.127.0.7.2.2.3.2.2 chip authentication with ECDH and AES-128 */
+	public static final ObjectIdentifier	CA_ECDH_AES_CBC_CMAC_128		= register("0.4.0.127.0.7.2.2.3.2.2",
+																					"id-CA-ECDH-AES-CBC-CMAC-128");
+
+	/** 0.4.0.127.0.7.2.2.4.2.2 PACE with ECDH generic mapping and AES-128 */
+	public static final ObjectIdentifier	PACE_ECDH_GM_AES_CBC_CMAC_128	= register("0.4.0.127.0.7.2.2.4.2.2",
+																					"id-PACE-ECDH-GM-AES-CBC-CMAC-128");
+
+	/** 0.4.0.127.0.7.2.2.5.2.3 restricted identification with ECDH SHA-256 */
+	public static final ObjectIdentifier	RI_ECDH_SHA_256					= register("0.4.0.127.0.7.2.2.5.2.3",
+																					"id-RI-ECDH-SHA-256");
+
+	/** 0.4.0.127.0.7.2.2.6 card info locator */
+	public static final ObjectIdentifier	CARD_INFO_LOCATOR				= register("0.4.0.127.0.7.2.2.6",
+																					"id-CI");
+
+	/** 0.4.0.127.0.7.3.1.2.2 authentication terminal */
+	public static final ObjectIdentifier	AUTHENTICATION_TERMINAL			= register("0.4.0.127.0.7.3.1.2.2",
+																					"id-AT");
+
+	/** 0.4.0.127.0.7.3.1.2.3 signature terminal */
+	public static final ObjectIdentifier	SIGNATURE_TERMINAL				= register("0.4.0.127.0.7.3.1.2.3",
+																					"id-ST");
+
+	/** 0.4.0.127.0.7.3.1.3.1 hash of the certificate description */
+	public static final ObjectIdentifier	DESCRIPTION						= register("0.4.0.127.0.7.3.1.3.1",
+																					"id-description");
+
+	/** 0.4.0.127.0.7.3.1.3.2 terminal sector */
+	public static final ObjectIdentifier	SECTOR							= register("0.4.0.127.0.7.3.1.3.2",
+																					"id-sector");
+
+	/** 0.4.0.127.0.7.3.1.4.1 age verification */
+	public static final ObjectIdentifier	DATE_OF_BIRTH					= register("0.4.0.127.0.7.3.1.4.1",
+																					"id-DateOfBirth");
+
+	/** 0.4.0.127.0.7.3.1.4.2 document validity verification */
+	public static final ObjectIdentifier	DATE_OF_EXPIRY					= register("0.4.0.127.0.7.3.1.4.2",
+																					"id-DateOfExpiry");
+
+	/** 0.4.0.127.0.7.3.1.4.3 community id verification */
+	public static final ObjectIdentifier	COMMUNITY_ID					= register("0.4.0.127.0.7.3.1.4.3",
+																					"id-CommunityID");
+
+	/** 0.4.0.127.0.7.3.2.1 security object of EF.CardSecurity */
+	public static final ObjectIdentifier	SECURITY_OBJECT					= register("0.4.0.127.0.7.3.2.1",
+																					"id-SecurityObject");
+
+	/** 1.2.840.113549.1.7.2 CMS signed data */
+	public static final ObjectIdentifier	SIGNED_DATA						= register("1.2.840.113549.1.7.2",
+																					"id-signedData");
+
+	/** 2.16.840.1.101.3.4.2.1 SHA-256 */
+	public static final ObjectIdentifier	SHA_256							= register("2.16.840.1.101.3.4.2.1",
+																					"id-sha256");
+
+	/** contents of the encoded object identifier */
+	final byte[]							contents;
+
+	/** dotted notation */
+	private final String					dotted;
+
+	/** symbolic name */
+	private final String					name;
+
+	/**
+	 * create an object identifier
+	 */
+	private ObjectIdentifier(final String dotted, final String name) {
+		this.contents = encode(dotted);
+		this.dotted = dotted;
+		this.name = name;
+	}
+
+	/**
+	 * add an object identifier to the registry
+	 */
+	private static ObjectIdentifier register(final String dotted, final String name) {
+		final ObjectIdentifier oid = new ObjectIdentifier(dotted, name);
+		if (2 * ++count > TABLE_SIZE || lookup(oid.contents) != null) {
+			throw new IllegalStateException("cannot register " + dotted);
+		}
+		int i = hash(oid.contents, 0, oid.contents.length);
+		while (TABLE[i] != null) {
+			i = i + 1 & TABLE_SIZE - 1;
+		}
+		TABLE[i] = oid;
+		NAMES.put(dotted, oid);
+		NAMES.put(Hex.toString(oid.contents), oid);
+		NAMES.put(name, oid);
+		return oid;
+	}
+
+	/**
+	 * @return index of the given contents in the hash table
+	 */
+	private static int hash(final byte[] data, final int off, final int len) {
+		// FNV-1a, spreads the common prefixes of the eID object identifiers
+		int h = 0x811C9DC5;
+		for (int i = off; i < off + len; i++) {
+			h = (h ^ data[i] & 0xFF) * 0x01000193;
+		}
+		return (h ^ h >>> 16) & TABLE_SIZE - 1;
+	}
+
+	/**
+	 * look up the contents of an encoded object identifier
+	 * 
+	 * @param data
+	 *            - array containing the contents
+	 * @param off
+	 *            - offset of the contents
+	 * @param len
+	 *            - length of the contents
+	 * @return the registered object identifier or <em>null</em> if unknown
+	 */
+	public static ObjectIdentifier lookup(final byte[] data, final int off, final int len) {
+		if (data == null || len <= 0) {
+			return null;
+		}
+		int i = hash(data, off, len);
+		ObjectIdentifier oid;
+		while ((oid = TABLE[i]) != null) {
+			if (oid.matches(data, off, len)) {
+				return oid;
+			}
+			i = i + 1 & TABLE_SIZE - 1;
+		}
+		return null;
+	}
+
+	/**
+	 * look up the contents of an encoded object identifier
+	 * 
+	 * @param contents
+	 *            - contents, <em>null</em> allowed
+	 * @return the registered object identifier or <em>null</em> if unknown
+	 */
+	public static ObjectIdentifier lookup(final byte[] contents) {
+		return contents == null ? null : lookup(contents, 0, contents.length);
+	}
+
+	/**
+	 * look up an object identifier by its dotted notation, its contents as hex
+	 * string or its symbolic name
+	 * 
+	 * @param name
+	 *            - name of the object identifier
+	 * @return the registered object identifier or <em>null</em> if unknown
+	 */
+	public static ObjectIdentifier forName(final String name) {
+		return NAMES.get(name);
+	}
+
+	/**
+	 * encode an object identifier in dotted notation, each arc is written in
+	 * base 128 with the high bit set on all but the last byte
+	 * 
+	 * @param dotted
+	 *            - object identifier like <tt>0.4.0.127.0.7</tt>
+	 * @return contents of the encoded object identifier
+	 * @throws IllegalArgumentException
+	 *             if the notation is malformed
+	 */
+	public static byte[] encode(final String dotted) {
+		final String[] parts = dotted.split("\\.");
+		if (parts.length < 2) {
+			throw new IllegalArgumentException("malformed object identifier: " + dotted);
+		}
+		final long root = arc(parts[0], dotted);
+		final long second = arc(parts[1], dotted);
+		if (root > 2 || root < 2 && second >= 40) {
+			throw new IllegalArgumentException("malformed object identifier: " + dotted);
+		}
+
+		// the first two arcs share the first subidentifier
+		final long[] arcs = new long[parts.length - 1];
+		arcs[0] = 40 * root + second;
+		for (int i = 1; i < arcs.length; i++) {
+			arcs[i] = arc(parts[i + 1], dotted);
+		}
+		int size = 0;
+		for (final long arc : arcs) {
+			size += (64 - Long.numberOfLeadingZeros(arc | 1) + 6) / 7;
+		}
+
+		final byte[] out = new byte[size];
+		int pos = 0;
+		for (final long arc : arcs) {
+			for (int shift = (64 - Long.numberOfLeadingZeros(arc | 1) + 6) / 7 * 7 - 7; shift > 0; shift -= 7) {
+				out[pos++] = (byte) (0x80 | arc >>> shift & 0x7F);
+			}
+			out[pos++] = (byte) (arc & 0x7F);
+		}
+		return out;
+	}
+
+	/**
+	 * parse a single arc
+	 */
+	private static long arc(final String part, final String dotted) {
+		final long arc;
+		try {
+			arc = Long.parseLong(part);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("malformed object identifier: " + dotted, e);
+		}
+		if (arc < 0 || arc > Long.MAX_VALUE / 128) {
+			throw new IllegalArgumentException("malformed object identifier: " + dotted);
+		}
+		return arc;
+	}
+
+	/**
+	 * decode the contents of an encoded object identifier
+	 * 
+	 * @param data
+	 *            - array containing the contents
+	 * @param off
+	 *            - offset of the contents
+	 * @param len
+	 *            - length of the contents
+	 * @return object identifier in dotted notation
+	 * @throws IllegalArgumentException
+	 *             if the contents are malformed
+	 */
+	public static String decode(final byte[] data, final int off, final int len) {
+		final StringBuilder sb = new StringBuilder(len * 3);
+		long arc = 0;
+		for (int i = off; i < off + len; i++) {
+			if (arc > Long.MAX_VALUE >>> 7) {
+				throw new IllegalArgumentException("arc too large");
+			}
+			arc = arc << 7 | data[i] & 0x7F;
+			if ((data[i] & 0x80) == 0) {
+				if (sb.length() == 0) {
+					final int first = arc < 80 ? (int) arc / 40 : 2;
+					sb.append(first).append('.').append(arc - 40 * first);
+				} else {
+					sb.append('.').append(arc);
+				}
+				arc = 0;
+			}
+		}
+		if (len <= 0 || (data[off + len - 1] & 0x80) != 0) {
+			throw new IllegalArgumentException("truncated object identifier");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param data
+	 *            - array containing the contents
+	 * @param off
+	 *            - offset of the contents
+	 * @param len
+	 *            - length of the contents
+	 * @return <em>true</em> if the given contents encode this object
+	 *         identifier
+	 */
+	public boolean matches(final byte[] data, final int off, final int len) {
+		if (len != contents.length) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (data[off + i] != contents[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return copy of the contents of the encoded object identifier
+	 */
+	public byte[] getContents() {
+		return contents.clone();
+	}
+
+	/**
+	 * @return the encoded object identifier including tag and length
+	 */
+	public byte[] getEncoded() {
+		return new DERWriter(DERWriter.encodedSize(TLV.OID, contents.length)).putOID(TLV.OID, this).toByteArray();
+	}
+
+	/**
+	 * @return symbolic name like <tt>id-PACE-ECDH-GM-AES-CBC-CMAC-128</tt>
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return dotted notation like <tt>0.4.0.127.0.7.2.2.4.2.2</tt>
+	 */
+	@Override
+	public String toString() {
+		return dotted;
+	}
+}
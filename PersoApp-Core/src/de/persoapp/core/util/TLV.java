@@ -47,7 +47,6 @@
  */
 package de.persoapp.core.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
@@ -240,40 +239,23 @@ public class TLV {
 	 * Encode an object ID as <em>BER-TLV</em> object
 	 * 
 	 * @param oid
-	 *            - object ID
+	 *            - object ID in dotted notation, as hex encoded contents or
+	 *            the name of a registered {@link ObjectIdentifier}
 	 * @param data
 	 *            - content
 	 * @return BER-TLV encoded object ID and content
 	 * 
 	 */
 	public static byte[] buildOID(final String oid, final byte[] data) {
+		final ObjectIdentifier known = ObjectIdentifier.forName(oid);
 		final byte[] binOID;
 
-		if (oid.indexOf('.') < 0) {
+		if (known != null) {
+			binOID = known.getEncoded();
+		} else if (oid.indexOf('.') < 0) {
 			binOID = build(OID, Hex.fromString(oid));
 		} else {
-			final String[] oidSplit = oid.split("\\.");
-			if (oidSplit.length > 0) {
-				final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				baos.write(0x40 * Integer.parseInt(oidSplit[0], 10) + Integer.parseInt(oidSplit[1], 10));
-				for (int i = 2; i < oidSplit.length; i++) {
-					final int oidPart = Integer.parseInt(oidSplit[i], 10);
-					if (oidPart > 255) {
-						System.out.println("#### " + oid);
-					} else {
-						baos.write(oidPart);
-					}
-				}
-
-				binOID = build(OID, baos.toByteArray());
-			} else {
-				binOID = new byte[0];
-			}
-			//    		try {
-			//				binOID = new DERObjectIdentifier(oid).getEncoded();
-			//			} catch (IOException e) {
-			//				e.printStackTrace();
-			//			}
+			binOID = build(OID, ObjectIdentifier.encode(oid));
 		}
 		return buildOID(binOID, data);
 	}
@@ -310,7 +292,8 @@ public class TLV {
 
 		try {
 			int i = 0, datalen = 0, sizelen = 0;
-			while (i + tag.length + 1 < data.length) {
+			boolean found = false;
+			while (i + tag.length < data.length) {
 				int tagLength = 1;
 				if ((data[i] & MORE) == MORE) {
 					while ((data[i + tagLength++] & 0x80) != 0) {
@@ -329,6 +312,7 @@ public class TLV {
 
 				if (data[i] == tag[0]) {
 					if (tag.length == 1 || ArrayTool.arrayequal(ArrayTool.subArray(data, i, tag.length), tag)) {
+						found = true;
 						break;
 					}
 				}
@@ -336,7 +320,7 @@ public class TLV {
 				i += tagLength + sizelen + datalen;
 			}
 
-			if (i >= data.length) {
+			if (!found) {
 				return null;
 			}
 
@@ -0,0 +1,405 @@
+/**
+ * 
+ * COPYRIGHT (C) 2010, 2011, 2012, 2013, 2014 AGETO Innovation GmbH
+ * 
+ * Authors Christian Kahlo, Ralf Wondratschek
+ * 
+ * All Rights Reserved.
+ * 
+ * Contact: PersoApp, http://www.persoapp.de
+ * 
+ * @version 1.0, 30.07.2013 13:50:47
+ * 
+ *          This file is part of PersoApp.
+ * 
+ *          PersoApp is free software: you can redistribute it and/or modify it
+ *          under the terms of the GNU Lesser General Public License as
+ *          published by the Free Software Foundation, either version 3 of the
+ *          License, or (at your option) any later version.
+ * 
+ *          PersoApp is distributed in the hope that it will be useful, but
+ *          WITHOUT ANY WARRANTY; without even the implied warranty of
+ *          MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *          Lesser General Public License for more details.
+ * 
+ *          You should have received a copy of the GNU Lesser General Public
+ *          License along with PersoApp. If not, see
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ *          Diese Datei ist Teil von PersoApp.
+ * 
+ *          PersoApp ist Freie Software: Sie können es unter den Bedingungen der
+ *          GNU Lesser General Public License, wie von der Free Software
+ *          Foundation, Version 3 der Lizenz oder (nach Ihrer Option) jeder
+ *          späteren veröffentlichten Version, weiterverbreiten und/oder
+ *          modifizieren.
+ * 
+ *          PersoApp wird in der Hoffnung, dass es nützlich sein wird, aber OHNE
+ *          JEDE GEWÄHRLEISTUNG, bereitgestellt; sogar ohne die implizite
+ *          Gewährleistung der MARKTFÄHIGKEIT oder EIGNUNG FÜR EINEN BESTIMMTEN
+ *          ZWECK. Siehe die GNU Lesser General Public License für weitere
+ *          Details.
+ * 
+ *          Sie sollten eine Kopie der GNU Lesser General Public License
+ *          zusammen mit diesem Programm erhalten haben. Wenn nicht, siehe
+ *          <http://www.gnu.org/licenses/>.
+ * 
+ */
+package de.persoapp.core.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reader for <em>BER-TLV</em> encoded data, which works on a range of the
+ * given array without copying. The cursor moves over the data objects of its
+ * range, nested data objects are entered with {@link #enter()} or found by
+ * their path with {@link #find(int...)}. Contents are copied only on request.
+ * </p>
+ * <p>
+ * Tags are given as unsigned numbers of their encoded bytes, i.e.
+ * <tt>0x42</tt> or <tt>0x7F4E</tt>, of up to three bytes. Malformed data
+ * ends the range.
+ * </p>
+ * 
+ * <pre>
+ * final byte[] car = new TLVCursor(cvcert).getValue(0x7F21, 0x7F4E, 0x42);
+ * </pre>
+ * 
+ * @see TLV
+ */
+public final class TLVCursor {
+
+	/** the encoded data, <em>null</em> for an empty range */
+	private final byte[]	data;
+
+	/** start of the range */
+	private final int		start;
+
+	/** end of the range */
+	private final int		end;
+
+	/** start of the next data object */
+	private int				next;
+
+	/** tag of the current data object, -1 before the first */
+	private int				tag				= -1;
+
+	/** offset of the current data object */
+	private int				offset;
+
+	/** offset of the contents of the current data object */
+	private int				valueOffset;
+
+	/** length of the contents of the current data object */
+	private int				valueLength;
+
+	/**
+	 * create a cursor over all data objects of the given data
+	 * 
+	 * @param data
+	 *            - <em>BER-TLV</em> encoded data, <em>null</em> is an empty
+	 *            range
+	 */
+	public TLVCursor(final byte[] data) {
+		this(data, 0, data == null ? 0 : data.length);
+	}
+
+	/**
+	 * create a cursor over the data objects of the given range
+	 * 
+	 * @param data
+	 *            - <em>BER-TLV</em> encoded data
+	 * @param offset
+	 *            - start of the range
+	 * @param length
+	 *            - length of the range
+	 */
+	public TLVCursor(final byte[] data, final int offset, final int length) {
+		if (data != null && (offset < 0 || length < 0 || offset + length > data.length)) {
+			throw new IndexOutOfBoundsException("range " + offset + "+" + length);
+		}
+		this.data = data;
+		this.start = offset;
+		this.end = offset + length;
+		this.next = offset;
+	}
+
+	/**
+	 * create a copy positioned on the current data object of the given
+	 * cursor
+	 */
+	private TLVCursor(final TLVCursor other) {
+		this.data = other.data;
+		this.start = other.start;
+		this.end = other.end;
+		this.next = other.next;
+		this.tag = other.tag;
+		this.offset = other.offset;
+		this.valueOffset = other.valueOffset;
+		this.valueLength = other.valueLength;
+	}
+
+	/**
+	 * move back before the first data object of the range
+	 */
+	public void reset() {
+		this.next = this.start;
+		this.tag = -1;
+	}
+
+	/**
+	 * move to the next data object
+	 * 
+	 * @return <em>true</em> if positioned on a data object, <em>false</em> at
+	 *         the end of the range or on malformed data
+	 */
+	public boolean next() {
+		this.tag = -1;
+		int i = this.next;
+		if (data == null || i >= end) {
+			return false;
+		}
+
+		// tag
+		int t = data[i++] & 0xFF;
+		if ((t & TLV.MORE) == TLV.MORE) {
+			int b;
+			do {
+				if (i >= end || t > 0xFFFF) {
+					return stop();
+				}
+				b = data[i++] & 0xFF;
+				t = t << 8 | b;
+			} while ((b & 0x80) != 0);
+		}
+
+		// length
+		if (i >= end) {
+			return stop();
+		}
+		int len = data[i++] & 0xFF;
+		if (len > 0x7F) {
+			final int sizeLen = len - 0x80;
+			if (sizeLen == 0 || sizeLen > 3 || i + sizeLen > end) {
+				return stop();
+			}
+			len = 0;
+			for (int j = 0; j < sizeLen; j++) {
+				len = len << 8 | data[i++] & 0xFF;
+			}
+		}
+		if (len > end - i) {
+			return stop();
+		}
+
+		this.tag = t;
+		this.offset = this.next;
+		this.valueOffset = i;
+		this.valueLength = len;
+		this.next = i + len;
+		return true;
+	}
+
+	/**
+	 * move to the next data object with the given tag, this iterates all
+	 * occurrences of a tag
+	 * 
+	 * @param tag
+	 *            - tag to find
+	 * @return <em>true</em> if found
+	 */
+	public boolean next(final int tag) {
+		while (next()) {
+			if (this.tag == tag) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * skip the rest of the range
+	 */
+	private boolean stop() {
+		this.next = this.end;
+		return false;
+	}
+
+	/**
+	 * find a nested data object by its path, the first tag is searched in
+	 * the range of this cursor, every following tag in the contents of the
+	 * data object found before
+	 * 
+	 * @param path
+	 *            - tags of the path
+	 * @return cursor positioned on the data object or <em>null</em> if not
+	 *         found, its range are the siblings of the data object
+	 */
+	public TLVCursor find(final int... path) {
+		if (path.length == 0) {
+			return null;
+		}
+		TLVCursor c = new TLVCursor(data, start, end - start);
+		for (int i = 0;; i++) {
+			if (!c.next(path[i])) {
+				return null;
+			}
+			if (i == path.length - 1) {
+				return c;
+			}
+			c = c.enter();
+		}
+	}
+
+	/**
+	 * get a copy of the contents of a nested data object
+	 * 
+	 * @param path
+	 *            - tags of the path
+	 * @return contents or <em>null</em> if not found
+	 * 
+	 * @see #find(int...)
+	 */
+	public byte[] getValue(final int... path) {
+		final TLVCursor c = find(path);
+		return c == null ? null : c.getValue();
+	}
+
+	/**
+	 * create a cursor over the contents of the current data object or of a
+	 * nested data object
+	 * 
+	 * @param path
+	 *            - tags of the path, none for the current data object
+	 * @return new cursor before the first nested data object, an empty
+	 *         cursor if the path isn't found
+	 * 
+	 * @see #find(int...)
+	 */
+	public TLVCursor enter(final int... path) {
+		if (path.length == 0) {
+			checkPosition();
+			return new TLVCursor(data, valueOffset, valueLength);
+		}
+		final TLVCursor c = find(path);
+		return c == null ? new TLVCursor(null, 0, 0) : c.enter();
+	}
+
+	/**
+	 * create an independent copy of this cursor
+	 * 
+	 * @return cursor at the same position
+	 */
+	public TLVCursor copy() {
+		return new TLVCursor(this);
+	}
+
+	/**
+	 * @return tag of the current data object
+	 */
+	public int getTag() {
+		checkPosition();
+		return tag;
+	}
+
+	/**
+	 * @return <em>true</em> if the current data object is constructed
+	 */
+	public boolean isConstructed() {
+		checkPosition();
+		return (data[offset] & TLV.CONSTRUCTED) != 0;
+	}
+
+	/**
+	 * @return the underlying array, not a copy
+	 */
+	public byte[] getArray() {
+		return data;
+	}
+
+	/**
+	 * @return offset of the contents of the current data object in
+	 *         {@link #getArray()}
+	 */
+	public int getValueOffset() {
+		checkPosition();
+		return valueOffset;
+	}
+
+	/**
+	 * @return length of the contents of the current data object
+	 */
+	public int getValueLength() {
+		checkPosition();
+		return valueLength;
+	}
+
+	/**
+	 * @return copy of the contents of the current data object
+	 */
+	public byte[] getValue() {
+		checkPosition();
+		return Arrays.copyOfRange(data, valueOffset, valueOffset + valueLength);
+	}
+
+	/**
+	 * @return contents of the current data object as unsigned big-endian
+	 *         number, the lowest 32 bits of longer contents
+	 */
+	public int getInt() {
+		checkPosition();
+		int value = 0;
+		for (int i = 0; i < valueLength; i++) {
+			value = value << 8 | data[valueOffset + i] & 0xFF;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the registered object identifier encoded in the contents of the
+	 *         current data object or <em>null</em> if unknown, nothing is
+	 *         copied
+	 */
+	public ObjectIdentifier getObjectIdentifier() {
+		checkPosition();
+		return ObjectIdentifier.lookup(data, valueOffset, valueLength);
+	}
+
+	/**
+	 * @return copy of the current data object including tag and length
+	 */
+	public byte[] getEncoded() {
+		checkPosition();
+		return Arrays.copyOfRange(data, offset, valueOffset + valueLength);
+	}
+
+	/**
+	 * compare the contents of the current data object without copying
+	 * 
+	 * @param value
+	 *            - expected contents
+	 * @return <em>true</em> if equal
+	 */
+	public boolean valueEquals(final byte[] value) {
+		checkPosition();
+		if (value == null || value.length != valueLength) {
+			return false;
+		}
+		for (int i = 0; i < valueLength; i++) {
+			if (data[valueOffset + i] != value[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * throw if the cursor isn't positioned on a data object
+	 */
+	private void checkPosition() {
+		if (tag < 0) {
+			throw new IllegalStateException("no current data object");
+		}
+	}
+}
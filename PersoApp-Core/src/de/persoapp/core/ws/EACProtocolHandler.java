@@ -54,7 +54,6 @@ import iso.std.iso_iec._24727.tech.schema.EAC2InputType;
 import iso.std.iso_iec._24727.tech.schema.EAC2OutputType;
 import iso.std.iso_iec._24727.tech.schema.EACAdditionalInputType;
 
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.cert.Certificate;
@@ -62,6 +61,7 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.persoapp.core.card.CVCertificate;
 import de.persoapp.core.card.ICardHandler;
 import de.persoapp.core.card.TransportProvider;
 import de.persoapp.core.client.EAC_Info;
@@ -330,15 +330,8 @@ public class EACProtocolHandler {
 				i++;
 				// @TODO: check with previous certificate or ignore
 
-				String CAR = null, CHR = null, certID = null;
-				try {
-					final byte[] cvcert_ = TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E);
-					CAR = new String(TLV.get(cvcert_, (byte) 0x42), "ISO-8859-1");
-					CHR = new String(TLV.get(cvcert_, (short) 0x5F20), "ISO-8859-1");
-					certID = CAR + "/" + CHR;
-				} catch (final UnsupportedEncodingException e2) {
-					e2.printStackTrace();
-				}
+				final CVCertificate cert = CVCertificate.getInstance(cvcert);
+				final String certID = cert == null ? null : cert.toString();
 
 				if (!verifiedCerts.contains(certID)) {
 					System.out.println("CVC" + i + ": " + certID);
@@ -52,6 +52,7 @@ import iso.std.iso_iec._24727.tech.schema.IFD;
 import iso.std.iso_iec._24727.tech.schema.InputAPDUInfoType;
 import iso.std.iso_iec._24727.tech.schema.TransmitResponse;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.PostConstruct;
@@ -61,6 +62,7 @@ import javax.xml.ws.WebServiceContext;
 
 import oasis.names.tc.dss._1_0.core.schema.Result;
 import de.persoapp.core.card.ICardHandler;
+import de.persoapp.core.card.TransportBatch;
 import de.persoapp.core.client.ECardSession;
 
 /**
@@ -106,8 +108,11 @@ public final class IFDService implements IFD {
 		final ICardHandler eCardHandler = session.getCardHandler(parameters.getSlotHandle());
 
 		final List<byte[]> outputAPDUList = response.getOutputAPDU();
+		final List<byte[]> batch = new ArrayList<byte[]>();
+		final List<List<byte[]>> acceptable = new ArrayList<List<byte[]>>();
+		boolean complete = true;
 		for (final InputAPDUInfoType apdu : parameters.getInputAPDUInfo()) {
-			byte[] apduMsg = apdu.getInputAPDU();
+			final byte[] apduMsg = apdu.getInputAPDU();
 			if (apduMsg != null && apduMsg.length > 0) {
 				/*
 				 * CLA = 0xFF has a special meaning as it is parsed by the
@@ -115,15 +120,27 @@ public final class IFDService implements IFD {
 				 * card. So disallow it for requests from eID server side.
 				 */
 				if (apduMsg[0] != (byte) 0xFF) {
-					apduMsg = eCardHandler.transmit(apduMsg);
-				} else {
-					apduMsg = new byte[] { 0x6D, 0x00 };
+					batch.add(apduMsg);
+					acceptable.add(apdu.getAcceptableStatusCode());
+					continue;
+				}
+
+				complete = transmit(eCardHandler, batch, acceptable, outputAPDUList);
+				if (!complete) {
+					break;
+				}
+				outputAPDUList.add(new byte[] { 0x6D, 0x00 });
+				complete = TransportBatch.isAcceptable(0x6D00, apdu.getAcceptableStatusCode());
+				if (!complete) {
+					break;
 				}
-				outputAPDUList.add(apduMsg);
 			} else {
 				System.out.println("IFD> empty APDU!");
 			}
 		}
+		if (complete) {
+			transmit(eCardHandler, batch, acceptable, outputAPDUList);
+		}
 
 		final Result result = new Result();
 		result.setResultMajor(EcAPIProvider.ECARD_API_RESULT_OK);
@@ -131,4 +148,37 @@ public final class IFDService implements IFD {
 		return response;
 	}
 
+	/**
+	 * Transmits the collected <em>APDUs</em> as one batch and clears the
+	 * batch.
+	 * 
+	 * @param eCardHandler
+	 *            - The card handler of the slot.
+	 * @param batch
+	 *            - The collected <em>APDUs</em>.
+	 * @param acceptable
+	 *            - The acceptable status codes of the collected <em>APDUs</em>.
+	 * @param outputAPDUList
+	 *            - Receives the responses.
+	 * 
+	 * @return Returns <tt>true</tt>, if all <em>APDUs</em> were processed.
+	 */
+	private static boolean transmit(final ICardHandler eCardHandler, final List<byte[]> batch,
+			final List<List<byte[]>> acceptable, final List<byte[]> outputAPDUList) {
+		if (batch.isEmpty()) {
+			return true;
+		}
+
+		final List<byte[]> responses = eCardHandler.transmitBatch(batch, acceptable);
+		outputAPDUList.addAll(responses);
+		final byte[] last = responses.isEmpty() ? null : responses.get(responses.size() - 1);
+		final boolean complete = responses.size() == batch.size()
+				&& TransportBatch.isAcceptable((last[last.length - 2] & 0xFF) << 8 | last[last.length - 1] & 0xFF,
+						acceptable.get(acceptable.size() - 1));
+
+		batch.clear();
+		acceptable.clear();
+		return complete;
+	}
+
 }
@@ -78,6 +78,7 @@ import javax.xml.ws.WebServiceContext;
 
 import oasis.names.tc.dss._1_0.core.schema.Result;
 import de.persoapp.core.ECardWorker;
+import de.persoapp.core.card.CVCertificate;
 import de.persoapp.core.card.ICardHandler;
 import de.persoapp.core.card.TransportProvider;
 import de.persoapp.core.client.EAC_Info;
@@ -428,8 +429,8 @@ public class SALService implements SAL {
 			boolean foundCAReference = false;
 			for (final byte[] CAR : eCardHandler.getCAReferences()) {
 				for (final byte[] cvcert : cvcerts) {
-					if (Arrays.equals(CAR,
-							TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E), (byte) 0x42))) {
+					final CVCertificate cert = CVCertificate.getInstance(cvcert);
+					if (cert != null && cert.isIssuedBy(CAR)) {
 						foundCAReference = true;
 						break;
 					}
@@ -460,7 +461,7 @@ public class SALService implements SAL {
 			final List<byte[]> eac2certs = eac2in.getCertificate();
 
 			for (final byte[] cvcert : eac1certs) {
-				final byte[] CARCert = TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E), (byte) 0x42);
+				final byte[] CARCert = CVCertificate.getInstance(cvcert).getCAR();
 				certMap.put(ByteBuffer.wrap(CARCert), cvcert);
 			}
 
@@ -484,24 +485,16 @@ public class SALService implements SAL {
 							continue;
 						}
 						try {
-							final byte[] cvcert_ = TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E);
-							final byte[] CARCert = TLV.get(cvcert_, (byte) 0x42);
-							final byte[] CHRCert = TLV.get(cvcert_, (short) 0x5F20);
-
-							final byte[] chat = TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E),
-									(short) 0x7F4C);
-							final byte[] oid = TLV.get(chat, (byte) 0x06); // IS, AT, ST, etc.
-							final byte[] auth = TLV.get(chat, (byte) 0x53);
-
-							if (auth != null && (auth[0] & (byte) 0xC0) == 0x00) {
-								if (ArrayTool.arrayequal(certMap.get(ByteBuffer.wrap(CARCert)), cvcert)) {
-									System.out.println("WARNING: AT-Certificate with ID " + CARCert + "/" + CHRCert
-											+ " doubled.");
+							final CVCertificate cert = CVCertificate.getInstance(cvcert);
+
+							// the OID of the CHAT is IS, AT, ST, etc.
+							if (cert.isTerminal()) {
+								if (ArrayTool.arrayequal(certMap.get(ByteBuffer.wrap(cert.getCAR())), cvcert)) {
+									System.out.println("WARNING: AT-Certificate with ID " + cert + " doubled.");
 									validMode = true;
 									continue;
 								} else {
-									System.out.println("ERROR: AT-Certificate with ID " + CARCert + "/" + CHRCert
-											+ " is different.");
+									System.out.println("ERROR: AT-Certificate with ID " + cert + " is different.");
 								}
 								// is DVCA / CVCA
 							} else {
@@ -530,24 +523,17 @@ public class SALService implements SAL {
 							continue;
 						}
 
-						final byte[] cvcert_ = TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E);
-						final byte[] CARCert = TLV.get(cvcert_, (byte) 0x42);
-						final byte[] CHRCert = TLV.get(cvcert_, (short) 0x5F20);
-
-						final byte[] chat = TLV.get(TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E),
-								(short) 0x7F4C);
-						final byte[] oid = TLV.get(chat, (byte) 0x06); // IS, AT, ST, etc.
-						final byte[] auth = TLV.get(chat, (byte) 0x53);
+						final CVCertificate cert = CVCertificate.getInstance(cvcert);
+						final byte[] CARCert = cert.getCAR();
 
+						// the OID of the CHAT is IS, AT, ST, etc.
 						// is AT/IS/ST
-						if (auth != null && (auth[0] & (byte) 0xC0) == 0x00) {
+						if (cert.isTerminal()) {
 							if (ArrayTool.arrayequal(certMap.get(ByteBuffer.wrap(CARCert)), cvcert)) {
-								System.out.println("WARNING: AT-Certificate with ID " + CARCert + "/" + CHRCert
-										+ " doubled.");
+								System.out.println("WARNING: AT-Certificate with ID " + cert + " doubled.");
 								continue;
 							} else {
-								System.out.println("ERROR: AT-Certificate with ID " + CARCert + "/" + CHRCert
-										+ " is different.");
+								System.out.println("ERROR: AT-Certificate with ID " + cert + " is different.");
 								validMode = false;
 								root = null;
 								break;
@@ -555,8 +541,7 @@ public class SALService implements SAL {
 							// is DVCA / CVCA
 						} else {
 							if (certMap.put(ByteBuffer.wrap(CARCert), cvcert) != null) {
-								System.out.println("WARNING: DV-Certificate with ID " + CARCert + "/" + CHRCert
-										+ " doubled.");
+								System.out.println("WARNING: DV-Certificate with ID " + cert + " doubled.");
 								// Kept as reminder
 								// validMode = false;
 								// root = null;
@@ -582,10 +567,9 @@ public class SALService implements SAL {
 				byte[] cvcert = null;
 
 				while ((cvcert = certMap.get(ByteBuffer.wrap(root))) != null) {
-					final byte[] cvcert_ = TLV.get(TLV.get(cvcert, (short) 0x7F21), (short) 0x7F4E);
-					final byte[] CAR = TLV.get(cvcert_, (byte) 0x42);
-					final byte[] CHR = TLV.get(cvcert_, (short) 0x5F20);
-					String certName = new String(CAR) + "/" + new String(CHR);
+					final CVCertificate cert = CVCertificate.getInstance(cvcert);
+					final byte[] CHR = cert.getCHR();
+					String certName = cert.toString();
 
 					System.out.println("CVC: " + certName + " = " + Hex.toString(cvcert));
 					if (eCardHandler.verifyCertificate(cvcert)) {
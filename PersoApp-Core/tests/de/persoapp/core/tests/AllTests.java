@@ -53,18 +53,31 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import de.persoapp.core.tests.core.ECardWorkerTest;
+import de.persoapp.core.tests.core.card.ApduTraceTest;
 import de.persoapp.core.tests.core.card.CMacTest;
+import de.persoapp.core.tests.core.card.CVCertificateTest;
+import de.persoapp.core.tests.core.card.CardEmulatorTest;
+import de.persoapp.core.tests.core.card.CardHandlerPoolTest;
+import de.persoapp.core.tests.core.card.CardInfoCacheTest;
+import de.persoapp.core.tests.core.card.CardMonitorTest;
 import de.persoapp.core.tests.core.card.CardHandlerTest;
 import de.persoapp.core.tests.core.card.EC_GlobalsTest;
+import de.persoapp.core.tests.core.card.FastCurveTest;
+import de.persoapp.core.tests.core.card.PACEKeyPoolTest;
+import de.persoapp.core.tests.core.card.PaceEngineTest;
+import de.persoapp.core.tests.core.card.PersoSimTransportTest;
 import de.persoapp.core.tests.core.card.ISOSMTransportTest;
 import de.persoapp.core.tests.core.card.JSCIOTransportTest;
 import de.persoapp.core.tests.core.card.PACETest;
+import de.persoapp.core.tests.core.card.SecureMessagingTest;
+import de.persoapp.core.tests.core.card.TransportBatchTest;
 import de.persoapp.core.tests.core.client.EAC_InfoTest;
 import de.persoapp.core.tests.core.client.ECardSessionTest;
 import de.persoapp.core.tests.core.client.IMainViewTest;
 import de.persoapp.core.tests.core.client.MainViewEventListenerTest;
 import de.persoapp.core.tests.core.client.PropertyResolverTest;
 import de.persoapp.core.tests.core.client.SecureHolderTest;
+import de.persoapp.core.tests.core.paos.MiniHttpClientLoopbackTest;
 import de.persoapp.core.tests.core.paos.MiniHttpClientTest;
 import de.persoapp.core.tests.core.paos.PAOSInitiatorFactoryTest;
 import de.persoapp.core.tests.core.paos.PAOSInitiatorTest;
@@ -75,8 +88,12 @@ import de.persoapp.core.tests.core.tls.BCTlsSocketImplTest;
 import de.persoapp.core.tests.core.tls.TLSClientTest;
 import de.persoapp.core.tests.core.tls.TLSPSKClientTest;
 import de.persoapp.core.tests.core.util.ArrayToolTest;
+import de.persoapp.core.tests.core.util.DERWriterTest;
+import de.persoapp.core.tests.core.util.HexCodecTest;
 import de.persoapp.core.tests.core.util.HexTest;
 import de.persoapp.core.tests.core.util.MyHexBinaryAdapterTest;
+import de.persoapp.core.tests.core.util.ObjectIdentifierTest;
+import de.persoapp.core.tests.core.util.TLVCursorTest;
 import de.persoapp.core.tests.core.util.TLVTest;
 import de.persoapp.core.tests.core.util.UtilTest;
 import de.persoapp.core.tests.core.ws.WebServiceTest;
@@ -101,7 +118,13 @@ import de.persoapp.core.tests.core.ws.engine.WSEndpointTest;
 		BCTlsAuthenticationTest.class, BCTlsSessionTest.class,
 		BCTlsSocketFactoryImplTest.class, BCTlsSocketImplTest.class,
 		TLSClientTest.class, TLSPSKClientTest.class, WSContainerTest.class,
-		WSEndpointTest.class,TLVTest.class })
+		WSEndpointTest.class,TLVTest.class, SecureMessagingTest.class,
+		TransportBatchTest.class, CardInfoCacheTest.class,
+		CardMonitorTest.class, CardHandlerPoolTest.class, FastCurveTest.class,
+		PACEKeyPoolTest.class, PaceEngineTest.class,
+		PersoSimTransportTest.class, CardEmulatorTest.class, ApduTraceTest.class, TLVCursorTest.class,
+		DERWriterTest.class, ObjectIdentifierTest.class, CVCertificateTest.class,
+		HexCodecTest.class, MiniHttpClientLoopbackTest.class })
 public class AllTests {
 
 }
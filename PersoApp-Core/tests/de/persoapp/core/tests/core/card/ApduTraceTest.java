@@ -0,0 +1,313 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.ApduTrace;
+import de.persoapp.core.card.CardEmulator;
+import de.persoapp.core.card.CardEmulatorProfile;
+import de.persoapp.core.card.CardHandler;
+import de.persoapp.core.card.DefaultPaceEngine;
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.PACE;
+import de.persoapp.core.card.PACEKeyPool;
+import de.persoapp.core.card.RecordingTransport;
+import de.persoapp.core.card.ReplayTransport;
+import de.persoapp.core.card.TransportProvider;
+import de.persoapp.core.client.SecureHolder;
+import de.persoapp.core.tests.util.TestMainView;
+
+/**
+ * Testcases facing {@link ApduTrace}, {@link RecordingTransport} and
+ * {@link ReplayTransport}. The recorded card is a {@link CardEmulator}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ApduTraceTest {
+
+	@Rule
+	public TestWatcher				watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static final byte[]		SELECT_MF	= new byte[] { 0x00, (byte) 0xA4, 0x00, 0x0C, 0x02, 0x3F, 0x00 };
+
+	private static final byte[]		READ_EFCA	= new byte[] { 0x00, (byte) 0xB0, (byte) 0x9C, 0x00, 0x00, 0x00,
+			0x00								};
+
+	private static final byte[]		READ_EFCS	= new byte[] { 0x00, (byte) 0xB0, (byte) 0x9D, 0x00, 0x00 };
+
+	@Before
+	public void setUp() {
+		PACE.setRandomSource(null);
+		CardHandler.setPaceEngine(null);
+	}
+
+	@After
+	public void tearDown() {
+		PACE.setRandomSource(null);
+		CardHandler.setPaceEngine(null);
+	}
+
+	private static File createTraceFile() throws Exception {
+		final File file = File.createTempFile("apdu", ".trace");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Records exchanges with an emulated card.
+	 */
+	private static File record(final CardEmulatorProfile profile) throws Exception {
+		final File file = createTraceFile();
+		final ApduTrace trace = new ApduTrace(file);
+		final RecordingTransport tp = new RecordingTransport(new CardEmulator(profile), trace);
+		tp.transmit(SELECT_MF);
+		tp.transmit(READ_EFCA);
+		tp.transmitBatch(Arrays.asList(SELECT_MF, READ_EFCS), null);
+		trace.close();
+		return file;
+	}
+
+	/**
+	 * Changes the PIN through a card handler with PACE on the given
+	 * transport.
+	 */
+	private static int changePIN(final TransportProvider transport) throws Exception {
+		CardHandler.getCardInfoCache().clear();
+		final CardHandler handler = new CardHandler(TestMainView.getInstance(CardEmulatorProfile.DEFAULT_PIN)) {
+			@Override
+			protected TransportProvider getHALTransport() {
+				return transport;
+			}
+		};
+		final TransportProvider tp = handler.getECard();
+		return handler.doPINChange(tp, (byte) 0x03, new SecureHolder(CardEmulatorProfile.DEFAULT_PIN.getBytes()),
+				(byte) 0x03, new SecureHolder("654321".getBytes()));
+	}
+
+	/**
+	 * The card layer of a trace.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Record single commands and a batch sent to an emulated card.</li>
+	 * <li>Load the trace.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The trace holds the commands, responses and status words in
+	 * order.</li>
+	 * <li>The maximum response length is the one of the recorded card.</li>
+	 * <li>The exchanges start in order and the plain layer is empty.</li>
+	 * </ul>
+	 */
+	@Test
+	public void apduTraceTest_1() throws Exception {
+		final CardEmulatorProfile profile = new CardEmulatorProfile();
+		final ApduTrace trace = ApduTrace.load(record(profile));
+		assertEquals(CardEmulator.MAX_LENGTH, trace.getMaxResponseLength());
+		assertTrue(trace.getEntries(ApduTrace.LAYER_PLAIN).isEmpty());
+
+		final List<ApduTrace.Entry> entries = trace.getEntries(ApduTrace.LAYER_CARD);
+		assertEquals(4, entries.size());
+		assertArrayEquals(READ_EFCA, entries.get(1).getCommand());
+		assertArrayEquals(profile.getEFCardAccess(), entries.get(1).getResponse());
+		assertEquals(0x9000, entries.get(1).getSW());
+		assertArrayEquals(READ_EFCS, entries.get(3).getCommand());
+		assertEquals(0x6982, entries.get(3).getSW());
+		for (int i = 1; i < entries.size(); i++) {
+			assertTrue(entries.get(i - 1).getStart() <= entries.get(i).getStart());
+		}
+	}
+
+	/**
+	 * A trace is readable while it is written.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Record enough exchanges to enlarge the mapped region.</li>
+	 * <li>Load the trace without closing it.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>All recorded exchanges are loaded.</li>
+	 * </ul>
+	 */
+	@Test
+	public void apduTraceTest_2() throws Exception {
+		final File file = createTraceFile();
+		final ApduTrace trace = new ApduTrace(file);
+		final byte[] response = new byte[1000];
+		for (int i = 0; i < 200; i++) {
+			trace.record(ApduTrace.LAYER_PLAIN, new byte[] { 0x00, (byte) 0xB0, 0x00, (byte) i }, response, 0x9000,
+					trace.now());
+		}
+
+		final List<ApduTrace.Entry> entries = ApduTrace.load(file).getEntries(ApduTrace.LAYER_PLAIN);
+		assertEquals(200, entries.size());
+		assertEquals((byte) 199, entries.get(199).getCommand()[3]);
+		assertEquals(1000, entries.get(199).getResponse().length);
+		trace.close();
+	}
+
+	/**
+	 * The replay of a trace.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Replay the recorded commands.</li>
+	 * <li>Send a command differing from the trace.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The replay answers with the recorded responses and status
+	 * words.</li>
+	 * <li>The differing command is refused with an
+	 * {@link IllegalStateException}.</li>
+	 * </ul>
+	 */
+	@Test
+	public void apduTraceTest_3() throws Exception {
+		final CardEmulatorProfile profile = new CardEmulatorProfile();
+		final File file = record(profile);
+
+		final ReplayTransport replay = ReplayTransport.open(file, 1);
+		assertEquals(4, replay.remaining());
+		replay.transmit(SELECT_MF);
+		assertEquals(0x9000, replay.lastSW());
+		assertArrayEquals(profile.getEFCardAccess(), replay.transmit(READ_EFCA));
+		final List<byte[]> responses = replay.transmitBatch(Arrays.asList(SELECT_MF, READ_EFCS), null);
+		assertEquals(2, responses.size());
+		assertEquals(0x6982, replay.lastSW());
+		assertEquals(0, replay.remaining());
+
+		final ReplayTransport other = ReplayTransport.open(file, 0);
+		try {
+			other.transmit(READ_EFCA);
+			fail("command differs from trace");
+		} catch (final IllegalStateException e) {
+			assertEquals(4, other.remaining());
+		}
+	}
+
+	/**
+	 * The deterministic replay of PACE and secure messaging.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Change the PIN of an emulated card through the card handler with a
+	 * seeded random source and record the exchange.</li>
+	 * <li>Replay the trace with the same seed.</li>
+	 * <li>Replay the trace with another seed.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The unprotected commands are recorded in the plain layer.</li>
+	 * <li>The replay with the same seed succeeds with all exchanges.</li>
+	 * <li>The replay with another seed differs from the trace.</li>
+	 * </ul>
+	 */
+	@Test
+	public void apduTraceTest_4() throws Exception {
+		CardHandler.setPaceEngine(new DefaultPaceEngine(null));
+		final File file = createTraceFile();
+		final ApduTrace trace = new ApduTrace(file);
+		PACE.setRandomSource(new Random(42));
+		assertEquals(0x9000, changePIN(new RecordingTransport(new CardEmulator(new CardEmulatorProfile()), trace)));
+		trace.close();
+
+		final ApduTrace loaded = ApduTrace.load(file);
+		final List<ApduTrace.Entry> plain = loaded.getEntries(ApduTrace.LAYER_PLAIN);
+		assertTrue(plain.size() > 0);
+		assertEquals(0x2C, plain.get(plain.size() - 1).getCommand()[1]);
+		assertNull(CardHandler.getCardEmulatorProfile());
+
+		PACE.setRandomSource(new Random(42));
+		final ReplayTransport replay = new ReplayTransport(loaded, 0);
+		assertEquals(0x9000, changePIN(replay));
+		assertEquals(0, replay.remaining());
+
+		PACE.setRandomSource(new Random(43));
+		final ReplayTransport other = new ReplayTransport(loaded, 0);
+		try {
+			changePIN(other);
+			fail("PACE differs from trace");
+		} catch (final IllegalStateException e) {
+			assertTrue(other.remaining() > 0);
+		}
+	}
+
+	/**
+	 * The deterministic replay with the pooled default engine.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Fill the shared key pool without a seed.</li>
+	 * <li>Change the PIN of an emulated card with a seeded random source and
+	 * record the exchange.</li>
+	 * <li>Replay the trace with the same seed.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The pooled key pairs are left untouched while the seed is set.</li>
+	 * <li>The replay succeeds with all exchanges.</li>
+	 * </ul>
+	 */
+	@Test
+	public void apduTraceTest_5() throws Exception {
+		final PACEKeyPool pool = CardHandler.getPACEKeyPool();
+		CardHandler.setPaceEngine(new DefaultPaceEngine(pool));
+		pool.prepare(EC_Globals.getCurve(new CardEmulatorProfile().getCurveID()));
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (pool.size() < pool.getCapacity() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(pool.getCapacity(), pool.size());
+
+		final File file = createTraceFile();
+		final ApduTrace trace = new ApduTrace(file);
+		PACE.setRandomSource(new Random(42));
+		assertEquals(0x9000, changePIN(new RecordingTransport(new CardEmulator(new CardEmulatorProfile()), trace)));
+		trace.close();
+		assertEquals(pool.getCapacity(), pool.size());
+
+		PACE.setRandomSource(new Random(42));
+		final ReplayTransport replay = new ReplayTransport(ApduTrace.load(file), 0);
+		assertEquals(0x9000, changePIN(replay));
+		assertEquals(0, replay.remaining());
+	}
+}
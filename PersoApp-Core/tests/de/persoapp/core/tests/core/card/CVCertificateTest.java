@@ -0,0 +1,186 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CVCertificate;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Testcases facing {@link CVCertificate}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CVCertificateTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static final byte[]	CAR		= "DEDVeIDDTR101".getBytes();
+
+	private static final byte[]	CHR		= "DEDEMOPAA00002".getBytes();
+
+	private static final byte[]	HASH	= Hex.fromString("0102030405060708090A0B0C0D0E0F10");
+
+	/**
+	 * Creates a certificate with the given relative authorization and a
+	 * description extension.
+	 */
+	private static byte[] certificate(final byte[] chr, final int authorization) {
+		final byte[] chat = TLV.build(0x7F4C, TLV.concat(TLV.buildOID("04007F000703010202", new byte[0]), TLV.build(
+				0x53, new byte[] { (byte) authorization, 0x00, 0x00, 0x08, 0x01 })));
+		final byte[] extensions = TLV.build(0x65, TLV.build(0x73, TLV.buildOID("04007F000703010301", TLV.build(0x80,
+				HASH))));
+		byte[] body = TLV.concat(TLV.build(0x5F29, new byte[] { 0x00 }), TLV.build(0x42, CAR));
+		body = TLV.concat(body, TLV.build(0x7F49, TLV.build(0x86, new byte[65])));
+		body = TLV.concat(body, TLV.concat(TLV.build(0x5F20, chr), chat));
+		body = TLV.concat(body, TLV.concat(TLV.build(0x5F25, new byte[] { 1, 4, 0, 1, 1, 5 }), TLV.build(0x5F24,
+				new byte[] { 1, 4, 0, 2, 2, 8 })));
+		body = TLV.concat(body, extensions);
+		return TLV.build(0x7F21, TLV.concat(TLV.build(0x7F4E, body), TLV.build(0x5F37, new byte[64])));
+	}
+
+	/**
+	 * Decoding of the certificate fields.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Parse a terminal and a DV certificate.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>References, role, dates and extension equal the encoded values.</li>
+	 * <li>Only the terminal certificate is a terminal certificate.</li>
+	 * <li>The digest is the SHA-256 hash of the encoded certificate.</li>
+	 * </ul>
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void cvCertificateTest_1() throws Exception {
+		final byte[] encoded = certificate(CHR, 0x00);
+		final CVCertificate cert = CVCertificate.getInstance(encoded);
+
+		assertArrayEquals(CAR, cert.getCAR());
+		assertArrayEquals(CHR, cert.getCHR());
+		assertEquals("DEDVeIDDTR101/DEDEMOPAA00002", cert.toString());
+		assertTrue(cert.isIssuedBy(CAR));
+		assertFalse(cert.isIssuedBy(CHR));
+		assertSame(ObjectIdentifier.AUTHENTICATION_TERMINAL, cert.getRole());
+		assertTrue(cert.isTerminal());
+		assertArrayEquals(HASH, cert.getExtension(ObjectIdentifier.DESCRIPTION));
+		assertNull(cert.getExtension(ObjectIdentifier.SECTOR));
+
+		final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		assertEquals("2014-01-15 00:00:00.000", sdf.format(cert.getEffectiveDate()));
+		assertEquals("2014-02-28 23:59:59.999", sdf.format(cert.getExpirationDate()));
+
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(encoded), cert.getDigest());
+		assertArrayEquals(encoded, cert.getEncoded());
+
+		assertFalse(CVCertificate.getInstance(certificate(CHR, 0xC0)).isTerminal());
+	}
+
+	/**
+	 * Caching of parsed certificates.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Get the same certificate twice from different arrays.</li>
+	 * <li>Modify the array of a parsed certificate.</li>
+	 * <li>Shrink and disable the cache.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The same instance is returned for equal certificates.</li>
+	 * <li>The parsed certificate isn't affected by modifications.</li>
+	 * <li>The least recently used certificates are evicted, a disabled cache
+	 * parses every time.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cvCertificateTest_2() {
+		CVCertificate.clearCache();
+		try {
+			final byte[] encoded = certificate(CHR, 0x00);
+			final CVCertificate cert = CVCertificate.getInstance(encoded);
+			assertSame(cert, CVCertificate.getInstance(encoded.clone()));
+			encoded[encoded.length - 1] ^= 1;
+			assertArrayEquals(certificate(CHR, 0x00), cert.getEncoded());
+			assertNotSame(cert, CVCertificate.getInstance(encoded));
+			assertEquals(2, CVCertificate.getCachedCount());
+
+			final CVCertificate other = CVCertificate.getInstance(certificate("DEDEMOPAA00003".getBytes(), 0x00));
+			CVCertificate.getInstance(certificate(CHR, 0x00));
+			CVCertificate.setCacheSize(2);
+			assertEquals(2, CVCertificate.getCachedCount());
+			assertSame(cert, CVCertificate.getInstance(certificate(CHR, 0x00)));
+			assertSame(other, CVCertificate.getInstance(certificate("DEDEMOPAA00003".getBytes(), 0x00)));
+
+			CVCertificate.setCacheSize(0);
+			assertEquals(0, CVCertificate.getCachedCount());
+			assertNotSame(cert, CVCertificate.getInstance(certificate(CHR, 0x00)));
+			assertEquals(cert, CVCertificate.getInstance(certificate(CHR, 0x00)));
+		} finally {
+			CVCertificate.setCacheSize(CVCertificate.DEFAULT_CACHE_SIZE);
+		}
+	}
+
+	/**
+	 * Malformed certificates.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Parse <em>null</em>, data without certificate, a certificate
+	 * without body and a body without CHR.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>No certificate is returned.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cvCertificateTest_3() {
+		assertNull(CVCertificate.getInstance(null));
+		assertNull(CVCertificate.getInstance(Hex.fromString("8001AA")));
+		assertNull(CVCertificate.getInstance(TLV.build(0x7F21, TLV.build(0x5F37, new byte[64]))));
+		assertNull(CVCertificate.getInstance(TLV.build(0x7F21, TLV.build(0x7F4E, TLV.build(0x42, CAR)))));
+	}
+}
@@ -0,0 +1,571 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CMac;
+import de.persoapp.core.card.CardEmulator;
+import de.persoapp.core.card.CardEmulatorProfile;
+import de.persoapp.core.card.CardHandler;
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.FastCurve;
+import de.persoapp.core.card.ISOSMTransport;
+import de.persoapp.core.card.PACE;
+import de.persoapp.core.card.TransportProvider;
+import de.persoapp.core.client.SecureHolder;
+import de.persoapp.core.tests.util.TestMainView;
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Testcases facing {@link CardEmulator}. The terminal side of PACE, terminal
+ * authentication and chip authentication is implemented with the classes of
+ * the client, the certificates are created by the testcases.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CardEmulatorTest {
+
+	@Rule
+	public TestWatcher				watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static final String		OID_PACE	= "04007F00070202040202";
+
+	private static final String		OID_CA		= "04007F00070202030202";
+
+	private static final String		OID_TA		= "04007F00070202020203";
+
+	private static final String		OID_AGE		= "04007F000703010401";
+
+	private static final SecureRandom	RANDOM	= new SecureRandom();
+
+	/**
+	 * Authorization of an authentication terminal: age verification and
+	 * data group 4.
+	 */
+	private static final byte[]		CHAT		= new byte[] { 0x00, 0x00, 0x00, 0x08, 0x01 };
+
+	private final ECParameterSpec	curve		= EC_Globals.getCurve(CardEmulatorProfile.DEFAULT_CURVE);
+
+	/** The x-coordinate of the ephemeral key of the card of the last PACE. */
+	private byte[]					idPICC;
+
+	/** The references of the certification authorities of the last PACE. */
+	private byte[]					car;
+
+	@After
+	public void tearDown() {
+		CardHandler.setCardEmulatorProfile(null);
+	}
+
+	/**
+	 * Performs PACE as terminal.
+	 * 
+	 * @return Returns the secure messaging transport on the card or
+	 *         <strong>null</strong>, if PACE failed.
+	 */
+	private ISOSMTransport pace(final TransportProvider tp, final CardEmulator card, final int keyRef,
+			final String password, final byte[] chat) throws Exception {
+		byte[] mse = TLV.concat(TLV.build(0x80, Hex.fromString(OID_PACE)), TLV.build(0x83,
+				new byte[] { (byte) keyRef }));
+		if (chat != null) {
+			mse = TLV.concat(mse, TLV.build(0x7F4C, TLV.concat(TLV.build(0x06, Hex.fromString("04007F000703010202")),
+					TLV.build(0x53, chat))));
+		}
+		tp.transmit(command(0x00, 0x22, 0xC1, 0xA4, mse, -1));
+
+		byte[] rsp = generalAuthenticate(tp, new byte[0], false);
+		if (rsp == null) {
+			return null;
+		}
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(kdf(password.getBytes("US-ASCII"), null, 3), "AES"),
+				new IvParameterSpec(new byte[16]));
+		final PACE pace = new PACE(curve, new BigInteger(1, c.doFinal(TLV.get(rsp, (byte) 0x80))));
+
+		rsp = generalAuthenticate(tp, TLV.build(0x81, pace.init()), false);
+		final byte[] terminalKey = pace.step(TLV.get(rsp, (byte) 0x82));
+		rsp = generalAuthenticate(tp, TLV.build(0x83, terminalKey), false);
+		final byte[] cardKey = TLV.get(rsp, (byte) 0x84);
+		final byte[][] result = pace.finish(cardKey);
+		final byte[] kEnc = kdf(result[1], null, 1);
+		final byte[] kMac = kdf(result[1], null, 2);
+
+		rsp = generalAuthenticate(tp, TLV.build(0x85, authToken(kMac, OID_PACE, cardKey)), true);
+		if (rsp == null) {
+			return null;
+		}
+		assertArrayEquals(authToken(kMac, OID_PACE, terminalKey), TLV.get(rsp, (byte) 0x86));
+		idPICC = result[0];
+		car = TLV.get(rsp, (byte) 0x87);
+
+		final ISOSMTransport sm = new ISOSMTransport(card);
+		sm.setupKeys(kEnc, kMac);
+		return sm;
+	}
+
+	/**
+	 * Performs chip authentication as terminal.
+	 * 
+	 * @return Returns the secure messaging transport with the new keys.
+	 */
+	private ISOSMTransport chipAuthentication(final TransportProvider tp, final CardEmulator card,
+			final CardEmulatorProfile profile, final PACE.KeyPair ephemeralKey) throws Exception {
+		tp.transmit(command(0x00, 0x22, 0x41, 0xA4, TLV.build(0x80, Hex.fromString(OID_CA)), -1));
+		assertEquals(0x9000, tp.lastSW());
+		final byte[] rsp = generalAuthenticate(tp, TLV.build(0x80, ephemeralKey.getPublicKey()), true);
+		assertNotNull(rsp);
+
+		final PACE ca = new PACE(curve, BigInteger.ONE);
+		ca.init(ephemeralKey);
+		final byte[] sharedSecret = ca.computeSharedSecret(profile.getCAKey().getPublicKey());
+		final byte[] nonce = TLV.get(rsp, (byte) 0x81);
+		final byte[] kEnc = kdf(sharedSecret, nonce, 1);
+		final byte[] kMac = kdf(sharedSecret, nonce, 2);
+		assertArrayEquals(authToken(kMac, OID_CA, ephemeralKey.getPublicKey()), TLV.get(rsp, (byte) 0x82));
+
+		final ISOSMTransport sm = new ISOSMTransport(card);
+		sm.setupKeys(kEnc, kMac);
+		return sm;
+	}
+
+	/**
+	 * Performs terminal authentication with the terminal key.
+	 * 
+	 * @return Returns the status word of EXTERNAL AUTHENTICATE.
+	 */
+	private int terminalAuthentication(final TransportProvider tp, final byte[] chr, final BigInteger terminalKey,
+			final PACE.KeyPair ephemeralKey, final byte[] aux, final boolean forge) throws Exception {
+		final byte[] comp = ArrayTool.subArray(ephemeralKey.getPublicKey(), 1,
+				(ephemeralKey.getPublicKey().length - 1) / 2);
+		tp.transmit(command(0x00, 0x22, 0x81, 0xA4, TLV.concat(TLV.concat(TLV.build(0x80, Hex.fromString(OID_TA)),
+				TLV.build(0x83, chr)), TLV.concat(TLV.build(0x91, comp), aux)), -1));
+		assertEquals(0x9000, tp.lastSW());
+
+		final byte[] challenge = tp.transmit(new byte[] { 0x00, (byte) 0x84, 0x00, 0x00, 0x08 });
+		assertEquals(8, challenge.length);
+		final byte[] signature = sign(terminalKey, TLV.concat(TLV.concat(idPICC, challenge), TLV.concat(comp, aux)));
+		if (forge) {
+			signature[signature.length - 1] ^= 1;
+		}
+		tp.transmit(command(0x00, 0x82, 0x00, 0x00, signature, -1));
+		return tp.lastSW();
+	}
+
+	/**
+	 * Sends a certificate to the card.
+	 * 
+	 * @return Returns the status word of PSO VERIFY CERTIFICATE.
+	 */
+	private static int verifyCertificate(final TransportProvider tp, final byte[] cert) {
+		final byte[] content = TLV.get(cert, (short) 0x7F21);
+		final byte[] body = TLV.get(content, (short) 0x7F4E);
+		tp.transmit(command(0x00, 0x22, 0x81, 0xB6, TLV.build(0x83, TLV.get(body, (byte) 0x42)), -1));
+		if (tp.lastSW() != 0x9000) {
+			return tp.lastSW();
+		}
+		tp.transmit(command(0x00, 0x2A, 0x00, 0xBE, content, -1));
+		return tp.lastSW();
+	}
+
+	/**
+	 * Creates a certificate on the curve of the card.
+	 */
+	private byte[] certificate(final String car, final String chr, final BigInteger signerKey,
+			final BigInteger holderKey, final boolean domainParameters, final byte[] chat) throws Exception {
+		final int len = (curve.getCurve().getField().getFieldSize() + 7) / 8;
+		byte[] publicKey = TLV.build(0x06, Hex.fromString(OID_TA));
+		if (domainParameters) {
+			final byte[] g = TLV.concat(new byte[] { 0x04 }, TLV.concat(unsigned(curve.getGenerator().getAffineX(),
+					len), unsigned(curve.getGenerator().getAffineY(), len)));
+			publicKey = TLV.concat(publicKey, TLV.concat(
+					TLV.concat(TLV.build(0x81, unsigned(((ECFieldFp) curve.getCurve().getField()).getP(), len)),
+							TLV.build(0x82, unsigned(curve.getCurve().getA(), len))),
+					TLV.concat(TLV.concat(TLV.build(0x83, unsigned(curve.getCurve().getB(), len)), TLV.build(0x84, g)),
+							TLV.concat(TLV.build(0x85, unsigned(curve.getOrder(), len)), TLV.build(0x87,
+									new byte[] { 0x01 })))));
+		}
+		publicKey = TLV.concat(publicKey, TLV.build(0x86, encode(new FastCurve(curve).multiplyGenerator(holderKey))));
+
+		byte[] body = TLV.concat(TLV.build(0x5F29, new byte[] { 0x00 }), TLV.build(0x42, car.getBytes("US-ASCII")));
+		body = TLV.concat(body, TLV.concat(TLV.build(0x7F49, publicKey), TLV.build(0x5F20, chr.getBytes("US-ASCII"))));
+		body = TLV.concat(body, TLV.build(0x7F4C, TLV.concat(TLV.build(0x06, Hex.fromString("04007F000703010202")),
+				TLV.build(0x53, chat))));
+		body = TLV.build(0x7F4E, body);
+		return TLV.build(0x7F21, TLV.concat(body, TLV.build(0x5F37, sign(signerKey, body))));
+	}
+
+	private static byte[] command(final int cla, final int ins, final int p1, final int p2, final byte[] data,
+			final int le) {
+		byte[] apdu = new byte[] { (byte) cla, (byte) ins, (byte) p1, (byte) p2, 0, (byte) (data.length >> 8),
+				(byte) data.length };
+		apdu = TLV.concat(apdu, data);
+		if (le >= 0) {
+			apdu = TLV.concat(apdu, new byte[] { (byte) (le >> 8), (byte) le });
+		}
+		return apdu;
+	}
+
+	private static byte[] generalAuthenticate(final TransportProvider tp, final byte[] data, final boolean last) {
+		final byte[] rsp = tp.transmit(command(last ? 0x00 : 0x10, 0x86, 0x00, 0x00, TLV.build(0x7C, data), 0));
+		return tp.lastSW() == 0x9000 ? TLV.get(rsp, (byte) 0x7C) : null;
+	}
+
+	private static byte[] kdf(final byte[] secret, final byte[] nonce, final int counter) throws Exception {
+		final MessageDigest md = MessageDigest.getInstance("SHA-1");
+		md.update(secret);
+		if (nonce != null) {
+			md.update(nonce);
+		}
+		md.update(new byte[] { 0, 0, 0, (byte) counter });
+		return ArrayTool.subArray(md.digest(), 0, 16);
+	}
+
+	private static byte[] authToken(final byte[] kMac, final String oid, final byte[] key) throws Exception {
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kMac, "AES"), new IvParameterSpec(new byte[16]));
+		final CMac cmac = new CMac(c, 8);
+		final byte[] token = TLV.build(0x7F49, TLV.buildOID(oid, TLV.build(0x86, key)));
+		cmac.update(token, 0, token.length);
+		return cmac.doFinal();
+	}
+
+	/**
+	 * Creates a plain ECDSA signature with SHA-256.
+	 */
+	private byte[] sign(final BigInteger key, final byte[] message) throws Exception {
+		final BigInteger n = curve.getOrder();
+		final BigInteger e = new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(message));
+		final int len = (n.bitLength() + 7) / 8;
+		while (true) {
+			final BigInteger k = new BigInteger(n.bitLength() - 1, RANDOM);
+			if (k.signum() == 0) {
+				continue;
+			}
+			final BigInteger r = new FastCurve(curve).multiplyGenerator(k)[0].mod(n);
+			final BigInteger s = k.modInverse(n).multiply(e.add(r.multiply(key))).mod(n);
+			if (r.signum() != 0 && s.signum() != 0) {
+				return TLV.concat(unsigned(r, len), unsigned(s, len));
+			}
+		}
+	}
+
+	private byte[] encode(final BigInteger[] point) {
+		final int len = (curve.getCurve().getField().getFieldSize() + 7) / 8;
+		return TLV.concat(new byte[] { 0x04 }, TLV.concat(unsigned(point[0], len), unsigned(point[1], len)));
+	}
+
+	private static byte[] unsigned(final BigInteger value, final int len) {
+		final byte[] bytes = value.toByteArray();
+		final byte[] result = new byte[len];
+		final int n = Math.min(len, bytes.length);
+		System.arraycopy(bytes, bytes.length - n, result, len - n, n);
+		return result;
+	}
+
+	private BigInteger privateKey() {
+		return new BigInteger(curve.getOrder().bitLength() - 1, RANDOM).add(BigInteger.ONE);
+	}
+
+	/**
+	 * The static files are readable without authentication.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Select the master file and read EF.CardAccess by short identifier.</li>
+	 * <li>Select EF.DIR with file control parameters and read it.</li>
+	 * <li>Read EF.CardSecurity without PACE.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>EF.CardAccess and EF.DIR equal the files of the profile.</li>
+	 * <li>The size in the file control parameters is the size of EF.DIR.</li>
+	 * <li>EF.CardSecurity isn't readable, <tt>6982</tt>.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_1() {
+		final CardEmulatorProfile profile = new CardEmulatorProfile();
+		final CardEmulator card = new CardEmulator(profile);
+
+		card.transmit(new byte[] { 0x00, (byte) 0xA4, 0x00, 0x0C, 0x02, 0x3F, 0x00 });
+		assertEquals(0x9000, card.lastSW());
+		assertArrayEquals(profile.getEFCardAccess(),
+				card.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x9C, 0x00, 0x00, 0x00, 0x00 }));
+		assertEquals(0x9000, card.lastSW());
+
+		final byte[] fcp = card.transmit(new byte[] { 0x00, (byte) 0xA4, 0x02, 0x04, 0x02, 0x2F, 0x00, 0x00 });
+		assertEquals(0x9000, card.lastSW());
+		final byte[] dir = card.transmit(new byte[] { 0x00, (byte) 0xB0, 0x00, 0x00, 0x00 });
+		assertArrayEquals(profile.getEFDir(), dir);
+		assertEquals(dir.length, new BigInteger(1, TLV.get(TLV.get(fcp, (byte) 0x62), (byte) 0x80)).intValue());
+
+		card.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x9D, 0x00, 0x00 });
+		assertEquals(0x6982, card.lastSW());
+	}
+
+	/**
+	 * PACE with the PIN and change of the PIN through the card handler.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Select the emulator in {@link CardHandler}.</li>
+	 * <li>Change the PIN with PACE.</li>
+	 * <li>Perform PACE with the old and the new PIN.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The card handler uses an emulated card.</li>
+	 * <li>The change of the PIN succeeds.</li>
+	 * <li>PACE fails with the old PIN and succeeds with the new PIN.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_2() throws Exception {
+		CardHandler.setCardEmulatorProfile(new CardEmulatorProfile());
+		final CardHandler handler = new CardHandler(TestMainView.getInstance(CardEmulatorProfile.DEFAULT_PIN));
+		final TransportProvider tp = handler.getECard();
+		assertTrue(tp instanceof CardEmulator);
+		final CardEmulator card = (CardEmulator) tp;
+
+		assertEquals(0x9000, handler.doPINChange(tp, (byte) 0x03, new SecureHolder("123456".getBytes()),
+				(byte) 0x03, new SecureHolder("654321".getBytes())));
+
+		assertNull(pace(card, card, 3, "123456", null));
+		assertEquals(0x63C2, card.lastSW());
+		assertNotNull(pace(card, card, 3, "654321", null));
+		assertEquals(3, card.getPINRetries());
+	}
+
+	/**
+	 * The retry counter of the PIN.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Perform PACE twice with a wrong PIN.</li>
+	 * <li>Perform PACE with the correct PIN.</li>
+	 * <li>Perform PACE with the CAN, then with the correct PIN.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The card answers <tt>63C2</tt> and <tt>63C1</tt>.</li>
+	 * <li>The suspended PIN is refused with <tt>6985</tt>.</li>
+	 * <li>After PACE with the CAN, PACE with the PIN succeeds and resets the
+	 * retry counter.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_3() throws Exception {
+		final CardEmulator card = new CardEmulator();
+
+		assertNull(pace(card, card, 3, "111111", null));
+		assertEquals(0x63C2, card.lastSW());
+		assertNull(pace(card, card, 3, "111111", null));
+		assertEquals(0x63C1, card.lastSW());
+
+		assertNull(pace(card, card, 3, CardEmulatorProfile.DEFAULT_PIN, null));
+		assertEquals(0x6985, card.lastSW());
+
+		final ISOSMTransport can = pace(card, card, 2, CardEmulatorProfile.DEFAULT_CAN, null);
+		assertNotNull(can);
+		assertNotNull(pace(can, card, 3, CardEmulatorProfile.DEFAULT_PIN, null));
+		assertEquals(CardEmulator.PIN_RETRIES, card.getPINRetries());
+	}
+
+	/**
+	 * Terminal and chip authentication without trust points.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Perform PACE with the PIN and an authorization.</li>
+	 * <li>Send a terminal certificate with domain parameters.</li>
+	 * <li>Perform terminal authentication, once with a forged signature.</li>
+	 * <li>Perform chip authentication.</li>
+	 * <li>Read data group 4 and 5, verify the age.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The unknown certification authority is accepted.</li>
+	 * <li>The forged signature is rejected with <tt>6300</tt>.</li>
+	 * <li>The authentication token of chip authentication is correct.</li>
+	 * <li>Data group 4 is read, data group 5 is not authorized.</li>
+	 * <li>The age verification succeeds.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_4() throws Exception {
+		final CardEmulatorProfile profile = new CardEmulatorProfile();
+		final CardEmulator card = new CardEmulator(profile);
+
+		final ISOSMTransport sm = pace(card, card, 3, CardEmulatorProfile.DEFAULT_PIN, CHAT);
+		assertNotNull(sm);
+		assertArrayEquals(CardEmulatorProfile.DEFAULT_CAR.getBytes(), car);
+
+		final BigInteger terminalKey = privateKey();
+		final byte[] cert = certificate("DEDVeID00001", "DETERM00001", privateKey(), terminalKey, true, new byte[] {
+				0x00, 0x00, 0x00, (byte) 0xFF, (byte) 0xFF });
+		assertEquals(0x9000, verifyCertificate(sm, cert));
+
+		final PACE.KeyPair ephemeralKey = new PACE(curve, BigInteger.ONE).createKeyPair();
+		final byte[] aux = TLV.build(0x67, TLV.build(0x73, TLV.concat(TLV.build(0x06, Hex.fromString(OID_AGE)),
+				TLV.build(0x53, "20061017".getBytes()))));
+		final byte[] chr = "DETERM00001".getBytes();
+		assertEquals(0x6300, terminalAuthentication(sm, chr, terminalKey, ephemeralKey, aux, true));
+		assertEquals(0x9000, terminalAuthentication(sm, chr, terminalKey, ephemeralKey, aux, false));
+
+		final ISOSMTransport ca = chipAuthentication(sm, card, profile, ephemeralKey);
+		ca.transmit(command(0x00, 0xA4, 0x04, 0x0C, Hex.fromString("E80704007F00070302"), -1));
+		assertEquals(0x9000, ca.lastSW());
+		assertArrayEquals(profile.getDataGroup(4), ca.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x84, 0x00,
+				0x00 }));
+		assertEquals(0x9000, ca.lastSW());
+		ca.transmit(new byte[] { 0x00, (byte) 0xB0, (byte) 0x85, 0x00, 0x00 });
+		assertEquals(0x6982, ca.lastSW());
+
+		ca.transmit(command(0x00, 0x20, 0x80, 0x00, TLV.build(0x06, Hex.fromString(OID_AGE)), -1));
+		assertEquals(0x9000, ca.lastSW());
+	}
+
+	/**
+	 * Terminal authentication with a trust point.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Configure a CVCA certificate as trust point.</li>
+	 * <li>Perform PACE with the PIN and an authorization.</li>
+	 * <li>Send a terminal certificate of another authority, with a forged
+	 * signature and with a correct signature.</li>
+	 * <li>Perform terminal authentication.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>PACE announces the reference of the trust point.</li>
+	 * <li>The unknown authority is rejected with <tt>6A88</tt>.</li>
+	 * <li>The forged certificate is rejected with <tt>6300</tt>.</li>
+	 * <li>The correct certificate and terminal authentication are accepted.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_5() throws Exception {
+		final BigInteger cvcaKey = privateKey();
+		final CardEmulatorProfile profile = new CardEmulatorProfile();
+		profile.addTrustPoint(certificate("DECVCA00001", "DECVCA00001", cvcaKey, cvcaKey, true, new byte[] {
+				(byte) 0xC0, 0x00, 0x00, (byte) 0xFF, (byte) 0xFF }));
+		final CardEmulator card = new CardEmulator(profile);
+
+		final ISOSMTransport sm = pace(card, card, 3, CardEmulatorProfile.DEFAULT_PIN, CHAT);
+		assertNotNull(sm);
+		assertArrayEquals("DECVCA00001".getBytes(), car);
+
+		final BigInteger terminalKey = privateKey();
+		final byte[] chat = new byte[] { 0x00, 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+		assertEquals(0x6A88,
+				verifyCertificate(sm, certificate("DECVCA00002", "DETERM00001", cvcaKey, terminalKey, false, chat)));
+
+		final byte[] forged = certificate("DECVCA00001", "DETERM00001", cvcaKey, terminalKey, false, chat);
+		forged[forged.length - 1] ^= 1;
+		assertEquals(0x6300, verifyCertificate(sm, forged));
+		assertEquals(0x9000,
+				verifyCertificate(sm, certificate("DECVCA00001", "DETERM00001", cvcaKey, terminalKey, false, chat)));
+
+		final PACE.KeyPair ephemeralKey = new PACE(curve, BigInteger.ONE).createKeyPair();
+		assertEquals(0x9000, terminalAuthentication(sm, "DETERM00001".getBytes(), terminalKey, ephemeralKey,
+				new byte[0], false));
+		assertNotNull(chipAuthentication(sm, card, profile, ephemeralKey));
+	}
+
+	/**
+	 * A batch over secure messaging, whose pipeline fails to wrap a command.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Perform PACE with the PIN.</li>
+	 * <li>Send a batch of three commands, the pipeline thread fails to wrap
+	 * the second one.</li>
+	 * <li>Send another command.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>All three commands are answered with <tt>9000</tt>.</li>
+	 * <li>The send sequence counters stay in sync with the card.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardEmulatorTest_6() throws Exception {
+		final CardEmulator card = new CardEmulator(new CardEmulatorProfile());
+		final ISOSMTransport sm = pace(card, card, 3, CardEmulatorProfile.DEFAULT_PIN, null);
+		assertNotNull(sm);
+
+		final boolean[] failed = new boolean[1];
+		final MockUp<ISOSMTransport> mockUp = new MockUp<ISOSMTransport>() {
+			@Mock
+			byte[] wrap(final mockit.Invocation inv, final byte[] apdu, final long counter) {
+				if (!failed[0] && "ISOSMTransport-pipeline".equals(Thread.currentThread().getName())) {
+					failed[0] = true;
+					throw new IllegalStateException("pipeline failure");
+				}
+				return inv.proceed(apdu, counter);
+			}
+		};
+
+		final byte[] selectMF = Hex.fromString("00A4000C023F00");
+		final List<byte[]> responses;
+		try {
+			responses = sm.transmitBatch(Arrays.asList(selectMF, selectMF, selectMF), null);
+		} finally {
+			mockUp.tearDown();
+		}
+
+		assertTrue(failed[0]);
+		assertEquals(3, responses.size());
+		for (final byte[] rsp : responses) {
+			assertArrayEquals(new byte[] { (byte) 0x90, 0x00 }, rsp);
+		}
+		sm.transmit(selectMF);
+		assertEquals(0x9000, sm.lastSW());
+	}
+}
@@ -0,0 +1,223 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CardHandlerPool;
+import de.persoapp.core.card.ICardHandler;
+import de.persoapp.core.client.ECardSession;
+import de.persoapp.core.client.IMainView;
+
+/**
+ * Testcases facing {@link CardHandlerPool}. The card handlers are simulated,
+ * the testcases don't require a card reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CardHandlerPoolTest {
+
+	private static final byte[]	SLOT_1	= new byte[] { 1 };
+
+	private static final byte[]	SLOT_2	= new byte[] { 2 };
+
+	private static final byte[]	SLOT_3	= new byte[] { 3 };
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * The names of the called methods of all simulated card handlers.
+	 */
+	private final List<String>	calls	= new ArrayList<String>();
+
+	/**
+	 * Creates a simulated card handler recording the calls.
+	 */
+	private ICardHandler createHandler() {
+		return (ICardHandler) Proxy.newProxyInstance(ICardHandler.class.getClassLoader(),
+				new Class<?>[] { ICardHandler.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method, final Object[] args) {
+						if (method.getDeclaringClass() == Object.class) {
+							if ("equals".equals(method.getName())) {
+								return proxy == args[0];
+							}
+							return "hashCode".equals(method.getName()) ? System.identityHashCode(proxy) : "handler";
+						}
+						calls.add(method.getName());
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * Creates a factory of simulated card handlers, recording the created
+	 * handlers.
+	 */
+	private CardHandlerPool.Factory createFactory(final List<ICardHandler> created) {
+		return new CardHandlerPool.Factory() {
+			@Override
+			public ICardHandler create() {
+				final ICardHandler handler = createHandler();
+				created.add(handler);
+				return handler;
+			}
+		};
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Card handlers are acquired for different slot handles and twice for
+	 * the same slot handle.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The first slot handle gets the primary card handler, further slot
+	 * handles get new card handlers. The same slot handle gets the same card
+	 * handler, no slot handle gets the primary card handler.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardhandlerpoolTest_1() {
+		final ICardHandler primary = createHandler();
+		final List<ICardHandler> created = new ArrayList<ICardHandler>();
+		final CardHandlerPool pool = new CardHandlerPool(primary, createFactory(created));
+
+		assertSame(primary, pool.acquire(SLOT_1));
+		final ICardHandler second = pool.acquire(SLOT_2);
+		assertNotSame(primary, second);
+		assertSame(second, pool.acquire(SLOT_2.clone()));
+		assertSame(primary, pool.acquire(null));
+		assertEquals(1, created.size());
+		assertEquals(2, pool.size());
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Card handlers are released and acquired again for new slot
+	 * handles.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Released card handlers are reset and reused, no further card handler
+	 * is created.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardhandlerpoolTest_2() {
+		final ICardHandler primary = createHandler();
+		final List<ICardHandler> created = new ArrayList<ICardHandler>();
+		final CardHandlerPool pool = new CardHandlerPool(primary, createFactory(created));
+
+		pool.acquire(SLOT_1);
+		final ICardHandler second = pool.acquire(SLOT_2);
+
+		pool.release(SLOT_2);
+		assertEquals(1, calls.size());
+		assertEquals("reset", calls.get(0));
+		assertSame(second, pool.acquire(SLOT_3));
+
+		pool.release(SLOT_1);
+		assertSame(primary, pool.acquire(SLOT_2));
+		assertEquals(1, created.size());
+
+		// releasing an unknown slot handle has no effect
+		pool.release(SLOT_1);
+		assertEquals(2, calls.size());
+		assertEquals(2, pool.size());
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Card handlers are acquired from a pool without a factory.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>All slot handles share the primary card handler.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardhandlerpoolTest_3() {
+		final ICardHandler primary = createHandler();
+		final CardHandlerPool pool = new CardHandlerPool(primary, null);
+
+		assertSame(primary, pool.acquire(SLOT_1));
+		assertSame(primary, pool.acquire(SLOT_2));
+		pool.release(SLOT_1);
+		assertSame(primary, pool.acquire(SLOT_3));
+		assertEquals(0, pool.size());
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Two sessions with different slot handles take their card handlers
+	 * from the same pool and are terminated.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The sessions use different card handlers, terminating a session
+	 * releases its card handler.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardhandlerpoolTest_4() {
+		final ICardHandler primary = createHandler();
+		final List<ICardHandler> created = new ArrayList<ICardHandler>();
+		final CardHandlerPool pool = new CardHandlerPool(primary, createFactory(created));
+		final IMainView mainView = (IMainView) Proxy.newProxyInstance(IMainView.class.getClassLoader(),
+				new Class<?>[] { IMainView.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method, final Object[] args) {
+						return null;
+					}
+				});
+
+		final ECardSession first = new ECardSession(mainView, pool, SLOT_1);
+		final ECardSession second = new ECardSession(mainView, pool, SLOT_2);
+		assertSame(primary, first.getCardHandler(null));
+		assertSame(first.getCardHandler(null), first.getCardHandler(SLOT_2));
+		final ICardHandler handler = second.getCardHandler(null);
+		assertSame(created.get(0), handler);
+
+		first.terminate();
+		assertEquals(1, pool.size());
+		second.terminate();
+		assertEquals(0, pool.size());
+	}
+}
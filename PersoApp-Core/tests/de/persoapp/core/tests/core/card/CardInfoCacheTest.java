@@ -0,0 +1,156 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CardInfoCache;
+import de.persoapp.core.card.CardInfoCache.CardInfo;
+import de.persoapp.core.util.Hex;
+
+/**
+ * Testcases facing {@link CardInfoCache}. The testcases don't require a card
+ * reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CardInfoCacheTest {
+
+	private static final byte[]	ATR		= Hex.fromString("3B8A80018031B8738401E0829000E1");
+
+	private static final byte[]	EF_CA	= Hex.fromString("3114300F060A04007F0007020204020202010202010D");
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The identity of cards with different ATR or EF.CardAccess is
+	 * computed.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Equal inputs lead to equal keys, any difference leads to a different
+	 * key.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardinfocacheTest_1() {
+		final String key = CardInfoCache.identify(ATR, EF_CA);
+		assertEquals(key, CardInfoCache.identify(ATR.clone(), EF_CA.clone()));
+
+		final byte[] otherCA = EF_CA.clone();
+		otherCA[otherCA.length - 1] = 0x0E;
+		assertFalse(key.equals(CardInfoCache.identify(ATR, otherCA)));
+		assertFalse(key.equals(CardInfoCache.identify(null, EF_CA)));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Three cards are added to a cache holding two cards, the first card
+	 * is used before the third card is added.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The least recently used second card is evicted.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardinfocacheTest_2() {
+		final CardInfoCache cache = new CardInfoCache(2);
+		final CardInfo info = new CardInfo(EF_CA, null, null, 13);
+		cache.put("1", info);
+		cache.put("2", new CardInfo(EF_CA, null, null, 13));
+		assertSame(info, cache.get("1"));
+
+		cache.put("3", new CardInfo(EF_CA, null, null, 13));
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get("1"));
+		assertNull(cache.get("2"));
+		assertNotNull(cache.get("3"));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The size of a filled cache is reduced to one and then to zero.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The most recently used card is kept, a cache of size zero doesn't
+	 * store cards.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardinfocacheTest_3() {
+		final CardInfoCache cache = new CardInfoCache(CardInfoCache.DEFAULT_SIZE);
+		cache.put("1", new CardInfo(EF_CA, null, null, 13));
+		cache.put("2", new CardInfo(EF_CA, null, null, 13));
+		cache.get("1");
+
+		cache.setMaxSize(1);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.get("1"));
+
+		cache.setMaxSize(0);
+		cache.put("3", new CardInfo(EF_CA, null, null, 13));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The contents passed to and returned by the information of a card are
+	 * modified.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The information keeps its original contents.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardinfocacheTest_4() {
+		final byte[] ca = EF_CA.clone();
+		final byte[] atr = ATR.clone();
+		final CardInfo info = new CardInfo(ca, null, atr, 13);
+		ca[0] ^= 0x01;
+		atr[0] ^= 0x01;
+		info.getEFCardAccess()[0] ^= 0x01;
+		info.getEFAtr()[0] ^= 0x01;
+
+		assertArrayEquals(EF_CA, info.getEFCardAccess());
+		assertArrayEquals(ATR, info.getEFAtr());
+		assertNull(info.getEFDir());
+	}
+}
@@ -0,0 +1,299 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CardMonitor;
+
+/**
+ * Testcases facing {@link CardMonitor}. The terminals are simulated, the
+ * testcases don't require a card reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CardMonitorTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * Simulated terminal.
+	 */
+	private static final class Terminal extends CardTerminal {
+		private final String	name;
+
+		Terminal(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Card connect(final String protocol) throws CardException {
+			throw new CardException("not supported");
+		}
+
+		@Override
+		public boolean isCardPresent() throws CardException {
+			throw new CardException("not supported");
+		}
+
+		@Override
+		public boolean waitForCardPresent(final long timeout) throws CardException {
+			throw new CardException("not supported");
+		}
+
+		@Override
+		public boolean waitForCardAbsent(final long timeout) throws CardException {
+			throw new CardException("not supported");
+		}
+	}
+
+	/**
+	 * Simulated terminals, changes are reported after {@link #fire(String...)}
+	 * has been called.
+	 */
+	private static final class Terminals extends CardTerminals {
+		private volatile List<CardTerminal>				all			= new ArrayList<CardTerminal>();
+		private final Set<String>						present		= Collections
+																			.synchronizedSet(new HashSet<String>());
+		private volatile Set<String>					inserted	= new HashSet<String>();
+		private volatile boolean						failing;
+		private final BlockingQueue<Set<String>>	changes		= new LinkedBlockingQueue<Set<String>>();
+
+		void fire(final String... insertedNames) {
+			changes.add(new HashSet<String>(Arrays.asList(insertedNames)));
+		}
+
+		@Override
+		public List<CardTerminal> list(final State state) throws CardException {
+			if (failing) {
+				throw new CardException("SCARD_E_NO_SERVICE");
+			}
+
+			final List<CardTerminal> result = new ArrayList<CardTerminal>();
+			for (final CardTerminal terminal : all) {
+				if (state == State.ALL || state == State.CARD_PRESENT && present.contains(terminal.getName())
+						|| state == State.CARD_INSERTION && inserted.contains(terminal.getName())) {
+					result.add(terminal);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public boolean waitForChange(final long timeout) throws CardException {
+			try {
+				final Set<String> change = changes.poll(timeout, TimeUnit.MILLISECONDS);
+				inserted = change == null ? new HashSet<String>() : change;
+				return change != null;
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CardException(e);
+			}
+		}
+	}
+
+	/**
+	 * Records the snapshots passed to the listener.
+	 */
+	private static final class Recorder implements CardMonitor.Listener {
+		private final BlockingQueue<CardMonitor.State>	states	= new LinkedBlockingQueue<CardMonitor.State>();
+
+		@Override
+		public void stateChanged(final CardMonitor.State state) {
+			states.add(state);
+		}
+
+		CardMonitor.State next() throws InterruptedException {
+			final CardMonitor.State state = states.poll(5, TimeUnit.SECONDS);
+			assertNotNull("no change reported", state);
+			return state;
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A monitor is started for two terminals, a card is inserted in the
+	 * second terminal.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The snapshot lists both terminals and reports the card in the second
+	 * terminal only.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardmonitorTest_1() throws InterruptedException {
+		final Terminals terminals = new Terminals();
+		final CardTerminal a = new Terminal("Reader A");
+		final CardTerminal b = new Terminal("Reader B");
+		terminals.all = Arrays.asList(a, b);
+		terminals.present.add("Reader B");
+
+		final CardMonitor monitor = new CardMonitor(terminals);
+		final Recorder recorder = new Recorder();
+		monitor.addListener(recorder);
+		monitor.start();
+		try {
+			final CardMonitor.State state = monitor.getState();
+			assertEquals(2, state.getTerminals().size());
+			assertEquals(Arrays.asList(b), state.getCardTerminals());
+			assertFalse(state.isCardPresent(a));
+			assertTrue(state.isCardPresent(b));
+			assertEquals(0, state.getCardSession(a));
+			assertEquals(state, recorder.next());
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A card is inserted in the first terminal, then the card of the second
+	 * terminal is removed and inserted again between two changes.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The listener is notified of both changes. The session of an
+	 * untouched card remains, the reinserted card gets a new session.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardmonitorTest_2() throws InterruptedException {
+		final Terminals terminals = new Terminals();
+		final CardTerminal a = new Terminal("Reader A");
+		final CardTerminal b = new Terminal("Reader B");
+		terminals.all = Arrays.asList(a, b);
+		terminals.present.add("Reader B");
+
+		final CardMonitor monitor = new CardMonitor(terminals);
+		final Recorder recorder = new Recorder();
+		monitor.addListener(recorder);
+		monitor.start();
+		try {
+			final int sessionB = recorder.next().getCardSession(b);
+
+			terminals.present.add("Reader A");
+			terminals.fire("Reader A");
+			CardMonitor.State state = recorder.next();
+			final int sessionA = state.getCardSession(a);
+			assertTrue(sessionA != 0);
+			assertEquals(sessionB, state.getCardSession(b));
+			assertEquals(state, monitor.getState());
+
+			terminals.fire("Reader B");
+			state = recorder.next();
+			assertEquals(sessionA, state.getCardSession(a));
+			assertTrue(state.isCardPresent(b));
+			assertTrue(sessionB != state.getCardSession(b));
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The terminal service fails, while the monitor is running.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The monitor reports no terminals.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardmonitorTest_3() throws InterruptedException {
+		final Terminals terminals = new Terminals();
+		final CardTerminal a = new Terminal("Reader A");
+		terminals.all = Arrays.<CardTerminal> asList(a);
+		terminals.present.add("Reader A");
+
+		final CardMonitor monitor = new CardMonitor(terminals);
+		final Recorder recorder = new Recorder();
+		monitor.addListener(recorder);
+		monitor.start();
+		try {
+			assertTrue(recorder.next().isCardPresent(a));
+
+			terminals.failing = true;
+			terminals.fire();
+			final CardMonitor.State state = recorder.next();
+			assertTrue(state.getTerminals().isEmpty());
+			assertFalse(state.isCardPresent(a));
+		} finally {
+			monitor.stop();
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A monitor is started without a terminal service.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The snapshot is available immediately and contains no
+	 * terminals.</li>
+	 * </ul>
+	 */
+	@Test
+	public void cardmonitorTest_4() {
+		final CardMonitor monitor = new CardMonitor(null);
+		monitor.start();
+
+		final long start = System.currentTimeMillis();
+		final CardMonitor.State state = monitor.getState();
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertTrue(state.getTerminals().isEmpty());
+		assertTrue(state.getCardTerminals().isEmpty());
+		assertEquals(0, state.getCardSession(null));
+	}
+}
@@ -0,0 +1,372 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.FastCurve;
+import de.persoapp.core.card.MontgomeryField;
+import de.persoapp.core.card.PACE;
+
+/**
+ * Testcases facing {@link MontgomeryField} and {@link FastCurve}. The results
+ * are cross-checked against {@link BigInteger} and the reference arithmetic
+ * of {@link PACE} on every curve of {@link EC_Globals}. The testcases don't
+ * require a card reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FastCurveTest {
+
+	private static final int[]	CURVES	= { 8, 11, 12, 13, 14, 16, 17 };
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private final Random		random	= new Random(0x5EED);
+
+	private static BigInteger getPrime(final ECParameterSpec spec) {
+		return ((ECFieldFp) spec.getCurve().getField()).getP();
+	}
+
+	private static ECParameterSpec withGenerator(final ECParameterSpec spec, final BigInteger[] G) {
+		return new ECParameterSpec(spec.getCurve(), new ECPoint(G[0], G[1]), spec.getOrder(), spec.getCofactor());
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Random elements and edge cases of the prime field of every curve are
+	 * multiplied, added, subtracted, negated and inverted.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The results match the {@link BigInteger} calculation.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_1() {
+		for (final int id : CURVES) {
+			final BigInteger p = getPrime(EC_Globals.getCurve(id));
+			final MontgomeryField f = new MontgomeryField(p);
+			final int[] a = f.newElement(), b = f.newElement(), r = f.newElement();
+
+			final BigInteger[] edges = { BigInteger.ZERO, BigInteger.ONE, p.subtract(BigInteger.ONE),
+					p.shiftRight(1), BigInteger.ONE.shiftLeft(p.bitLength() - 1) };
+			for (int i = 0; i < 200; i++) {
+				final BigInteger x = i < edges.length ? edges[i] : new BigInteger(p.bitLength(), random).mod(p);
+				final BigInteger y = i < edges.length ? edges[edges.length - 1 - i] : new BigInteger(
+						p.bitLength(), random).mod(p);
+				f.toMontgomery(x, a);
+				f.toMontgomery(y, b);
+				assertEquals(x, f.fromMontgomery(a));
+
+				f.mul(a, b, r);
+				assertEquals(x.multiply(y).mod(p), f.fromMontgomery(r));
+				f.sqr(a, r);
+				assertEquals(x.multiply(x).mod(p), f.fromMontgomery(r));
+				f.add(a, b, r);
+				assertEquals(x.add(y).mod(p), f.fromMontgomery(r));
+				f.sub(a, b, r);
+				assertEquals(x.subtract(y).mod(p), f.fromMontgomery(r));
+				f.neg(a, r);
+				assertEquals(x.negate().mod(p), f.fromMontgomery(r));
+				if (x.signum() != 0) {
+					f.invert(a, r);
+					assertEquals(x.modInverse(p), f.fromMontgomery(r));
+				}
+
+				// the result may be one of the arguments
+				f.mul(a, b, a);
+				assertEquals(x.multiply(y).mod(p), f.fromMontgomery(a));
+			}
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The generator and a random point of every curve are multiplied with
+	 * random and small scalars by the fast and the reference arithmetic.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Both arithmetics return the same affine points.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_2() {
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			final BigInteger n = spec.getOrder();
+
+			final BigInteger[] P = new PACE(spec, BigInteger.ONE, false).fastMultiply(new BigInteger(
+					n.bitLength() - 1, random));
+			for (final ECParameterSpec base : new ECParameterSpec[] { spec, withGenerator(spec, P) }) {
+				final PACE fast = new PACE(base, BigInteger.ONE, true);
+				final PACE reference = new PACE(base, BigInteger.ONE, false);
+
+				for (int i = 0; i < 40; i++) {
+					final BigInteger k;
+					if (i < 20) {
+						k = BigInteger.valueOf(i + 1);
+					} else if (i == 20) {
+						k = n.subtract(BigInteger.ONE);
+					} else if (i == 21) {
+						k = n.add(BigInteger.ONE);
+					} else {
+						k = new BigInteger(n.bitLength() + 8, random);
+					}
+					assertArrayEquals("curve " + id + ", k = " + k, reference.fastMultiply(k), fast.fastMultiply(k));
+				}
+
+				final BigInteger[] infinity = fast.fastMultiply(n);
+				assertNull(infinity[0]);
+				assertNull(infinity[1]);
+			}
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The generic mapping and the key agreement of PACE are run between an
+	 * instance with the fast and an instance with the reference arithmetic on
+	 * every curve.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Both instances agree on the same shared secret.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_3() {
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			final BigInteger nonce = new BigInteger(spec.getOrder().bitLength() - 1, random);
+
+			final PACE fast = new PACE(spec, nonce, true);
+			final PACE reference = new PACE(spec, nonce, false);
+
+			final byte[] fastKey = fast.init();
+			final byte[] referenceKey = reference.init();
+			final byte[] fastMapped = fast.step(referenceKey);
+			final byte[] referenceMapped = reference.step(fastKey);
+			final byte[][] fastResult = fast.finish(referenceMapped);
+			final byte[][] referenceResult = reference.finish(fastMapped);
+
+			assertArrayEquals("curve " + id, referenceResult[1], fastResult[1]);
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The curves are requested twice from {@link EC_Globals}.</li>
+	 * <li>The generator of every curve is multiplied with the comb table and
+	 * with the window method, using scalars which fill the comb columns up to
+	 * the byte length of the field.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The same curve instance is returned.</li>
+	 * <li>Both methods return the same affine points.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_4() {
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			assertSame(spec, EC_Globals.getCurve(id));
+
+			final FastCurve curve = new FastCurve(spec);
+			final BigInteger[] G = { spec.getGenerator().getAffineX(), spec.getGenerator().getAffineY(),
+					BigInteger.ONE };
+			final int bits = (getPrime(spec).bitLength() + 7) / 8 * 8;
+
+			for (int i = 0; i < 30; i++) {
+				final BigInteger k;
+				if (i == 0) {
+					k = BigInteger.ZERO;
+				} else if (i == 1) {
+					k = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE);
+				} else if (i == 2) {
+					k = BigInteger.ONE.shiftLeft(bits - 1);
+				} else if (i == 3) {
+					k = spec.getOrder();
+				} else {
+					k = new BigInteger(bits, random);
+				}
+				assertArrayEquals("curve " + id + ", k = " + k, curve.multiply(G, k), curve.multiplyGenerator(k));
+			}
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The key agreement of PACE is run step by step with
+	 * <em>generateKeyPair</em>, <em>mapNonce</em> and
+	 * <em>computeSharedSecret</em> between an instance with the fast and an
+	 * instance with the reference arithmetic on every curve.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Both instances agree on the same shared secret, which is the one
+	 * returned by <em>finish</em>.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_5() {
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			final BigInteger nonce = new BigInteger(spec.getOrder().bitLength() - 1, random);
+
+			final PACE fast = new PACE(spec, nonce, true);
+			final PACE reference = new PACE(spec, nonce, false);
+
+			final byte[] fastMapKey = fast.generateKeyPair();
+			final byte[] referenceMapKey = reference.generateKeyPair();
+			fast.mapNonce(referenceMapKey);
+			reference.mapNonce(fastMapKey);
+
+			final byte[] fastKey = fast.generateKeyPair();
+			final byte[] referenceKey = reference.generateKeyPair();
+			final byte[] secret = fast.computeSharedSecret(referenceKey);
+			assertArrayEquals("curve " + id, secret, reference.computeSharedSecret(fastKey));
+
+			final byte[][] result = fast.finish(referenceKey);
+			assertArrayEquals("curve " + id, secret, result[1]);
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li><em>s &middot; G + k &middot; P</em> is calculated in one pass by
+	 * {@link FastCurve} for random and edge case scalars and points on every
+	 * curve.</li>
+	 * <li>The generic mapping of PACE is run with a known mapping key of the
+	 * card by an instance with the fast and an instance with the reference
+	 * arithmetic.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The results match two separate multiplications and an addition of
+	 * the reference arithmetic.</li>
+	 * <li>Both instances map to the expected generator.</li>
+	 * </ul>
+	 */
+	@Test
+	public void fastcurveTest_6() {
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			final BigInteger n = spec.getOrder();
+			final FastCurve curve = new FastCurve(spec);
+			final PACE reference = new PACE(spec, BigInteger.ONE, false);
+			final BigInteger[] G = { spec.getGenerator().getAffineX(), spec.getGenerator().getAffineY(),
+					BigInteger.ONE };
+
+			for (int i = 0; i < 12; i++) {
+				BigInteger s = new BigInteger(i % 2 == 0 ? 128 : n.bitLength(), random);
+				BigInteger k = new BigInteger(n.bitLength(), random);
+				BigInteger[] P = reference.fastMultiply(new BigInteger(n.bitLength() - 1, random));
+				if (i == 0) {
+					k = BigInteger.ZERO;
+				} else if (i == 1) {
+					s = BigInteger.ZERO;
+				} else if (i == 2) {
+					// s * G + s * G
+					P = G;
+					k = s;
+				} else if (i == 3) {
+					// s * G - s * G
+					P = new BigInteger[] { G[0], G[1].negate().mod(getPrime(spec)), BigInteger.ONE };
+					k = s;
+				}
+
+				final BigInteger[] expected = curve.add(referenceMultiply(spec, G, s),
+						referenceMultiply(spec, P, k));
+				assertArrayEquals("curve " + id + ", s = " + s + ", k = " + k, expected, curve.multiplyAdd(s, P, k));
+			}
+
+			// the generic mapping G' = s * G + k * Y with Y = y * G
+			final BigInteger nonce = new BigInteger(128, random);
+			final BigInteger y = new BigInteger(n.bitLength() - 1, random);
+			final BigInteger[] Y = reference.fastMultiply(y);
+			final PACE fast = new PACE(spec, nonce, true);
+			final PACE.KeyPair pair = fast.createKeyPair();
+			final BigInteger[] K = decode(pair.getPublicKey());
+			final BigInteger[] expected = curve.add(reference.fastMultiply(nonce),
+					new PACE(withGenerator(spec, K), BigInteger.ONE, false).fastMultiply(y));
+
+			final PACE slow = new PACE(spec, nonce, false);
+			fast.init(pair);
+			slow.init(pair);
+			fast.mapNonce(encode(spec, Y));
+			slow.mapNonce(encode(spec, Y));
+			assertArrayEquals("curve " + id, expected, fast.fastMultiply(BigInteger.ONE));
+			assertArrayEquals("curve " + id, expected, slow.fastMultiply(BigInteger.ONE));
+		}
+	}
+
+	private static BigInteger[] referenceMultiply(final ECParameterSpec spec, final BigInteger[] P,
+			final BigInteger k) {
+		if (k.signum() == 0) {
+			return new BigInteger[] { null, null, null };
+		}
+		return new PACE(withGenerator(spec, P), BigInteger.ONE, false).fastMultiply(k);
+	}
+
+	private static byte[] encode(final ECParameterSpec spec, final BigInteger[] P) {
+		final int length = (getPrime(spec).bitLength() + 7) / 8;
+		final byte[] encoded = new byte[1 + 2 * length];
+		encoded[0] = 0x04;
+		for (int i = 0; i < 2; i++) {
+			final byte[] value = P[i].toByteArray();
+			final int n = Math.min(value.length, length);
+			System.arraycopy(value, value.length - n, encoded, 1 + i * length + length - n, n);
+		}
+		return encoded;
+	}
+
+	private static BigInteger[] decode(final byte[] encoded) {
+		final int length = encoded.length - 1 >> 1;
+		return new BigInteger[] { new BigInteger(1, Arrays.copyOfRange(encoded, 1, 1 + length)),
+				new BigInteger(1, Arrays.copyOfRange(encoded, 1 + length, encoded.length)), BigInteger.ONE };
+	}
+}
@@ -0,0 +1,181 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.PACE;
+import de.persoapp.core.card.PACEKeyPool;
+
+/**
+ * Testcases facing {@link PACEKeyPool} and the key pairs of {@link PACE}
+ * created in advance. The testcases don't require a card reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PACEKeyPoolTest {
+
+	private static final long	TIMEOUT	= 10000;
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static void awaitSize(final PACEKeyPool pool, final int size) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (pool.size() < size) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("pool not refilled, size " + pool.size());
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A pool is prepared for a curve.</li>
+	 * <li>Its key pairs are taken and used by PACE against a second
+	 * instance.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The pool is filled up to its capacity in the background.</li>
+	 * <li>Each key pair is handed out once, the pool is refilled afterwards.</li>
+	 * <li>Both PACE instances agree on the same shared secret.</li>
+	 * </ul>
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void paceKeyPoolTest_1() throws InterruptedException {
+		final ECParameterSpec spec = EC_Globals.getCurve(13);
+		final PACEKeyPool pool = new PACEKeyPool(2);
+		pool.prepare(spec);
+		awaitSize(pool, 2);
+
+		final PACE.KeyPair first = pool.take(spec);
+		final PACE.KeyPair second = pool.take(spec);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertSame(spec, first.getCurve());
+		assertFalse(Arrays.equals(first.getPublicKey(), second.getPublicKey()));
+		awaitSize(pool, 2);
+		assertEquals(2, pool.size());
+
+		final BigInteger nonce = BigInteger.valueOf(0x1234567);
+		final PACE terminal = new PACE(spec, nonce);
+		final PACE card = new PACE(spec, nonce);
+		final byte[] terminalMapKey = terminal.init(first);
+		assertArrayEquals(first.getPublicKey(), terminalMapKey);
+		final byte[] cardMapKey = card.init();
+
+		final byte[] terminalKey = terminal.step(cardMapKey);
+		final byte[] cardKey = card.step(terminalMapKey);
+		assertArrayEquals(terminal.finish(cardKey)[1], card.finish(terminalKey)[1]);
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A pool prepared for one curve is asked for a key pair of another
+	 * curve.</li>
+	 * <li>A key pair of one curve is used by PACE on another curve.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>No key pair is returned, the pool is refilled with key pairs of the
+	 * new curve.</li>
+	 * <li>PACE rejects the key pair with an
+	 * {@link IllegalArgumentException}.</li>
+	 * </ul>
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void paceKeyPoolTest_2() throws InterruptedException {
+		final ECParameterSpec spec = EC_Globals.getCurve(13);
+		final ECParameterSpec other = EC_Globals.getCurve(11);
+		final PACEKeyPool pool = new PACEKeyPool(1);
+		pool.prepare(spec);
+		awaitSize(pool, 1);
+
+		assertNull(pool.take(other));
+		awaitSize(pool, 1);
+		final PACE.KeyPair pair = pool.take(other);
+		assertNotNull(pair);
+		assertSame(other, pair.getCurve());
+
+		try {
+			new PACE(spec, BigInteger.ONE).init(pair);
+			fail("key pair of another curve accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A filled pool is invalidated.</li>
+	 * <li>A pool without capacity is prepared.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The invalidated pool is empty and not refilled.</li>
+	 * <li>The pool without capacity stays empty.</li>
+	 * </ul>
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void paceKeyPoolTest_3() throws InterruptedException {
+		final ECParameterSpec spec = EC_Globals.getCurve(8);
+		final PACEKeyPool pool = new PACEKeyPool(2);
+		pool.prepare(spec);
+		awaitSize(pool, 2);
+
+		pool.invalidate();
+		assertEquals(0, pool.size());
+		Thread.sleep(200);
+		assertEquals(0, pool.size());
+
+		final PACEKeyPool disabled = new PACEKeyPool(0);
+		disabled.prepare(spec);
+		assertNull(disabled.take(spec));
+		assertEquals(0, disabled.size());
+	}
+}
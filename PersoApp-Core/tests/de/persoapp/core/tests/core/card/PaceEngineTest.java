@@ -0,0 +1,268 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.BCPaceEngine;
+import de.persoapp.core.card.CardHandler;
+import de.persoapp.core.card.DefaultPaceEngine;
+import de.persoapp.core.card.EC_Globals;
+import de.persoapp.core.card.PACEKeyPool;
+import de.persoapp.core.card.PaceEngine;
+import de.persoapp.core.card.PaceEngines;
+
+/**
+ * Testcases facing the implementations of {@link PaceEngine} and their
+ * selection by {@link PaceEngines}. The testcases don't require a card reader
+ * or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PaceEngineTest {
+
+	private static final int[]	CURVES	= { 8, 11, 12, 13, 14, 16, 17 };
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private final Random		random	= new Random(0x5EED);
+
+	/**
+	 * An engine, which calculates a wrong shared secret.
+	 */
+	private static final class BrokenEngine implements PaceEngine {
+
+		private final PaceEngine	engine	= new DefaultPaceEngine(null);
+
+		@Override
+		public String getName() {
+			return "broken";
+		}
+
+		@Override
+		public void prepare(final ECParameterSpec ecSpec) {
+		}
+
+		@Override
+		public Session open(final ECParameterSpec ecSpec, final BigInteger nonce) {
+			final Session session = engine.open(ecSpec, nonce);
+			return new Session() {
+				@Override
+				public byte[] init() {
+					return session.init();
+				}
+
+				@Override
+				public byte[] step(final byte[] mapData) {
+					return session.step(mapData);
+				}
+
+				@Override
+				public byte[][] finish(final byte[] data) {
+					final byte[][] result = session.finish(data);
+					result[1][0] ^= 1;
+					return result;
+				}
+			};
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The key agreement of PACE is run between the default and the
+	 * BouncyCastle engine in both roles on every curve.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Both engines agree on the shared secret and on
+	 * <em>ID<sub>PICC</sub></em>.</li>
+	 * </ul>
+	 */
+	@Test
+	public void paceEngineTest_1() {
+		final PaceEngine[] engines = { new DefaultPaceEngine(new PACEKeyPool(1)), new BCPaceEngine() };
+		for (final int id : CURVES) {
+			final ECParameterSpec spec = EC_Globals.getCurve(id);
+			for (final PaceEngine engine : engines) {
+				engine.prepare(spec);
+			}
+
+			for (int i = 0; i < 2; i++) {
+				final BigInteger nonce = new BigInteger(128, random);
+				final PaceEngine.Session a = engines[i].open(spec, nonce);
+				final PaceEngine.Session b = engines[1 - i].open(spec, nonce);
+
+				final byte[] aMap = a.init();
+				final byte[] bMap = b.init();
+				final byte[] aKey = a.step(bMap);
+				final byte[] bKey = b.step(aMap);
+				final byte[][] aResult = a.finish(bKey);
+				final byte[][] bResult = b.finish(aKey);
+
+				assertArrayEquals("curve " + id, aResult[1], bResult[1]);
+				final byte[] x = new byte[aResult[0].length];
+				System.arraycopy(bKey, 1, x, 0, x.length);
+				assertArrayEquals("curve " + id, x, aResult[0]);
+			}
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Engines are selected by name, by an unknown name and by
+	 * benchmark.</li>
+	 * <li>A benchmark is run with an engine, which calculates a wrong shared
+	 * secret.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The engine of the given name is selected, the name is not case
+	 * sensitive.</li>
+	 * <li>The broken engine is never selected.</li>
+	 * </ul>
+	 */
+	@Test
+	public void paceEngineTest_2() {
+		final PaceEngine defaultEngine = new DefaultPaceEngine(null);
+		final PaceEngine bcEngine = new BCPaceEngine();
+		final PaceEngine[] engines = { defaultEngine, bcEngine };
+
+		assertSame(bcEngine, PaceEngines.select(engines, BCPaceEngine.NAME));
+		assertSame(defaultEngine, PaceEngines.select(engines, "DEFAULT"));
+
+		final PaceEngine selected = PaceEngines.select(engines, PaceEngines.AUTO);
+		if (selected != defaultEngine && selected != bcEngine) {
+			fail("no engine selected");
+		}
+
+		final PaceEngine broken = new BrokenEngine();
+		assertSame(defaultEngine, PaceEngines.benchmark(new PaceEngine[] { defaultEngine, broken },
+				EC_Globals.getCurve(13), 1));
+		assertSame(defaultEngine, PaceEngines.select(new PaceEngine[] { defaultEngine, broken }, "unknown"));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The BouncyCastle engine receives a mapping public key, which is not
+	 * on the curve.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The point is rejected with an {@link IllegalArgumentException}.</li>
+	 * </ul>
+	 */
+	@Test
+	public void paceEngineTest_3() {
+		final ECParameterSpec spec = EC_Globals.getCurve(13);
+		final PaceEngine.Session session = new BCPaceEngine().open(spec, BigInteger.TEN);
+		final byte[] key = session.init();
+		key[key.length - 1] ^= 1;
+
+		try {
+			session.step(key);
+			fail("invalid point accepted");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The shared key pool is filled on a curve other than the one of the
+	 * benchmark.</li>
+	 * <li>The engine of the card handler is selected by benchmark.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The benchmark takes no key pairs out of the shared pool, which
+	 * still holds key pairs of the prepared curve.</li>
+	 * </ul>
+	 */
+	@Test
+	public void paceEngineTest_4() throws InterruptedException {
+		final PACEKeyPool pool = CardHandler.getPACEKeyPool();
+		final ECParameterSpec spec = EC_Globals.getCurve(8);
+		pool.prepare(spec);
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (pool.size() < pool.getCapacity() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(pool.getCapacity(), pool.size());
+
+		CardHandler.setPaceEngine(null);
+		try {
+			assertNotNull(CardHandler.selectPaceEngine());
+			assertEquals(pool.getCapacity(), pool.size());
+			// another curve would have discarded the key pairs
+			assertNotNull(pool.take(spec));
+		} finally {
+			CardHandler.setPaceEngine(null);
+			pool.invalidate();
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The engine of the card handler is requested before and after the
+	 * selection.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Before the selection the default engine is returned without a
+	 * benchmark, afterwards the selected engine.</li>
+	 * </ul>
+	 */
+	@Test
+	public void paceEngineTest_5() {
+		CardHandler.setPaceEngine(null);
+		try {
+			final PaceEngine unselected = CardHandler.getPaceEngine();
+			assertTrue(unselected instanceof DefaultPaceEngine);
+			assertSame(unselected, CardHandler.getPaceEngine());
+
+			final PaceEngine selected = CardHandler.selectPaceEngine();
+			assertSame(selected, CardHandler.getPaceEngine());
+			assertSame(selected, CardHandler.selectPaceEngine());
+		} finally {
+			CardHandler.setPaceEngine(null);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.PersoSimTransport;
+import de.persoapp.core.util.Hex;
+
+/**
+ * Testcases facing {@link PersoSimTransport}. The simulator is replaced by a
+ * local server, which echoes the commands, so the testcases don't require a
+ * running PersoSim.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PersoSimTransportTest {
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private FakeSimulator	simulator;
+
+	/**
+	 * Answers every command with the command itself and <tt>9000</tt>, a
+	 * SELECT with <tt>6A82</tt>. Reads <tt>batch</tt> commands before it
+	 * answers them and closes the connection after <tt>closeAfter</tt>
+	 * responses, if set.
+	 */
+	private static final class FakeSimulator extends Thread {
+
+		private final ServerSocket	server;
+
+		private volatile int		connections;
+
+		private volatile int		batch		= 1;
+
+		private volatile int		closeAfter	= -1;
+
+		FakeSimulator() throws IOException {
+			this.server = new ServerSocket(0);
+			setDaemon(true);
+			start();
+		}
+
+		int getPort() {
+			return server.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = server.accept();
+					connections++;
+					serve(socket);
+				}
+			} catch (final IOException e) {
+				// closed
+			}
+		}
+
+		private void serve(final Socket socket) throws IOException {
+			try {
+				final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				final PrintStream out = new PrintStream(socket.getOutputStream());
+				final List<String> pending = new ArrayList<String>();
+				String line;
+				while ((line = in.readLine()) != null) {
+					pending.add(line);
+					if (pending.size() < batch) {
+						continue;
+					}
+					for (final String command : pending) {
+						out.print(command.startsWith("00A4") ? "6A82\n" : command + "9000\n");
+						if (--closeAfter == 0) {
+							out.flush();
+							return;
+						}
+					}
+					out.flush();
+					pending.clear();
+				}
+			} finally {
+				socket.close();
+			}
+		}
+
+		void shutdown() throws IOException {
+			server.close();
+		}
+	}
+
+	@Before
+	public void init() throws IOException {
+		simulator = new FakeSimulator();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		PersoSimTransport.disconnect("localhost", simulator.getPort());
+		simulator.shutdown();
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Two instances for the same simulator transmit several commands.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The responses and status words are returned.</li>
+	 * <li>All commands are exchanged over a single connection.</li>
+	 * </ul>
+	 */
+	@Test
+	public void persoSimTransportTest_1() {
+		final PersoSimTransport first = PersoSimTransport.getInstance("localhost", simulator.getPort());
+		assertNotNull("no transport", first);
+		for (int i = 0; i < 10; i++) {
+			assertArrayEquals("response", Hex.fromString("00B0000002"), first.transmit(Hex.fromString("00B0000002")));
+			assertEquals("SW", 0x9000, first.lastSW());
+		}
+		first.close();
+
+		final PersoSimTransport second = PersoSimTransport.getInstance("localhost", simulator.getPort());
+		assertNotNull("no transport", second);
+		assertArrayEquals("response", new byte[0], second.transmit(Hex.fromString("00A4040C02AABB")));
+		assertEquals("SW", 0x6A82, second.lastSW());
+
+		assertEquals("connections", 1, simulator.connections);
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The simulator closes the connection after a response.</li>
+	 * <li>The next command is transmitted.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The connection is reopened and the command succeeds.</li>
+	 * </ul>
+	 */
+	@Test
+	public void persoSimTransportTest_2() {
+		final PersoSimTransport tp = PersoSimTransport.getInstance("localhost", simulator.getPort());
+		assertNotNull("no transport", tp);
+
+		simulator.closeAfter = 1;
+		assertArrayEquals("response", Hex.fromString("0001"), tp.transmit(Hex.fromString("0001")));
+		assertArrayEquals("response", Hex.fromString("0002"), tp.transmit(Hex.fromString("0002")));
+		assertEquals("SW", 0x9000, tp.lastSW());
+
+		assertEquals("connections", 2, simulator.connections);
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The simulator answers only after three commands have been
+	 * received.</li>
+	 * <li>A batch of three commands and a batch with an unacceptable status
+	 * word in the middle are transmitted with pipelining.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The responses of the first batch are returned including the status
+	 * words.</li>
+	 * <li>The second batch stops at the unacceptable status word.</li>
+	 * </ul>
+	 */
+	@Test
+	public void persoSimTransportTest_3() {
+		final PersoSimTransport tp = PersoSimTransport.getInstance("localhost", simulator.getPort());
+		assertNotNull("no transport", tp);
+		tp.setPipelining(true);
+		simulator.batch = 3;
+
+		final List<byte[]> apdus = Arrays.asList(Hex.fromString("0001"), Hex.fromString("0002"),
+				Hex.fromString("0003"));
+		final List<byte[]> responses = tp.transmitBatch(apdus, null);
+		assertEquals("responses", 3, responses.size());
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals("response " + i, Hex.fromString("000" + (i + 1) + "9000"), responses.get(i));
+		}
+
+		final List<byte[]> ok = Arrays.asList(new byte[] { (byte) 0x90, 0x00 });
+		final List<List<byte[]>> acceptable = Arrays.asList(ok, ok, ok);
+		final List<byte[]> stopped = tp.transmitBatch(
+				Arrays.asList(Hex.fromString("0001"), Hex.fromString("00A4040C00"), Hex.fromString("0003")),
+				acceptable);
+		assertEquals("responses", 2, stopped.size());
+		assertArrayEquals("response", Hex.fromString("6A82"), stopped.get(1));
+		assertEquals("SW", 0x6A82, tp.lastSW());
+	}
+}
@@ -0,0 +1,316 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.security.GeneralSecurityException;
+import java.security.Security;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import mockit.integration.junit4.JMockit;
+
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.CMac;
+import de.persoapp.core.card.SecureMessaging;
+import de.persoapp.core.util.ArrayTool;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Testcases facing {@link SecureMessaging}. The testcases don't require a card
+ * reader or card, the card side of the secure channel is computed with the
+ * standard Java cipher interfaces.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SecureMessagingTest {
+
+	private static final byte[]	K_ENC	= Hex.fromString("68406B4162100563D9C901A6154D2901");
+
+	private static final byte[]	K_MAC	= Hex.fromString("73FF268784F72AF833FDC9464049AFC9");
+
+	@Rule
+	public TestWatcher			watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static byte[] ssc(final long value) {
+		final byte[] ssc = new byte[16];
+		ArrayTool.insertLongInByteArray(ssc, 8, value);
+		return ssc;
+	}
+
+	private static byte[] pad(final byte[] in) {
+		final byte[] out = new byte[(in.length / 16 + 1) * 16];
+		System.arraycopy(in, 0, out, 0, in.length);
+		out[in.length] = (byte) 0x80;
+		return out;
+	}
+
+	private static byte[] cbc(final int mode, final byte[] ssc, final byte[] in) throws GeneralSecurityException {
+		final Cipher ecb = Cipher.getInstance("AES/ECB/NoPadding");
+		ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_ENC, "AES"));
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(mode, new SecretKeySpec(K_ENC, "AES"), new IvParameterSpec(ecb.doFinal(ssc)));
+		return c.doFinal(in);
+	}
+
+	private static byte[] mac(final byte[] ssc, final byte[] in) throws GeneralSecurityException {
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_MAC, "AES"), new IvParameterSpec(new byte[16]));
+		final CMac cmac = new CMac(c, 8);
+		final byte[] data = pad(ArrayTool.arrayconcat(ssc, in));
+		cmac.update(data, 0, data.length);
+		return cmac.doFinal();
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A case 4 short APDU is wrapped.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The protected APDU carries the encrypted data in DO87, the expected
+	 * length in DO97 and a valid MAC in DO8E.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_1() throws GeneralSecurityException {
+		final SecureMessaging sm = new SecureMessaging(K_ENC, K_MAC);
+		final byte[] data = Hex.fromString("0102030405060708090A0B0C0D0E0F1011");
+		final byte[] apdu = ArrayTool.arrayconcat(
+				ArrayTool.arrayconcat(Hex.fromString("00220000"), new byte[] { (byte) data.length }), ArrayTool
+						.arrayconcat(data, new byte[] { 0x20 }));
+
+		final byte[] wrapped = sm.wrap(ssc(1), apdu);
+		assertNotNull("wrapped is null.", wrapped);
+		assertEquals("CLA", 0x0C, wrapped[0]);
+		assertEquals("Lc", wrapped.length - 6, wrapped[4] & 0xFF);
+		assertEquals("Le", 0, wrapped[wrapped.length - 1]);
+
+		final byte[] body = ArrayTool.subArray(wrapped, 5, wrapped.length - 6);
+		final byte[] do87 = TLV.get(body, (byte) 0x87);
+		assertEquals("padding indicator", 0x01, do87[0]);
+		assertArrayEquals("DO87", pad(data),
+				cbc(Cipher.DECRYPT_MODE, ssc(1), ArrayTool.subArray(do87, 1, do87.length - 1)));
+		assertArrayEquals("DO97", new byte[] { 0x20 }, TLV.get(body, (byte) 0x97));
+
+		final byte[] macInput = ArrayTool.arrayconcat(pad(ArrayTool.subArray(wrapped, 0, 4)),
+				ArrayTool.subArray(body, 0, body.length - 10));
+		assertArrayEquals("DO8E", mac(ssc(1), macInput), TLV.get(body, (byte) 0x8E));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A case 3 extended APDU is wrapped into a caller supplied buffer at an
+	 * offset.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The result equals the result of the array variant and the bytes
+	 * around it are untouched.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_2() throws GeneralSecurityException {
+		final byte[] data = new byte[300];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		final byte[] apdu = ArrayTool.arrayconcat(Hex.fromString("002A00BE00012C"), data);
+
+		final byte[] expected = new SecureMessaging(K_ENC, K_MAC).wrap(ssc(7), apdu);
+
+		final byte[] out = new byte[3 + apdu.length + SecureMessaging.WRAP_OVERHEAD];
+		final int len = new SecureMessaging(K_ENC, K_MAC).wrap(ssc(7), apdu, 0, apdu.length, out, 3);
+		assertArrayEquals("wrapped", expected, ArrayTool.subArray(out, 3, len));
+		assertEquals("extended Lc", 0, out[3 + 4]);
+		for (int i = 3 + len; i < out.length; i++) {
+			assertEquals("trailing byte", 0, out[i]);
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A protected response with DO87, DO99 and DO8E is unwrapped.</li>
+	 * <li>The same response is unwrapped with a corrupted MAC.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The plain data and the status word are returned.</li>
+	 * <li>The corrupted MAC is detected.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_3() throws GeneralSecurityException {
+		final byte[] plain = Hex.fromString("6100AABBCCDDEEFF00112233445566778899");
+		final byte[] dos = ArrayTool.arrayconcat(
+				TLV.build(0x87, ArrayTool.arrayconcat(new byte[] { 0x01 }, cbc(Cipher.ENCRYPT_MODE, ssc(2), pad(plain)))),
+				TLV.build(0x99, new byte[] { (byte) 0x90, 0x00 }));
+		final byte[] rapdu = ArrayTool.arrayconcat(dos, TLV.build(0x8E, mac(ssc(2), dos)));
+
+		final SecureMessaging sm = new SecureMessaging(K_ENC, K_MAC);
+		assertArrayEquals("plain", plain, sm.unwrap(ssc(2), rapdu));
+		assertEquals("SW", 0x9000, sm.lastSW());
+
+		rapdu[rapdu.length - 1] ^= 0x01;
+		try {
+			sm.unwrap(ssc(2), rapdu);
+			throw new AssertionError("MAC error not detected.");
+		} catch (final IllegalStateException e) {
+			assertEquals("MAC error.", e.getMessage());
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>One engine wraps the same APDU for a sequence of counters spanning
+	 * several precomputed batches, jumping backwards and exceeding 64 bit.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Every result equals the result of a fresh engine for the same
+	 * counter.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_4() throws GeneralSecurityException {
+		final byte[] apdu = Hex.fromString("00B0000010AABBCCDDEEFF00112233445566778899");
+		final SecureMessaging sm = new SecureMessaging(K_ENC, K_MAC);
+		final long[] counters = new long[] { 1, 2, 3, 33, 34, 100, 65, 0x1FFFFFFFFL };
+		for (final long counter : counters) {
+			assertArrayEquals("SSC " + counter, new SecureMessaging(K_ENC, K_MAC).wrap(ssc(counter), apdu),
+					sm.wrap(ssc(counter), apdu));
+		}
+
+		final byte[] wide = ssc(5);
+		wide[7] = 0x01;
+		assertArrayEquals("wide SSC", new SecureMessaging(K_ENC, K_MAC).wrap(wide, apdu), sm.wrap(wide, apdu));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The MAC of 1500 bytes is computed with different chunk sizes, which
+	 * exceed the internal scratch buffer and split blocks.</li>
+	 * <li>The MAC is written into a buffer at an offset.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Every MAC equals the CMAC of BouncyCastle.</li>
+	 * <li>The buffer variant returns the same MAC and leaves the bytes around
+	 * it untouched.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_5() throws GeneralSecurityException {
+		final byte[] data = new byte[1500];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+
+		final org.bouncycastle.crypto.macs.CMac reference = new org.bouncycastle.crypto.macs.CMac(
+				new AESFastEngine(), 64);
+		reference.init(new KeyParameter(K_MAC));
+		reference.update(data, 0, data.length);
+		final byte[] expected = new byte[8];
+		reference.doFinal(expected, 0);
+
+		final Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(K_MAC, "AES"), new IvParameterSpec(new byte[16]));
+		final CMac cmac = new CMac(c, 8);
+		for (final int chunk : new int[] { 1, 7, 16, 17, 1025, 1500 }) {
+			for (int off = 0; off < data.length; off += chunk) {
+				cmac.update(data, off, Math.min(chunk, data.length - off));
+			}
+			assertArrayEquals("chunk " + chunk, expected, cmac.doFinal());
+		}
+
+		final byte[] out = new byte[12];
+		cmac.update(data, 0, data.length);
+		assertEquals("MAC size", 8, cmac.doFinal(out, 2));
+		assertArrayEquals("MAC", expected, ArrayTool.subArray(out, 2, 8));
+		assertEquals("before MAC", 0, out[1]);
+		assertEquals("after MAC", 0, out[10]);
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The BouncyCastle provider is installed and the provider MAC backend
+	 * is selected.</li>
+	 * <li>An APDU is wrapped and a response is unwrapped.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The results equal the results of the built-in backend.</li>
+	 * </ul>
+	 * 
+	 * @throws GeneralSecurityException
+	 */
+	@Test
+	public void securemessagingTest_6() throws GeneralSecurityException {
+		final byte[] apdu = Hex.fromString("00B0000010AABBCCDDEEFF00112233445566778899");
+		final byte[] plain = Hex.fromString("0102030405060708090A0B0C0D0E0F1011");
+		final byte[] dos = ArrayTool.arrayconcat(
+				TLV.build(0x87, ArrayTool.arrayconcat(new byte[] { 0x01 }, cbc(Cipher.ENCRYPT_MODE, ssc(2), pad(plain)))),
+				TLV.build(0x99, Hex.fromString("9000")));
+		final byte[] rapdu = ArrayTool.arrayconcat(dos, TLV.build(0x8E, mac(ssc(2), dos)));
+		final byte[] wrapped = new SecureMessaging(K_ENC, K_MAC).wrap(ssc(1), apdu);
+
+		final boolean installed = Security.addProvider(new BouncyCastleProvider()) != -1;
+		try {
+			SecureMessaging.setMacBackend(SecureMessaging.MAC_JCE);
+			final SecureMessaging sm = new SecureMessaging(K_ENC, K_MAC);
+			assertArrayEquals("wrap", wrapped, sm.wrap(ssc(1), apdu));
+			assertArrayEquals("unwrap", plain, sm.unwrap(ssc(2), rapdu));
+			assertEquals("SW", 0x9000, sm.lastSW());
+		} finally {
+			SecureMessaging.setMacBackend(SecureMessaging.MAC_BUILTIN);
+			if (installed) {
+				Security.removeProvider(BouncyCastleProvider.PROVIDER_NAME);
+			}
+		}
+	}
+}
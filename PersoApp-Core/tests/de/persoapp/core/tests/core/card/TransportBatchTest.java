@@ -0,0 +1,146 @@
+package de.persoapp.core.tests.core.card;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.card.TransportBatch;
+import de.persoapp.core.card.TransportProvider;
+import de.persoapp.core.util.Hex;
+
+/**
+ * Testcases facing {@link TransportBatch}. The testcases don't require a card
+ * reader or card.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TransportBatchTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * Transport answering every command with its instruction byte as data and
+	 * the status words given in order.
+	 */
+	private static final class ScriptedTransport implements TransportProvider {
+		private final int[]		sws;
+		private int				count;
+		private int				lastSW;
+
+		ScriptedTransport(final int... sws) {
+			this.sws = sws;
+		}
+
+		@Override
+		public Object getParent() {
+			return null;
+		}
+
+		@Override
+		public byte[] transmit(final byte[] apdu) {
+			lastSW = sws[count++];
+			return new byte[] { apdu[1] };
+		}
+
+		@Override
+		public List<byte[]> transmitBatch(final List<byte[]> apdus, final List<List<byte[]>> acceptable) {
+			return TransportBatch.transmitEach(this, apdus, acceptable);
+		}
+
+		@Override
+		public int lastSW() {
+			return lastSW;
+		}
+
+		@Override
+		public int getMaxResponseLength() {
+			return 256;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Status words are checked against one and two byte status codes.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>One byte codes match SW1, two byte codes match exactly, a missing
+	 * list accepts everything.</li>
+	 * </ul>
+	 */
+	@Test
+	public void transportbatchTest_1() {
+		final List<byte[]> codes = Arrays.asList(new byte[] { 0x63 }, Hex.fromString("9000"));
+		assertTrue(TransportBatch.isAcceptable(0x9000, codes));
+		assertTrue(TransportBatch.isAcceptable(0x63C2, codes));
+		assertFalse(TransportBatch.isAcceptable(0x9001, codes));
+		assertFalse(TransportBatch.isAcceptable(0x6A82, codes));
+		assertTrue(TransportBatch.isAcceptable(0x6A82, null));
+		assertTrue(TransportBatch.isAcceptable(0x6A82, new ArrayList<byte[]>()));
+	}
+
+	/**
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>A batch of three commands is transmitted, the second response has
+	 * an unacceptable status word.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Two responses including the status words are returned and the third
+	 * command isn't transmitted.</li>
+	 * </ul>
+	 */
+	@Test
+	public void transportbatchTest_2() {
+		final ScriptedTransport tp = new ScriptedTransport(0x9000, 0x6A82, 0x9000);
+		final List<byte[]> apdus = Arrays.asList(Hex.fromString("00A4040C"), Hex.fromString("00B00000"),
+				Hex.fromString("00B10000"));
+		final List<byte[]> ok = Arrays.asList(Hex.fromString("9000"));
+		final List<List<byte[]>> acceptable = new ArrayList<List<byte[]>>();
+		acceptable.add(ok);
+		acceptable.add(ok);
+
+		final List<byte[]> responses = tp.transmitBatch(apdus, acceptable);
+		assertEquals("responses", 2, responses.size());
+		assertArrayEquals(Hex.fromString("A49000"), responses.get(0));
+		assertArrayEquals(Hex.fromString("B06A82"), responses.get(1));
+		assertEquals("transmitted", 2, tp.count);
+	}
+}
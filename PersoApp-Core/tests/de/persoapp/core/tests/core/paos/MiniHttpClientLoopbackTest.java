@@ -0,0 +1,358 @@
+package de.persoapp.core.tests.core.paos;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.paos.MiniHttpClient;
+
+/**
+ * Testcases facing the connection handling of {@link MiniHttpClient} against a
+ * local plain socket server. The testcases don't require a card reader, card
+ * or eID-Server.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class MiniHttpClientLoopbackTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * Closes the connection after the previous response, before the next
+	 * request is answered.
+	 */
+	private static final byte[]	IDLE_CLOSE	= new byte[0];
+
+	/**
+	 * Resets the connection after the request was read.
+	 */
+	private static final byte[]	RESET		= new byte[0];
+
+	/**
+	 * Server answering each request with the next scripted response. A
+	 * response containing "Connection: close" or lacking a length closes the
+	 * connection after it was written.
+	 */
+	private static final class LoopbackServer extends Thread {
+		private final ServerSocket	server;
+		private final List<byte[]>	responses;
+		private final List<byte[]>	bodies	= new ArrayList<byte[]>();
+		private volatile boolean	closed;
+		private int					connections;
+		private long				received;
+		private long				sent;
+
+		LoopbackServer(final List<byte[]> responses) throws IOException {
+			this.server = new ServerSocket(0);
+			this.responses = responses;
+			setDaemon(true);
+			start();
+		}
+
+		URL getURL() throws IOException {
+			return new URL("http://127.0.0.1:" + server.getLocalPort() + "/paos");
+		}
+
+		void shutdown() throws IOException {
+			closed = true;
+			server.close();
+		}
+
+		@Override
+		public void run() {
+			int next = 0;
+			try {
+				while (next < responses.size()) {
+					final Socket s = server.accept();
+					connections++;
+					final InputStream in = s.getInputStream();
+					final OutputStream out = s.getOutputStream();
+
+					boolean open = true;
+					while (open && next < responses.size()) {
+						final String head = readHead(in);
+						final int n = head.indexOf("Content-Length: ");
+						final int length = Integer.parseInt(head.substring(n + 16, head.indexOf('\r', n)));
+						final byte[] body = new byte[length];
+						int read = 0;
+						while (read < length) {
+							read += in.read(body, read, length - read);
+						}
+						received += head.length() + length;
+						bodies.add(body);
+
+						final byte[] response = responses.get(next++);
+						if (response == RESET) {
+							s.setSoLinger(true, 0);
+							break;
+						}
+						out.write(response);
+						out.flush();
+						sent += response.length;
+
+						final String text = new String(response, "ISO-8859-1");
+						open = text.indexOf("Connection: close") < 0
+								&& (text.indexOf("Content-Length") >= 0 || text.indexOf("chunked") >= 0);
+
+						if (open && next < responses.size() && responses.get(next) == IDLE_CLOSE) {
+							next++;
+							// the client sees the end of the stream, then drops the connection
+							s.shutdownOutput();
+							while (in.read() >= 0) {
+								// discard the unanswered request
+							}
+							open = false;
+						}
+					}
+					s.close();
+				}
+				server.close();
+			} catch (final IOException e) {
+				if (!closed) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private static String readHead(final InputStream in) throws IOException {
+			final StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) >= 0) {
+				sb.append((char) c);
+				if (sb.length() >= 4 && sb.substring(sb.length() - 4).equals("\r\n\r\n")) {
+					break;
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private static byte[] response(final String head, final byte[] body) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(head.getBytes("ISO-8859-1"));
+		baos.write(body);
+		return baos.toByteArray();
+	}
+
+	private static byte[] gzip(final byte[] data) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final GZIPOutputStream gz = new GZIPOutputStream(baos);
+		gz.write(data);
+		gz.close();
+		return baos.toByteArray();
+	}
+
+	private static byte[] chunked(final byte[] data, final int size) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (int off = 0; off < data.length; off += size) {
+			final int n = Math.min(size, data.length - off);
+			baos.write((Integer.toHexString(n) + "\r\n").getBytes("ISO-8859-1"));
+			baos.write(data, off, n);
+			baos.write("\r\n".getBytes("ISO-8859-1"));
+		}
+		baos.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+		return baos.toByteArray();
+	}
+
+	private static byte[] payload(final int length) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + i % 26);
+		}
+		return data;
+	}
+
+	/**
+	 * Several requests with differently framed responses share one
+	 * connection.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Three requests are answered with a Content-Length body, a chunked
+	 * gzip body larger than the read buffer and an empty body.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The bodies are returned decoded, the empty one as null.</li>
+	 * <li>One connection was set up; the counters match the bytes seen by the
+	 * server.</li>
+	 * </ul>
+	 */
+	@Test
+	public void minihttpclientLoopbackTest_1() throws Exception {
+		final byte[] first = payload(100);
+		final byte[] second = payload(20000);
+
+		final List<byte[]> responses = new ArrayList<byte[]>();
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n", first));
+		responses.add(response("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n",
+				chunked(gzip(second), 4000)));
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n", new byte[0]));
+		final LoopbackServer server = new LoopbackServer(responses);
+
+		final MiniHttpClient mhc = new MiniHttpClient(server.getURL());
+		mhc.setRequestHeader("Content-Type", "application/vnd.paos+xml; charset=UTF-8");
+
+		assertArrayEquals(first, mhc.transmit(payload(10)));
+		assertArrayEquals(second, mhc.transmit(payload(10000)));
+		assertNull(mhc.transmit(null));
+		server.join(5000);
+
+		assertEquals(1, server.connections);
+		assertEquals(1, mhc.getConnectionCount());
+		assertEquals(3, mhc.getRequestCount());
+		assertArrayEquals(payload(10000), server.bodies.get(1));
+		assertEquals(server.received, mhc.getBytesSent());
+		assertEquals(server.sent, mhc.getBytesReceived());
+		assertTrue(mhc.getTotalLatency() >= mhc.getLastLatency());
+		mhc.close();
+	}
+
+	/**
+	 * A connection closed by the server is set up again for the next request.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The first response carries "Connection: close", the second one has
+	 * no length and ends with the connection, the third is a regular
+	 * response.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>All bodies are returned; three connections were set up.</li>
+	 * </ul>
+	 */
+	@Test
+	public void minihttpclientLoopbackTest_2() throws Exception {
+		final List<byte[]> responses = new ArrayList<byte[]>();
+		responses.add(response("HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 3\r\n\r\n", payload(3)));
+		responses.add(response("HTTP/1.1 200 OK\r\n\r\n", payload(9000)));
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n", payload(5)));
+		final LoopbackServer server = new LoopbackServer(responses);
+
+		final MiniHttpClient mhc = new MiniHttpClient(server.getURL());
+		assertArrayEquals(payload(3), mhc.transmit(payload(1)));
+		assertArrayEquals(payload(9000), mhc.transmit(payload(1)));
+		assertArrayEquals(payload(5), mhc.transmit(payload(1)));
+		server.join(5000);
+
+		assertEquals(3, server.connections);
+		assertEquals(3, mhc.getConnectionCount());
+		assertEquals(3, mhc.getRequestCount());
+		assertEquals(server.sent, mhc.getBytesReceived());
+		mhc.close();
+	}
+
+	/**
+	 * An idle keep-alive connection closed by the server is set up again and
+	 * the request is sent once more.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The server closes the connection after the first response without
+	 * announcing it, the second request finds the end of the stream.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The second request is answered on a new connection.</li>
+	 * </ul>
+	 */
+	@Test
+	public void minihttpclientLoopbackTest_3() throws Exception {
+		final List<byte[]> responses = new ArrayList<byte[]>();
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\n", payload(3)));
+		responses.add(IDLE_CLOSE);
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n", payload(5)));
+		final LoopbackServer server = new LoopbackServer(responses);
+
+		final MiniHttpClient mhc = new MiniHttpClient(server.getURL());
+		assertArrayEquals(payload(3), mhc.transmit(payload(1)));
+		assertArrayEquals(payload(5), mhc.transmit(payload(2)));
+		server.join(5000);
+
+		assertEquals(2, server.connections);
+		assertEquals(2, mhc.getConnectionCount());
+		assertEquals(2, mhc.getRequestCount());
+		assertArrayEquals(payload(2), server.bodies.get(1));
+		assertEquals(server.sent, mhc.getBytesReceived());
+		mhc.close();
+	}
+
+	/**
+	 * A connection reset after the server read the request is not retried.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>The server resets the re-used connection after reading the second
+	 * request, a third response is ready for a retry.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The second request fails with an {@link IOException} and reaches
+	 * the server only once.</li>
+	 * </ul>
+	 */
+	@Test
+	public void minihttpclientLoopbackTest_4() throws Exception {
+		final List<byte[]> responses = new ArrayList<byte[]>();
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n\r\n", payload(3)));
+		responses.add(RESET);
+		responses.add(response("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n", payload(5)));
+		final LoopbackServer server = new LoopbackServer(responses);
+
+		final MiniHttpClient mhc = new MiniHttpClient(server.getURL());
+		assertArrayEquals(payload(3), mhc.transmit(payload(1)));
+		try {
+			mhc.transmit(payload(2));
+			fail("reset connection retried");
+		} catch (final IOException e) {
+			// expected
+		}
+
+		server.shutdown();
+		server.join(5000);
+		assertEquals(2, server.bodies.size());
+		assertEquals(1, mhc.getConnectionCount());
+		assertEquals(1, mhc.getRequestCount());
+		mhc.close();
+	}
+}
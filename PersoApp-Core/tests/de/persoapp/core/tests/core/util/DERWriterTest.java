@@ -0,0 +1,170 @@
+package de.persoapp.core.tests.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.util.DERWriter;
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+
+/**
+ * Testcases facing {@link DERWriter}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DERWriterTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static byte[] filled(final int len) {
+		final byte[] data = new byte[len];
+		for (int i = 0; i < len; i++) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	/**
+	 * Encoding of nested data objects.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Write nested data objects, whose contents need the short form and
+	 * both long forms of the length with one and two bytes.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The encoding equals the result of nested calls of
+	 * {@link TLV#build(int, byte[])}.</li>
+	 * <li>The computed sizes equal the encoded sizes.</li>
+	 * </ul>
+	 */
+	@Test
+	public void derWriterTest_1() {
+		for (final int len : new int[] { 0, 5, 127, 128, 200, 255, 256, 300 }) {
+			final byte[] value = filled(len);
+			final byte[] expected = TLV.build(0x7F21, TLV.concat(TLV.build(0x7F4E, TLV.concat(TLV.build(0x42,
+					value), TLV.build(0x5F20, new byte[] { 0x01 }))), TLV.build(0x5F37, value)));
+
+			final DERWriter writer = new DERWriter(4);
+			writer.begin(0x7F21).begin(0x7F4E).put(0x42, value).put(0x5F20, new byte[] { 0x01 }).end();
+			writer.put(0x5F37, value).end();
+			assertArrayEquals("length " + len, expected, writer.toByteArray());
+
+			assertEquals(TLV.build(0x5F37, value).length, DERWriter.encodedSize(0x5F37, len));
+		}
+		assertArrayEquals(Hex.fromString("8000"), new DERWriter().put(0x80, null).toByteArray());
+	}
+
+	/**
+	 * Encoding of command <em>APDUs</em>.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Write a command with a nested data field and Le.</li>
+	 * <li>Write a command without data field and Le.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The commands are encoded with extended Lc and Le.</li>
+	 * <li>A writer with the exact capacity hands over its buffer.</li>
+	 * </ul>
+	 */
+	@Test
+	public void derWriterTest_2() {
+		final byte[] key = filled(65);
+		final DERWriter writer = new DERWriter(7 + 2 + 2 + 65 + 2);
+		final byte[] buffer = writer.getArray();
+		final byte[] cmd = writer.beginCommand(0x10, 0x86, 0x00, 0x00).begin(0x7C).put(0x81, key).end()
+				.endCommand(0).toByteArray();
+		assertSame(buffer, cmd);
+		assertArrayEquals(TLV.concat(Hex.fromString("108600000000457C438141"), TLV.concat(key, new byte[2])), cmd);
+
+		assertArrayEquals(Hex.fromString("00A40000000000"), new DERWriter().beginCommand(0x00, 0xA4, 0x00, 0x00)
+				.endCommand(-1).toByteArray());
+	}
+
+	/**
+	 * Handling of the buffer.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Copy the written data to a {@link ByteBuffer}.</li>
+	 * <li>Reset the writer and reuse it.</li>
+	 * <li>Read an incomplete structure.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The buffer receives the encoding behind its existing content.</li>
+	 * <li>A reset writer keeps its buffer and starts empty.</li>
+	 * <li>An incomplete structure throws an
+	 * {@link IllegalStateException}.</li>
+	 * </ul>
+	 */
+	@Test
+	public void derWriterTest_3() {
+		final DERWriter writer = new DERWriter(64);
+		writer.begin(0x30).put(0x02, new byte[] { 0x01 }).end();
+
+		final ByteBuffer dst = ByteBuffer.allocate(16);
+		dst.put((byte) 0xFF);
+		writer.writeTo(dst);
+		assertArrayEquals(Hex.fromString("FF3003020101"), Arrays.copyOf(dst.array(), dst.position()));
+
+		final byte[] buffer = writer.getArray();
+		writer.reset();
+		assertEquals(0, writer.size());
+		writer.put(0x04, new byte[] { 0x02 });
+		assertSame(buffer, writer.getArray());
+		final byte[] encoded = writer.toByteArray();
+		assertNotSame(buffer, encoded);
+		assertArrayEquals(Hex.fromString("040102"), encoded);
+
+		writer.begin(0x30);
+		try {
+			writer.toByteArray();
+			fail("incomplete structure");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		writer.reset();
+		try {
+			writer.end();
+			fail("no open data object");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package de.persoapp.core.tests.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.util.Hex;
+
+/**
+ * Testcases facing the buffer based encoding and decoding of {@link Hex}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HexCodecTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static byte[] filled(final int len) {
+		final byte[] data = new byte[len];
+		for (int i = 0; i < len; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		return data;
+	}
+
+	/**
+	 * Encoding and decoding with caller supplied buffers.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Encode all byte values to chars and ASCII bytes behind an
+	 * offset.</li>
+	 * <li>Decode upper and lower case digits and an odd number of digits.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Every byte results in two upper case digits.</li>
+	 * <li>The returned offsets are behind the written data.</li>
+	 * <li>Decoding restores the bytes, an odd number of digits is padded with
+	 * a leading zero.</li>
+	 * </ul>
+	 */
+	@Test
+	public void hexCodecTest_1() {
+		final byte[] data = new byte[256];
+		final StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 256; i++) {
+			data[i] = (byte) i;
+			expected.append(String.format("%02X", Integer.valueOf(i)));
+		}
+
+		final char[] chars = new char[514];
+		assertEquals(514, Hex.encode(data, 0, 256, chars, 2));
+		assertEquals(expected.toString(), new String(chars, 2, 512));
+		assertEquals(expected.toString(), Hex.toString(data));
+
+		final byte[] ascii = new byte[6];
+		assertEquals(6, Hex.encode(data, 0xA0, 3, ascii, 0));
+		assertArrayEquals("A0A1A2".getBytes(), ascii);
+
+		final byte[] decoded = new byte[258];
+		assertEquals(258, Hex.decode(expected, decoded, 2));
+		for (int i = 0; i < 256; i++) {
+			assertEquals(data[i], decoded[i + 2]);
+		}
+		assertEquals(3, Hex.decode("aBcDeF", decoded, 0));
+		assertArrayEquals(new byte[] { (byte) 0xAB, (byte) 0xCD, (byte) 0xEF }, Hex.fromString("abcdef"));
+		assertArrayEquals(new byte[] { 0x0A, (byte) 0xBC }, Hex.fromString("ABC"));
+		assertEquals("7F", Hex.byteToString(0x7F));
+		assertEquals("9000", Hex.shortToString(0x9000));
+	}
+
+	/**
+	 * Encoding to streams.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Encode data larger than the internal chunk to a string builder, a
+	 * writer, another appendable and an output stream.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Every destination receives the same digits as
+	 * {@link Hex#toString(byte[], int, int)}.</li>
+	 * </ul>
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void hexCodecTest_2() throws IOException {
+		final byte[] data = filled(1000);
+		final String expected = Hex.toString(data, 3, 990);
+
+		final StringBuilder sb = new StringBuilder("<");
+		Hex.encode(data, 3, 990, sb);
+		assertEquals("<" + expected, sb.toString());
+
+		final StringWriter writer = new StringWriter();
+		Hex.encode(data, 3, 990, writer);
+		assertEquals(expected, writer.toString());
+
+		final CharBuffer cb = CharBuffer.allocate(2000);
+		Hex.encode(data, 3, 990, cb);
+		cb.flip();
+		assertEquals(expected, cb.toString());
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Hex.encode(data, 3, 990, out);
+		assertEquals(expected, out.toString("US-ASCII"));
+
+		Hex.encode(data, 0, 0, out);
+		assertEquals(1980, out.size());
+	}
+
+	/**
+	 * Decoding of invalid digits.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Decode invalid ASCII and non-ASCII characters at both positions of
+	 * a byte.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>An {@link IllegalArgumentException} is thrown.</li>
+	 * </ul>
+	 */
+	@Test
+	public void hexCodecTest_3() {
+		for (final String invalid : new String[] { "0G", "G0", "0 ", "\u00E40", "0\u0130", "0" + (char) 0x100 + "1" }) {
+			try {
+				Hex.decode(invalid, new byte[2], 0);
+				fail(invalid);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+		try {
+			Hex.fromDigit('g');
+			fail("g");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(15, Hex.fromDigit('f'));
+	}
+}
@@ -0,0 +1,127 @@
+package de.persoapp.core.tests.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.ObjectIdentifier;
+import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
+
+/**
+ * Testcases facing {@link ObjectIdentifier}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ObjectIdentifierTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	/**
+	 * Encoding of object identifiers.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Encode object identifiers with arcs above 127 and 255 and a large
+	 * second arc.</li>
+	 * <li>Decode the results.</li>
+	 * <li>Encode malformed object identifiers.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Every arc is encoded in base 128.</li>
+	 * <li>Decoding results in the original object identifiers.</li>
+	 * <li>Malformed object identifiers throw an
+	 * {@link IllegalArgumentException}.</li>
+	 * </ul>
+	 */
+	@Test
+	public void objectIdentifierTest_1() {
+		final String[][] vectors = { { "0.4.0.127.0.7.2.2.4.2.2", "04007F00070202040202" },
+				{ "1.2.840.113549.1.7.2", "2A864886F70D010702" }, { "2.16.840.1.101.3.4.2.1", "608648016503040201" },
+				{ "2.999.3", "883703" }, { "1.3.6.1.4.1.311.21.20", "2B0601040182371514" } };
+		for (final String[] vector : vectors) {
+			final byte[] encoded = ObjectIdentifier.encode(vector[0]);
+			assertArrayEquals(vector[0], Hex.fromString(vector[1]), encoded);
+			assertEquals(vector[0], ObjectIdentifier.decode(encoded, 0, encoded.length));
+		}
+		assertArrayEquals(TLV.build(TLV.OID, Hex.fromString("2B0601040182371514")),
+				TLV.buildOID("1.3.6.1.4.1.311.21.20", new byte[0]));
+
+		for (final String malformed : new String[] { "1", "3.1", "1.40", "1.2.x", "1.2.-3" }) {
+			try {
+				ObjectIdentifier.encode(malformed);
+				fail(malformed);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Lookup of registered object identifiers.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Look up registered object identifiers in encoded data, by their
+	 * dotted notation, hex string and name.</li>
+	 * <li>Look up unknown and truncated object identifiers.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The registered instance is found in every case.</li>
+	 * <li>Unknown and truncated object identifiers aren't found.</li>
+	 * </ul>
+	 */
+	@Test
+	public void objectIdentifierTest_2() {
+		final ObjectIdentifier pace = ObjectIdentifier.PACE_ECDH_GM_AES_CBC_CMAC_128;
+		final byte[] info = TLV.build(TLV.SEQ, TLV.buildOID("04007F00070202040202", TLV.build(TLV.INTEGER,
+				new byte[] { 0x02 })));
+		final TLVCursor cursor = new TLVCursor(info).enter(TLV.SEQ);
+		cursor.next(TLV.OID);
+		assertSame(pace, cursor.getObjectIdentifier());
+		assertSame(pace, ObjectIdentifier.lookup(info, cursor.getValueOffset(), cursor.getValueLength()));
+
+		assertSame(pace, ObjectIdentifier.forName("0.4.0.127.0.7.2.2.4.2.2"));
+		assertSame(pace, ObjectIdentifier.forName("04007F00070202040202"));
+		assertSame(pace, ObjectIdentifier.forName("id-PACE-ECDH-GM-AES-CBC-CMAC-128"));
+		assertSame(ObjectIdentifier.TA_ECDSA_SHA_256, ObjectIdentifier.lookup(Hex.fromString("04007F00070202020203")));
+		assertArrayEquals(TLV.build(TLV.OID, pace.getContents()), pace.getEncoded());
+
+		assertNull(ObjectIdentifier.lookup(Hex.fromString("04007F000702020402")));
+		assertNull(ObjectIdentifier.lookup(Hex.fromString("04007F0007020204020202")));
+		assertNull(ObjectIdentifier.lookup(null));
+		assertNull(ObjectIdentifier.forName("1.2.3"));
+	}
+}
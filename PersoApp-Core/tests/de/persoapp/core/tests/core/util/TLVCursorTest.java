@@ -0,0 +1,177 @@
+package de.persoapp.core.tests.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import mockit.integration.junit4.JMockit;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import de.persoapp.core.util.Hex;
+import de.persoapp.core.util.TLV;
+import de.persoapp.core.util.TLVCursor;
+
+/**
+ * Testcases facing {@link TLVCursor}.
+ */
+@RunWith(JMockit.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TLVCursorTest {
+
+	@Rule
+	public TestWatcher	watchman	= new TestWatcher() {
+		@Override
+		protected void failed(Throwable e, Description description) {
+			Logger.getGlobal().severe(
+					description.getMethodName() + "Failed!" + " "
+							+ e.getMessage());
+		}
+
+		@Override
+		protected void succeeded(Description description) {
+			Logger.getGlobal().info(
+					description.getMethodName() + " " + "success!");
+		}
+
+	};
+
+	private static final byte[]	CAR		= "DETESTeID00005".getBytes();
+
+	private static final byte[]	CHR		= "DEDEMOPAA00002".getBytes();
+
+	private static final byte[]	CHAT	= TLV.build(0x7F4C, TLV.concat(
+												TLV.build(0x06, Hex.fromString("04007F000703010202")),
+												TLV.build(0x53, new byte[] { 0x00, 0x00, 0x00, 0x08, 0x01 })));
+
+	/**
+	 * Creates a certificate with a body larger than 127 bytes, so the
+	 * lengths are encoded in the long form.
+	 */
+	private static byte[] certificate() {
+		byte[] body = TLV.concat(TLV.build(0x5F29, new byte[] { 0x00 }), TLV.build(0x42, CAR));
+		body = TLV.concat(body, TLV.build(0x7F49, TLV.build(0x86, new byte[65])));
+		body = TLV.concat(body, TLV.concat(TLV.build(0x5F20, CHR), CHAT));
+		return TLV.build(0x7F21, TLV.concat(TLV.build(0x7F4E, body), TLV.build(0x5F37, new byte[64])));
+	}
+
+	/**
+	 * Lookup of nested data objects by their path.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Find the references and the CHAT of a certificate.</li>
+	 * <li>Find a missing path.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The contents equal the results of nested calls of
+	 * {@link TLV#get(byte[], short)}.</li>
+	 * <li>The cursor of the found data object refers to the original
+	 * array.</li>
+	 * <li>A missing path results in <em>null</em> and an empty cursor.</li>
+	 * </ul>
+	 */
+	@Test
+	public void tlvCursorTest_1() {
+		final byte[] cert = certificate();
+		final TLVCursor cursor = new TLVCursor(cert);
+
+		assertArrayEquals(CAR, cursor.getValue(0x7F21, 0x7F4E, 0x42));
+		assertArrayEquals(CHR, cursor.getValue(0x7F21, 0x7F4E, 0x5F20));
+		assertArrayEquals(TLV.get(TLV.get(TLV.get(cert, (short) 0x7F21), (short) 0x7F4E), (short) 0x7F4C),
+				cursor.getValue(0x7F21, 0x7F4E, 0x7F4C));
+
+		final TLVCursor chat = cursor.find(0x7F21, 0x7F4E, 0x7F4C);
+		assertSame(cert, chat.getArray());
+		assertEquals(0x7F4C, chat.getTag());
+		assertTrue(chat.isConstructed());
+		assertArrayEquals(CHAT, chat.getEncoded());
+		assertTrue(chat.enter().find(0x53).valueEquals(new byte[] { 0x00, 0x00, 0x00, 0x08, 0x01 }));
+
+		assertNull(cursor.find(0x7F21, 0x7F4E, 0x65));
+		assertNull(cursor.getValue(0x7F4E));
+		assertFalse(cursor.enter(0x7F21, 0x65).next());
+	}
+
+	/**
+	 * Iteration of repeated data objects.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Iterate the INTEGERs of a sequence with other data objects in
+	 * between.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>The cursor visits the same contents as {@link TLV#getM(byte[], byte)}
+	 * in order.</li>
+	 * <li>The contents are read as unsigned numbers.</li>
+	 * </ul>
+	 */
+	@Test
+	public void tlvCursorTest_2() {
+		final byte[] seq = TLV.concat(TLV.concat(TLV.build(0x02, new byte[] { 0x02 }), TLV.build(0x06, new byte[] {
+				0x04, 0x00 })), TLV.concat(TLV.build(0x02, new byte[] { 0x00, (byte) 0xFF, (byte) 0xFF }), TLV.build(
+				0x02, new byte[] { 0x0D })));
+		final List<byte[]> expected = TLV.getM(seq, TLV.INTEGER);
+
+		final TLVCursor cursor = new TLVCursor(TLV.build(TLV.SEQ, seq)).enter(TLV.SEQ);
+		int i = 0;
+		while (cursor.next(TLV.INTEGER)) {
+			assertArrayEquals(expected.get(i++), cursor.getValue());
+		}
+		assertEquals(expected.size(), i);
+
+		cursor.reset();
+		assertTrue(cursor.next(TLV.INTEGER));
+		assertEquals(2, cursor.getInt());
+		assertTrue(cursor.next(TLV.INTEGER));
+		assertEquals(0xFFFF, cursor.getInt());
+	}
+
+	/**
+	 * Malformed and missing data.
+	 * <p>
+	 * <b>TestStep: </b>
+	 * <ul>
+	 * <li>Read data, whose length exceeds the range.</li>
+	 * <li>Read <em>null</em> and an empty array.</li>
+	 * <li>Read a range of an array.</li>
+	 * </ul>
+	 * <b>Expected Result: </b>
+	 * <ul>
+	 * <li>Malformed data ends the range after the valid data objects.</li>
+	 * <li><em>null</em> and an empty array are empty ranges.</li>
+	 * <li>The cursor doesn't read beyond its range.</li>
+	 * </ul>
+	 */
+	@Test
+	public void tlvCursorTest_3() {
+		final byte[] data = Hex.fromString("8001AA8105BBCC");
+		final TLVCursor cursor = new TLVCursor(data);
+		assertTrue(cursor.next());
+		assertEquals(0x80, cursor.getTag());
+		assertFalse(cursor.next());
+		assertFalse(cursor.next());
+
+		assertFalse(new TLVCursor(null).next());
+		assertNull(new TLVCursor(new byte[0]).getValue(0x80));
+
+		final TLVCursor range = new TLVCursor(Hex.fromString("8001AA8101BB"), 0, 3);
+		assertArrayEquals(new byte[] { (byte) 0xAA }, range.getValue(0x80));
+		assertNull(range.getValue(0x81));
+	}
+}
@@ -61,6 +61,7 @@ import com.sun.net.httpserver.HttpServer;
 import de.persoapp.core.ECApiHttpHandler;
 import de.persoapp.core.ECardWorker;
 import de.persoapp.core.card.CardHandler;
+import de.persoapp.core.card.CardHandlerPool;
 import de.persoapp.core.card.ICardHandler;
 import de.persoapp.core.client.IMainView;
 import de.persoapp.core.client.MainViewEventListener;
@@ -210,6 +211,16 @@ public final class PersoApp implements Runnable {
 			try {
 				final ICardHandler eCardHandler = new CardHandler(mainView);
 
+				// select the engine of the local PACE ahead of the first card
+				final Thread paceEngineSelection = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						CardHandler.selectPaceEngine();
+					}
+				}, "PaceEngine-selection");
+				paceEngineSelection.setDaemon(true);
+				paceEngineSelection.start();
+
 				// view and cardHandler for offline events, pin change, etc.
 				mainView.setEventLister(new MainViewEventListener(eCardHandler, mainView));
 
@@ -223,8 +234,14 @@ public final class PersoApp implements Runnable {
 				// set up services
 				wsCtnr.init(null);
 
-				// view and cardHandler for eCardSession, i.e. online authentication
-				ECardWorker.init(mainView, wsCtnr, eCardHandler);
+				// view and cardHandlers for eCardSessions, i.e. online authentication,
+				// concurrent sessions use further cardHandlers on other terminals
+				ECardWorker.init(mainView, wsCtnr, eCardHandler, new CardHandlerPool.Factory() {
+					@Override
+					public ICardHandler create() {
+						return new CardHandler(mainView);
+					}
+				});
 			} catch (final Exception e) {
 				e.printStackTrace();
 			}
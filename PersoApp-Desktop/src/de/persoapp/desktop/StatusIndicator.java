@@ -66,8 +66,10 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.List;
 import java.util.logging.Level;
 
+import javax.smartcardio.CardTerminal;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JDialog;
@@ -75,7 +77,9 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.SwingUtilities;
 
+import de.persoapp.core.card.CardMonitor;
 import de.persoapp.core.client.IMainView;
 import de.persoapp.core.client.PropertyResolver;
 import de.persoapp.desktop.gui.frame.AboutFrame;
@@ -111,6 +115,16 @@ public class StatusIndicator {
 	 */
 	protected String			defaultTitle;
 
+	/**
+	 * The state of the terminals and the inserted card.
+	 */
+	private String				cardStatus;
+
+	/**
+	 * The listener updating the state of the terminals and the inserted card.
+	 */
+	private final CardMonitor.Listener	cardListener;
+
 	/**
 	 * Constructs a new instance of {@link StatusIndicator}. 
 	 */
@@ -324,6 +338,58 @@ public class StatusIndicator {
 
 			trayIcon = null;
 		}
+
+		cardListener = new CardMonitor.Listener() {
+			@Override
+			public void stateChanged(final CardMonitor.State state) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						showCardState(textBundle, state);
+					}
+				});
+			}
+		};
+		CardMonitor.getInstance().addListener(cardListener);
+		cardListener.stateChanged(CardMonitor.getInstance().getState());
+	}
+
+	/**
+	 * Displays the state of the terminals and the inserted card in the
+	 * tooltip.
+	 * 
+	 * @param textBundle
+	 *            - The bundle of the texts.
+	 * @param state
+	 *            - The current snapshot of the terminals.
+	 */
+	private void showCardState(final PropertyResolver.Bundle textBundle, final CardMonitor.State state) {
+		final List<CardTerminal> cardTerminals = state.getCardTerminals();
+		if (state.getTerminals().isEmpty()) {
+			cardStatus = textBundle.get("StatusIndicator_no_terminal");
+		} else if (cardTerminals.isEmpty()) {
+			cardStatus = textBundle.get("StatusIndicator_no_card");
+		} else {
+			cardStatus = textBundle.get("StatusIndicator_card_in_terminal") + cardTerminals.get(0).getName();
+		}
+		updateToolTip();
+	}
+
+	/**
+	 * Shows the default title and the state of the card as tooltip above the
+	 * trayIcon or as title of the info frame.
+	 */
+	private void updateToolTip() {
+		String toolTip = this.defaultTitle;
+		if (cardStatus != null) {
+			toolTip = toolTip == null ? cardStatus : toolTip + "\n" + cardStatus;
+		}
+
+		if (trayIcon != null) {
+			trayIcon.setToolTip(toolTip);
+		} else if (infoFrame != null) {
+			infoFrame.setTitle(toolTip);
+		}
 	}
 
 	/**
@@ -378,9 +444,7 @@ public class StatusIndicator {
 	 */
 	public void setDefaultTitle(final String defaultTitle) {
 		this.defaultTitle = defaultTitle;
-		if (trayIcon != null) {
-			trayIcon.setToolTip(this.defaultTitle);
-		}
+		updateToolTip();
 	}
 
 	/**
@@ -396,6 +460,7 @@ public class StatusIndicator {
 	 * Closes the {@link StatusIndicator} and frees the used resources.
 	 */
 	public void close() {
+		CardMonitor.getInstance().removeListener(cardListener);
 		if (tray != null && trayIcon != null) {
 			tray.remove(trayIcon);
 		} else if (infoFrame != null) {